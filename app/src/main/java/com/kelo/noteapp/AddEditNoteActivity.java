@@ -5,10 +5,17 @@ import android.app.AlarmManager;
 import android.app.DatePickerDialog;
 import android.app.PendingIntent;
 import android.app.TimePickerDialog;
+import android.content.ActivityNotFoundException;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.ArrayAdapter;
@@ -20,17 +27,30 @@ import android.widget.TextView;
 import android.widget.TimePicker;
 import android.widget.Toast;
 
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
+import androidx.core.content.FileProvider;
 
 import com.google.android.material.chip.Chip;
 import com.google.android.material.chip.ChipGroup;
+import com.google.android.material.snackbar.Snackbar;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.security.GeneralSecurityException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class AddEditNoteActivity extends AppCompatActivity {
 
@@ -44,30 +64,84 @@ public class AddEditNoteActivity extends AppCompatActivity {
     private View reminderDetailsContainer;
 
     private ChipGroup chipGroupCategory;
+    private View backlinksCard;
+    private ChipGroup chipGroupBacklinks;
+    private View attachmentsCard;
+    private ChipGroup chipGroupAttachments;
+    private AttachmentStore attachmentStore;
     private Chip chipPersonal, chipWork, chipFamily, chipErrand, chipOther, chipEveryday;
 
     private com.google.android.material.floatingactionbutton.ExtendedFloatingActionButton btnSave;
 
     private DatabaseHelper databaseHelper;
     private int noteId = -1;
+    // Parent of a new sub-note (0: a top-level note)
+    private int parentId;
     private long reminderTime = 0;
     private Calendar reminderCalendar;
     private int repeatDays = 0;
 
-    private boolean originalIsPinned = false;
-    private boolean originalIsCompleted = false;
+    // The note as loaded; saving applies the editor's fields to it so only changes are written
+    private Note loadedNote;
+
+    // Conflicting saves to re-merge before giving up (each one re-reads the note)
+    private static final int MAX_SAVE_RETRIES = 3;
+
+    // Autosave: snapshot the editor after this much idle time, write it on draftExecutor
+    private static final long DRAFT_DEBOUNCE_MS = 750;
+    private final Handler draftHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService draftExecutor = Executors.newSingleThreadExecutor();
+    private final Runnable draftSnapshot = this::snapshotDraft;
+    // Hashes of the state as loaded and of the last draft written; used on draftExecutor only
+    private long baselineHash;
+    private long lastDraftHash;
+    private boolean saving = false;
+    // Id of the note this one is saved in place of, after it was deleted while open; -1 if none
+    private int recreatedFrom = -1;
+
+    // Long bodies go into the editor one window per UI message, so the screen comes up at
+    // once instead of laying out megabytes in a single setText
+    private static final int CONTENT_WINDOW_CHARS = 32 * 1024;
+    // Bumped to abandon a windowed load that is still running
+    private int contentLoad = 0;
+    private boolean contentLoading = false;
+    // Body pieces waiting to go into the editor, and how far into the first one; main thread only
+    private final ArrayDeque<String> contentQueue = new ArrayDeque<>();
+    private int contentQueuePos;
+    private boolean contentPumping;
+    // All pieces are queued; afterContent runs once they are in
+    private boolean contentEnded;
+    private Runnable afterContent;
+
+    // Encrypted notes: whether saving seals the body, and the body as it was opened. Saving
+    // that text unchanged writes the old envelope back, so it is not a new version. Such a
+    // note keeps no drafts: they would be its text in the clear.
+    private boolean encrypted;
+    private String openedEnvelope;
+    private String openedPlaintext;
+    private CharSequence contentHint;
 
     private static final String PREFS_NAME = "NotesAppPrefs";
     private static final String KEY_TIME_24H = "time_24h";
 
-    private static final String[] CAT_KEYS =    {"work","personal","family","errand","other","everyday"};
-    private static final String[] CAT_DISPLAY = {"Работа","Личное","Семья","Поручение","Другое","Ежедневно"};
+    // Categories the editor offers (spinner order), from CategoryRegistry
+    private CategoryRegistry categories;
+    private List<Category> pickable;
 
     private static final int ADVANCED_REMINDER_REQUEST = 100;
+    private static final int REVISION_HISTORY_REQUEST = 101;
+    private static final int ATTACH_REQUEST = 102;
+    private static final int UNLOCK_REQUEST = 103;
+    private static final int SAVE_UNLOCK_REQUEST = 104;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        // Opened from a notification or the widget right after an app update
+        if (MigrationActivity.redirectIfUpgradePending(this)) {
+            saving = true; // no editor state to flush as a draft
+            return;
+        }
         setContentView(R.layout.activity_add_edit_note);
 
         Toolbar toolbar = findViewById(R.id.toolbar);
@@ -76,6 +150,7 @@ public class AddEditNoteActivity extends AppCompatActivity {
 
         editTitle = findViewById(R.id.editTitle);
         editContent = findViewById(R.id.editContent);
+        MarkdownHighlighter.attach(editContent);
         chipReminder = findViewById(R.id.chipReminder);
         textReminderDateTime = findViewById(R.id.textReminderDateTime);
         textRepeatDays = findViewById(R.id.textRepeatDays);
@@ -90,47 +165,591 @@ public class AddEditNoteActivity extends AppCompatActivity {
         chipErrand = findViewById(R.id.chipErrand);
         chipOther = findViewById(R.id.chipOther);
         chipEveryday = findViewById(R.id.chipEveryday);
+        backlinksCard = findViewById(R.id.backlinksCard);
+        chipGroupBacklinks = findViewById(R.id.chipGroupBacklinks);
+        attachmentsCard = findViewById(R.id.attachmentsCard);
+        chipGroupAttachments = findViewById(R.id.chipGroupAttachments);
 
         btnSave = findViewById(R.id.btnSave);
 
         databaseHelper = new DatabaseHelper(this);
+        attachmentStore = new AttachmentStore(this, databaseHelper);
         reminderCalendar = Calendar.getInstance();
 
-        ArrayAdapter<String> adapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_dropdown_item, CAT_DISPLAY);
+        categories = CategoryRegistry.get(this);
+        pickable = categories.getPickable();
+        String[] names = new String[pickable.size()];
+        for (int i = 0; i < names.length; i++) names[i] = pickable.get(i).getName();
+        ArrayAdapter<String> adapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_dropdown_item, names);
         spinnerCategory.setAdapter(adapter);
+        setupCategoryChips();
 
         Intent intent = getIntent();
         if (intent.hasExtra("note_id")) {
             noteId = intent.getIntExtra("note_id", -1);
-            Note existing = databaseHelper.getNote(noteId);
-            if (existing != null) {
-                editTitle.setText(existing.getTitle());
-                editContent.setText(existing.getContent());
-                reminderTime = existing.getReminderTime();
-                repeatDays = existing.getRepeatDays();
-
-                originalIsPinned = existing.isPinned();
-                originalIsCompleted = existing.isCompleted();
-
-                int idx = indexOfKey(existing.getCategory());
-                spinnerCategory.setSelection(idx >= 0 ? idx : 1);
-                setCategoryChip(existing.getCategory());
-
-                if (reminderTime > 0) {
-                    reminderCalendar.setTimeInMillis(reminderTime);
-                    updateReminderDisplay();
-                }
-            }
+            loadNote();
             if (getSupportActionBar() != null) getSupportActionBar().setTitle("Редактировать заметку");
         } else {
-            spinnerCategory.setSelection(1);
-            setCategoryChip("personal");
-            if (getSupportActionBar() != null) getSupportActionBar().setTitle("Новая заметка");
+            spinnerCategory.setSelection(indexOfCategory(Category.PERSONAL));
+            setCategoryChip(Category.PERSONAL);
+            // A sub-note started from a note's actions sheet
+            parentId = intent.getIntExtra("parent_id", 0);
+            if (getSupportActionBar() != null) {
+                getSupportActionBar().setTitle(parentId > 0 ? "Новая подзадача" : "Новая заметка");
+            }
         }
 
+        // An existing note restores its draft once loadNote has read it
+        if (noteId == -1) restoreDraft();
+        TextWatcher draftWatcher = new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                scheduleDraft();
+            }
+        };
+        editTitle.addTextChangedListener(draftWatcher);
+        editContent.addTextChangedListener(draftWatcher);
+
         chipReminder.setOnClickListener(v -> openAdvancedReminderInterface());
         btnClearReminder.setOnClickListener(v -> clearReminder());
         btnSave.setOnClickListener(v -> saveNote());
+
+        // A tap inside [[...]] or [text](url) offers to open what it links to
+        editContent.setOnClickListener(v -> offerLinkAt(editContent.getSelectionStart()));
+        if (noteId != -1) {
+            loadBacklinks();
+            loadAttachments();
+        }
+    }
+
+    // ===== Attachments =====
+    private void pickAttachment() {
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("*/*");
+        startActivityForResult(intent, ATTACH_REQUEST);
+    }
+
+    // Copying and hashing can take a while for a large file: off the UI thread
+    private void attach(final Uri uri) {
+        draftExecutor.execute(() -> {
+            Attachment attached;
+            try {
+                attached = attachmentStore.attach(noteId, uri);
+            } catch (IOException | SecurityException e) {
+                attached = null;
+            }
+            final boolean ok = attached != null;
+            runOnUiThread(() -> {
+                if (isFinishing()) return;
+                if (ok) {
+                    loadAttachments();
+                } else {
+                    Toast.makeText(this, "Не удалось прикрепить файл", Toast.LENGTH_SHORT).show();
+                }
+            });
+        });
+    }
+
+    private void loadAttachments() {
+        draftExecutor.execute(() -> {
+            final List<Attachment> attachments = databaseHelper.getAttachments(noteId);
+            runOnUiThread(() -> {
+                if (isFinishing()) return;
+                chipGroupAttachments.removeAllViews();
+                for (final Attachment a : attachments) {
+                    Chip chip = new Chip(this);
+                    chip.setText((a.isImage() ? "🖼 " : "📎 ") + (a.getName() != null ? a.getName() : "Файл"));
+                    chip.setCloseIconVisible(true);
+                    chip.setOnClickListener(v -> openAttachment(a));
+                    chip.setOnCloseIconClickListener(v -> confirmRemoveAttachment(a));
+                    chipGroupAttachments.addView(chip);
+                }
+                attachmentsCard.setVisibility(attachments.isEmpty() ? View.GONE : View.VISIBLE);
+            });
+        });
+    }
+
+    // Handed to whatever app views the type, read-only through the FileProvider
+    private void openAttachment(Attachment a) {
+        Uri uri = FileProvider.getUriForFile(this, getPackageName() + ".attachments",
+                attachmentStore.fileOf(a.getHash()));
+        Intent intent = new Intent(Intent.ACTION_VIEW);
+        intent.setDataAndType(uri, a.getMime() != null ? a.getMime() : "*/*");
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        try {
+            startActivity(intent);
+        } catch (ActivityNotFoundException e) {
+            Toast.makeText(this, "Нет приложения, чтобы открыть файл", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private void confirmRemoveAttachment(final Attachment a) {
+        new AlertDialog.Builder(this)
+                .setTitle("Удалить вложение?")
+                .setMessage(a.getName())
+                .setPositiveButton("Удалить", (dialog, which) -> draftExecutor.execute(() -> {
+                    attachmentStore.remove(noteId, a.getHash());
+                    runOnUiThread(() -> {
+                        if (!isFinishing()) loadAttachments();
+                    });
+                }))
+                .setNegativeButton("Отмена", null)
+                .show();
+    }
+
+    // ===== Links =====
+    private void loadBacklinks() {
+        draftExecutor.execute(() -> {
+            final List<Note> sources = databaseHelper.getBacklinks(noteId);
+            runOnUiThread(() -> {
+                if (isFinishing()) return;
+                chipGroupBacklinks.removeAllViews();
+                for (final Note source : sources) {
+                    Chip chip = new Chip(this);
+                    chip.setText(source.getTitle());
+                    chip.setOnClickListener(v -> openLinkedNote(source.getId()));
+                    chipGroupBacklinks.addView(chip);
+                }
+                backlinksCard.setVisibility(sources.isEmpty() ? View.GONE : View.VISIBLE);
+            });
+        });
+    }
+
+    private void offerLinkAt(int offset) {
+        final String title = NoteLinks.linkAt(editContent.getText().toString(), offset);
+        if (title == null) {
+            offerUrlAt(offset);
+            return;
+        }
+        Snackbar.make(editContent, "Ссылка: «" + title + "»", Snackbar.LENGTH_LONG)
+                .setAction("ОТКРЫТЬ", v -> draftExecutor.execute(() -> {
+                    final int id = databaseHelper.findNoteByTitle(title);
+                    runOnUiThread(() -> {
+                        if (isFinishing()) return;
+                        if (id == -1) {
+                            Toast.makeText(this, "Заметка «" + title + "» не найдена", Toast.LENGTH_SHORT).show();
+                        } else if (id != noteId) {
+                            openLinkedNote(id);
+                        }
+                    });
+                }))
+                .show();
+    }
+
+    private void offerUrlAt(int offset) {
+        final String url = Markdown.urlAt(editContent.getText(), offset);
+        if (url == null || url.isEmpty()) return;
+        Snackbar.make(editContent, url, Snackbar.LENGTH_LONG)
+                .setAction("ОТКРЫТЬ", v -> {
+                    try {
+                        startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse(url)));
+                    } catch (ActivityNotFoundException e) {
+                        Toast.makeText(this, "Не удалось открыть ссылку", Toast.LENGTH_SHORT).show();
+                    }
+                })
+                .show();
+    }
+
+    // Opens on top of this editor; what is typed here stays in its draft meanwhile
+    private void openLinkedNote(int id) {
+        Intent intent = new Intent(this, AddEditNoteActivity.class);
+        intent.putExtra("note_id", id);
+        startActivity(intent);
+    }
+
+    private void showState(String title, String content, int category, long reminder, int repeat) {
+        showFields(title, category, reminder, repeat);
+        setContentWindowed(content);
+    }
+
+    // Everything but the body
+    private void showFields(String title, int category, long reminder, int repeat) {
+        editTitle.setText(title);
+        reminderTime = reminder;
+        repeatDays = repeat;
+
+        int idx = indexOfCategory(category);
+        spinnerCategory.setSelection(idx >= 0 ? idx : indexOfCategory(Category.PERSONAL));
+        setCategoryChip(category);
+
+        if (reminderTime > 0) reminderCalendar.setTimeInMillis(reminderTime);
+        updateReminderDisplay();
+    }
+
+    // Reads the note on draftExecutor: the fields first, then the body chunk by chunk, each
+    // queued for the editor as soon as it is read. A multi-MB body never holds the UI
+    // thread, and its first window shows before the rest is read.
+    private void loadNote() {
+        final int id = noteId;
+        final int load = startContent();
+        if (contentHint == null) contentHint = editContent.getHint();
+        editContent.setEnabled(false);
+        editContent.setHint("Загрузка…");
+        draftExecutor.execute(() -> {
+            final Note existing = databaseHelper.getNoteMetadata(id);
+            if (existing == null || existing.isChecklist() || existing.isEncrypted()) {
+                // A sealed body opens whole: read it here, not on the UI thread
+                if (existing != null && existing.isEncrypted()) {
+                    existing.setContent(databaseHelper.getNoteContent(id));
+                    existing.clearDirty();
+                }
+                runOnUiThread(() -> {
+                    if (isFinishing() || load != contentLoad) return;
+                    editContent.setHint(contentHint);
+                    editContent.setEnabled(true);
+                    if (existing == null) {
+                        endContent(load);
+                        restoreDraft();
+                    } else if (existing.isChecklist()) {
+                        openChecklist();
+                    } else {
+                        loadedNote = existing;
+                        encrypted = true;
+                        showState(existing.getTitle(), "", existing.getCategoryId(),
+                                existing.getReminderTime(), existing.getRepeatDays());
+                        openEncrypted();
+                    }
+                });
+                return;
+            }
+            runOnUiThread(() -> {
+                if (isFinishing() || load != contentLoad) return;
+                showFields(existing.getTitle(), existing.getCategoryId(),
+                        existing.getReminderTime(), existing.getRepeatDays());
+            });
+            final StringBuilder body = new StringBuilder();
+            boolean read;
+            try {
+                databaseHelper.writeNoteContent(id, new Writer() {
+                    @Override
+                    public void write(char[] buf, int off, int len) {
+                        final String piece = new String(buf, off, len);
+                        body.append(piece);
+                        runOnUiThread(() -> queueContent(load, piece));
+                    }
+
+                    @Override
+                    public void flush() {
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                });
+                read = true;
+            } catch (IOException e) {
+                read = false;
+            }
+            final boolean ok = read;
+            runOnUiThread(() -> {
+                if (isFinishing() || load != contentLoad) return;
+                editContent.setHint(contentHint);
+                editContent.setEnabled(true);
+                if (!ok) {
+                    Toast.makeText(this, "Не удалось загрузить заметку", Toast.LENGTH_LONG).show();
+                    finish();
+                    return;
+                }
+                existing.setContent(body.toString());
+                existing.clearDirty();
+                loadedNote = existing;
+                // The draft is restored over the note once all of it is in
+                whenContentShown(load, this::restoreDraft);
+            });
+        });
+    }
+
+    private void setContentWindowed(final String content) {
+        if (content == null || content.length() <= CONTENT_WINDOW_CHARS) {
+            ++contentLoad;
+            clearContentQueue();
+            contentLoading = false;
+            editContent.setText(content);
+            return;
+        }
+        int load = startContent();
+        queueContent(load, content);
+        endContent(load);
+    }
+
+    // Empties the editor for a body that comes in pieces (queueContent, then endContent);
+    // the field counts as loading until the last window is in. Returns the load's token.
+    private int startContent() {
+        clearContentQueue();
+        contentLoading = true;
+        editContent.setText("");
+        return ++contentLoad;
+    }
+
+    private void queueContent(int load, String piece) {
+        if (load != contentLoad || isFinishing()) return;
+        contentQueue.add(piece);
+        if (!contentPumping) {
+            contentPumping = true;
+            draftHandler.post(contentPump);
+        }
+    }
+
+    private void endContent(int load) {
+        whenContentShown(load, null);
+    }
+
+    // Runs then (if any) once every queued piece is in the editor
+    private void whenContentShown(int load, Runnable then) {
+        if (load != contentLoad) return;
+        contentEnded = true;
+        afterContent = then;
+        if (!contentPumping) {
+            contentPumping = true;
+            draftHandler.post(contentPump);
+        }
+    }
+
+    private void clearContentQueue() {
+        draftHandler.removeCallbacks(contentPump);
+        contentQueue.clear();
+        contentQueuePos = 0;
+        contentPumping = false;
+        contentEnded = false;
+        afterContent = null;
+    }
+
+    // One window per main-loop turn, so typing and scrolling stay responsive meanwhile
+    private final Runnable contentPump = new Runnable() {
+        @Override
+        public void run() {
+            String head = contentQueue.peekFirst();
+            if (head == null) {
+                contentPumping = false;
+                if (!contentEnded) return;
+                contentLoading = false;
+                contentEnded = false;
+                Runnable then = afterContent;
+                afterContent = null;
+                if (then != null) then.run();
+                return;
+            }
+            int end = windowEnd(head, contentQueuePos);
+            editContent.append(head, contentQueuePos, end);
+            if (end < head.length()) {
+                contentQueuePos = end;
+            } else {
+                contentQueue.pollFirst();
+                contentQueuePos = 0;
+            }
+            draftHandler.post(this);
+        }
+    };
+
+    // Window boundary that doesn't split a surrogate pair
+    private static int windowEnd(String content, int start) {
+        int end = Math.min(content.length(), start + CONTENT_WINDOW_CHARS);
+        if (end < content.length() && Character.isHighSurrogate(content.charAt(end - 1))) end--;
+        return end;
+    }
+
+    // ===== Encryption =====
+    // The body is opened on draftExecutor; until it lands the field is read-only and
+    // counts as loading, so nothing saves or snapshots the empty text
+    private void openEncrypted() {
+        contentLoading = true;
+        if (contentHint == null) contentHint = editContent.getHint();
+        editContent.setEnabled(false);
+        editContent.setHint("Расшифровка…");
+        final String envelope = loadedNote.getContent();
+        final String syncId = loadedNote.getSyncId();
+        final NoteKeys keys = NoteKeys.get(this);
+        draftExecutor.execute(() -> {
+            String opened = null;
+            Exception failure = null;
+            try {
+                opened = keys.existingCipher().open(envelope, syncId);
+            } catch (GeneralSecurityException | IOException e) {
+                failure = e;
+            }
+            final String body = opened;
+            final Exception error = failure;
+            runOnUiThread(() -> {
+                if (isFinishing()) return;
+                if (error != null) {
+                    if (requestUnlock(error, UNLOCK_REQUEST)) return;
+                    if (NoteKeys.isKeyLost(error)) {
+                        showKeyLost();
+                        return;
+                    }
+                    Toast.makeText(this, "Не удалось расшифровать заметку", Toast.LENGTH_LONG).show();
+                    finish();
+                    return;
+                }
+                openedEnvelope = envelope;
+                openedPlaintext = body;
+                editContent.setHint(contentHint);
+                editContent.setEnabled(true);
+                setContentWindowed(body);
+            });
+        });
+    }
+
+    // Nothing left to try: says why and leaves the note as it is stored
+    private void showKeyLost() {
+        new AlertDialog.Builder(this)
+                .setTitle("Ключ шифрования утерян")
+                .setMessage("Заметку нельзя расшифровать на этом устройстве: ключ пропадает, если снять "
+                        + "или сбросить блокировку экрана, а на другом устройстве и после восстановления "
+                        + "из резервной копии его нет. Содержимое заметки не восстановить.")
+                .setCancelable(false)
+                .setPositiveButton("Закрыть", (dialog, which) -> finish())
+                .show();
+    }
+
+    // On draftExecutor
+    private static boolean dropKey(NoteKeys keys) {
+        try {
+            keys.dropKey();
+            return true;
+        } catch (GeneralSecurityException | IOException e) {
+            return false;
+        }
+    }
+
+    // The key's session is over: asks for the screen lock, the result comes to requestCode
+    private boolean requestUnlock(Exception error, int requestCode) {
+        if (!NoteKeys.needsUnlock(error)) return false;
+        Intent confirm = NoteKeys.get(this).confirmIntent();
+        if (confirm == null) return false;
+        startActivityForResult(confirm, requestCode);
+        return true;
+    }
+
+    // Takes effect on save; the draft goes now rather than stay behind as plain text
+    private void toggleEncryption() {
+        if (contentLoading) {
+            Toast.makeText(this, "Заметка ещё загружается", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (!encrypted && !NoteKeys.get(this).isAvailable()) {
+            Toast.makeText(this, "Для шифрования нужна блокировка экрана (Android 6+)", Toast.LENGTH_LONG).show();
+            return;
+        }
+        if (encrypted) {
+            setEncrypted(false);
+            return;
+        }
+        // The key cannot be exported or backed up: losing it loses the note
+        new AlertDialog.Builder(this)
+                .setTitle("Зашифровать заметку?")
+                .setMessage("Ключ хранится только на этом устройстве и привязан к блокировке экрана. "
+                        + "Заметку будет невозможно открыть, если снять или сбросить блокировку экрана, "
+                        + "на другом устройстве и после восстановления из резервной копии.")
+                .setPositiveButton("Зашифровать", (dialog, which) -> setEncrypted(true))
+                .setNegativeButton("Отмена", null)
+                .show();
+    }
+
+    private void setEncrypted(boolean on) {
+        encrypted = on;
+        if (encrypted) {
+            final int key = draftKey();
+            draftHandler.removeCallbacks(draftSnapshot);
+            draftExecutor.execute(() -> databaseHelper.deleteDraft(key));
+        }
+        invalidateOptionsMenu();
+        Toast.makeText(this, encrypted ? "Заметка будет зашифрована при сохранении"
+                : "Шифрование будет снято при сохранении", Toast.LENGTH_SHORT).show();
+    }
+
+    // ===== Drafts =====
+    private int draftKey() {
+        return noteId == -1 ? Draft.NEW_NOTE : noteId;
+    }
+
+    // Puts back what was typed before the editor was left or the process died
+    private void restoreDraft() {
+        if (encrypted) return;
+        final String title = loadedNote != null ? loadedNote.getTitle() : "";
+        final String content = loadedNote != null ? loadedNote.getContent() : "";
+        final int category = loadedNote != null ? loadedNote.getCategoryId() : Category.PERSONAL;
+        final long reminder = loadedNote != null ? loadedNote.getReminderTime() : 0;
+        final int repeat = loadedNote != null ? loadedNote.getRepeatDays() : 0;
+
+        // Read on draftExecutor, ahead of any snapshot the first keystrokes queue
+        final int key = draftKey();
+        draftExecutor.execute(() -> {
+            final Draft draft = databaseHelper.getDraft(key);
+            baselineHash = Draft.hashOf(title, content, category, reminder, repeat);
+            lastDraftHash = draft != null ? draft.getHash() : baselineHash;
+            if (draft == null) return;
+            runOnUiThread(() -> {
+                if (isFinishing() || saving) return;
+                showState(draft.getTitle(), draft.getContent(), draft.getCategoryId(),
+                        draft.getReminderTime(), draft.getRepeatDays());
+                Snackbar.make(editContent, "Восстановлен несохранённый черновик", Snackbar.LENGTH_LONG)
+                        .setAction("ОТМЕНИТЬ", v -> {
+                            showState(title, content, category, reminder, repeat);
+                            // Write the reverted state right away: it matches the baseline, so the draft goes
+                            draftHandler.removeCallbacks(draftSnapshot);
+                            snapshotDraft();
+                        })
+                        .show();
+            });
+        });
+    }
+
+    private void scheduleDraft() {
+        if (saving || contentLoading) return;
+        draftHandler.removeCallbacks(draftSnapshot);
+        draftHandler.postDelayed(draftSnapshot, DRAFT_DEBOUNCE_MS);
+    }
+
+    // Copies the editor state on the UI thread; hashing and writing happen on draftExecutor
+    private void snapshotDraft() {
+        // A half-loaded body is not an edit
+        if (saving || contentLoading || encrypted) return;
+        final int key = draftKey();
+        final String title = editTitle.getText().toString();
+        final String content = editContent.getText().toString();
+        final int category = selectedCategory();
+        final long reminder = reminderTime;
+        final int repeat = repeatDays;
+        draftExecutor.execute(() -> {
+            long hash = Draft.hashOf(title, content, category, reminder, repeat);
+            if (hash == lastDraftHash) return;
+            if (hash == baselineHash) {
+                databaseHelper.deleteDraft(key);
+            } else {
+                databaseHelper.saveDraft(new Draft(key, title, content, category, reminder, repeat,
+                        hash, System.currentTimeMillis()));
+            }
+            lastDraftHash = hash;
+        });
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // Leaving the screen (or the app) flushes the pending snapshot
+        if (!saving) {
+            draftHandler.removeCallbacks(draftSnapshot);
+            snapshotDraft();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        contentLoad++;
+        clearContentQueue();
+        draftHandler.removeCallbacks(draftSnapshot);
+        draftExecutor.shutdown();
     }
 
     private void openAdvancedReminderInterface() {
@@ -156,70 +775,79 @@ public class AddEditNoteActivity extends AppCompatActivity {
                 reminderCalendar.setTimeInMillis(reminderTime);
                 updateReminderDisplay();
             }
+            scheduleDraft();
 
             if (extraReminders != null && !extraReminders.isEmpty()) {
                 Toast.makeText(this, "Дополнительные напоминания: " + extraReminders.size(), Toast.LENGTH_SHORT).show();
             }
         }
+
+        if (requestCode == UNLOCK_REQUEST) {
+            if (resultCode == RESULT_OK) openEncrypted();
+            else finish();
+        }
+
+        if (requestCode == SAVE_UNLOCK_REQUEST && resultCode == RESULT_OK) saveNote();
+
+        if (requestCode == ATTACH_REQUEST && resultCode == RESULT_OK && data != null && data.getData() != null) {
+            attach(data.getData());
+        }
+
+        if (requestCode == REVISION_HISTORY_REQUEST && resultCode == RESULT_OK && data != null) {
+            // Only the editor changes; saving writes the old version back as a new revision
+            String content = databaseHelper.getRevisionContent(noteId, data.getIntExtra(RevisionHistoryActivity.EXTRA_REV, -1));
+            if (content == null) return;
+            editTitle.setText(data.getStringExtra(RevisionHistoryActivity.EXTRA_TITLE));
+            setContentWindowed(content);
+            scheduleDraft();
+            Toast.makeText(this, "Версия восстановлена — сохраните заметку", Toast.LENGTH_SHORT).show();
+        }
     }
 
-    private void setCategoryChip(String categoryKey) {
+    // Chip tags carry the category code, so chip <-> category is a lookup rather than a
+    // switch; user categories get a chip of their own after the built-in ones
+    private void setupCategoryChips() {
+        chipWork.setTag(Category.WORK);
+        chipPersonal.setTag(Category.PERSONAL);
+        chipFamily.setTag(Category.FAMILY);
+        chipErrand.setTag(Category.ERRAND);
+        chipOther.setTag(Category.OTHER);
+        chipEveryday.setTag(Category.EVERYDAY);
+        for (Category c : pickable) {
+            if (c.isBuiltIn()) continue;
+            Chip chip = new Chip(this);
+            chip.setId(View.generateViewId());
+            chip.setTag(c.getId());
+            chip.setText(c.getName());
+            chip.setCheckable(true);
+            chip.setTextColor(categories.colorOf(c.getId()));
+            chipGroupCategory.addView(chip);
+        }
+    }
+
+    private void setCategoryChip(int categoryId) {
         chipGroupCategory.clearCheck();
+        View chip = chipGroupCategory.findViewWithTag(categoryId);
+        ((Chip) (chip != null ? chip : chipPersonal)).setChecked(true);
+    }
 
-        switch (categoryKey == null ? "personal" : categoryKey) {
-            case "work":
-                chipWork.setChecked(true);
-                break;
-            case "family":
-                chipFamily.setChecked(true);
-                break;
-            case "errand":
-                chipErrand.setChecked(true);
-                break;
-            case "other":
-                chipOther.setChecked(true);
-                break;
-            case "everyday":
-                chipEveryday.setChecked(true);
-                break;
-            case "personal":
-            default:
-                chipPersonal.setChecked(true);
-                break;
-        }
-    }
-
-    private String getSelectedCategoryFromChips() {
-        int checkedChipId = chipGroupCategory.getCheckedChipId();
-
-        if (checkedChipId == R.id.chipWork) {
-            return "work";
-        } else if (checkedChipId == R.id.chipFamily) {
-            return "family";
-        } else if (checkedChipId == R.id.chipErrand) {
-            return "errand";
-        } else if (checkedChipId == R.id.chipOther) {
-            return "other";
-        } else if (checkedChipId == R.id.chipEveryday) {
-            return "everyday";
-        } else {
-            return "personal";
-        }
+    private int getSelectedCategoryFromChips() {
+        View chip = chipGroupCategory.findViewById(chipGroupCategory.getCheckedChipId());
+        return chip != null && chip.getTag() instanceof Integer ? (Integer) chip.getTag() : Category.PERSONAL;
     }
 
-    private int indexOfKey(String key) {
-        if (key == null) return -1;
-        for (int i = 0; i < CAT_KEYS.length; i++) if (key.equals(CAT_KEYS[i])) return i;
+    private int indexOfCategory(int categoryId) {
+        for (int i = 0; i < pickable.size(); i++) if (pickable.get(i).getId() == categoryId) return i;
         return -1;
     }
 
-    private String selectedCategoryKey() {
+    private int selectedCategory() {
         if (chipGroupCategory != null) {
             return getSelectedCategoryFromChips();
         } else {
             int pos = spinnerCategory.getSelectedItemPosition();
-            if (pos < 0 || pos >= CAT_KEYS.length) return "personal";
-            return CAT_KEYS[pos];
+            if (pos < 0 || pos >= pickable.size()) return Category.PERSONAL;
+            return pickable.get(pos).getId();
         }
     }
 
@@ -316,6 +944,26 @@ public class AddEditNoteActivity extends AppCompatActivity {
         reminderTime = 0;
         repeatDays = 0;
         updateReminderDisplay();
+        scheduleDraft();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        // New notes have no history (or id to tag) yet
+        if (noteId != -1) getMenuInflater().inflate(R.menu.menu_edit_note, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        MenuItem encrypt = menu.findItem(R.id.action_encrypt);
+        if (encrypt != null) {
+            encrypt.setTitle(encrypted ? "Снять шифрование" : "Зашифровать");
+            // Encrypted notes keep no versions, and checklist items are not sealed
+            menu.findItem(R.id.action_history).setVisible(!encrypted);
+            menu.findItem(R.id.action_checklist).setVisible(!encrypted);
+        }
+        return super.onPrepareOptionsMenu(menu);
     }
 
     @Override
@@ -324,12 +972,127 @@ public class AddEditNoteActivity extends AppCompatActivity {
             finish();
             return true;
         }
+        if (item.getItemId() == R.id.action_history) {
+            Intent intent = new Intent(this, RevisionHistoryActivity.class);
+            intent.putExtra(RevisionHistoryActivity.EXTRA_NOTE_ID, noteId);
+            startActivityForResult(intent, REVISION_HISTORY_REQUEST);
+            return true;
+        }
+        if (item.getItemId() == R.id.action_tags) {
+            showTagsDialog();
+            return true;
+        }
+        if (item.getItemId() == R.id.action_attach) {
+            pickAttachment();
+            return true;
+        }
+        if (item.getItemId() == R.id.action_checklist) {
+            confirmConvertToChecklist();
+            return true;
+        }
+        if (item.getItemId() == R.id.action_encrypt) {
+            toggleEncryption();
+            return true;
+        }
         return super.onOptionsItemSelected(item);
     }
 
+    // Checklist notes have their own screen, whichever way they were opened
+    private void openChecklist() {
+        saving = true; // nothing of this editor's state may be flushed as a draft now
+        Intent intent = new Intent(this, ChecklistActivity.class);
+        intent.putExtra(ChecklistActivity.EXTRA_NOTE_ID, noteId);
+        startActivity(intent);
+        finish();
+    }
+
+    // Each non-empty line of what is in the editor now becomes an item
+    private void confirmConvertToChecklist() {
+        new AlertDialog.Builder(this)
+                .setTitle("Сделать списком?")
+                .setMessage("Каждая строка станет пунктом списка. Текущий текст останется в истории версий.")
+                .setPositiveButton("Сделать", (dialog, which) -> {
+                    final String title = editTitle.getText().toString().trim();
+                    final String content = editContent.getText().toString();
+                    saving = true;
+                    draftHandler.removeCallbacks(draftSnapshot);
+                    draftExecutor.execute(() -> {
+                        databaseHelper.convertToChecklist(noteId,
+                                title.isEmpty() ? loadedNote.getTitle() : title,
+                                Arrays.asList(content.split("\n")));
+                        runOnUiThread(() -> {
+                            if (!isFinishing()) openChecklist();
+                        });
+                    });
+                })
+                .setNegativeButton("Отмена", null)
+                .show();
+    }
+
+    // Tags are written as soon as the dialog is confirmed, independently of saving the note
+    private void showTagsDialog() {
+        draftExecutor.execute(() -> {
+            final List<Tag> tags = databaseHelper.getTags();
+            final Set<Integer> current = databaseHelper.getNoteTagIds(noteId);
+            runOnUiThread(() -> {
+                if (isFinishing()) return;
+                final Set<Integer> chosen = new HashSet<>(current);
+                String[] names = new String[tags.size()];
+                boolean[] checked = new boolean[tags.size()];
+                for (int i = 0; i < names.length; i++) {
+                    names[i] = tags.get(i).getName();
+                    checked[i] = chosen.contains(tags.get(i).getId());
+                }
+                new AlertDialog.Builder(this)
+                        .setTitle("Теги")
+                        .setMultiChoiceItems(names, checked, (dialog, which, isChecked) -> {
+                            if (isChecked) chosen.add(tags.get(which).getId());
+                            else chosen.remove(tags.get(which).getId());
+                        })
+                        .setPositiveButton("Готово", (dialog, which) ->
+                                draftExecutor.execute(() -> databaseHelper.setNoteTags(noteId, chosen)))
+                        .setNeutralButton("Новый тег", (dialog, which) -> showNewTagDialog(chosen))
+                        .setNegativeButton("Отмена", null)
+                        .show();
+            });
+        });
+    }
+
+    private void showNewTagDialog(final Set<Integer> chosen) {
+        final EditText input = new EditText(this);
+        input.setSingleLine(true);
+        input.setHint("Название тега");
+        new AlertDialog.Builder(this)
+                .setTitle("Новый тег")
+                .setView(input)
+                .setPositiveButton("Добавить", (dialog, which) -> {
+                    final String name = input.getText().toString().trim();
+                    if (name.isEmpty()) {
+                        showTagsDialog();
+                        return;
+                    }
+                    // Commit what was ticked before leaving the list together with the new tag
+                    draftExecutor.execute(() -> {
+                        int tagId = databaseHelper.addTag(name);
+                        chosen.add(tagId);
+                        databaseHelper.setNoteTags(noteId, chosen);
+                        runOnUiThread(() -> {
+                            if (!isFinishing()) showTagsDialog();
+                        });
+                    });
+                })
+                .setNegativeButton("Отмена", (dialog, which) -> showTagsDialog())
+                .show();
+    }
+
     private void saveNote() {
-        String title = editTitle.getText().toString().trim();
-        String content = editContent.getText().toString().trim();
+        if (saving) return;
+        if (contentLoading) {
+            Toast.makeText(this, "Заметка ещё загружается", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        final String title = editTitle.getText().toString().trim();
+        final String content = editContent.getText().toString().trim();
 
         if (title.isEmpty()) {
             editTitle.setError("Введите заголовок");
@@ -337,44 +1100,154 @@ public class AddEditNoteActivity extends AppCompatActivity {
             return;
         }
 
-        String selectedCategory = selectedCategoryKey();
+        final int selectedCategory = selectedCategory();
+        final long reminder = reminderTime;
+        final int repeat = repeatDays;
 
-        Note note = new Note();
+        Note note = (noteId != -1 && loadedNote != null) ? loadedNote : new Note();
         note.setTitle(title);
-        note.setContent(content);
-        note.setCategory(selectedCategory);
-        note.setReminderTime(reminderTime);
-        note.setRepeatDays(repeatDays);
-
-        if (noteId == -1) {
-            note.setCreatedAt(System.currentTimeMillis());
-            note.setCompleted(false);
-            note.setPinned(false);
-            long id = databaseHelper.addNote(note);
-            note.setId((int) id);
-
-            if (reminderTime > 0) {
-                scheduleNotification(note);
+        note.setCategoryId(selectedCategory);
+        note.setReminderTime(reminder);
+        note.setRepeatDays(repeat);
+
+        // No more snapshots; the save runs on draftExecutor behind any queued draft write,
+        // and drops the draft in the same transaction as the note write
+        saving = true;
+        draftHandler.removeCallbacks(draftSnapshot);
+        btnSave.setEnabled(false);
+
+        final Note toSave = note;
+        final boolean seal = encrypted;
+        final String envelope = openedEnvelope;
+        // The editor's text is trimmed; the note as opened was not
+        final boolean unchanged = openedPlaintext != null && content.equals(openedPlaintext.trim());
+        final NoteKeys keys = NoteKeys.get(this);
+        draftExecutor.execute(() -> {
+            String stored = content;
+            if (seal && unchanged && envelope != null) {
+                stored = envelope;
+            } else if (seal) {
+                try {
+                    // A new note is sealed before addNote would give it its id
+                    DatabaseHelper.assignSyncId(toSave);
+                    stored = keys.cipher().seal(content, toSave.getSyncId());
+                } catch (GeneralSecurityException | IOException e) {
+                    // A key gone with the screen lock opens nothing any more; a new one can
+                    // still seal this note on the next try
+                    final boolean lost = NoteKeys.isKeyLost(e) && dropKey(keys);
+                    runOnUiThread(() -> {
+                        if (isFinishing()) return;
+                        saving = false;
+                        btnSave.setEnabled(true);
+                        if (lost) {
+                            Toast.makeText(this, "Ключ шифрования утерян: блокировка экрана была снята или сброшена. "
+                                    + "Старые зашифрованные заметки не открыть; сохраните ещё раз, чтобы "
+                                    + "зашифровать новым ключом", Toast.LENGTH_LONG).show();
+                        } else if (!requestUnlock(e, SAVE_UNLOCK_REQUEST)) {
+                            Toast.makeText(this, "Не удалось зашифровать заметку", Toast.LENGTH_LONG).show();
+                        }
+                    });
+                    return;
+                }
+            }
+            final String body = stored;
+            Note saved = toSave;
+            saved.setContent(body);
+            int result;
+            if (noteId == -1) {
+                saved.setCreatedAt(System.currentTimeMillis());
+                saved.setCompleted(false);
+                saved.setPinned(false);
+                saved.setParentId(parentId);
+                long id = databaseHelper.addNoteFromDraft(saved);
+                saved.setId((int) id);
+                // Saved again as a new note: the draft kept under the lost note's id goes too
+                if (recreatedFrom > 0) databaseHelper.deleteDraft(recreatedFrom);
+                result = 1;
+            } else {
+                saved.setId(noteId);
+
+                // Pinned/completed are not the editor's: they are never written from here
+                result = databaseHelper.updateNoteFromDraft(saved);
+                // Someone else (notification action, list swipe, sync) wrote the note while it
+                // was open: keep their flags, re-apply what the editor owns and retry
+                for (int attempt = 0; result == DatabaseHelper.UPDATE_CONFLICT && attempt < MAX_SAVE_RETRIES; attempt++) {
+                    Note latest = databaseHelper.getNote(noteId);
+                    if (latest == null) {
+                        result = DatabaseHelper.UPDATE_MISSING;
+                        break;
+                    }
+                    latest.setTitle(title);
+                    latest.setContent(body);
+                    latest.setCategoryId(selectedCategory);
+                    latest.setReminderTime(reminder);
+                    latest.setRepeatDays(repeat);
+                    saved = latest;
+                    result = databaseHelper.updateNoteFromDraft(saved);
+                }
             }
-        } else {
-            note.setId(noteId);
-            note.setCreatedAt(System.currentTimeMillis());
-
-            note.setPinned(originalIsPinned);
-            note.setCompleted(originalIsCompleted);
 
-            databaseHelper.updateNote(note);
+            final Note done = saved;
+            final int outcome = result;
+            runOnUiThread(() -> {
+                if (outcome == DatabaseHelper.UPDATE_MISSING || outcome == DatabaseHelper.UPDATE_CONFLICT) {
+                    // Nothing was written: the editor stays open with the text as typed
+                    saving = false;
+                    btnSave.setEnabled(true);
+                    if (isFinishing()) return;
+                    if (outcome == DatabaseHelper.UPDATE_MISSING) {
+                        showNoteMissingDialog();
+                    } else {
+                        Toast.makeText(this, "Заметку всё время меняют в другом месте, сохранить не удалось. Попробуйте ещё раз",
+                                Toast.LENGTH_LONG).show();
+                    }
+                    return;
+                }
+                if (noteId != -1) cancelNotification(noteId);
+                if (reminder > 0) scheduleNotification(done);
 
-            cancelNotification(noteId);
-            if (reminderTime > 0) {
-                scheduleNotification(note);
-            }
-        }
+                Intent updateIntent = new Intent("com.kelo.noteapp.NOTE_UPDATED");
+                sendBroadcast(updateIntent);
 
-        Intent updateIntent = new Intent("com.kelo.noteapp.NOTE_UPDATED");
-        sendBroadcast(updateIntent);
+                finish();
+            });
+        });
+    }
 
-        finish();
+    // The note went to the trash or the archive (or was purged) while it was open here
+    private void showNoteMissingDialog() {
+        new AlertDialog.Builder(this)
+                .setTitle("Заметка удалена")
+                .setMessage("Пока заметка была открыта, её перенесли в корзину или архив. Изменения не сохранены.")
+                .setPositiveButton("Восстановить", (dialog, which) -> {
+                    btnSave.setEnabled(false);
+                    draftExecutor.execute(() -> {
+                        final boolean restored = databaseHelper.restoreNote(noteId);
+                        runOnUiThread(() -> {
+                            btnSave.setEnabled(true);
+                            if (isFinishing()) return;
+                            if (restored) {
+                                // The restored row has a newer version: the save merges onto it
+                                saveNote();
+                            } else {
+                                Toast.makeText(this, "Заметка удалена навсегда, её можно только сохранить как новую",
+                                        Toast.LENGTH_LONG).show();
+                                showNoteMissingDialog();
+                            }
+                        });
+                    });
+                })
+                .setNeutralButton("Сохранить как новую", (dialog, which) -> {
+                    recreatedFrom = noteId;
+                    noteId = -1;
+                    loadedNote = null;
+                    parentId = 0;
+                    // A sealed body is bound to the old note's sync id: seal it again
+                    openedEnvelope = null;
+                    saveNote();
+                })
+                .setNegativeButton("Отмена", null)
+                .show();
     }
 
     private boolean use24HourFormat() {
@@ -386,7 +1259,7 @@ public class AddEditNoteActivity extends AppCompatActivity {
         Intent intent = new Intent(this, NotificationReceiver.class);
         intent.putExtra("note_id", note.getId());
         intent.putExtra("note_title", note.getTitle());
-        intent.putExtra("note_content", note.getContent());
+        intent.putExtra("note_content", note.getPreview());
 
         PendingIntent pi = PendingIntent.getBroadcast(
                 this, note.getId(), intent,
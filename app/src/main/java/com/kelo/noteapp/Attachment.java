@@ -0,0 +1,25 @@
+package com.kelo.noteapp;
+
+// A file attached to a note: the stored content (AttachmentStore, by hash) and the name
+// it was picked under
+public class Attachment {
+
+    private final String hash;
+    private final String name;
+    private final String mime;
+    private final long size;
+
+    public Attachment(String hash, String name, String mime, long size) {
+        this.hash = hash;
+        this.name = name;
+        this.mime = mime;
+        this.size = size;
+    }
+
+    public String getHash() { return hash; }
+    public String getName() { return name; }
+    public String getMime() { return mime; }
+    public long getSize() { return size; }
+
+    public boolean isImage() { return mime != null && mime.startsWith("image/"); }
+}
@@ -0,0 +1,154 @@
+package com.kelo.noteapp;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.OpenableColumns;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+
+// Attachment files in app-private storage, named by the SHA-256 of their content: the
+// same image attached to many notes is stored once. The attachments table counts the
+// notes referring to each file; collectGarbage deletes the files nobody refers to.
+public final class AttachmentStore {
+
+    // Files of the app's own database; other database files (benchmark copies, tests) get
+    // a directory of their own, so collecting for them never touches the real attachments
+    private static final String DIR = "attachments";
+    private static final String TEMP_PREFIX = "tmp-";
+    // Copies that never finished (the process died mid-copy) are swept after this long
+    private static final long TEMP_MAX_AGE_MS = 24L * 60L * 60L * 1000L;
+
+    // One store per process in practice; a collection must not delete a file between an
+    // attach finding it on disk and recording its row
+    private static final Object LOCK = new Object();
+
+    private final Context context;
+    private final DatabaseHelper db;
+    private final File dir;
+
+    public AttachmentStore(Context context) {
+        this(context, new DatabaseHelper(context));
+    }
+
+    AttachmentStore(Context context, DatabaseHelper db) {
+        this.context = context.getApplicationContext();
+        this.db = db;
+        String name = db.getDatabaseName();
+        this.dir = new File(this.context.getFilesDir(),
+                DatabaseHelper.DATABASE_NAME.equals(name) ? DIR : DIR + "-" + name);
+    }
+
+    public File fileOf(String hash) {
+        return new File(dir, hash);
+    }
+
+    // Copies a picked document in and attaches it to the note. Blocking: not on the UI thread.
+    public Attachment attach(int noteId, Uri uri) throws IOException {
+        ContentResolver resolver = context.getContentResolver();
+        String name = null;
+        Cursor c = resolver.query(uri, new String[]{OpenableColumns.DISPLAY_NAME}, null, null, null);
+        if (c != null) {
+            if (c.moveToFirst()) name = c.getString(0);
+            c.close();
+        }
+        if (name == null) name = uri.getLastPathSegment();
+        InputStream in = resolver.openInputStream(uri);
+        if (in == null) throw new IOException("Cannot open " + uri);
+        return attach(noteId, in, name, resolver.getType(uri));
+    }
+
+    // Hashes while copying into a temp file, then keeps the copy only if the content is new.
+    // Returns null when the note was deleted meanwhile. Closes in.
+    Attachment attach(int noteId, InputStream in, String name, String mime) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+        File temp = new File(dir, TEMP_PREFIX + UUID.randomUUID());
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        long size = 0;
+        try (InputStream source = new DigestInputStream(in, digest);
+             OutputStream out = new FileOutputStream(temp)) {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = source.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                size += n;
+            }
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+
+        Attachment attachment = new Attachment(toHex(digest.digest()), name,
+                mime != null ? mime.toLowerCase(Locale.ROOT) : null, size);
+        synchronized (LOCK) {
+            File file = fileOf(attachment.getHash());
+            if (file.exists()) {
+                temp.delete();
+            } else if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("Cannot store " + file);
+            }
+            // A file kept for a note that is gone meanwhile is swept as unreferenced
+            return db.addAttachment(noteId, attachment) ? attachment : null;
+        }
+    }
+
+    // Detaches the file from the note; it is deleted if no other note has it
+    public void remove(int noteId, String hash) {
+        db.removeAttachment(noteId, hash);
+        collectGarbage();
+    }
+
+    // Deletes the files whose reference count dropped to zero; returns how many went
+    public int collectGarbage() {
+        synchronized (LOCK) {
+            List<String> hashes = db.deleteUnreferencedAttachments();
+            for (String hash : hashes) fileOf(hash).delete();
+            return hashes.size();
+        }
+    }
+
+    // Maintenance: collects, then deletes files without a row (an attach interrupted between
+    // storing the file and recording it) and stale temp files
+    public void sweep() {
+        collectGarbage();
+        synchronized (LOCK) {
+            File[] files = dir.listFiles();
+            if (files == null) return;
+            Set<String> known = db.getAttachmentHashes();
+            long now = System.currentTimeMillis();
+            for (File f : files) {
+                if (f.getName().startsWith(TEMP_PREFIX)) {
+                    if (now - f.lastModified() > TEMP_MAX_AGE_MS) f.delete();
+                } else if (!known.contains(f.getName())) {
+                    f.delete();
+                }
+            }
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -17,7 +17,7 @@ public class BootReceiver extends BroadcastReceiver {
                 "android.intent.action.QUICKBOOT_POWERON".equals(intent.getAction())) {
 
             // Восстановление всех активных напоминаний
-            restoreNotifications(context);
+            DatabaseHelper.runWhenReady(this, context, () -> restoreNotifications(context));
         }
     }
 
@@ -34,7 +34,7 @@ public class BootReceiver extends BroadcastReceiver {
                 Intent notificationIntent = new Intent(context, NotificationReceiver.class);
                 notificationIntent.putExtra("note_id", note.getId());
                 notificationIntent.putExtra("note_title", note.getTitle());
-                notificationIntent.putExtra("note_content", note.getContent());
+                notificationIntent.putExtra("note_content", note.getPreview());
 
                 PendingIntent pendingIntent = PendingIntent.getBroadcast(
                         context,
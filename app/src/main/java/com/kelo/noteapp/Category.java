@@ -0,0 +1,40 @@
+package com.kelo.noteapp;
+
+// One row of the categories table. Notes store only the code (id); names and colors
+// come from CategoryRegistry.
+public class Category {
+
+    // Codes of the built-in categories, fixed so SQL and code can compare against them
+    public static final int WORK = 1;
+    public static final int PERSONAL = 2;
+    public static final int FAMILY = 3;
+    public static final int ERRAND = 4;
+    public static final int OTHER = 5;
+    public static final int EVERYDAY = 6;
+    // Legacy key MainActivity uses to park notes in the secondary list; not offered in pickers
+    public static final int SECONDARY = 7;
+
+    private final int id;
+    private final String key;
+    private final String name;
+    private final int color;
+    private final boolean recurring;
+
+    public Category(int id, String key, String name, int color, boolean recurring) {
+        this.id = id;
+        this.key = key;
+        this.name = name;
+        this.color = color;
+        this.recurring = recurring;
+    }
+
+    public int getId() { return id; }
+    // Stable text id, used on the sync wire
+    public String getKey() { return key; }
+    public String getName() { return name; }
+    // ARGB, or 0 for the built-in color of this code (CategoryRegistry resolves it)
+    public int getColor() { return color; }
+    // Notes in a recurring category repeat on their days instead of showing on a date
+    public boolean isRecurring() { return recurring; }
+    public boolean isBuiltIn() { return id <= SECONDARY; }
+}
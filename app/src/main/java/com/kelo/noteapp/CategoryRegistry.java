@@ -0,0 +1,85 @@
+package com.kelo.noteapp;
+
+import android.content.Context;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import androidx.core.content.ContextCompat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// In-memory copy of the categories table with colors already resolved, so list rows
+// look a category up by its code instead of comparing strings. Loaded once per process
+// and dropped by DatabaseHelper whenever the table changes.
+public final class CategoryRegistry {
+
+    private static CategoryRegistry instance;
+
+    private final List<Category> all;
+    private final SparseArray<Category> byCode = new SparseArray<>();
+    private final SparseIntArray colors = new SparseIntArray();
+
+    public static synchronized CategoryRegistry get(Context context) {
+        if (instance == null) {
+            Context app = context.getApplicationContext();
+            instance = new CategoryRegistry(app, new DatabaseHelper(app).getCategories());
+        }
+        return instance;
+    }
+
+    static synchronized void invalidate() {
+        instance = null;
+    }
+
+    private CategoryRegistry(Context context, List<Category> categories) {
+        all = Collections.unmodifiableList(new ArrayList<>(categories));
+        for (Category c : categories) {
+            byCode.put(c.getId(), c);
+            colors.put(c.getId(), c.getColor() != 0 ? c.getColor()
+                    : ContextCompat.getColor(context, builtInColor(c.getId())));
+        }
+    }
+
+    // Unknown codes read as PERSONAL, the column default
+    public Category find(int code) {
+        Category c = byCode.get(code);
+        return c != null ? c : byCode.get(Category.PERSONAL);
+    }
+
+    public String nameOf(int code) {
+        Category c = find(code);
+        return c != null ? c.getName() : "";
+    }
+
+    public int colorOf(int code) {
+        int i = colors.indexOfKey(code);
+        return colors.valueAt(i >= 0 ? i : colors.indexOfKey(Category.PERSONAL));
+    }
+
+    public boolean isRecurring(int code) {
+        Category c = find(code);
+        return c != null && c.isRecurring();
+    }
+
+    // What the editor offers: every category but the legacy secondary marker, by code
+    public List<Category> getPickable() {
+        List<Category> list = new ArrayList<>();
+        for (Category c : all) {
+            if (c.getId() != Category.SECONDARY) list.add(c);
+        }
+        return list;
+    }
+
+    private static int builtInColor(int code) {
+        switch (code) {
+            case Category.WORK:     return R.color.category_work;
+            case Category.PERSONAL: return R.color.category_personal;
+            case Category.FAMILY:   return R.color.category_family;
+            case Category.ERRAND:   return R.color.category_errand;
+            case Category.EVERYDAY: return R.color.recurring_indicator_color;
+            default:                return R.color.category_other;
+        }
+    }
+}
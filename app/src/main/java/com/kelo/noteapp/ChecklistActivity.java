@@ -0,0 +1,229 @@
+package com.kelo.noteapp;
+
+import android.graphics.Paint;
+import android.os.Bundle;
+import android.view.LayoutInflater;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.inputmethod.EditorInfo;
+import android.widget.CheckBox;
+import android.widget.EditText;
+import android.widget.ImageButton;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.Toolbar;
+import androidx.recyclerview.widget.ItemTouchHelper;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Items of a checklist note. Every action writes only the item it touches: a tick is one
+// row update (the note's counters follow by trigger), a drag gives the moved item a
+// position between its new neighbours.
+public class ChecklistActivity extends AppCompatActivity {
+
+    public static final String EXTRA_NOTE_ID = "note_id";
+
+    private RecyclerView recyclerView;
+    private TextView textProgress;
+    private EditText editNewItem;
+    private DatabaseHelper databaseHelper;
+    private ChecklistAdapter adapter;
+    private int noteId;
+    private final List<ChecklistItem> items = new ArrayList<>();
+    // Single thread: item writes land in the order they were made
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_checklist);
+
+        Toolbar toolbar = findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+        if (getSupportActionBar() != null) getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+
+        recyclerView = findViewById(R.id.recyclerView);
+        textProgress = findViewById(R.id.textProgress);
+        editNewItem = findViewById(R.id.editNewItem);
+        ImageButton btnAddItem = findViewById(R.id.btnAddItem);
+        databaseHelper = new DatabaseHelper(this);
+        noteId = getIntent().getIntExtra(EXTRA_NOTE_ID, -1);
+
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        adapter = new ChecklistAdapter();
+        recyclerView.setAdapter(adapter);
+        attachDragToReorder();
+
+        btnAddItem.setOnClickListener(v -> addItem());
+        editNewItem.setOnEditorActionListener((v, actionId, event) -> {
+            if (actionId != EditorInfo.IME_ACTION_DONE) return false;
+            addItem();
+            return true;
+        });
+
+        executor.execute(() -> {
+            Note note = databaseHelper.getNote(noteId);
+            List<ChecklistItem> list = databaseHelper.getChecklistItems(noteId);
+            runOnUiThread(() -> {
+                if (isFinishing()) return;
+                if (note != null && getSupportActionBar() != null) getSupportActionBar().setTitle(note.getTitle());
+                items.addAll(list);
+                adapter.notifyDataSetChanged();
+                updateProgress();
+            });
+        });
+    }
+
+    private void addItem() {
+        final String text = editNewItem.getText().toString().trim();
+        if (text.isEmpty()) return;
+        editNewItem.setText("");
+        executor.execute(() -> {
+            ChecklistItem item = databaseHelper.addChecklistItem(noteId, text);
+            runOnUiThread(() -> {
+                if (isFinishing()) return;
+                items.add(item);
+                adapter.notifyItemInserted(items.size() - 1);
+                recyclerView.scrollToPosition(items.size() - 1);
+                updateProgress();
+            });
+        });
+    }
+
+    private void editItem(final ChecklistItem item) {
+        final EditText input = new EditText(this);
+        input.setText(item.getText());
+        new AlertDialog.Builder(this)
+                .setTitle("Пункт списка")
+                .setView(input)
+                .setPositiveButton("Сохранить", (dialog, which) -> {
+                    String text = input.getText().toString().trim();
+                    if (text.isEmpty()) return;
+                    item.setText(text);
+                    adapter.notifyItemChanged(items.indexOf(item));
+                    executor.execute(() -> databaseHelper.updateChecklistItemText(item.getId(), text));
+                })
+                .setNeutralButton("Удалить", (dialog, which) -> {
+                    int position = items.indexOf(item);
+                    if (position < 0) return;
+                    items.remove(position);
+                    adapter.notifyItemRemoved(position);
+                    updateProgress();
+                    executor.execute(() -> databaseHelper.deleteChecklistItem(item.getId()));
+                })
+                .setNegativeButton("Отмена", null)
+                .show();
+    }
+
+    private void updateProgress() {
+        int done = 0;
+        for (ChecklistItem item : items) if (item.isChecked()) done++;
+        textProgress.setText(items.isEmpty() ? "Список пуст" : "Выполнено " + done + " из " + items.size());
+    }
+
+    // Long-press and drag; the new position is written once, when the item is dropped
+    private void attachDragToReorder() {
+        ItemTouchHelper.SimpleCallback callback = new ItemTouchHelper.SimpleCallback(
+                ItemTouchHelper.UP | ItemTouchHelper.DOWN, 0) {
+            private ChecklistItem dragged;
+
+            @Override
+            public boolean onMove(@NonNull RecyclerView rv, @NonNull RecyclerView.ViewHolder from,
+                                  @NonNull RecyclerView.ViewHolder to) {
+                int a = from.getAdapterPosition(), b = to.getAdapterPosition();
+                if (a == RecyclerView.NO_POSITION || b == RecyclerView.NO_POSITION) return false;
+                if (dragged == null) dragged = items.get(a);
+                Collections.swap(items, a, b);
+                adapter.notifyItemMoved(a, b);
+                return true;
+            }
+
+            @Override
+            public void onSwiped(@NonNull RecyclerView.ViewHolder viewHolder, int direction) {
+            }
+
+            @Override
+            public void clearView(@NonNull RecyclerView rv, @NonNull RecyclerView.ViewHolder viewHolder) {
+                super.clearView(rv, viewHolder);
+                if (dragged == null) return;
+                final ChecklistItem item = dragged;
+                dragged = null;
+                int position = items.indexOf(item);
+                final int prevId = position > 0 ? items.get(position - 1).getId() : -1;
+                final int nextId = position < items.size() - 1 ? items.get(position + 1).getId() : -1;
+                executor.execute(() -> databaseHelper.moveChecklistItem(noteId, item.getId(), prevId, nextId));
+            }
+        };
+        new ItemTouchHelper(callback).attachToRecyclerView(recyclerView);
+    }
+
+    private class ChecklistAdapter extends RecyclerView.Adapter<ChecklistAdapter.ViewHolder> {
+
+        @NonNull
+        @Override
+        public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_checklist, parent, false);
+            return new ViewHolder(view);
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+            final ChecklistItem item = items.get(position);
+            holder.text.setText(item.getText());
+            holder.text.setPaintFlags(item.isChecked()
+                    ? holder.text.getPaintFlags() | Paint.STRIKE_THRU_TEXT_FLAG
+                    : holder.text.getPaintFlags() & ~Paint.STRIKE_THRU_TEXT_FLAG);
+            holder.checked.setOnCheckedChangeListener(null);
+            holder.checked.setChecked(item.isChecked());
+            holder.checked.setOnCheckedChangeListener((button, isChecked) -> {
+                item.setChecked(isChecked);
+                int pos = holder.getAdapterPosition();
+                if (pos != RecyclerView.NO_POSITION) notifyItemChanged(pos);
+                updateProgress();
+                executor.execute(() -> databaseHelper.setChecklistItemChecked(item.getId(), isChecked));
+            });
+            holder.itemView.setOnClickListener(v -> editItem(item));
+        }
+
+        @Override
+        public int getItemCount() {
+            return items.size();
+        }
+
+        class ViewHolder extends RecyclerView.ViewHolder {
+            final CheckBox checked;
+            final TextView text;
+
+            ViewHolder(View itemView) {
+                super(itemView);
+                checked = itemView.findViewById(R.id.itemChecked);
+                text = itemView.findViewById(R.id.itemText);
+            }
+        }
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == android.R.id.home) {
+            onBackPressed();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,22 @@
+package com.kelo.noteapp;
+
+// One line of a checklist note (checklist_items row)
+public class ChecklistItem {
+
+    private final int id;
+    private String text;
+    private boolean checked;
+
+    public ChecklistItem(int id, String text, boolean checked) {
+        this.id = id;
+        this.text = text;
+        this.checked = checked;
+    }
+
+    public int getId() { return id; }
+    public String getText() { return text; }
+    public boolean isChecked() { return checked; }
+
+    public void setText(String text) { this.text = text; }
+    public void setChecked(boolean checked) { this.checked = checked; }
+}
@@ -0,0 +1,156 @@
+package com.kelo.noteapp;
+
+import android.os.Bundle;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.LinearLayout;
+import android.widget.Toast;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.Toolbar;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Paged view over notes_archive: loads one page at a time while scrolling,
+// bodies are decompressed only when a note is opened.
+public class CompletedActivity extends AppCompatActivity implements CompletedAdapter.OnCompletedListener {
+
+    private static final int PAGE_SIZE = 30;
+
+    private RecyclerView recyclerView;
+    private LinearLayout emptyView;
+    private CompletedAdapter adapter;
+    private final List<Note> notes = new ArrayList<>();
+    private DatabaseHelper databaseHelper;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private boolean loading = false;
+    private boolean reachedEnd = false;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_completed);
+
+        Toolbar toolbar = findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+            getSupportActionBar().setTitle("Выполненные");
+        }
+
+        recyclerView = findViewById(R.id.recyclerView);
+        emptyView = findViewById(R.id.emptyView);
+        databaseHelper = new DatabaseHelper(this);
+
+        LinearLayoutManager lm = new LinearLayoutManager(this);
+        recyclerView.setLayoutManager(lm);
+        adapter = new CompletedAdapter(this, notes, this);
+        recyclerView.setAdapter(adapter);
+
+        // Fetch the next page when the user gets close to the end of what is loaded
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView rv, int dx, int dy) {
+                if (dy <= 0) return;
+                if (lm.findLastVisibleItemPosition() >= notes.size() - PAGE_SIZE / 3) loadNextPage();
+            }
+        });
+
+        loadNextPage();
+    }
+
+    private void loadNextPage() {
+        if (loading || reachedEnd) return;
+        loading = true;
+        final Note after = notes.isEmpty() ? null : notes.get(notes.size() - 1);
+        executor.execute(() -> {
+            List<Note> page = databaseHelper.getArchivedNotes(after, PAGE_SIZE);
+            runOnUiThread(() -> {
+                if (isFinishing()) return;
+                int start = notes.size();
+                notes.addAll(page);
+                adapter.notifyItemRangeInserted(start, page.size());
+                reachedEnd = page.size() < PAGE_SIZE;
+                loading = false;
+                updateEmpty();
+            });
+        });
+    }
+
+    private void updateEmpty() {
+        boolean empty = notes.isEmpty();
+        recyclerView.setVisibility(empty ? View.GONE : View.VISIBLE);
+        emptyView.setVisibility(empty ? View.VISIBLE : View.GONE);
+    }
+
+    @Override
+    public void onOpenClick(int position) {
+        Note note = notes.get(position);
+        executor.execute(() -> {
+            String content = databaseHelper.getArchivedNoteContent(note.getId());
+            runOnUiThread(() -> {
+                if (isFinishing()) return;
+                new AlertDialog.Builder(this)
+                        .setTitle(note.getTitle())
+                        .setMessage(NoteCipher.isSealed(content)
+                                ? "Заметка зашифрована: верните её в список, чтобы открыть"
+                                : content == null || content.isEmpty() ? "Без текста" : content)
+                        .setPositiveButton("OK", null)
+                        .show();
+            });
+        });
+    }
+
+    @Override
+    public void onRestoreClick(int position) {
+        Note note = notes.get(position);
+        databaseHelper.restoreFromArchive(note.getId());
+        notes.remove(position);
+        adapter.notifyItemRemoved(position);
+        updateEmpty();
+        Toast.makeText(this, "Заметка возвращена в список", Toast.LENGTH_SHORT).show();
+    }
+
+    @Override
+    public void onPermanentDeleteClick(int position) {
+        Note note = notes.get(position);
+        new AlertDialog.Builder(this)
+                .setTitle("Удалить навсегда?")
+                .setMessage("Эта заметка будет удалена безвозвратно. Продолжить?")
+                .setPositiveButton("Удалить", (dialog, which) -> {
+                    databaseHelper.deleteArchivedNote(note.getId());
+                    int pos = notes.indexOf(note);
+                    if (pos >= 0) {
+                        notes.remove(pos);
+                        adapter.notifyItemRemoved(pos);
+                    }
+                    updateEmpty();
+                    Toast.makeText(this, "Заметка удалена навсегда", Toast.LENGTH_SHORT).show();
+                })
+                .setNegativeButton("Отмена", null)
+                .show();
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == android.R.id.home) {
+            onBackPressed();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        executor.shutdown();
+    }
+}
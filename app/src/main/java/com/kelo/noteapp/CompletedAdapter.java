@@ -0,0 +1,120 @@
+package com.kelo.noteapp;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageButton;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.cardview.widget.CardView;
+import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+// Rows of the archived "Completed" list; bodies are not loaded here (see CompletedActivity)
+public class CompletedAdapter extends RecyclerView.Adapter<CompletedAdapter.CompletedViewHolder> {
+
+    private final Context context;
+    private final List<Note> notes;
+    private final OnCompletedListener listener;
+    private final CategoryRegistry categories;
+
+    public interface OnCompletedListener {
+        void onOpenClick(int position);
+        void onRestoreClick(int position);
+        void onPermanentDeleteClick(int position);
+    }
+
+    public CompletedAdapter(Context context, List<Note> notes, OnCompletedListener listener) {
+        this.context = context;
+        this.categories = CategoryRegistry.get(context);
+        this.notes = notes;
+        this.listener = listener;
+    }
+
+    @NonNull
+    @Override
+    public CompletedViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(context).inflate(R.layout.item_trash_note, parent, false);
+        return new CompletedViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull CompletedViewHolder holder, int position) {
+        Note note = notes.get(position);
+
+        holder.textTitle.setText(note.getTitle());
+        holder.textContent.setVisibility(View.GONE);
+        holder.textStatusBadge.setText("ВЫПОЛНЕНО");
+
+        int cat = note.getCategoryId();
+        holder.categoryStripe.setVisibility(View.VISIBLE);
+        holder.textCategory.setText(categories.nameOf(cat));
+        holder.categoryStripe.setBackgroundColor(categories.colorOf(cat));
+
+        SimpleDateFormat sdf = new SimpleDateFormat("dd MMM yyyy", new Locale("ru"));
+        holder.textCreatedDate.setText("Создано: " + sdf.format(new Date(note.getCreatedAt())));
+
+        if (note.getCompletedAt() > 0) {
+            holder.textCompletedDate.setText("Выполнено: " + sdf.format(new Date(note.getCompletedAt())));
+            holder.textCompletedDate.setTextColor(ContextCompat.getColor(context, R.color.colorPrimary));
+            holder.textCompletedDate.setVisibility(View.VISIBLE);
+        } else {
+            holder.textCompletedDate.setVisibility(View.GONE);
+        }
+        holder.textAutoDelete.setVisibility(View.GONE);
+
+        holder.itemView.setOnClickListener(v -> {
+            if (holder.getAdapterPosition() != RecyclerView.NO_POSITION) {
+                listener.onOpenClick(holder.getAdapterPosition());
+            }
+        });
+
+        holder.btnRestore.setOnClickListener(v -> {
+            if (holder.getAdapterPosition() != RecyclerView.NO_POSITION) {
+                listener.onRestoreClick(holder.getAdapterPosition());
+            }
+        });
+
+        holder.btnPermanentDelete.setOnClickListener(v -> {
+            if (holder.getAdapterPosition() != RecyclerView.NO_POSITION) {
+                listener.onPermanentDeleteClick(holder.getAdapterPosition());
+            }
+        });
+    }
+
+    @Override
+    public int getItemCount() {
+        return notes.size();
+    }
+
+    static class CompletedViewHolder extends RecyclerView.ViewHolder {
+        CardView cardView;
+        TextView textTitle, textContent, textCategory, textStatusBadge;
+        TextView textCreatedDate, textCompletedDate, textAutoDelete;
+        ImageButton btnRestore, btnPermanentDelete;
+        LinearLayout categoryStripe;
+
+        public CompletedViewHolder(@NonNull View itemView) {
+            super(itemView);
+            cardView = itemView.findViewById(R.id.cardView);
+            textTitle = itemView.findViewById(R.id.textTitle);
+            textContent = itemView.findViewById(R.id.textContent);
+            textCategory = itemView.findViewById(R.id.textCategory);
+            textStatusBadge = itemView.findViewById(R.id.textStatusBadge);
+            textCreatedDate = itemView.findViewById(R.id.textCreatedDate);
+            textCompletedDate = itemView.findViewById(R.id.textDeletedDate);
+            textAutoDelete = itemView.findViewById(R.id.textAutoDelete);
+            btnRestore = itemView.findViewById(R.id.btnRestore);
+            btnPermanentDelete = itemView.findViewById(R.id.btnPermanentDelete);
+            categoryStripe = itemView.findViewById(R.id.categoryStripe);
+        }
+    }
+}
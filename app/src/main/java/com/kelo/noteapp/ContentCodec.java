@@ -0,0 +1,59 @@
+package com.kelo.noteapp;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate helpers for note bodies stored as BLOBs (archive, and live bodies over
+ * DatabaseHelper.COMPRESS_MIN_CHARS).
+ */
+public final class ContentCodec {
+
+    private ContentCodec() {}
+
+    // Archive: written once, so spend the CPU on size
+    public static byte[] compress(String text) {
+        return compress(text, Deflater.BEST_COMPRESSION);
+    }
+
+    public static byte[] compress(String text, int level) {
+        if (text == null) return null;
+        byte[] input = text.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(level);
+        deflater.setInput(input);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, input.length / 2));
+        byte[] buf = new byte[8192];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buf);
+            out.write(buf, 0, n);
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    public static String decompress(byte[] data) {
+        if (data == null) return null;
+        Inflater inflater = new Inflater();
+        inflater.setInput(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 3);
+        byte[] buf = new byte[8192];
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buf);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                out.write(buf, 0, n);
+            }
+            // Ran out of input before the end of the stream: a truncated blob
+            if (!inflater.finished()) throw new IllegalStateException("Corrupted compressed note content");
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupted compressed note content", e);
+        } finally {
+            inflater.end();
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
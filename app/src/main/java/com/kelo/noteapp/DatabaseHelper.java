@@ -1,27 +1,66 @@
 package com.kelo.noteapp;
 
+import android.content.BroadcastReceiver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+import android.util.SparseArray;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 public class DatabaseHelper extends SQLiteOpenHelper {
 
-    // Bump version to add "folder" column
-    private static final int DATABASE_VERSION = 6;
-    private static final String DATABASE_NAME = "NotesDatabase.db";
+    // Bump version to add encrypted notes
+    static final int DATABASE_VERSION = 28;
+    static final String DATABASE_NAME = "NotesDatabase.db";
 
-    // Table
+    // Tables
     private static final String TABLE_NOTES = "notes";
+    private static final String TABLE_TRASH = "notes_trash";
+    private static final String TABLE_ARCHIVE = "notes_archive";
+    private static final String TABLE_CONTENT = "note_content";
+    private static final String TABLE_STATS = "note_stats";
+    private static final String TABLE_CHANGES = "note_changes";
+    private static final String TABLE_DRAFTS = "drafts";
+    private static final String TABLE_NOTE_CHUNKS = "note_chunks";
+    private static final String TABLE_DRAFT_CHUNKS = "draft_chunks";
+    private static final String TABLE_REVISIONS = "note_revisions";
+    private static final String TABLE_CATEGORIES = "categories";
+    private static final String TABLE_TAGS = "tags";
+    private static final String TABLE_NOTE_TAGS = "note_tags";
+    private static final String TABLE_FOLDERS = "folders";
+    private static final String TABLE_CHECKLIST = "checklist_items";
+    private static final String TABLE_NOTE_LINKS = "note_links";
+    private static final String TABLE_ATTACHMENTS = "attachments";
+    private static final String TABLE_NOTE_ATTACHMENTS = "note_attachments";
 
     // Columns (unchanged ones)
     private static final String COLUMN_ID = "id";
@@ -35,6 +74,108 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     private static final String COLUMN_CATEGORY = "category";
     private static final String COLUMN_IS_DELETED = "is_deleted";
     private static final String COLUMN_DELETED_AT = "deleted_at";
+    private static final String COLUMN_COMPLETED_AT = "completed_at";
+    private static final String COLUMN_ARCHIVED_AT = "archived_at";
+    private static final String COLUMN_PREVIEW = "preview";
+    // Sync: stable id shared across devices and the last local/remote edit time
+    private static final String COLUMN_SYNC_ID = "sync_id";
+    private static final String COLUMN_UPDATED_AT = "updated_at";
+    // Bumped by every write to a notes row; updateNote only writes the version it read
+    private static final String COLUMN_VERSION = "version";
+
+    // updateNote result when the note was written by someone else since it was read
+    public static final int UPDATE_CONFLICT = -1;
+    // updateNote result when the note is no longer a live note (trashed, archived or purged)
+    public static final int UPDATE_MISSING = -2;
+
+    // note_content columns
+    private static final String COLUMN_NOTE_ID = "note_id";
+    private static final String COLUMN_BODY = "body";
+
+    // note_stats columns
+    private static final String COLUMN_KIND = "kind";
+    private static final String COLUMN_KEY = "key";
+    private static final String COLUMN_COUNT = "count";
+
+    // note_changes columns
+    private static final String COLUMN_SEQ = "seq";
+    private static final String COLUMN_OP = "op";
+    private static final String COLUMN_CHANGED_AT = "changed_at";
+
+    // drafts columns
+    private static final String COLUMN_HASH = "hash";
+    private static final String COLUMN_SAVED_AT = "saved_at";
+    // Chunked bodies: position of a chunk, and how many chunks a body row stands for
+    private static final String COLUMN_CHUNK = "chunk";
+    private static final String COLUMN_CHUNKS = "chunks";
+    // How a note_content body and its chunks are stored (FORMAT_*)
+    private static final String COLUMN_FORMAT = "format";
+    // Revisions: per-note sequence number and stored payload (kind is REVISION_*)
+    private static final String COLUMN_REV = "rev";
+    private static final String COLUMN_DATA = "data";
+    // categories columns (key is the stable text id the code replaced)
+    private static final String COLUMN_NAME = "name";
+    private static final String COLUMN_COLOR = "color";
+    private static final String COLUMN_RECURRING = "recurring";
+
+    // note_tags columns
+    private static final String COLUMN_TAG_ID = "tag_id";
+
+    // folders columns (position is also the order of checklist items)
+    private static final String COLUMN_POSITION = "position";
+
+    // Checklist progress on notes rows, kept by triggers on checklist_items.
+    // items_total is NULL for a plain text note.
+    private static final String COLUMN_ITEMS_TOTAL = "items_total";
+    private static final String COLUMN_ITEMS_DONE = "items_done";
+
+    // checklist_items columns
+    private static final String COLUMN_TEXT = "text";
+    private static final String COLUMN_CHECKED = "checked";
+
+    // Manual order of a folder's notes (SortKeys); ascending, NULL first
+    private static final String COLUMN_SORT_KEY = "sort_key";
+
+    // Sub-notes: the parent (NULL for a top-level note) and the size of the note's subtree
+    // in notes and how much of it is completed, kept by triggers up the whole chain
+    private static final String COLUMN_PARENT_ID = "parent_id";
+    private static final String COLUMN_DESCENDANTS = "descendants";
+    private static final String COLUMN_DESCENDANTS_DONE = "descendants_done";
+
+    // note_links: a note and the title one of its [[links]] names
+    private static final String COLUMN_SOURCE_ID = "source_id";
+    private static final String COLUMN_TARGET_TITLE = "target_title";
+
+    // attachments columns (keyed by the file's SHA-256, see AttachmentStore); refs is the
+    // number of note_attachments rows naming the file, kept by triggers
+    private static final String COLUMN_MIME = "mime";
+    private static final String COLUMN_SIZE = "size";
+    private static final String COLUMN_REFS = "refs";
+    // Hash of a note's first image attachment, the list row's thumbnail (NULL: none)
+    private static final String COLUMN_COVER = "cover";
+    // 1 when the body is sealed (NoteCipher); such a note has no preview. Follows the body
+    // on every write, so it syncs with it.
+    private static final String COLUMN_ENCRYPTED = "encrypted";
+
+    // Length of the plain-text snippet kept on the notes row for list rendering
+    private static final int PREVIEW_LENGTH = 200;
+
+    // Bodies longer than this are stored as chunks of this many chars, so no single row
+    // gets near the 2 MB CursorWindow limit (a char is at most 3 bytes of UTF-8)
+    static final int CHUNK_CHARS = 256 * 1024;
+
+    // note_content.format values: plain TEXT, or Deflate BLOBs (ContentCodec)
+    static final int FORMAT_TEXT = 0;
+    static final int FORMAT_DEFLATE = 1;
+    // Shorter bodies stay plain: deflating them wouldn't save even a page
+    static final int COMPRESS_MIN_CHARS = 2 * 1024;
+
+    // A revision is a deflated full text or a RevisionDelta against the revision before it.
+    // Every REVISION_SNAPSHOT_INTERVAL-th one is a snapshot, so rebuilding any version
+    // applies fewer deltas than that.
+    private static final int REVISION_SNAPSHOT = 0;
+    private static final int REVISION_DELTA = 1;
+    static final int REVISION_SNAPSHOT_INTERVAL = 20;
 
     // NEW: folder column (independent of category)
     private static final String COLUMN_FOLDER = "folder";
@@ -47,208 +188,3155 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             "CREATE TABLE " + TABLE_NOTES + " (" +
                     COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
                     COLUMN_TITLE + " TEXT NOT NULL," +
-                    COLUMN_CONTENT + " TEXT," +
+                    COLUMN_PREVIEW + " TEXT," +
                     COLUMN_CREATED_AT + " INTEGER," +
                     COLUMN_REMINDER_TIME + " INTEGER DEFAULT 0," +
                     COLUMN_IS_COMPLETED + " INTEGER DEFAULT 0," +
                     COLUMN_IS_PINNED + " INTEGER DEFAULT 0," +
                     COLUMN_REPEAT_DAYS + " INTEGER DEFAULT 0," +
-                    COLUMN_CATEGORY + " TEXT DEFAULT 'personal'," +
-                    COLUMN_IS_DELETED + " INTEGER DEFAULT 0," +
-                    COLUMN_DELETED_AT + " INTEGER DEFAULT 0," +
+                    COLUMN_CATEGORY + " INTEGER DEFAULT " + Category.PERSONAL + "," +
                     // NEW: default everything to MAIN folder
-                    COLUMN_FOLDER + " TEXT DEFAULT '" + FOLDER_MAIN + "'" +
+                    COLUMN_FOLDER + " TEXT DEFAULT '" + FOLDER_MAIN + "'," +
+                    COLUMN_COMPLETED_AT + " INTEGER DEFAULT 0," +
+                    COLUMN_SYNC_ID + " TEXT," +
+                    COLUMN_UPDATED_AT + " INTEGER DEFAULT 0," +
+                    COLUMN_VERSION + " INTEGER DEFAULT 0," +
+                    COLUMN_ITEMS_TOTAL + " INTEGER," +
+                    COLUMN_ITEMS_DONE + " INTEGER DEFAULT 0," +
+                    COLUMN_SORT_KEY + " TEXT," +
+                    COLUMN_PARENT_ID + " INTEGER," +
+                    COLUMN_DESCENDANTS + " INTEGER DEFAULT 0," +
+                    COLUMN_DESCENDANTS_DONE + " INTEGER DEFAULT 0," +
+                    COLUMN_COVER + " TEXT," +
+                    COLUMN_ENCRYPTED + " INTEGER DEFAULT 0" +
+                    ")";
+
+    // Trashed notes live in their own table so live queries never see them.
+    // Ids are kept as-is, so a restored note comes back under the same id
+    // (and its body simply stays in note_content while it is trashed).
+    private static final String CREATE_TABLE_TRASH =
+            "CREATE TABLE " + TABLE_TRASH + " (" +
+                    COLUMN_ID + " INTEGER PRIMARY KEY," +
+                    COLUMN_TITLE + " TEXT NOT NULL," +
+                    COLUMN_PREVIEW + " TEXT," +
+                    COLUMN_CREATED_AT + " INTEGER," +
+                    COLUMN_REMINDER_TIME + " INTEGER DEFAULT 0," +
+                    COLUMN_IS_COMPLETED + " INTEGER DEFAULT 0," +
+                    COLUMN_IS_PINNED + " INTEGER DEFAULT 0," +
+                    COLUMN_REPEAT_DAYS + " INTEGER DEFAULT 0," +
+                    COLUMN_CATEGORY + " INTEGER DEFAULT " + Category.PERSONAL + "," +
+                    COLUMN_FOLDER + " TEXT DEFAULT '" + FOLDER_MAIN + "'," +
+                    COLUMN_COMPLETED_AT + " INTEGER DEFAULT 0," +
+                    COLUMN_SYNC_ID + " TEXT," +
+                    COLUMN_UPDATED_AT + " INTEGER DEFAULT 0," +
+                    COLUMN_VERSION + " INTEGER DEFAULT 0," +
+                    COLUMN_DELETED_AT + " INTEGER DEFAULT 0," +
+                    COLUMN_ITEMS_TOTAL + " INTEGER," +
+                    COLUMN_ITEMS_DONE + " INTEGER DEFAULT 0," +
+                    COLUMN_SORT_KEY + " TEXT," +
+                    COLUMN_PARENT_ID + " INTEGER," +
+                    COLUMN_DESCENDANTS + " INTEGER DEFAULT 0," +
+                    COLUMN_DESCENDANTS_DONE + " INTEGER DEFAULT 0," +
+                    COLUMN_COVER + " TEXT," +
+                    COLUMN_ENCRYPTED + " INTEGER DEFAULT 0" +
+                    ")";
+
+    // Cold storage for old completed notes: same metadata, content deflated into a BLOB
+    private static final String CREATE_TABLE_ARCHIVE =
+            "CREATE TABLE " + TABLE_ARCHIVE + " (" +
+                    COLUMN_ID + " INTEGER PRIMARY KEY," +
+                    COLUMN_TITLE + " TEXT NOT NULL," +
+                    COLUMN_CONTENT + " BLOB," +
+                    COLUMN_CREATED_AT + " INTEGER," +
+                    COLUMN_REMINDER_TIME + " INTEGER DEFAULT 0," +
+                    COLUMN_IS_COMPLETED + " INTEGER DEFAULT 1," +
+                    COLUMN_IS_PINNED + " INTEGER DEFAULT 0," +
+                    COLUMN_REPEAT_DAYS + " INTEGER DEFAULT 0," +
+                    COLUMN_CATEGORY + " INTEGER DEFAULT " + Category.PERSONAL + "," +
+                    COLUMN_FOLDER + " TEXT DEFAULT '" + FOLDER_MAIN + "'," +
+                    COLUMN_COMPLETED_AT + " INTEGER DEFAULT 0," +
+                    COLUMN_SYNC_ID + " TEXT," +
+                    COLUMN_UPDATED_AT + " INTEGER DEFAULT 0," +
+                    COLUMN_ARCHIVED_AT + " INTEGER DEFAULT 0," +
+                    COLUMN_ITEMS_TOTAL + " INTEGER," +
+                    COLUMN_ITEMS_DONE + " INTEGER DEFAULT 0" +
+                    ")";
+
+    // Paged reads of the archive go newest-completed first
+    private static final String CREATE_INDEX_ARCHIVE_COMPLETED =
+            "CREATE INDEX idx_archive_completed ON " + TABLE_ARCHIVE +
+                    " (" + COLUMN_COMPLETED_AT + " DESC, " + COLUMN_ID + " DESC)";
+
+    // Indexes on notes, one per query shape the app issues (checked by QueryPlanTest).
+    // Main list: ORDER BY pinned, completed, created without a sort step
+    private static final String CREATE_INDEX_NOTES_LIST =
+            "CREATE INDEX idx_notes_list ON " + TABLE_NOTES +
+                    " (" + COLUMN_IS_PINNED + " DESC, " + COLUMN_IS_COMPLETED + ", " + COLUMN_CREATED_AT + " DESC)";
+    // Active notes (widget, calendar list) and the archive job's completed-notes lookup
+    private static final String CREATE_INDEX_NOTES_ACTIVE =
+            "CREATE INDEX idx_notes_active ON " + TABLE_NOTES +
+                    " (" + COLUMN_IS_COMPLETED + ", " + COLUMN_IS_PINNED + " DESC, " + COLUMN_CREATED_AT + " DESC)";
+    // Tabs: active top-level notes of one folder in manual order (created_at breaks ties),
+    // and the first key of a folder when a note is put on top of it
+    private static final String CREATE_INDEX_NOTES_ORDER =
+            "CREATE INDEX idx_notes_order ON " + TABLE_NOTES +
+                    " (" + COLUMN_IS_COMPLETED + ", " + COLUMN_FOLDER + ", " + COLUMN_PARENT_ID + ", " +
+                    COLUMN_IS_PINNED + " DESC, " + COLUMN_SORT_KEY + ", " + COLUMN_CREATED_AT + " DESC)";
+    // Children of one note in the same order: expanding a row and walking a subtree
+    private static final String CREATE_INDEX_NOTES_PARENT =
+            "CREATE INDEX idx_notes_parent ON " + TABLE_NOTES +
+                    " (" + COLUMN_PARENT_ID + ", " + COLUMN_IS_PINNED + " DESC, " +
+                    COLUMN_SORT_KEY + ", " + COLUMN_CREATED_AT + " DESC)";
+    // Calendar: reminders in a day/month range
+    private static final String CREATE_INDEX_NOTES_REMINDER =
+            "CREATE INDEX idx_notes_reminder ON " + TABLE_NOTES +
+                    " (" + COLUMN_IS_COMPLETED + ", " + COLUMN_REMINDER_TIME + ")";
+    // Category filter and the recurring-category lookups
+    private static final String CREATE_INDEX_NOTES_CATEGORY =
+            "CREATE INDEX idx_notes_category ON " + TABLE_NOTES +
+                    " (" + COLUMN_CATEGORY + ", " + COLUMN_IS_COMPLETED + ", " + COLUMN_IS_PINNED + " DESC, " + COLUMN_CREATED_AT + " DESC)";
+    // Sync: remote changes are matched to local rows by sync_id, wherever the row lives
+    private static final String CREATE_INDEX_NOTES_SYNC =
+            "CREATE UNIQUE INDEX idx_notes_sync ON " + TABLE_NOTES + " (" + COLUMN_SYNC_ID + ")";
+    private static final String CREATE_INDEX_TRASH_SYNC =
+            "CREATE INDEX idx_trash_sync ON " + TABLE_TRASH + " (" + COLUMN_SYNC_ID + ")";
+    private static final String CREATE_INDEX_ARCHIVE_SYNC =
+            "CREATE INDEX idx_archive_sync ON " + TABLE_ARCHIVE + " (" + COLUMN_SYNC_ID + ")";
+
+    // Note bodies, kept apart from the small, hot metadata in notes so list scans
+    // and flag updates never drag large text pages through the cache.
+    private static final String CREATE_TABLE_CONTENT =
+            "CREATE TABLE " + TABLE_CONTENT + " (" +
+                    COLUMN_NOTE_ID + " INTEGER PRIMARY KEY," +
+                    COLUMN_BODY + " TEXT," +
+                    COLUMN_CHUNKS + " INTEGER DEFAULT 0," +
+                    COLUMN_FORMAT + " INTEGER DEFAULT " + FORMAT_TEXT +
+                    ")";
+
+    // Pieces of bodies over CHUNK_CHARS, in order; the body row itself then holds NULL
+    // and the chunk count. Only single-note reads and the exporter ever touch these.
+    private static final String CREATE_TABLE_NOTE_CHUNKS = createChunkTable(TABLE_NOTE_CHUNKS);
+    private static final String CREATE_TABLE_DRAFT_CHUNKS = createChunkTable(TABLE_DRAFT_CHUNKS);
+
+    // Counters (per folder, category and state) kept current by triggers on notes and
+    // notes_trash, so badges and settings never count rows themselves
+    private static final String CREATE_TABLE_STATS =
+            "CREATE TABLE " + TABLE_STATS + " (" +
+                    COLUMN_KIND + " TEXT NOT NULL," +
+                    COLUMN_KEY + " TEXT NOT NULL," +
+                    COLUMN_COUNT + " INTEGER NOT NULL DEFAULT 0," +
+                    "PRIMARY KEY (" + COLUMN_KIND + ", " + COLUMN_KEY + ")" +
+                    ")";
+
+    // Append-only journal of writes to notes, filled by triggers in the writing
+    // transaction. AUTOINCREMENT keeps seq monotonic even after old rows are truncated.
+    private static final String CREATE_TABLE_CHANGES =
+            "CREATE TABLE " + TABLE_CHANGES + " (" +
+                    COLUMN_SEQ + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    COLUMN_NOTE_ID + " INTEGER NOT NULL," +
+                    COLUMN_SYNC_ID + " TEXT," +
+                    COLUMN_OP + " TEXT NOT NULL," +
+                    COLUMN_CHANGED_AT + " INTEGER NOT NULL" +
+                    ")";
+
+    // Editor saves of each note, oldest first (see recordRevision)
+    private static final String CREATE_TABLE_REVISIONS =
+            "CREATE TABLE " + TABLE_REVISIONS + " (" +
+                    COLUMN_NOTE_ID + " INTEGER NOT NULL," +
+                    COLUMN_REV + " INTEGER NOT NULL," +
+                    COLUMN_CREATED_AT + " INTEGER NOT NULL," +
+                    COLUMN_TITLE + " TEXT," +
+                    COLUMN_KIND + " INTEGER NOT NULL," +
+                    COLUMN_DATA + " BLOB," +
+                    "PRIMARY KEY (" + COLUMN_NOTE_ID + ", " + COLUMN_REV + ")" +
+                    ") WITHOUT ROWID";
+
+    // Category codes stored in notes.category and the names/colors behind them.
+    // Built-ins keep the codes in Category; user categories are numbered after them.
+    private static final String CREATE_TABLE_CATEGORIES =
+            "CREATE TABLE " + TABLE_CATEGORIES + " (" +
+                    COLUMN_ID + " INTEGER PRIMARY KEY," +
+                    COLUMN_KEY + " TEXT UNIQUE," +
+                    COLUMN_NAME + " TEXT NOT NULL," +
+                    COLUMN_COLOR + " INTEGER DEFAULT 0," +
+                    COLUMN_RECURRING + " INTEGER DEFAULT 0" +
+                    ")";
+    // The recurring-category subquery of the calendar reads, without a scan
+    private static final String CREATE_INDEX_CATEGORIES_RECURRING =
+            "CREATE INDEX idx_categories_recurring ON " + TABLE_CATEGORIES + " (" + COLUMN_RECURRING + ")";
+
+    // Free-form labels; a note can carry any number of them through note_tags
+    private static final String CREATE_TABLE_TAGS =
+            "CREATE TABLE " + TABLE_TAGS + " (" +
+                    COLUMN_ID + " INTEGER PRIMARY KEY," +
+                    COLUMN_NAME + " TEXT NOT NULL UNIQUE COLLATE NOCASE" +
                     ")";
+    private static final String CREATE_TABLE_NOTE_TAGS =
+            "CREATE TABLE " + TABLE_NOTE_TAGS + " (" +
+                    COLUMN_NOTE_ID + " INTEGER NOT NULL," +
+                    COLUMN_TAG_ID + " INTEGER NOT NULL," +
+                    "PRIMARY KEY (" + COLUMN_NOTE_ID + ", " + COLUMN_TAG_ID + ")" +
+                    ") WITHOUT ROWID";
+    // Tag -> notes, in the order TagIndex builds its bitmaps (covering, no sort)
+    private static final String CREATE_INDEX_NOTE_TAGS_TAG =
+            "CREATE INDEX idx_note_tags_tag ON " + TABLE_NOTE_TAGS + " (" + COLUMN_TAG_ID + ", " + COLUMN_NOTE_ID + ")";
+
+    // Tabs of the main screen, in position order; notes.folder holds the key
+    private static final String CREATE_TABLE_FOLDERS =
+            "CREATE TABLE " + TABLE_FOLDERS + " (" +
+                    COLUMN_ID + " INTEGER PRIMARY KEY," +
+                    COLUMN_KEY + " TEXT NOT NULL UNIQUE," +
+                    COLUMN_NAME + " TEXT NOT NULL," +
+                    COLUMN_POSITION + " INTEGER NOT NULL DEFAULT 0" +
+                    ")";
+
+    // Lines of checklist notes. position is fractional: a moved item takes the midpoint of
+    // its new neighbours, so reordering writes one row.
+    private static final String CREATE_TABLE_CHECKLIST =
+            "CREATE TABLE " + TABLE_CHECKLIST + " (" +
+                    COLUMN_ID + " INTEGER PRIMARY KEY," +
+                    COLUMN_NOTE_ID + " INTEGER NOT NULL," +
+                    COLUMN_POSITION + " REAL NOT NULL," +
+                    COLUMN_TEXT + " TEXT," +
+                    COLUMN_CHECKED + " INTEGER NOT NULL DEFAULT 0" +
+                    ")";
+    private static final String CREATE_INDEX_CHECKLIST_NOTE =
+            "CREATE INDEX idx_checklist_note ON " + TABLE_CHECKLIST + " (" + COLUMN_NOTE_ID + ", " + COLUMN_POSITION + ")";
+
+    // [[Title]] links of live and trashed notes, one row per distinct target. Targets are
+    // titles, not ids, so a link may name a note that does not exist yet; they compare
+    // like tag names (NOCASE), and so does the title index they are resolved through.
+    private static final String CREATE_TABLE_NOTE_LINKS =
+            "CREATE TABLE " + TABLE_NOTE_LINKS + " (" +
+                    COLUMN_SOURCE_ID + " INTEGER NOT NULL," +
+                    COLUMN_TARGET_TITLE + " TEXT NOT NULL COLLATE NOCASE," +
+                    "PRIMARY KEY (" + COLUMN_SOURCE_ID + ", " + COLUMN_TARGET_TITLE + ")" +
+                    ") WITHOUT ROWID";
+    // Backlinks: title -> notes linking to it (covering)
+    private static final String CREATE_INDEX_NOTE_LINKS_TARGET =
+            "CREATE INDEX idx_note_links_target ON " + TABLE_NOTE_LINKS + " (" + COLUMN_TARGET_TITLE + ", " + COLUMN_SOURCE_ID + ")";
+    // Link resolution: title -> note
+    private static final String CREATE_INDEX_NOTES_TITLE =
+            "CREATE INDEX idx_notes_title ON " + TABLE_NOTES + " (" + COLUMN_TITLE + " COLLATE NOCASE)";
+
+    // Stored files, one row per distinct content however many notes it is attached to. A
+    // file is deleted once refs drops to 0 (AttachmentStore.collectGarbage); attachments of
+    // trashed and archived notes still count, so only a purge frees anything.
+    private static final String CREATE_TABLE_ATTACHMENTS =
+            "CREATE TABLE " + TABLE_ATTACHMENTS + " (" +
+                    COLUMN_HASH + " TEXT PRIMARY KEY," +
+                    COLUMN_MIME + " TEXT," +
+                    COLUMN_SIZE + " INTEGER NOT NULL DEFAULT 0," +
+                    COLUMN_REFS + " INTEGER NOT NULL DEFAULT 0" +
+                    ") WITHOUT ROWID";
+    // Garbage collection: unreferenced files without a scan
+    private static final String CREATE_INDEX_ATTACHMENTS_REFS =
+            "CREATE INDEX idx_attachments_refs ON " + TABLE_ATTACHMENTS + " (" + COLUMN_REFS + ")";
+    // Files attached to a note, at most once each, with the name they were picked under
+    private static final String CREATE_TABLE_NOTE_ATTACHMENTS =
+            "CREATE TABLE " + TABLE_NOTE_ATTACHMENTS + " (" +
+                    COLUMN_NOTE_ID + " INTEGER NOT NULL," +
+                    COLUMN_HASH + " TEXT NOT NULL," +
+                    COLUMN_POSITION + " INTEGER NOT NULL," +
+                    COLUMN_NAME + " TEXT," +
+                    "PRIMARY KEY (" + COLUMN_NOTE_ID + ", " + COLUMN_HASH + ")" +
+                    ") WITHOUT ROWID";
+    // A note's attachments in order (the editor, and the cover the triggers pick)
+    private static final String CREATE_INDEX_NOTE_ATTACHMENTS_NOTE =
+            "CREATE INDEX idx_note_attachments_note ON " + TABLE_NOTE_ATTACHMENTS +
+                    " (" + COLUMN_NOTE_ID + ", " + COLUMN_POSITION + ")";
+
+    // Autosaved editor state, one row per note (Draft.NEW_NOTE for an unsaved new note)
+    private static final String CREATE_TABLE_DRAFTS =
+            "CREATE TABLE " + TABLE_DRAFTS + " (" +
+                    COLUMN_NOTE_ID + " INTEGER PRIMARY KEY," +
+                    COLUMN_TITLE + " TEXT," +
+                    COLUMN_BODY + " TEXT," +
+                    COLUMN_CATEGORY + " INTEGER DEFAULT " + Category.PERSONAL + "," +
+                    COLUMN_REMINDER_TIME + " INTEGER DEFAULT 0," +
+                    COLUMN_REPEAT_DAYS + " INTEGER DEFAULT 0," +
+                    COLUMN_HASH + " INTEGER NOT NULL," +
+                    COLUMN_SAVED_AT + " INTEGER NOT NULL," +
+                    COLUMN_CHUNKS + " INTEGER DEFAULT 0" +
+                    ")";
+
+    // Epoch milliseconds inside SQL (strftime('%s') only has second resolution)
+    private static final String SQL_NOW_MS = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    // Codes of categories whose notes repeat by weekday (uncorrelated: evaluated once per query)
+    private static final String RECURRING_CATEGORIES = "(SELECT " + COLUMN_ID + " FROM " + TABLE_CATEGORIES +
+            " WHERE " + COLUMN_RECURRING + " = 1)";
+
+    // Temporary name used while a table is rebuilt during an upgrade
+    private static final String REBUILD_SUFFIX = "_new";
+
+    // How many rows the archive job moves per transaction
+    private static final int ARCHIVE_BATCH_SIZE = 100;
+
+    // Metadata columns shared by notes and notes_trash (INSERT ... SELECT moves and list reads)
+    private static final String[] NOTE_PROJECTION = {
+            COLUMN_ID, COLUMN_TITLE, COLUMN_PREVIEW,
+            COLUMN_CREATED_AT, COLUMN_REMINDER_TIME,
+            COLUMN_IS_COMPLETED, COLUMN_IS_PINNED,
+            COLUMN_REPEAT_DAYS, COLUMN_CATEGORY, COLUMN_FOLDER,
+            COLUMN_COMPLETED_AT, COLUMN_SYNC_ID, COLUMN_UPDATED_AT, COLUMN_VERSION,
+            COLUMN_ITEMS_TOTAL, COLUMN_ITEMS_DONE, COLUMN_SORT_KEY,
+            COLUMN_PARENT_ID, COLUMN_DESCENDANTS, COLUMN_DESCENDANTS_DONE, COLUMN_COVER,
+            COLUMN_ENCRYPTED
+    };
+    private static final String NOTE_COLUMNS = TextUtils.join(", ", NOTE_PROJECTION);
+
+    // Metadata of live notes; bodies are attached afterwards with readBody
+    private static final String SELECT_NOTE = "SELECT " + NOTE_COLUMNS + " FROM " + TABLE_NOTES;
+
+    private final Context appContext;
+    // Fixed profile for benchmark copies; null = whatever Settings has selected
+    private final DbProfile profile;
+    private MigrationListener migrationListener;
+
+    // Progress callbacks for onUpgrade, one pair per schema version step
+    public interface MigrationListener {
+        void onStepStarted(int toVersion, int stepIndex, int stepCount);
+        void onStepFinished(int toVersion, long elapsedMs);
+    }
+
+    // Tests see the SQL of the helper's multi-row writes (tree moves, trash purges, notes
+    // row updates) here, as the CursorFactory shows them its queries
+    interface StatementListener {
+        void onStatement(String sql);
+    }
+
+    private static volatile StatementListener statementListener;
+
+    static void setStatementListener(StatementListener listener) {
+        statementListener = listener;
+    }
 
     public DatabaseHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, null);
+    }
+
+    // Opens another database file (e.g. a benchmark copy) with a given profile
+    DatabaseHelper(Context context, String name, DbProfile profile) {
+        this(context, name, profile, null);
+    }
+
+    // Tests pass a CursorFactory to see every query the helper runs
+    DatabaseHelper(Context context, String name, DbProfile profile, SQLiteDatabase.CursorFactory factory) {
+        super(context, name, factory, DATABASE_VERSION);
+        this.appContext = context.getApplicationContext();
+        this.profile = profile;
+    }
+
+    public void setMigrationListener(MigrationListener listener) {
+        this.migrationListener = listener;
+    }
+
+    // Cheap read-only version check, so a screen can be shown before a long upgrade runs
+    public static boolean isUpgradePending(Context context) {
+        File file = context.getDatabasePath(DATABASE_NAME);
+        if (!file.exists()) return false;
+        SQLiteDatabase db = null;
+        try {
+            db = SQLiteDatabase.openDatabase(file.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+            return db.getVersion() < DATABASE_VERSION;
+        } catch (SQLiteException e) {
+            return false;
+        } finally {
+            if (db != null) db.close();
+        }
+    }
+
+    // One upgrade at a time, whichever entry point gets there first (MigrationActivity, a
+    // receiver, MaintenanceTask): the others wait for it, then find the database current
+    private static final Object UPGRADE_LOCK = new Object();
+    private static final ExecutorService UPGRADE_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    // Runs a pending upgrade on the calling thread, which is never the UI thread
+    static void upgradeIfPending(Context context, MigrationListener listener) {
+        synchronized (UPGRADE_LOCK) {
+            if (!isUpgradePending(context)) return;
+            DatabaseHelper helper = new DatabaseHelper(context.getApplicationContext());
+            helper.setMigrationListener(listener);
+            helper.getWritableDatabase().close();
+        }
+    }
+
+    // Receivers and the widget: work runs in place, unless an app update left an upgrade
+    // pending. Then it runs after the upgrade on a worker, the broadcast kept open with goAsync.
+    static void runWhenReady(BroadcastReceiver receiver, Context context, Runnable work) {
+        if (!isUpgradePending(context)) {
+            work.run();
+            return;
+        }
+        final BroadcastReceiver.PendingResult result = receiver.goAsync();
+        final Context app = context.getApplicationContext();
+        UPGRADE_EXECUTOR.execute(() -> {
+            try {
+                upgradeIfPending(app, null);
+                work.run();
+            } finally {
+                result.finish();
+            }
+        });
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        (profile != null ? profile : DbProfile.fromPrefs(appContext)).apply(db);
+        // The subtree counters climb one level per trigger firing (trg_tree_update)
+        DbProfile.pragma(db, "recursive_triggers=ON");
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL(CREATE_TABLE_NOTES);
+        db.execSQL(CREATE_TABLE_TRASH);
+        db.execSQL(CREATE_TABLE_ARCHIVE);
+        db.execSQL(CREATE_INDEX_ARCHIVE_COMPLETED);
+        db.execSQL(CREATE_INDEX_TRASH_SYNC);
+        db.execSQL(CREATE_INDEX_ARCHIVE_SYNC);
+        db.execSQL(CREATE_TABLE_CONTENT);
+        createNoteIndexes(db);
+        db.execSQL(CREATE_TABLE_STATS);
+        db.execSQL(CREATE_TABLE_CHANGES);
+        db.execSQL(CREATE_TABLE_DRAFTS);
+        db.execSQL(CREATE_TABLE_NOTE_CHUNKS);
+        db.execSQL(CREATE_TABLE_DRAFT_CHUNKS);
+        db.execSQL(CREATE_TABLE_REVISIONS);
+        db.execSQL(CREATE_TABLE_CATEGORIES);
+        db.execSQL(CREATE_INDEX_CATEGORIES_RECURRING);
+        seedCategories(db);
+        db.execSQL(CREATE_TABLE_TAGS);
+        db.execSQL(CREATE_TABLE_NOTE_TAGS);
+        db.execSQL(CREATE_INDEX_NOTE_TAGS_TAG);
+        db.execSQL(CREATE_TABLE_FOLDERS);
+        seedFolders(db);
+        db.execSQL(CREATE_TABLE_CHECKLIST);
+        db.execSQL(CREATE_INDEX_CHECKLIST_NOTE);
+        db.execSQL(CREATE_TABLE_NOTE_LINKS);
+        db.execSQL(CREATE_INDEX_NOTE_LINKS_TARGET);
+        db.execSQL(CREATE_TABLE_ATTACHMENTS);
+        db.execSQL(CREATE_INDEX_ATTACHMENTS_REFS);
+        db.execSQL(CREATE_TABLE_NOTE_ATTACHMENTS);
+        db.execSQL(CREATE_INDEX_NOTE_ATTACHMENTS_NOTE);
+        // A fresh file under a reused name must not see a previous file's tag bitmaps
+        TagIndex.invalidate(getDatabaseName());
+        createTriggers(db);
+        rebuildStats(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // SQLiteOpenHelper runs this inside one transaction: all steps land or none do
+        int stepCount = newVersion - oldVersion;
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            if (migrationListener != null) {
+                migrationListener.onStepStarted(version, version - oldVersion, stepCount);
+            }
+            long start = System.nanoTime();
+            upgradeTo(db, version);
+            if (migrationListener != null) {
+                migrationListener.onStepFinished(version, (System.nanoTime() - start) / 1_000_000L);
+            }
+        }
+        // Triggers follow the current schema rather than a step: reinstall them and
+        // recount whatever the steps moved around
+        createTriggers(db);
+        rebuildStats(db);
+    }
+
+    // One step per schema version. DDL, column lists and data written inside a step are
+    // frozen as of that version (spelled out, no shared CREATE_* constants or helpers);
+    // later schema changes get a new step rather than editing an old one.
+    private void upgradeTo(SQLiteDatabase db, int version) {
+        switch (version) {
+            case 2:
+                db.execSQL("ALTER TABLE " + TABLE_NOTES + " ADD COLUMN " + COLUMN_IS_PINNED + " INTEGER DEFAULT 0");
+                break;
+            case 3:
+                db.execSQL("ALTER TABLE " + TABLE_NOTES + " ADD COLUMN " + COLUMN_REPEAT_DAYS + " INTEGER DEFAULT 0");
+                break;
+            case 4:
+                db.execSQL("ALTER TABLE " + TABLE_NOTES + " ADD COLUMN " + COLUMN_CATEGORY + " TEXT DEFAULT 'personal'");
+                break;
+            case 5:
+                db.execSQL("ALTER TABLE " + TABLE_NOTES + " ADD COLUMN " + COLUMN_IS_DELETED + " INTEGER DEFAULT 0");
+                db.execSQL("ALTER TABLE " + TABLE_NOTES + " ADD COLUMN " + COLUMN_DELETED_AT + " INTEGER DEFAULT 0");
+                break;
+            // NEW: add FOLDER and infer from old "category='secondary'" if present
+            case 6:
+                db.execSQL("ALTER TABLE " + TABLE_NOTES + " ADD COLUMN " + COLUMN_FOLDER +
+                        " TEXT DEFAULT '" + FOLDER_MAIN + "'");
+                // If you previously abused category to store folder, keep category as-is
+                // but mark the folder accordingly:
+                db.execSQL("UPDATE " + TABLE_NOTES +
+                        " SET " + COLUMN_FOLDER + "='" + FOLDER_SECONDARY + "'" +
+                        " WHERE " + COLUMN_CATEGORY + "='secondary'");
+                break;
+            // Move soft-deleted rows out of notes; is_deleted/deleted_at stay behind unused
+            case 7: {
+                String v6Columns = COLUMN_ID + ", " + COLUMN_TITLE + ", " + COLUMN_CONTENT + ", " +
+                        COLUMN_CREATED_AT + ", " + COLUMN_REMINDER_TIME + ", " +
+                        COLUMN_IS_COMPLETED + ", " + COLUMN_IS_PINNED + ", " +
+                        COLUMN_REPEAT_DAYS + ", " + COLUMN_CATEGORY + ", " + COLUMN_FOLDER;
+                db.execSQL("CREATE TABLE " + TABLE_TRASH + " (" +
+                        COLUMN_ID + " INTEGER PRIMARY KEY," +
+                        COLUMN_TITLE + " TEXT NOT NULL," +
+                        COLUMN_CONTENT + " TEXT," +
+                        COLUMN_CREATED_AT + " INTEGER," +
+                        COLUMN_REMINDER_TIME + " INTEGER DEFAULT 0," +
+                        COLUMN_IS_COMPLETED + " INTEGER DEFAULT 0," +
+                        COLUMN_IS_PINNED + " INTEGER DEFAULT 0," +
+                        COLUMN_REPEAT_DAYS + " INTEGER DEFAULT 0," +
+                        COLUMN_CATEGORY + " TEXT DEFAULT 'personal'," +
+                        COLUMN_FOLDER + " TEXT DEFAULT '" + FOLDER_MAIN + "'," +
+                        COLUMN_DELETED_AT + " INTEGER DEFAULT 0" +
+                        ")");
+                db.execSQL("INSERT INTO " + TABLE_TRASH + " (" + v6Columns + ", " + COLUMN_DELETED_AT + ")" +
+                        " SELECT " + v6Columns + ", " + COLUMN_DELETED_AT + " FROM " + TABLE_NOTES +
+                        " WHERE " + COLUMN_IS_DELETED + "=1");
+                db.execSQL("DELETE FROM " + TABLE_NOTES + " WHERE " + COLUMN_IS_DELETED + "=1");
+                break;
+            }
+            // completed_at drives archiving; already-completed notes start their clock now
+            case 8:
+                db.execSQL("ALTER TABLE " + TABLE_NOTES + " ADD COLUMN " + COLUMN_COMPLETED_AT + " INTEGER DEFAULT 0");
+                db.execSQL("ALTER TABLE " + TABLE_TRASH + " ADD COLUMN " + COLUMN_COMPLETED_AT + " INTEGER DEFAULT 0");
+                db.execSQL("UPDATE " + TABLE_NOTES + " SET " + COLUMN_COMPLETED_AT + "=?" +
+                        " WHERE " + COLUMN_IS_COMPLETED + "=1", new Object[]{System.currentTimeMillis()});
+                db.execSQL("CREATE TABLE " + TABLE_ARCHIVE + " (" +
+                        COLUMN_ID + " INTEGER PRIMARY KEY," +
+                        COLUMN_TITLE + " TEXT NOT NULL," +
+                        COLUMN_CONTENT + " BLOB," +
+                        COLUMN_CREATED_AT + " INTEGER," +
+                        COLUMN_REMINDER_TIME + " INTEGER DEFAULT 0," +
+                        COLUMN_IS_COMPLETED + " INTEGER DEFAULT 1," +
+                        COLUMN_IS_PINNED + " INTEGER DEFAULT 0," +
+                        COLUMN_REPEAT_DAYS + " INTEGER DEFAULT 0," +
+                        COLUMN_CATEGORY + " TEXT DEFAULT 'personal'," +
+                        COLUMN_FOLDER + " TEXT DEFAULT '" + FOLDER_MAIN + "'," +
+                        COLUMN_COMPLETED_AT + " INTEGER DEFAULT 0," +
+                        COLUMN_ARCHIVED_AT + " INTEGER DEFAULT 0" +
+                        ")");
+                db.execSQL("CREATE INDEX idx_archive_completed ON " + TABLE_ARCHIVE +
+                        " (" + COLUMN_COMPLETED_AT + " DESC, " + COLUMN_ID + " DESC)");
+                break;
+            // Bodies move to note_content; notes/notes_trash keep a short preview and
+            // the old content column stays behind, emptied (dropped by the v10 rebuild)
+            case 9:
+                db.execSQL("CREATE TABLE " + TABLE_CONTENT + " (" +
+                        COLUMN_NOTE_ID + " INTEGER PRIMARY KEY," +
+                        COLUMN_BODY + " TEXT" +
+                        ")");
+                for (String table : new String[]{TABLE_NOTES, TABLE_TRASH}) {
+                    db.execSQL("INSERT INTO " + TABLE_CONTENT + " (" + COLUMN_NOTE_ID + ", " + COLUMN_BODY + ")" +
+                            " SELECT " + COLUMN_ID + ", " + COLUMN_CONTENT + " FROM " + table);
+                    db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + COLUMN_PREVIEW + " TEXT");
+                    db.execSQL("UPDATE " + table + " SET " + COLUMN_PREVIEW + "=substr(" + COLUMN_CONTENT + ", 1, " + PREVIEW_LENGTH + ")," +
+                            " " + COLUMN_CONTENT + "=NULL");
+                }
+                break;
+            // Single-pass rebuild of notes/notes_trash to drop the dead columns
+            // (content, is_deleted, deleted_at) that the ALTER-based steps left behind
+            case 10: {
+                String v10Columns = COLUMN_ID + ", " + COLUMN_TITLE + ", " + COLUMN_PREVIEW + ", " +
+                        COLUMN_CREATED_AT + ", " + COLUMN_REMINDER_TIME + ", " +
+                        COLUMN_IS_COMPLETED + ", " + COLUMN_IS_PINNED + ", " +
+                        COLUMN_REPEAT_DAYS + ", " + COLUMN_CATEGORY + ", " + COLUMN_FOLDER + ", " +
+                        COLUMN_COMPLETED_AT;
+                String v10Body = COLUMN_TITLE + " TEXT NOT NULL," +
+                        COLUMN_PREVIEW + " TEXT," +
+                        COLUMN_CREATED_AT + " INTEGER," +
+                        COLUMN_REMINDER_TIME + " INTEGER DEFAULT 0," +
+                        COLUMN_IS_COMPLETED + " INTEGER DEFAULT 0," +
+                        COLUMN_IS_PINNED + " INTEGER DEFAULT 0," +
+                        COLUMN_REPEAT_DAYS + " INTEGER DEFAULT 0," +
+                        COLUMN_CATEGORY + " TEXT DEFAULT 'personal'," +
+                        COLUMN_FOLDER + " TEXT DEFAULT '" + FOLDER_MAIN + "'," +
+                        COLUMN_COMPLETED_AT + " INTEGER DEFAULT 0";
+                rebuildTable(db, TABLE_NOTES,
+                        "CREATE TABLE " + TABLE_NOTES + REBUILD_SUFFIX + " (" +
+                                COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT," + v10Body + ")",
+                        v10Columns);
+                rebuildTable(db, TABLE_TRASH,
+                        "CREATE TABLE " + TABLE_TRASH + REBUILD_SUFFIX + " (" +
+                                COLUMN_ID + " INTEGER PRIMARY KEY," + v10Body + "," +
+                                COLUMN_DELETED_AT + " INTEGER DEFAULT 0)",
+                        v10Columns + ", " + COLUMN_DELETED_AT);
+                break;
+            }
+            // Every notes query used to be a full scan plus a temp B-tree sort
+            case 11:
+                db.execSQL("CREATE INDEX idx_notes_list ON " + TABLE_NOTES +
+                        " (" + COLUMN_IS_PINNED + " DESC, " + COLUMN_IS_COMPLETED + ", " + COLUMN_CREATED_AT + " DESC)");
+                db.execSQL("CREATE INDEX idx_notes_active ON " + TABLE_NOTES +
+                        " (" + COLUMN_IS_COMPLETED + ", " + COLUMN_IS_PINNED + " DESC, " + COLUMN_CREATED_AT + " DESC)");
+                db.execSQL("CREATE INDEX idx_notes_folder ON " + TABLE_NOTES +
+                        " (" + COLUMN_IS_COMPLETED + ", " + COLUMN_FOLDER + ", " + COLUMN_IS_PINNED + " DESC, " + COLUMN_CREATED_AT + " DESC)");
+                db.execSQL("CREATE INDEX idx_notes_reminder ON " + TABLE_NOTES +
+                        " (" + COLUMN_IS_COMPLETED + ", " + COLUMN_REMINDER_TIME + ")");
+                db.execSQL("CREATE INDEX idx_notes_category ON " + TABLE_NOTES +
+                        " (" + COLUMN_CATEGORY + ", " + COLUMN_IS_COMPLETED + ", " + COLUMN_IS_PINNED + " DESC, " + COLUMN_CREATED_AT + " DESC)");
+                break;
+            // Triggers and the initial counts are installed after the last step
+            case 12:
+                db.execSQL("CREATE TABLE " + TABLE_STATS + " (" +
+                        COLUMN_KIND + " TEXT NOT NULL," +
+                        COLUMN_KEY + " TEXT NOT NULL," +
+                        COLUMN_COUNT + " INTEGER NOT NULL DEFAULT 0," +
+                        "PRIMARY KEY (" + COLUMN_KIND + ", " + COLUMN_KEY + ")" +
+                        ")");
+                break;
+            // Journal starts empty: consumers do one full read, then follow deltas
+            case 13:
+                db.execSQL("CREATE TABLE " + TABLE_CHANGES + " (" +
+                        COLUMN_SEQ + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                        COLUMN_NOTE_ID + " INTEGER NOT NULL," +
+                        COLUMN_OP + " TEXT NOT NULL," +
+                        COLUMN_CHANGED_AT + " INTEGER NOT NULL" +
+                        ")");
+                break;
+            // Sync identity for every stored note; edit time starts at the best known stamp.
+            // The backfill is not an edit: the journal trigger of v13 would log every row
+            // as changed, so it is dropped here and reinstalled after the last step.
+            case 14:
+                db.execSQL("DROP TRIGGER IF EXISTS trg_changes_update");
+                for (String table : new String[]{TABLE_NOTES, TABLE_TRASH, TABLE_ARCHIVE}) {
+                    db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + COLUMN_SYNC_ID + " TEXT");
+                    db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + COLUMN_UPDATED_AT + " INTEGER DEFAULT 0");
+                    db.execSQL("UPDATE " + table + " SET " + COLUMN_SYNC_ID + "=lower(hex(randomblob(16)))," +
+                            " " + COLUMN_UPDATED_AT + "=MAX(IFNULL(" + COLUMN_CREATED_AT + ", 0), IFNULL(" + COLUMN_COMPLETED_AT + ", 0))");
+                }
+                db.execSQL("ALTER TABLE " + TABLE_CHANGES + " ADD COLUMN " + COLUMN_SYNC_ID + " TEXT");
+                db.execSQL("UPDATE " + TABLE_CHANGES + " SET " + COLUMN_SYNC_ID + "=(SELECT " + COLUMN_SYNC_ID +
+                        " FROM " + TABLE_NOTES + " WHERE " + COLUMN_ID + "=" + TABLE_CHANGES + "." + COLUMN_NOTE_ID + ")");
+                db.execSQL("CREATE UNIQUE INDEX idx_notes_sync ON " + TABLE_NOTES + " (" + COLUMN_SYNC_ID + ")");
+                db.execSQL("CREATE INDEX idx_trash_sync ON " + TABLE_TRASH + " (" + COLUMN_SYNC_ID + ")");
+                db.execSQL("CREATE INDEX idx_archive_sync ON " + TABLE_ARCHIVE + " (" + COLUMN_SYNC_ID + ")");
+                break;
+            // Existing rows start at version 0, like new ones
+            case 15:
+                db.execSQL("ALTER TABLE " + TABLE_NOTES + " ADD COLUMN " + COLUMN_VERSION + " INTEGER DEFAULT 0");
+                db.execSQL("ALTER TABLE " + TABLE_TRASH + " ADD COLUMN " + COLUMN_VERSION + " INTEGER DEFAULT 0");
+                break;
+            case 16:
+                db.execSQL("CREATE TABLE " + TABLE_DRAFTS + " (" +
+                        COLUMN_NOTE_ID + " INTEGER PRIMARY KEY," +
+                        COLUMN_TITLE + " TEXT," +
+                        COLUMN_BODY + " TEXT," +
+                        COLUMN_CATEGORY + " TEXT," +
+                        COLUMN_REMINDER_TIME + " INTEGER DEFAULT 0," +
+                        COLUMN_REPEAT_DAYS + " INTEGER DEFAULT 0," +
+                        COLUMN_HASH + " INTEGER NOT NULL," +
+                        COLUMN_SAVED_AT + " INTEGER NOT NULL" +
+                        ")");
+                break;
+            // Oversized bodies are split inside SQLite: reading them back first would hit
+            // the very CursorWindow limit this step is for
+            case 17: {
+                db.execSQL("CREATE TABLE " + TABLE_NOTE_CHUNKS + " (" +
+                        COLUMN_NOTE_ID + " INTEGER NOT NULL," +
+                        COLUMN_CHUNK + " INTEGER NOT NULL," +
+                        COLUMN_BODY + " TEXT," +
+                        "PRIMARY KEY (" + COLUMN_NOTE_ID + ", " + COLUMN_CHUNK + ")" +
+                        ") WITHOUT ROWID");
+                db.execSQL("CREATE TABLE " + TABLE_DRAFT_CHUNKS + " (" +
+                        COLUMN_NOTE_ID + " INTEGER NOT NULL," +
+                        COLUMN_CHUNK + " INTEGER NOT NULL," +
+                        COLUMN_BODY + " TEXT," +
+                        "PRIMARY KEY (" + COLUMN_NOTE_ID + ", " + COLUMN_CHUNK + ")" +
+                        ") WITHOUT ROWID");
+                String size = String.valueOf(256 * 1024);
+                for (String[] pair : new String[][]{{TABLE_CONTENT, TABLE_NOTE_CHUNKS}, {TABLE_DRAFTS, TABLE_DRAFT_CHUNKS}}) {
+                    String table = pair[0];
+                    db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + COLUMN_CHUNKS + " INTEGER DEFAULT 0");
+                    db.execSQL("WITH RECURSIVE parts(" + COLUMN_NOTE_ID + ", " + COLUMN_CHUNK + ", len) AS (" +
+                            " SELECT " + COLUMN_NOTE_ID + ", 0, length(" + COLUMN_BODY + ") FROM " + table +
+                            " WHERE length(" + COLUMN_BODY + ") > " + size +
+                            " UNION ALL SELECT " + COLUMN_NOTE_ID + ", " + COLUMN_CHUNK + " + 1, len FROM parts" +
+                            " WHERE (" + COLUMN_CHUNK + " + 1) * " + size + " < len)" +
+                            " INSERT INTO " + pair[1] + " (" + COLUMN_NOTE_ID + ", " + COLUMN_CHUNK + ", " + COLUMN_BODY + ")" +
+                            " SELECT p." + COLUMN_NOTE_ID + ", p." + COLUMN_CHUNK + "," +
+                            " substr(t." + COLUMN_BODY + ", p." + COLUMN_CHUNK + " * " + size + " + 1, " + size + ")" +
+                            " FROM parts p JOIN " + table + " t ON t." + COLUMN_NOTE_ID + " = p." + COLUMN_NOTE_ID);
+                    db.execSQL("UPDATE " + table + " SET " + COLUMN_CHUNKS + " = (length(" + COLUMN_BODY + ") + " + size + " - 1) / " + size + "," +
+                            " " + COLUMN_BODY + " = NULL WHERE length(" + COLUMN_BODY + ") > " + size);
+                }
+                break;
+            }
+            // Existing bodies stay plain here; MaintenanceTask compresses them in the background
+            case 18:
+                db.execSQL("ALTER TABLE " + TABLE_CONTENT + " ADD COLUMN " + COLUMN_FORMAT + " INTEGER DEFAULT " + FORMAT_TEXT);
+                break;
+            // History starts empty; a note's first save afterwards keeps what it replaced
+            case 19:
+                db.execSQL("CREATE TABLE " + TABLE_REVISIONS + " (" +
+                        COLUMN_NOTE_ID + " INTEGER NOT NULL," +
+                        COLUMN_REV + " INTEGER NOT NULL," +
+                        COLUMN_CREATED_AT + " INTEGER NOT NULL," +
+                        COLUMN_TITLE + " TEXT," +
+                        COLUMN_KIND + " INTEGER NOT NULL," +
+                        COLUMN_DATA + " BLOB," +
+                        "PRIMARY KEY (" + COLUMN_NOTE_ID + ", " + COLUMN_REV + ")" +
+                        ") WITHOUT ROWID");
+                break;
+            // Category keys become codes into categories. Keys that aren't built-ins turn
+            // into user categories named after the key; anything empty reads as personal.
+            // The four tables are rebuilt with an INTEGER column, mapping in the copy so
+            // no trigger sees (and journals) a rewrite of every note.
+            case 20: {
+                db.execSQL("CREATE TABLE " + TABLE_CATEGORIES + " (" +
+                        COLUMN_ID + " INTEGER PRIMARY KEY," +
+                        COLUMN_KEY + " TEXT UNIQUE," +
+                        COLUMN_NAME + " TEXT NOT NULL," +
+                        COLUMN_COLOR + " INTEGER DEFAULT 0," +
+                        COLUMN_RECURRING + " INTEGER DEFAULT 0" +
+                        ")");
+                db.execSQL("CREATE INDEX idx_categories_recurring ON " + TABLE_CATEGORIES + " (" + COLUMN_RECURRING + ")");
+                Object[][] builtIns = {
+                        {Category.WORK, "work", "Работа", 0},
+                        {Category.PERSONAL, "personal", "Личное", 0},
+                        {Category.FAMILY, "family", "Семья", 0},
+                        {Category.ERRAND, "errand", "Поручение", 0},
+                        {Category.OTHER, "other", "Другое", 0},
+                        {Category.EVERYDAY, "everyday", "Ежедневно", 1},
+                        {Category.SECONDARY, "secondary", "Другое", 0},
+                };
+                for (Object[] builtIn : builtIns) {
+                    db.execSQL("INSERT OR IGNORE INTO " + TABLE_CATEGORIES + " (" + COLUMN_ID + ", " + COLUMN_KEY + ", " +
+                            COLUMN_NAME + ", " + COLUMN_RECURRING + ") VALUES (?, ?, ?, ?)", builtIn);
+                }
+                String[] tables = {TABLE_NOTES, TABLE_TRASH, TABLE_ARCHIVE, TABLE_DRAFTS};
+                for (String table : tables) {
+                    db.execSQL("INSERT OR IGNORE INTO " + TABLE_CATEGORIES + " (" + COLUMN_KEY + ", " + COLUMN_NAME + ")" +
+                            " SELECT DISTINCT " + COLUMN_CATEGORY + ", " + COLUMN_CATEGORY + " FROM " + table +
+                            " WHERE IFNULL(" + COLUMN_CATEGORY + ", '') != ''");
+                }
+                String code = "IFNULL((SELECT c." + COLUMN_ID + " FROM " + TABLE_CATEGORIES + " c" +
+                        " WHERE c." + COLUMN_KEY + " = " + COLUMN_CATEGORY + "), " + Category.PERSONAL + ")";
+                String v19Before = COLUMN_TITLE + ", " + COLUMN_PREVIEW + ", " +
+                        COLUMN_CREATED_AT + ", " + COLUMN_REMINDER_TIME + ", " +
+                        COLUMN_IS_COMPLETED + ", " + COLUMN_IS_PINNED + ", " + COLUMN_REPEAT_DAYS;
+                String v19After = COLUMN_FOLDER + ", " + COLUMN_COMPLETED_AT + ", " +
+                        COLUMN_SYNC_ID + ", " + COLUMN_UPDATED_AT + ", " + COLUMN_VERSION;
+                String v20Body = COLUMN_TITLE + " TEXT NOT NULL," +
+                        COLUMN_PREVIEW + " TEXT," +
+                        COLUMN_CREATED_AT + " INTEGER," +
+                        COLUMN_REMINDER_TIME + " INTEGER DEFAULT 0," +
+                        COLUMN_IS_COMPLETED + " INTEGER DEFAULT 0," +
+                        COLUMN_IS_PINNED + " INTEGER DEFAULT 0," +
+                        COLUMN_REPEAT_DAYS + " INTEGER DEFAULT 0," +
+                        COLUMN_CATEGORY + " INTEGER DEFAULT 2," +
+                        COLUMN_FOLDER + " TEXT DEFAULT '" + FOLDER_MAIN + "'," +
+                        COLUMN_COMPLETED_AT + " INTEGER DEFAULT 0," +
+                        COLUMN_SYNC_ID + " TEXT," +
+                        COLUMN_UPDATED_AT + " INTEGER DEFAULT 0," +
+                        COLUMN_VERSION + " INTEGER DEFAULT 0";
+                String noteColumns = COLUMN_ID + ", " + v19Before + ", " + COLUMN_CATEGORY + ", " + v19After;
+                String noteSelect = COLUMN_ID + ", " + v19Before + ", " + code + ", " + v19After;
+                rebuildTable(db, TABLE_NOTES,
+                        "CREATE TABLE " + TABLE_NOTES + REBUILD_SUFFIX + " (" +
+                                COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT," + v20Body + ")",
+                        noteColumns, noteSelect);
+                rebuildTable(db, TABLE_TRASH,
+                        "CREATE TABLE " + TABLE_TRASH + REBUILD_SUFFIX + " (" +
+                                COLUMN_ID + " INTEGER PRIMARY KEY," + v20Body + "," +
+                                COLUMN_DELETED_AT + " INTEGER DEFAULT 0)",
+                        noteColumns + ", " + COLUMN_DELETED_AT, noteSelect + ", " + COLUMN_DELETED_AT);
+                String archiveBefore = COLUMN_ID + ", " + COLUMN_TITLE + ", " + COLUMN_CONTENT + ", " +
+                        COLUMN_CREATED_AT + ", " + COLUMN_REMINDER_TIME + ", " +
+                        COLUMN_IS_COMPLETED + ", " + COLUMN_IS_PINNED + ", " + COLUMN_REPEAT_DAYS;
+                String archiveAfter = COLUMN_FOLDER + ", " + COLUMN_COMPLETED_AT + ", " +
+                        COLUMN_SYNC_ID + ", " + COLUMN_UPDATED_AT + ", " + COLUMN_ARCHIVED_AT;
+                rebuildTable(db, TABLE_ARCHIVE,
+                        "CREATE TABLE " + TABLE_ARCHIVE + REBUILD_SUFFIX + " (" +
+                                COLUMN_ID + " INTEGER PRIMARY KEY," +
+                                COLUMN_TITLE + " TEXT NOT NULL," +
+                                COLUMN_CONTENT + " BLOB," +
+                                COLUMN_CREATED_AT + " INTEGER," +
+                                COLUMN_REMINDER_TIME + " INTEGER DEFAULT 0," +
+                                COLUMN_IS_COMPLETED + " INTEGER DEFAULT 1," +
+                                COLUMN_IS_PINNED + " INTEGER DEFAULT 0," +
+                                COLUMN_REPEAT_DAYS + " INTEGER DEFAULT 0," +
+                                COLUMN_CATEGORY + " INTEGER DEFAULT 2," +
+                                COLUMN_FOLDER + " TEXT DEFAULT '" + FOLDER_MAIN + "'," +
+                                COLUMN_COMPLETED_AT + " INTEGER DEFAULT 0," +
+                                COLUMN_SYNC_ID + " TEXT," +
+                                COLUMN_UPDATED_AT + " INTEGER DEFAULT 0," +
+                                COLUMN_ARCHIVED_AT + " INTEGER DEFAULT 0)",
+                        archiveBefore + ", " + COLUMN_CATEGORY + ", " + archiveAfter,
+                        archiveBefore + ", " + code + ", " + archiveAfter);
+                String draftBefore = COLUMN_NOTE_ID + ", " + COLUMN_TITLE + ", " + COLUMN_BODY;
+                String draftAfter = COLUMN_REMINDER_TIME + ", " + COLUMN_REPEAT_DAYS + ", " +
+                        COLUMN_HASH + ", " + COLUMN_SAVED_AT + ", " + COLUMN_CHUNKS;
+                rebuildTable(db, TABLE_DRAFTS,
+                        "CREATE TABLE " + TABLE_DRAFTS + REBUILD_SUFFIX + " (" +
+                                COLUMN_NOTE_ID + " INTEGER PRIMARY KEY," +
+                                COLUMN_TITLE + " TEXT," +
+                                COLUMN_BODY + " TEXT," +
+                                COLUMN_CATEGORY + " INTEGER DEFAULT 2," +
+                                COLUMN_REMINDER_TIME + " INTEGER DEFAULT 0," +
+                                COLUMN_REPEAT_DAYS + " INTEGER DEFAULT 0," +
+                                COLUMN_HASH + " INTEGER NOT NULL," +
+                                COLUMN_SAVED_AT + " INTEGER NOT NULL," +
+                                COLUMN_CHUNKS + " INTEGER DEFAULT 0)",
+                        draftBefore + ", " + COLUMN_CATEGORY + ", " + draftAfter,
+                        draftBefore + ", " + code + ", " + draftAfter);
+                break;
+            }
+            case 21:
+                db.execSQL("CREATE TABLE " + TABLE_TAGS + " (" +
+                        COLUMN_ID + " INTEGER PRIMARY KEY," +
+                        COLUMN_NAME + " TEXT NOT NULL UNIQUE COLLATE NOCASE" +
+                        ")");
+                db.execSQL("CREATE TABLE " + TABLE_NOTE_TAGS + " (" +
+                        COLUMN_NOTE_ID + " INTEGER NOT NULL," +
+                        COLUMN_TAG_ID + " INTEGER NOT NULL," +
+                        "PRIMARY KEY (" + COLUMN_NOTE_ID + ", " + COLUMN_TAG_ID + ")" +
+                        ") WITHOUT ROWID");
+                db.execSQL("CREATE INDEX idx_note_tags_tag ON " + TABLE_NOTE_TAGS + " (" + COLUMN_TAG_ID + ", " + COLUMN_NOTE_ID + ")");
+                break;
+            // Folder keys already in use (e.g. pulled by sync) become folders named after the key
+            case 22:
+                db.execSQL("CREATE TABLE " + TABLE_FOLDERS + " (" +
+                        COLUMN_ID + " INTEGER PRIMARY KEY," +
+                        COLUMN_KEY + " TEXT NOT NULL UNIQUE," +
+                        COLUMN_NAME + " TEXT NOT NULL," +
+                        COLUMN_POSITION + " INTEGER NOT NULL DEFAULT 0" +
+                        ")");
+                db.execSQL("INSERT OR IGNORE INTO " + TABLE_FOLDERS + " (" + COLUMN_KEY + ", " + COLUMN_NAME + ", " + COLUMN_POSITION + ")" +
+                        " VALUES (?, ?, 0), (?, ?, 1)", new Object[]{FOLDER_MAIN, "Основная", FOLDER_SECONDARY, "Доп. папка"});
+                for (String table : new String[]{TABLE_NOTES, TABLE_TRASH, TABLE_ARCHIVE}) {
+                    db.execSQL("INSERT OR IGNORE INTO " + TABLE_FOLDERS + " (" + COLUMN_KEY + ", " + COLUMN_NAME + ", " + COLUMN_POSITION + ")" +
+                            " SELECT DISTINCT " + COLUMN_FOLDER + ", " + COLUMN_FOLDER + ", 2 FROM " + table +
+                            " WHERE IFNULL(" + COLUMN_FOLDER + ", '') != ''");
+                }
+                break;
+            // Existing notes stay text notes (items_total NULL)
+            case 23:
+                for (String table : new String[]{TABLE_NOTES, TABLE_TRASH, TABLE_ARCHIVE}) {
+                    db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + COLUMN_ITEMS_TOTAL + " INTEGER");
+                    db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + COLUMN_ITEMS_DONE + " INTEGER DEFAULT 0");
+                }
+                db.execSQL("CREATE TABLE " + TABLE_CHECKLIST + " (" +
+                        COLUMN_ID + " INTEGER PRIMARY KEY," +
+                        COLUMN_NOTE_ID + " INTEGER NOT NULL," +
+                        COLUMN_POSITION + " REAL NOT NULL," +
+                        COLUMN_TEXT + " TEXT," +
+                        COLUMN_CHECKED + " INTEGER NOT NULL DEFAULT 0" +
+                        ")");
+                db.execSQL("CREATE INDEX idx_checklist_note ON " + TABLE_CHECKLIST + " (" + COLUMN_NOTE_ID + ", " + COLUMN_POSITION + ")");
+                break;
+            // Active notes get keys in the order the tabs showed them (pinned, newest first);
+            // the rest keep NULL and come back on top when restored or reopened. The archive
+            // has no order of its own. The journal trigger
+            // of v23 would log every row: it is dropped here and reinstalled after the
+            // last step, in a form that skips key-only updates.
+            case 24: {
+                db.execSQL("DROP TRIGGER IF EXISTS trg_changes_update");
+                for (String table : new String[]{TABLE_NOTES, TABLE_TRASH}) {
+                    db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + COLUMN_SORT_KEY + " TEXT");
+                }
+                db.execSQL("DROP INDEX IF EXISTS idx_notes_folder");
+                db.execSQL("CREATE INDEX idx_notes_order ON " + TABLE_NOTES +
+                        " (" + COLUMN_IS_COMPLETED + ", " + COLUMN_FOLDER + ", " + COLUMN_IS_PINNED + " DESC, " +
+                        COLUMN_SORT_KEY + ", " + COLUMN_CREATED_AT + " DESC)");
+                List<String> folders = new ArrayList<>();
+                Cursor c = db.rawQuery("SELECT DISTINCT " + COLUMN_FOLDER + " FROM " + TABLE_NOTES +
+                        " WHERE " + COLUMN_FOLDER + " IS NOT NULL", null);
+                while (c.moveToNext()) folders.add(c.getString(0));
+                c.close();
+                for (String folder : folders) {
+                    List<Integer> ids = new ArrayList<>();
+                    c = db.query(TABLE_NOTES, new String[]{COLUMN_ID},
+                            COLUMN_IS_COMPLETED + "=0 AND " + COLUMN_FOLDER + "=?", new String[]{folder}, null, null,
+                            COLUMN_IS_PINNED + " DESC, " + COLUMN_CREATED_AT + " DESC");
+                    while (c.moveToNext()) ids.add(c.getInt(0));
+                    c.close();
+                    String[] keys = v24SpreadKeys(ids.size());
+                    ContentValues v = new ContentValues();
+                    for (int i = 0; i < keys.length; i++) {
+                        v.put(COLUMN_SORT_KEY, keys[i]);
+                        db.update(TABLE_NOTES, v, COLUMN_ID + "=?", new String[]{String.valueOf(ids.get(i))});
+                    }
+                }
+                break;
+            }
+            // Every existing note is top-level with an empty subtree, as the defaults say
+            case 25:
+                for (String table : new String[]{TABLE_NOTES, TABLE_TRASH}) {
+                    db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + COLUMN_PARENT_ID + " INTEGER");
+                    db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + COLUMN_DESCENDANTS + " INTEGER DEFAULT 0");
+                    db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + COLUMN_DESCENDANTS_DONE + " INTEGER DEFAULT 0");
+                }
+                db.execSQL("DROP INDEX IF EXISTS idx_notes_order");
+                db.execSQL("CREATE INDEX idx_notes_order ON " + TABLE_NOTES +
+                        " (" + COLUMN_IS_COMPLETED + ", " + COLUMN_FOLDER + ", " + COLUMN_PARENT_ID + ", " +
+                        COLUMN_IS_PINNED + " DESC, " + COLUMN_SORT_KEY + ", " + COLUMN_CREATED_AT + " DESC)");
+                db.execSQL("CREATE INDEX idx_notes_parent ON " + TABLE_NOTES +
+                        " (" + COLUMN_PARENT_ID + ", " + COLUMN_IS_PINNED + " DESC, " +
+                        COLUMN_SORT_KEY + ", " + COLUMN_CREATED_AT + " DESC)");
+                break;
+            // One pass over the existing bodies (live and trashed); from here on every body
+            // write only applies the difference
+            case 26: {
+                db.execSQL("CREATE TABLE " + TABLE_NOTE_LINKS + " (" +
+                        COLUMN_SOURCE_ID + " INTEGER NOT NULL," +
+                        COLUMN_TARGET_TITLE + " TEXT NOT NULL COLLATE NOCASE," +
+                        "PRIMARY KEY (" + COLUMN_SOURCE_ID + ", " + COLUMN_TARGET_TITLE + ")" +
+                        ") WITHOUT ROWID");
+                db.execSQL("CREATE INDEX idx_note_links_target ON " + TABLE_NOTE_LINKS + " (" + COLUMN_TARGET_TITLE + ", " + COLUMN_SOURCE_ID + ")");
+                db.execSQL("CREATE INDEX idx_notes_title ON " + TABLE_NOTES + " (" + COLUMN_TITLE + " COLLATE NOCASE)");
+                // Bodies as v26 stores them: text or deflated (format), whole or in note_chunks
+                List<long[]> rows = new ArrayList<>();
+                Cursor c = db.rawQuery("SELECT c." + COLUMN_NOTE_ID + ", c." + COLUMN_CHUNKS + ", c." + COLUMN_FORMAT +
+                        " FROM " + TABLE_CONTENT + " c WHERE c." + COLUMN_NOTE_ID + " IN (SELECT " + COLUMN_ID + " FROM " + TABLE_NOTES +
+                        " UNION ALL SELECT " + COLUMN_ID + " FROM " + TABLE_TRASH + ")", null);
+                while (c.moveToNext()) rows.add(new long[]{c.getLong(0), c.getLong(1), c.getLong(2)});
+                c.close();
+                ContentValues link = new ContentValues();
+                for (long[] row : rows) {
+                    String id = String.valueOf(row[0]);
+                    boolean deflate = row[2] == 1;
+                    StringBuilder body = new StringBuilder();
+                    c = row[1] > 0
+                            ? db.query(TABLE_NOTE_CHUNKS, new String[]{COLUMN_BODY}, COLUMN_NOTE_ID + "=?",
+                                    new String[]{id}, null, null, COLUMN_CHUNK)
+                            : db.query(TABLE_CONTENT, new String[]{COLUMN_BODY}, COLUMN_NOTE_ID + "=?",
+                                    new String[]{id}, null, null, null);
+                    while (c.moveToNext()) {
+                        if (c.isNull(0)) continue;
+                        String part = deflate ? v26Inflate(c.getBlob(0)) : c.getString(0);
+                        body.append(part);
+                    }
+                    c.close();
+                    link.put(COLUMN_SOURCE_ID, row[0]);
+                    for (String title : v26LinkTargets(body.toString())) {
+                        link.put(COLUMN_TARGET_TITLE, title);
+                        db.insertWithOnConflict(TABLE_NOTE_LINKS, null, link, SQLiteDatabase.CONFLICT_IGNORE);
+                    }
+                }
+                break;
+            }
+            // No attachments yet: empty tables, and no note has a cover
+            case 27:
+                for (String table : new String[]{TABLE_NOTES, TABLE_TRASH}) {
+                    db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + COLUMN_COVER + " TEXT");
+                }
+                db.execSQL("CREATE TABLE " + TABLE_ATTACHMENTS + " (" +
+                        COLUMN_HASH + " TEXT PRIMARY KEY," +
+                        COLUMN_MIME + " TEXT," +
+                        COLUMN_SIZE + " INTEGER NOT NULL DEFAULT 0," +
+                        COLUMN_REFS + " INTEGER NOT NULL DEFAULT 0" +
+                        ") WITHOUT ROWID");
+                db.execSQL("CREATE INDEX idx_attachments_refs ON " + TABLE_ATTACHMENTS + " (" + COLUMN_REFS + ")");
+                db.execSQL("CREATE TABLE " + TABLE_NOTE_ATTACHMENTS + " (" +
+                        COLUMN_NOTE_ID + " INTEGER NOT NULL," +
+                        COLUMN_HASH + " TEXT NOT NULL," +
+                        COLUMN_POSITION + " INTEGER NOT NULL," +
+                        COLUMN_NAME + " TEXT," +
+                        "PRIMARY KEY (" + COLUMN_NOTE_ID + ", " + COLUMN_HASH + ")" +
+                        ") WITHOUT ROWID");
+                db.execSQL("CREATE INDEX idx_note_attachments_note ON " + TABLE_NOTE_ATTACHMENTS +
+                        " (" + COLUMN_NOTE_ID + ", " + COLUMN_POSITION + ")");
+                break;
+            // Nothing is encrypted yet
+            case 28:
+                for (String table : new String[]{TABLE_NOTES, TABLE_TRASH}) {
+                    db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + COLUMN_ENCRYPTED + " INTEGER DEFAULT 0");
+                }
+                break;
+        }
+    }
+
+    // Frozen copies of the helpers the data steps used, as of their version: SortKeys,
+    // ContentCodec and NoteLinks may change after that, the steps must not.
+
+    // SortKeys.spread as of v24: count evenly spaced ascending base-62 keys of one length
+    private static String[] v24SpreadKeys(int count) {
+        final String digits = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+        final int base = digits.length();
+        int length = 1;
+        long span = base;
+        while (span < 16L * (count + 1)) {
+            span *= base;
+            length++;
+        }
+        long step = span / (count + 1);
+        String[] keys = new String[count];
+        char[] buf = new char[length];
+        for (int i = 0; i < count; i++) {
+            long value = (i + 1) * step;
+            for (int p = length - 1; p >= 0; p--) {
+                buf[p] = digits.charAt((int) (value % base));
+                value /= base;
+            }
+            int end = length;
+            while (buf[end - 1] == '0') end--;
+            keys[i] = new String(buf, 0, end);
+        }
+        return keys;
+    }
+
+    // ContentCodec.decompress of the v26 format (raw deflate of UTF-8). A damaged body
+    // gives what inflated before the damage: the step only reads links out of it, and
+    // must not fail the whole upgrade over one note.
+    private static String v26Inflate(byte[] data) {
+        Inflater inflater = new Inflater();
+        inflater.setInput(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 3);
+        byte[] buf = new byte[8192];
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buf);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                out.write(buf, 0, n);
+            }
+        } catch (DataFormatException e) {
+            // keep what came out before it
+        } finally {
+            inflater.end();
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    // NoteLinks.parse as of v26: distinct trimmed [[targets]], no brackets or line breaks inside
+    private static Set<String> v26LinkTargets(String text) {
+        Set<String> targets = new LinkedHashSet<>();
+        if (text.indexOf("[[") < 0) return targets;
+        Matcher m = Pattern.compile("\\[\\[([^\\[\\]\\n]+)]]").matcher(text);
+        while (m.find()) {
+            String title = m.group(1).trim();
+            if (!title.isEmpty()) targets.add(title);
+        }
+        return targets;
+    }
+
+    // Also needed after any later rebuild of notes, which drops its indexes
+    private static void createNoteIndexes(SQLiteDatabase db) {
+        db.execSQL(CREATE_INDEX_NOTES_LIST);
+        db.execSQL(CREATE_INDEX_NOTES_ACTIVE);
+        db.execSQL(CREATE_INDEX_NOTES_ORDER);
+        db.execSQL(CREATE_INDEX_NOTES_PARENT);
+        db.execSQL(CREATE_INDEX_NOTES_TITLE);
+        db.execSQL(CREATE_INDEX_NOTES_REMINDER);
+        db.execSQL(CREATE_INDEX_NOTES_CATEGORY);
+        db.execSQL(CREATE_INDEX_NOTES_SYNC);
+    }
+
+    // ===== TRIGGERS =====
+    // Drops and recreates every app trigger for the current schema
+    private static void createTriggers(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS trg_stats_notes_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS trg_stats_notes_delete");
+        db.execSQL("DROP TRIGGER IF EXISTS trg_stats_notes_update");
+        db.execSQL("DROP TRIGGER IF EXISTS trg_stats_trash_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS trg_stats_trash_delete");
+        db.execSQL("DROP TRIGGER IF EXISTS trg_changes_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS trg_changes_update");
+        db.execSQL("DROP TRIGGER IF EXISTS trg_changes_delete");
+        db.execSQL("DROP TRIGGER IF EXISTS trg_chunks_content_delete");
+        db.execSQL("DROP TRIGGER IF EXISTS trg_chunks_draft_delete");
+        db.execSQL("DROP TRIGGER IF EXISTS trg_checklist_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS trg_checklist_delete");
+        db.execSQL("DROP TRIGGER IF EXISTS trg_checklist_update");
+        db.execSQL("DROP TRIGGER IF EXISTS trg_tree_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS trg_tree_delete");
+        db.execSQL("DROP TRIGGER IF EXISTS trg_tree_update");
+        db.execSQL("DROP TRIGGER IF EXISTS trg_attachments_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS trg_attachments_delete");
+
+        db.execSQL("CREATE TRIGGER trg_stats_notes_insert AFTER INSERT ON " + TABLE_NOTES +
+                " BEGIN " + statsDelta("NEW", "+") + "END");
+        db.execSQL("CREATE TRIGGER trg_stats_notes_delete AFTER DELETE ON " + TABLE_NOTES +
+                " BEGIN " + statsDelta("OLD", "-") + "END");
+        db.execSQL("CREATE TRIGGER trg_stats_notes_update AFTER UPDATE OF " +
+                COLUMN_FOLDER + ", " + COLUMN_CATEGORY + ", " + COLUMN_IS_COMPLETED + ", " + COLUMN_REMINDER_TIME +
+                ", " + COLUMN_PARENT_ID + " ON " + TABLE_NOTES +
+                " WHEN OLD." + COLUMN_FOLDER + " IS NOT NEW." + COLUMN_FOLDER +
+                " OR OLD." + COLUMN_CATEGORY + " IS NOT NEW." + COLUMN_CATEGORY +
+                " OR OLD." + COLUMN_IS_COMPLETED + " IS NOT NEW." + COLUMN_IS_COMPLETED +
+                " OR OLD." + COLUMN_REMINDER_TIME + " IS NOT NEW." + COLUMN_REMINDER_TIME +
+                " OR OLD." + COLUMN_PARENT_ID + " IS NOT NEW." + COLUMN_PARENT_ID +
+                " BEGIN " + statsDelta("OLD", "-") + statsDelta("NEW", "+") + "END");
+        db.execSQL("CREATE TRIGGER trg_stats_trash_insert AFTER INSERT ON " + TABLE_TRASH +
+                " BEGIN " + bumpStat(NoteStats.KIND_TRASH, "''", "+1") + "END");
+        db.execSQL("CREATE TRIGGER trg_stats_trash_delete AFTER DELETE ON " + TABLE_TRASH +
+                " BEGIN " + bumpStat(NoteStats.KIND_TRASH, "''", "-1") + "END");
+
+        // Change journal: trash/archive moves show up as delete + insert of the same id
+        db.execSQL("CREATE TRIGGER trg_changes_insert AFTER INSERT ON " + TABLE_NOTES +
+                " BEGIN " + logChange("NEW", NoteChange.OP_INSERT) + "END");
+        // Manual order, subtree counters, checklist progress and the cover are local to the
+        // device and written without a version bump, so updates that only touch them are
+        // not journaled
+        db.execSQL("CREATE TRIGGER trg_changes_update AFTER UPDATE ON " + TABLE_NOTES +
+                " WHEN NEW." + COLUMN_VERSION + " IS NOT OLD." + COLUMN_VERSION +
+                " OR (NEW." + COLUMN_SORT_KEY + " IS OLD." + COLUMN_SORT_KEY +
+                " AND NEW." + COLUMN_DESCENDANTS + " IS OLD." + COLUMN_DESCENDANTS +
+                " AND NEW." + COLUMN_DESCENDANTS_DONE + " IS OLD." + COLUMN_DESCENDANTS_DONE +
+                " AND NEW." + COLUMN_ITEMS_TOTAL + " IS OLD." + COLUMN_ITEMS_TOTAL +
+                " AND NEW." + COLUMN_ITEMS_DONE + " IS OLD." + COLUMN_ITEMS_DONE +
+                " AND NEW." + COLUMN_COVER + " IS OLD." + COLUMN_COVER + ")" +
+                " BEGIN " + logChange("NEW", NoteChange.OP_UPDATE) + "END");
+        db.execSQL("CREATE TRIGGER trg_changes_delete AFTER DELETE ON " + TABLE_NOTES +
+                " BEGIN " + logChange("OLD", NoteChange.OP_DELETE) + "END");
+
+        // Chunks go with their body row, whichever purge path deletes it
+        db.execSQL("CREATE TRIGGER trg_chunks_content_delete AFTER DELETE ON " + TABLE_CONTENT +
+                " BEGIN DELETE FROM " + TABLE_NOTE_CHUNKS + " WHERE " + COLUMN_NOTE_ID + " = OLD." + COLUMN_NOTE_ID + "; END");
+        db.execSQL("CREATE TRIGGER trg_chunks_draft_delete AFTER DELETE ON " + TABLE_DRAFTS +
+                " BEGIN DELETE FROM " + TABLE_DRAFT_CHUNKS + " WHERE " + COLUMN_NOTE_ID + " = OLD." + COLUMN_NOTE_ID + "; END");
+
+        // Checklist progress: each item write adjusts its note's counters by one primary-key
+        // update, so a tick costs the same however long the list is
+        db.execSQL("CREATE TRIGGER trg_checklist_insert AFTER INSERT ON " + TABLE_CHECKLIST +
+                " BEGIN " + checklistDelta("NEW." + COLUMN_NOTE_ID, "+1", "+ NEW." + COLUMN_CHECKED) + "END");
+        db.execSQL("CREATE TRIGGER trg_checklist_delete AFTER DELETE ON " + TABLE_CHECKLIST +
+                " BEGIN " + checklistDelta("OLD." + COLUMN_NOTE_ID, "-1", "- OLD." + COLUMN_CHECKED) + "END");
+        db.execSQL("CREATE TRIGGER trg_checklist_update AFTER UPDATE OF " + COLUMN_CHECKED + " ON " + TABLE_CHECKLIST +
+                " WHEN OLD." + COLUMN_CHECKED + " IS NOT NEW." + COLUMN_CHECKED +
+                " BEGIN " + checklistDelta("NEW." + COLUMN_NOTE_ID, "+0", "+ NEW." + COLUMN_CHECKED + " - OLD." + COLUMN_CHECKED) + "END");
+
+        // Subtree counters: a row adds itself plus its own subtree to its parent. Changing a
+        // parent's counters fires trg_tree_update on the parent in turn (recursive_triggers),
+        // so every ancestor is adjusted by one primary-key update per level.
+        db.execSQL("CREATE TRIGGER trg_tree_insert AFTER INSERT ON " + TABLE_NOTES +
+                " WHEN NEW." + COLUMN_PARENT_ID + " IS NOT NULL" +
+                " BEGIN " + treeDelta("NEW", "+") + "END");
+        db.execSQL("CREATE TRIGGER trg_tree_delete AFTER DELETE ON " + TABLE_NOTES +
+                " WHEN OLD." + COLUMN_PARENT_ID + " IS NOT NULL" +
+                " BEGIN " + treeDelta("OLD", "-") + "END");
+        db.execSQL("CREATE TRIGGER trg_tree_update AFTER UPDATE OF " +
+                COLUMN_PARENT_ID + ", " + COLUMN_IS_COMPLETED + ", " + COLUMN_DESCENDANTS + ", " + COLUMN_DESCENDANTS_DONE +
+                " ON " + TABLE_NOTES +
+                " WHEN OLD." + COLUMN_PARENT_ID + " IS NOT NEW." + COLUMN_PARENT_ID +
+                " OR OLD." + COLUMN_IS_COMPLETED + " IS NOT NEW." + COLUMN_IS_COMPLETED +
+                " OR OLD." + COLUMN_DESCENDANTS + " IS NOT NEW." + COLUMN_DESCENDANTS +
+                " OR OLD." + COLUMN_DESCENDANTS_DONE + " IS NOT NEW." + COLUMN_DESCENDANTS_DONE +
+                " BEGIN " + treeDelta("OLD", "-") + treeDelta("NEW", "+") + "END");
+
+        // Attachments: the file's reference count, and the note's cover in case the first
+        // image changed
+        db.execSQL("CREATE TRIGGER trg_attachments_insert AFTER INSERT ON " + TABLE_NOTE_ATTACHMENTS +
+                " BEGIN " + refsDelta("NEW", "+1") + coverUpdate("NEW." + COLUMN_NOTE_ID) + "END");
+        db.execSQL("CREATE TRIGGER trg_attachments_delete AFTER DELETE ON " + TABLE_NOTE_ATTACHMENTS +
+                " BEGIN " + refsDelta("OLD", "-1") + coverUpdate("OLD." + COLUMN_NOTE_ID) + "END");
+    }
+
+    private static String refsDelta(String row, String delta) {
+        return "UPDATE " + TABLE_ATTACHMENTS + " SET " + COLUMN_REFS + " = " + COLUMN_REFS + " " + delta +
+                " WHERE " + COLUMN_HASH + " = " + row + "." + COLUMN_HASH + "; ";
+    }
+
+    // Points a live note's cover at its first image attachment; the row is only written
+    // when that changes. noteId is an expression ("?" binds the same id three times).
+    private static String coverUpdate(String noteId) {
+        String firstImage = "(SELECT na." + COLUMN_HASH + " FROM " + TABLE_NOTE_ATTACHMENTS + " na" +
+                " JOIN " + TABLE_ATTACHMENTS + " a ON a." + COLUMN_HASH + " = na." + COLUMN_HASH +
+                " WHERE na." + COLUMN_NOTE_ID + " = " + noteId + " AND a." + COLUMN_MIME + " LIKE 'image/%'" +
+                " ORDER BY na." + COLUMN_POSITION + " LIMIT 1)";
+        return "UPDATE " + TABLE_NOTES + " SET " + COLUMN_COVER + " = " + firstImage +
+                " WHERE " + COLUMN_ID + " = " + noteId + " AND " + COLUMN_COVER + " IS NOT " + firstImage + "; ";
+    }
+
+    // Adds (+) or removes (-) a row's share (itself and its subtree) at its parent
+    private static String treeDelta(String row, String sign) {
+        return "UPDATE " + TABLE_NOTES + " SET " +
+                COLUMN_DESCENDANTS + " = " + COLUMN_DESCENDANTS + " " + sign + " (1 + " + row + "." + COLUMN_DESCENDANTS + "), " +
+                COLUMN_DESCENDANTS_DONE + " = " + COLUMN_DESCENDANTS_DONE + " " + sign + " ((IFNULL(" + row + "." + COLUMN_IS_COMPLETED + ", 0) != 0)" +
+                " + " + row + "." + COLUMN_DESCENDANTS_DONE + ")" +
+                " WHERE " + COLUMN_ID + " = " + row + "." + COLUMN_PARENT_ID + "; ";
+    }
+
+    private static String checklistDelta(String noteId, String total, String done) {
+        return "UPDATE " + TABLE_NOTES + " SET " +
+                COLUMN_ITEMS_TOTAL + " = IFNULL(" + COLUMN_ITEMS_TOTAL + ", 0) " + total + ", " +
+                COLUMN_ITEMS_DONE + " = IFNULL(" + COLUMN_ITEMS_DONE + ", 0) " + done +
+                " WHERE " + COLUMN_ID + " = " + noteId + "; ";
+    }
+
+    private static String createChunkTable(String table) {
+        return "CREATE TABLE " + table + " (" +
+                COLUMN_NOTE_ID + " INTEGER NOT NULL," +
+                COLUMN_CHUNK + " INTEGER NOT NULL," +
+                COLUMN_BODY + " TEXT," +
+                "PRIMARY KEY (" + COLUMN_NOTE_ID + ", " + COLUMN_CHUNK + ")" +
+                ") WITHOUT ROWID";
+    }
+
+    // Built-in categories under their fixed codes; colors come from resources (0)
+    private static void seedCategories(SQLiteDatabase db) {
+        Object[][] builtIns = {
+                {Category.WORK, "work", "Работа", 0},
+                {Category.PERSONAL, "personal", "Личное", 0},
+                {Category.FAMILY, "family", "Семья", 0},
+                {Category.ERRAND, "errand", "Поручение", 0},
+                {Category.OTHER, "other", "Другое", 0},
+                {Category.EVERYDAY, "everyday", "Ежедневно", 1},
+                {Category.SECONDARY, "secondary", "Другое", 0},
+        };
+        for (Object[] c : builtIns) {
+            db.execSQL("INSERT OR IGNORE INTO " + TABLE_CATEGORIES + " (" + COLUMN_ID + ", " + COLUMN_KEY + ", " +
+                    COLUMN_NAME + ", " + COLUMN_RECURRING + ") VALUES (?, ?, ?, ?)", c);
+        }
+    }
+
+    private static void seedFolders(SQLiteDatabase db) {
+        db.execSQL("INSERT OR IGNORE INTO " + TABLE_FOLDERS + " (" + COLUMN_KEY + ", " + COLUMN_NAME + ", " + COLUMN_POSITION + ")" +
+                " VALUES (?, ?, 0), (?, ?, 1)", new Object[]{FOLDER_MAIN, "Основная", FOLDER_SECONDARY, "Доп. папка"});
+    }
+
+    private static String logChange(String row, String op) {
+        return "INSERT INTO " + TABLE_CHANGES + " (" + COLUMN_NOTE_ID + ", " + COLUMN_SYNC_ID + ", " + COLUMN_OP + ", " + COLUMN_CHANGED_AT + ")" +
+                " VALUES (" + row + "." + COLUMN_ID + ", " + row + "." + COLUMN_SYNC_ID + ", '" + op + "', " + SQL_NOW_MS + "); ";
+    }
+
+    // Trigger statements adding (+) or removing (-) one notes row, seen as NEW or OLD
+    private static String statsDelta(String row, String sign) {
+        String folder = "IFNULL(" + row + "." + COLUMN_FOLDER + ", '')";
+        String category = "IFNULL(" + row + "." + COLUMN_CATEGORY + ", '')";
+        String completed = "(IFNULL(" + row + "." + COLUMN_IS_COMPLETED + ", 0) != 0)";
+        // Folder badges count the open notes of the list itself, not their sub-notes
+        String active = "(IFNULL(" + row + "." + COLUMN_IS_COMPLETED + ", 0) = 0 AND " +
+                row + "." + COLUMN_PARENT_ID + " IS NULL)";
+        String reminder = "(IFNULL(" + row + "." + COLUMN_REMINDER_TIME + ", 0) > 0)";
+        return bumpStat(NoteStats.KIND_TOTAL, "''", sign + "1") +
+                bumpStat(NoteStats.KIND_COMPLETED, "''", sign + completed) +
+                bumpStat(NoteStats.KIND_REMINDER, "''", sign + reminder) +
+                bumpStat(NoteStats.KIND_FOLDER, folder, sign + "1") +
+                bumpStat(NoteStats.KIND_ACTIVE_FOLDER, folder, sign + active) +
+                bumpStat(NoteStats.KIND_CATEGORY, category, sign + "1");
+    }
+
+    // No UPSERT before SQLite 3.24 (API 30): create the counter row, then adjust it
+    private static String bumpStat(String kind, String keyExpr, String delta) {
+        return "INSERT OR IGNORE INTO " + TABLE_STATS + " (" + COLUMN_KIND + ", " + COLUMN_KEY + ", " + COLUMN_COUNT + ")" +
+                " VALUES ('" + kind + "', " + keyExpr + ", 0); " +
+                "UPDATE " + TABLE_STATS + " SET " + COLUMN_COUNT + " = " + COLUMN_COUNT + " " + delta +
+                " WHERE " + COLUMN_KIND + "='" + kind + "' AND " + COLUMN_KEY + "=" + keyExpr + "; ";
+    }
+
+    // Recounts note_stats from scratch (fresh database, after an upgrade)
+    private static void rebuildStats(SQLiteDatabase db) {
+        String insert = "INSERT INTO " + TABLE_STATS + " (" + COLUMN_KIND + ", " + COLUMN_KEY + ", " + COLUMN_COUNT + ") ";
+        db.execSQL("DELETE FROM " + TABLE_STATS);
+        db.execSQL(insert + "SELECT '" + NoteStats.KIND_TOTAL + "', '', COUNT(*) FROM " + TABLE_NOTES);
+        db.execSQL(insert + "SELECT '" + NoteStats.KIND_COMPLETED + "', '', COUNT(*) FROM " + TABLE_NOTES +
+                " WHERE IFNULL(" + COLUMN_IS_COMPLETED + ", 0) != 0");
+        db.execSQL(insert + "SELECT '" + NoteStats.KIND_REMINDER + "', '', COUNT(*) FROM " + TABLE_NOTES +
+                " WHERE IFNULL(" + COLUMN_REMINDER_TIME + ", 0) > 0");
+        db.execSQL(insert + "SELECT '" + NoteStats.KIND_FOLDER + "', IFNULL(" + COLUMN_FOLDER + ", ''), COUNT(*) FROM " + TABLE_NOTES +
+                " GROUP BY 2");
+        db.execSQL(insert + "SELECT '" + NoteStats.KIND_ACTIVE_FOLDER + "', IFNULL(" + COLUMN_FOLDER + ", ''), COUNT(*) FROM " + TABLE_NOTES +
+                " WHERE IFNULL(" + COLUMN_IS_COMPLETED + ", 0) = 0 AND " + COLUMN_PARENT_ID + " IS NULL GROUP BY 2");
+        db.execSQL(insert + "SELECT '" + NoteStats.KIND_CATEGORY + "', IFNULL(" + COLUMN_CATEGORY + ", ''), COUNT(*) FROM " + TABLE_NOTES +
+                " GROUP BY 2");
+        db.execSQL(insert + "SELECT '" + NoteStats.KIND_TRASH + "', '', COUNT(*) FROM " + TABLE_TRASH);
+    }
+
+    // Rebuilds a table in one pass: create <table>_new, INSERT ... SELECT, drop, rename.
+    // createSql must create table + REBUILD_SUFFIX. Runs inside the caller's transaction;
+    // indexes are recreated as they were, triggers are dropped with the old table.
+    private static void rebuildTable(SQLiteDatabase db, String table, String createSql, String columns) {
+        rebuildTable(db, table, createSql, columns, columns);
+    }
+
+    // Same, with one SELECT expression per target column (values converted in the copy)
+    private static void rebuildTable(SQLiteDatabase db, String table, String createSql,
+                                     String columns, String selectExprs) {
+        String tmp = table + REBUILD_SUFFIX;
+        // Keep AUTOINCREMENT's high-water mark so ids of trashed/archived notes are never reused
+        long seq = readSequence(db, table);
+        List<String> indexes = new ArrayList<>();
+        Cursor c = db.rawQuery("SELECT sql FROM sqlite_master WHERE type='index' AND tbl_name=? AND sql IS NOT NULL",
+                new String[]{table});
+        while (c.moveToNext()) indexes.add(c.getString(0));
+        c.close();
+        db.execSQL("DROP TABLE IF EXISTS " + tmp);
+        db.execSQL(createSql);
+        db.execSQL("INSERT INTO " + tmp + " (" + columns + ") SELECT " + selectExprs + " FROM " + table);
+        db.execSQL("DROP TABLE " + table);
+        db.execSQL("ALTER TABLE " + tmp + " RENAME TO " + table);
+        for (String sql : indexes) db.execSQL(sql);
+        if (seq > 0) {
+            ContentValues v = new ContentValues();
+            v.put("seq", seq);
+            if (db.update("sqlite_sequence", v, "name=?", new String[]{table}) == 0) {
+                v.put("name", table);
+                db.insert("sqlite_sequence", null, v);
+            }
+        }
+    }
+
+    private static long readSequence(SQLiteDatabase db, String table) {
+        Cursor c = db.rawQuery("SELECT name FROM sqlite_master WHERE type='table' AND name='sqlite_sequence'", null);
+        boolean hasSequence = c.moveToFirst();
+        c.close();
+        if (!hasSequence) return 0;
+        c = db.rawQuery("SELECT seq FROM sqlite_sequence WHERE name=?", new String[]{table});
+        long seq = c.moveToFirst() ? c.getLong(0) : 0;
+        c.close();
+        return seq;
+    }
+
+    // ===== CREATE =====
+    public long addNote(Note note) {
+        return addNote(note, false);
+    }
+
+    // A new note's sync id, given out before the note is first written when something has
+    // to be bound to it already (a sealed body); addNote keeps an id that is set
+    static void assignSyncId(Note note) {
+        if (note.getSyncId() == null) note.setSyncId(UUID.randomUUID().toString());
+    }
+
+    // Editor save of a new note: inserts it and drops the new-note draft in one transaction
+    public long addNoteFromDraft(Note note) {
+        return addNote(note, true);
+    }
+
+    private long addNote(Note note, boolean discardDraft) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_TITLE, note.getTitle());
+        putBodyColumns(values, note.getContent());
+        values.put(COLUMN_CREATED_AT, note.getCreatedAt());
+        values.put(COLUMN_REMINDER_TIME, note.getReminderTime());
+        values.put(COLUMN_IS_COMPLETED, note.isCompleted() ? 1 : 0);
+        values.put(COLUMN_COMPLETED_AT, stampCompletedAt(note));
+        values.put(COLUMN_IS_PINNED, note.isPinned() ? 1 : 0);
+        values.put(COLUMN_REPEAT_DAYS, note.getRepeatDays());
+        values.put(COLUMN_CATEGORY, note.getCategoryId());
+        // folder defaults to MAIN; if your Note model later adds folder, set it here
+        assignSyncId(note);
+        note.setUpdatedAt(System.currentTimeMillis());
+        values.put(COLUMN_SYNC_ID, note.getSyncId());
+        values.put(COLUMN_UPDATED_AT, note.getUpdatedAt());
+        long id;
+        db.beginTransaction();
+        try {
+            // A sub-note lives in its parent's tab, on top of its siblings
+            int parentId = note.getParentId();
+            String folder = FOLDER_MAIN;
+            if (parentId > 0) {
+                folder = folderOf(db, parentId);
+                values.put(COLUMN_PARENT_ID, parentId);
+                values.put(COLUMN_FOLDER, folder);
+            }
+            values.put(COLUMN_SORT_KEY, topSortKey(db, folder, parentId));
+            id = db.insert(TABLE_NOTES, null, values);
+            if (id != -1) {
+                writeBody(db, id, note.getContent());
+                syncLinks(db, id, note.getContent());
+            }
+            if (id != -1 && discardDraft) {
+                recordRevision(db, id, note.getTitle(), note.getContent(), note.getUpdatedAt());
+            }
+            if (discardDraft) deleteDraft(db, Draft.NEW_NOTE);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+        return id;
+    }
+
+    // ===== READ =====
+    // Full note including its body (editor, notifications)
+    public Note getNote(int id) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor c = db.rawQuery(SELECT_NOTE + " WHERE " + COLUMN_ID + "=?",
+                new String[]{String.valueOf(id)});
+        Note note = null;
+        if (c != null && c.moveToFirst()) note = readNoteFromCursor(c);
+        if (c != null) c.close();
+        if (note != null) attachBody(db, note);
+        db.close();
+        return note;
+    }
+
+    // The same without the body (content stays null); the editor streams it with
+    // writeNoteContent instead of assembling a multi-MB string up front
+    public Note getNoteMetadata(int id) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor c = db.rawQuery(SELECT_NOTE + " WHERE " + COLUMN_ID + "=?",
+                new String[]{String.valueOf(id)});
+        Note note = null;
+        if (c != null && c.moveToFirst()) note = readNoteFromCursor(c);
+        if (c != null) c.close();
+        db.close();
+        return note;
+    }
+
+    public String getNoteContent(int id) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        String body = readBody(db, id);
+        db.close();
+        return body;
+    }
+
+    // Writes a body to out chunk by chunk, never holding more than one chunk (export, editor)
+    public void writeNoteContent(int id, Writer out) throws IOException {
+        SQLiteDatabase db = this.getReadableDatabase();
+        try {
+            Cursor c = db.query(TABLE_CONTENT, new String[]{COLUMN_CHUNKS, COLUMN_FORMAT},
+                    COLUMN_NOTE_ID + "=?", new String[]{String.valueOf(id)}, null, null, null);
+            int chunks = 0;
+            boolean deflate = false;
+            if (c.moveToFirst()) {
+                chunks = c.getInt(0);
+                deflate = c.getInt(1) == FORMAT_DEFLATE;
+            }
+            c.close();
+            if (chunks == 0) {
+                String body = readBody(db, id);
+                if (body != null) out.write(body);
+                return;
+            }
+            c = db.query(TABLE_NOTE_CHUNKS, new String[]{COLUMN_BODY}, COLUMN_NOTE_ID + "=?",
+                    new String[]{String.valueOf(id)}, null, null, COLUMN_CHUNK);
+            try {
+                while (c.moveToNext()) out.write(readChunk(c, deflate));
+            } finally {
+                c.close();
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    // Metadata only (content is null, preview is set)
+    public List<Note> getAllNotes() {
+        List<Note> list = new ArrayList<>();
+        String sql = "SELECT " + NOTE_COLUMNS + " FROM " + TABLE_NOTES +
+                " ORDER BY " + COLUMN_IS_PINNED + " DESC, " +
+                COLUMN_IS_COMPLETED + " ASC, " +
+                COLUMN_CREATED_AT + " DESC";
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor c = db.rawQuery(sql, null);
+        if (c.moveToFirst()) {
+            do { list.add(readNoteFromCursor(c)); } while (c.moveToNext());
+        }
+        c.close();
+        db.close();
+        return list;
+    }
+
+    // Live notes joined with their bodies, for full-text search over content
+    public List<Note> getAllNotesWithContent() {
+        List<Note> list = new ArrayList<>();
+        // Only plain bodies come through the join; deflated ones are decoded per note below.
+        // Encrypted notes come without a body: search matches their titles only.
+        String sql = "SELECT n." + TextUtils.join(", n.", NOTE_PROJECTION) +
+                ", CASE WHEN n." + COLUMN_ENCRYPTED + " = 0 AND c." + COLUMN_FORMAT + " = " + FORMAT_TEXT +
+                " THEN c." + COLUMN_BODY + " END AS " + COLUMN_CONTENT +
+                ", c." + COLUMN_CHUNKS + ", c." + COLUMN_FORMAT +
+                " FROM " + TABLE_NOTES + " n LEFT JOIN " + TABLE_CONTENT + " c ON c." + COLUMN_NOTE_ID + " = n." + COLUMN_ID +
+                " ORDER BY n." + COLUMN_IS_PINNED + " DESC, n." + COLUMN_IS_COMPLETED + " ASC, n." + COLUMN_CREATED_AT + " DESC";
+        List<Note> chunked = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor c = db.rawQuery(sql, null);
+        int idxChunks = c.getColumnIndexOrThrow(COLUMN_CHUNKS);
+        int idxFormat = c.getColumnIndexOrThrow(COLUMN_FORMAT);
+        if (c.moveToFirst()) {
+            do {
+                Note n = readNoteFromCursor(c);
+                if (!n.isEncrypted() && (c.getInt(idxChunks) > 0 || c.getInt(idxFormat) != FORMAT_TEXT)) chunked.add(n);
+                list.add(n);
+            } while (c.moveToNext());
+        }
+        c.close();
+        // Chunked and deflated bodies are decoded one note at a time, outside the list cursor
+        for (Note n : chunked) attachBody(db, n);
+        db.close();
+        return list;
+    }
+
+    public List<Note> getActiveNotes() {
+        List<Note> list = new ArrayList<>();
+        String sql = "SELECT " + NOTE_COLUMNS + " FROM " + TABLE_NOTES +
+                " WHERE " + COLUMN_IS_COMPLETED + " = 0" +
+                " ORDER BY " + COLUMN_IS_PINNED + " DESC, " + COLUMN_CREATED_AT + " DESC";
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor c = db.rawQuery(sql, null);
+        if (c.moveToFirst()) {
+            do { list.add(readNoteFromCursor(c)); } while (c.moveToNext());
+        }
+        c.close();
+        db.close();
+        return list;
+    }
+
+    // NEW: active notes by folder (main/secondary); sub-notes load with getChildNotes
+    public List<Note> getActiveNotesByFolder(String folder) {
+        if (folder == null) folder = FOLDER_MAIN;
+        List<Note> list = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor c = db.query(TABLE_NOTES, NOTE_PROJECTION,
+                COLUMN_IS_COMPLETED + "=0 AND " + COLUMN_FOLDER + "=? AND " + COLUMN_PARENT_ID + " IS NULL",
+                new String[]{folder}, null, null,
+                COLUMN_IS_PINNED + " DESC, " + COLUMN_SORT_KEY + ", " + COLUMN_CREATED_AT + " DESC");
+        if (c.moveToFirst()) {
+            do { list.add(readNoteFromCursor(c)); } while (c.moveToNext());
+        }
+        c.close();
+        db.close();
+        return list;
+    }
+
+    // Direct children of a note in their manual order, completed ones included: a row's
+    // sub-notes are only read when it is expanded
+    public List<Note> getChildNotes(int parentId) {
+        List<Note> list = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor c = db.query(TABLE_NOTES, NOTE_PROJECTION,
+                COLUMN_PARENT_ID + "=?", new String[]{String.valueOf(parentId)}, null, null,
+                COLUMN_IS_PINNED + " DESC, " + COLUMN_SORT_KEY + ", " + COLUMN_CREATED_AT + " DESC");
+        if (c.moveToFirst()) {
+            do { list.add(readNoteFromCursor(c)); } while (c.moveToNext());
+        }
+        c.close();
+        db.close();
+        return list;
+    }
+
+    // Existing helper left intact
+    public List<Note> getNotesByCategory(int categoryId) {
+        List<Note> list = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor c = db.query(TABLE_NOTES, NOTE_PROJECTION,
+                COLUMN_CATEGORY + "=? AND " + COLUMN_IS_COMPLETED + "=0",
+                new String[]{String.valueOf(categoryId)},
+                null, null,
+                COLUMN_IS_PINNED + " DESC, " + COLUMN_CREATED_AT + " DESC");
+        if (c.moveToFirst()) {
+            do { list.add(readNoteFromCursor(c)); } while (c.moveToNext());
+        }
+        c.close();
+        db.close();
+        return list;
+    }
+
+    // ===== UPDATE =====
+    // Writes only the columns the note marks dirty (all of them for a note that wasn't
+    // read from the database) and skips the write entirely when nothing changed (returns 0).
+    // A null content means "body not loaded" (list notes): the body is left untouched.
+    // Only writes if the row is still at note.getVersion(); otherwise returns
+    // UPDATE_CONFLICT and the caller re-reads the note, merges its change and retries,
+    // or UPDATE_MISSING when the row is gone from the live notes altogether.
+    public int updateNote(Note note) {
+        return updateNote(note, false);
+    }
+
+    // Editor save: writes the note, records a revision when title or body changed and
+    // drops the draft, in one transaction (the draft stays on UPDATE_CONFLICT and
+    // UPDATE_MISSING, until a retry goes through)
+    public int updateNoteFromDraft(Note note) {
+        return updateNote(note, true);
+    }
+
+    private int updateNote(Note note, boolean discardDraft) {
+        int dirty = note.getDirtyFields();
+        boolean writeBody = (dirty & Note.FIELD_CONTENT) != 0 && note.getContent() != null;
+        boolean changed = (dirty & ~Note.FIELD_CONTENT) != 0 || writeBody;
+        if (!changed && !discardDraft) return 0;
+        boolean revise = discardDraft && note.getContent() != null
+                && (dirty & (Note.FIELD_TITLE | Note.FIELD_CONTENT)) != 0;
+
+        ContentValues values = new ContentValues();
+        if ((dirty & Note.FIELD_TITLE) != 0) values.put(COLUMN_TITLE, note.getTitle());
+        if (writeBody) putBodyColumns(values, note.getContent());
+        if ((dirty & Note.FIELD_REMINDER) != 0) values.put(COLUMN_REMINDER_TIME, note.getReminderTime());
+        if ((dirty & Note.FIELD_COMPLETED) != 0) {
+            values.put(COLUMN_IS_COMPLETED, note.isCompleted() ? 1 : 0);
+            values.put(COLUMN_COMPLETED_AT, stampCompletedAt(note));
+        }
+        if ((dirty & Note.FIELD_PINNED) != 0) values.put(COLUMN_IS_PINNED, note.isPinned() ? 1 : 0);
+        if ((dirty & Note.FIELD_REPEAT) != 0) values.put(COLUMN_REPEAT_DAYS, note.getRepeatDays());
+        if ((dirty & Note.FIELD_CATEGORY) != 0) {
+            values.put(COLUMN_CATEGORY, note.getCategoryId());
+        }
+        // IMPORTANT: do not touch folder here (so we don’t accidentally reset it)
+        long now = System.currentTimeMillis();
+        values.put(COLUMN_UPDATED_AT, now);
+
+        SQLiteDatabase db = this.getWritableDatabase();
+        String id = String.valueOf(note.getId());
+        int rows = 0;
+        db.beginTransaction();
+        try {
+            if (changed) {
+                if (revise) seedRevisions(db, note.getId());
+                String oldTitle = (dirty & Note.FIELD_TITLE) != 0 ? titleOf(db, note.getId()) : null;
+                rows = updateNoteRow(db, values, COLUMN_ID + " = ? AND " + COLUMN_VERSION + " = ?",
+                        new String[]{id, String.valueOf(note.getVersion())});
+                if (rows > 0) {
+                    if (writeBody) {
+                        writeBody(db, note.getId(), note.getContent());
+                        syncLinks(db, note.getId(), note.getContent());
+                    }
+                    if (oldTitle != null && !oldTitle.equals(note.getTitle())) {
+                        relinkRenamedNote(db, note.getId(), oldTitle, note.getTitle(), now);
+                    }
+                    if (revise) recordRevision(db, note.getId(), note.getTitle(), note.getContent(), now);
+                    note.setVersion(note.getVersion() + 1);
+                    note.setUpdatedAt(now);
+                    note.clearDirty();
+                } else if (DatabaseUtils.queryNumEntries(db, TABLE_NOTES, COLUMN_ID + " = ?", new String[]{id}) > 0) {
+                    rows = UPDATE_CONFLICT;
+                } else {
+                    rows = UPDATE_MISSING;
+                }
+            } else if (DatabaseUtils.queryNumEntries(db, TABLE_NOTES, COLUMN_ID + " = ?", new String[]{id}) == 0) {
+                rows = UPDATE_MISSING;
+            }
+            // The draft goes only once the note holds what it had: written, or nothing left to
+            // write to a row that is still there. On a conflict or a missing row it is the only copy.
+            if (discardDraft && rows >= 0) deleteDraft(db, note.getId());
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+        return rows;
+    }
+
+    // Flag-only update: touches the small notes row, never the body
+    public void updateNoteCompleted(Note note) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        ContentValues v = new ContentValues();
+        v.put(COLUMN_IS_COMPLETED, note.isCompleted() ? 1 : 0);
+        v.put(COLUMN_COMPLETED_AT, stampCompletedAt(note));
+        v.put(COLUMN_UPDATED_AT, System.currentTimeMillis());
+        updateNoteRow(db, v, COLUMN_ID + "=?", new String[]{String.valueOf(note.getId())});
+        db.close();
+    }
+
+    public void updateNotePinned(int id, boolean pinned) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        ContentValues v = new ContentValues();
+        v.put(COLUMN_IS_PINNED, pinned ? 1 : 0);
+        v.put(COLUMN_UPDATED_AT, System.currentTimeMillis());
+        updateNoteRow(db, v, COLUMN_ID + "=?", new String[]{String.valueOf(id)});
+        db.close();
+    }
+
+    // Existing method (change visible category only)
+    public void updateNoteCategory(int id, int categoryId) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        ContentValues v = new ContentValues();
+        v.put(COLUMN_CATEGORY, categoryId);
+        v.put(COLUMN_UPDATED_AT, System.currentTimeMillis());
+        updateNoteRow(db, v, COLUMN_ID + "=?", new String[]{String.valueOf(id)});
+        db.close();
+    }
+
+    // NEW: move note between tabs without touching category; it lands on top of the new tab.
+    // Its sub-notes go with it; the note itself leaves its parent and becomes top-level there.
+    public void updateNoteFolder(int id, String folder) {
+        if (folder == null) folder = FOLDER_MAIN;
+        SQLiteDatabase db = this.getWritableDatabase();
+        long now = System.currentTimeMillis();
+        db.beginTransaction();
+        try {
+            ContentValues v = new ContentValues();
+            v.put(COLUMN_FOLDER, folder);
+            v.put(COLUMN_UPDATED_AT, now);
+            updateNoteRow(db, v, COLUMN_ID + " IN (" + SUBTREE + " SELECT " + COLUMN_ID + " FROM subtree)" +
+                    " AND " + COLUMN_ID + " != ?", new String[]{String.valueOf(id), String.valueOf(id)});
+            v.put(COLUMN_SORT_KEY, topSortKey(db, folder, 0));
+            v.putNull(COLUMN_PARENT_ID);
+            updateNoteRow(db, v, COLUMN_ID + "=?", new String[]{String.valueOf(id)});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+    }
+
+    // ===== SUB-NOTES =====
+    // A note and every note below it, as "subtree(id)"; bind the root id
+    private static final String SUBTREE =
+            "WITH RECURSIVE subtree(" + COLUMN_ID + ") AS (SELECT CAST(? AS INTEGER) UNION ALL" +
+                    " SELECT n." + COLUMN_ID + " FROM " + TABLE_NOTES + " n JOIN subtree s ON n." + COLUMN_PARENT_ID + " = s." + COLUMN_ID + ")";
+
+    // Hangs a note (with its own sub-notes) under parentId, on top of its new siblings, or
+    // back on the top level for parentId 0. Refuses to make a note its own descendant or to
+    // cross tabs. Local like the manual order: a plain update, not journaled or synced; the
+    // counters of both the old and the new ancestors follow by trigger.
+    public boolean setNoteParent(int id, int parentId) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        boolean moved = false;
+        db.beginTransaction();
+        try {
+            String folder = folderOf(db, id);
+            boolean allowed = true;
+            if (parentId > 0) {
+                Cursor c = db.rawQuery(SUBTREE + " SELECT 1 FROM subtree WHERE " + COLUMN_ID + " = ? LIMIT 1",
+                        new String[]{String.valueOf(id), String.valueOf(parentId)});
+                allowed = !c.moveToFirst() && folder.equals(folderOf(db, parentId));
+                c.close();
+            }
+            if (allowed) {
+                ContentValues v = new ContentValues();
+                if (parentId > 0) v.put(COLUMN_PARENT_ID, parentId); else v.putNull(COLUMN_PARENT_ID);
+                v.put(COLUMN_SORT_KEY, topSortKey(db, folder, parentId));
+                moved = db.update(TABLE_NOTES, v, COLUMN_ID + "=?", new String[]{String.valueOf(id)}) > 0;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+        return moved;
+    }
+
+    // ===== MANUAL ORDER =====
+    // Drops a dragged note between two neighbours of its tab (-1: none on that side) by
+    // giving it a key between theirs. Exactly one row is written, however long the folder;
+    // the new key is returned so the caller can see when it is time to rebalance.
+    public String moveNote(int id, int prevId, int nextId) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        String key;
+        db.beginTransaction();
+        try {
+            String prev = prevId != -1 ? sortKeyOf(db, prevId) : null;
+            String next = nextId != -1 ? sortKeyOf(db, nextId) : null;
+            if ((prevId != -1 && prev == null) || (nextId != -1 && next == null) ||
+                    (prev != null && next != null && prev.compareTo(next) >= 0)) {
+                // A neighbour without a key of its own (restored from before v24) or a
+                // tie: respace the note's siblings once, keeping the order on screen
+                respaceSortKeys(db, folderOf(db, id), parentOf(db, id));
+                prev = prevId != -1 ? sortKeyOf(db, prevId) : null;
+                next = nextId != -1 ? sortKeyOf(db, nextId) : null;
+            }
+            key = SortKeys.between(prev, next);
+            // Plain update: no version bump, and the journal trigger skips it
+            ContentValues v = new ContentValues();
+            v.put(COLUMN_SORT_KEY, key);
+            db.update(TABLE_NOTES, v, COLUMN_ID + "=?", new String[]{String.valueOf(id)});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+        return key;
+    }
+
+    // Rewrites every key of one folder as short, evenly spaced ones in the current order.
+    // This is the only write that touches the whole folder; MaintenanceTask runs it in the
+    // background once keys have grown past SortKeys.REBALANCE_LENGTH.
+    public void rebalanceSortKeys(String folder) {
+        rebalanceSortKeys(folder, 0);
+    }
+
+    // Same for the sub-notes of one note
+    public void rebalanceChildSortKeys(int parentId) {
+        rebalanceSortKeys(null, parentId);
+    }
+
+    private void rebalanceSortKeys(String folder, int parentId) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            respaceSortKeys(db, folder, parentId);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+    }
+
+    // New notes go on top, so the first key of a tab is the one that keeps growing
+    public boolean needsSortKeyRebalance(String folder) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        String first = firstSortKey(db, folder, 0);
+        db.close();
+        return SortKeys.needsRebalance(first);
+    }
+
+    // Key that sorts above every keyed unpinned sibling: the active top-level notes of the
+    // folder, or the children of parentId (> 0)
+    private static String topSortKey(SQLiteDatabase db, String folder, int parentId) {
+        return SortKeys.between(null, firstSortKey(db, folder, parentId));
+    }
+
+    private static String firstSortKey(SQLiteDatabase db, String folder, int parentId) {
+        Cursor c = db.query(TABLE_NOTES, new String[]{COLUMN_SORT_KEY},
+                siblingsWhere(parentId) + " AND " + COLUMN_IS_PINNED + "=0 AND " + COLUMN_SORT_KEY + " IS NOT NULL",
+                siblingsArgs(folder, parentId), null, null, COLUMN_SORT_KEY, "1");
+        String key = c.moveToFirst() ? c.getString(0) : null;
+        c.close();
+        return key;
+    }
+
+    // The list a note is ordered in: its parent's children, or its tab's active top-level notes
+    private static String siblingsWhere(int parentId) {
+        return parentId > 0 ? COLUMN_PARENT_ID + "=?"
+                : COLUMN_IS_COMPLETED + "=0 AND " + COLUMN_FOLDER + "=? AND " + COLUMN_PARENT_ID + " IS NULL";
+    }
+
+    private static String[] siblingsArgs(String folder, int parentId) {
+        return new String[]{parentId > 0 ? String.valueOf(parentId) : folder};
+    }
+
+    private static String sortKeyOf(SQLiteDatabase db, int id) {
+        Cursor c = db.query(TABLE_NOTES, new String[]{COLUMN_SORT_KEY},
+                COLUMN_ID + "=?", new String[]{String.valueOf(id)}, null, null, null);
+        String key = c.moveToFirst() ? c.getString(0) : null;
+        c.close();
+        return key;
+    }
+
+    private static int parentOf(SQLiteDatabase db, int id) {
+        Cursor c = db.query(TABLE_NOTES, new String[]{COLUMN_PARENT_ID},
+                COLUMN_ID + "=?", new String[]{String.valueOf(id)}, null, null, null);
+        int parentId = c.moveToFirst() ? c.getInt(0) : 0;
+        c.close();
+        return parentId;
+    }
+
+    private static String folderOf(SQLiteDatabase db, int id) {
+        Cursor c = db.query(TABLE_NOTES, new String[]{COLUMN_FOLDER},
+                COLUMN_ID + "=?", new String[]{String.valueOf(id)}, null, null, null);
+        String folder = c.moveToFirst() ? c.getString(0) : FOLDER_MAIN;
+        c.close();
+        return folder;
+    }
+
+    // Siblings as the list shows them (see siblingsWhere). Completed top-level notes keep
+    // their key and return to about where they were. Caller owns the transaction; plain
+    // updates, not journaled.
+    private static void respaceSortKeys(SQLiteDatabase db, String folder, int parentId) {
+        List<Integer> ids = new ArrayList<>();
+        Cursor c = db.query(TABLE_NOTES, new String[]{COLUMN_ID},
+                siblingsWhere(parentId), siblingsArgs(folder, parentId), null, null,
+                COLUMN_IS_PINNED + " DESC, " + COLUMN_SORT_KEY + ", " + COLUMN_CREATED_AT + " DESC");
+        while (c.moveToNext()) ids.add(c.getInt(0));
+        c.close();
+        String[] keys = SortKeys.spread(ids.size());
+        ContentValues v = new ContentValues();
+        for (int i = 0; i < keys.length; i++) {
+            v.put(COLUMN_SORT_KEY, keys[i]);
+            db.update(TABLE_NOTES, v, COLUMN_ID + "=?", new String[]{String.valueOf(ids.get(i))});
+        }
+    }
+
+    // ===== TRASH =====
+    public void deleteNote(int id) { moveToTrash(id); }
+
+    public void deleteAllNotes() { moveAllToTrash(); }
+
+    public List<Note> getTrashNotes() {
+        List<Note> list = new ArrayList<>();
+        String sql = "SELECT " + NOTE_COLUMNS + ", " + COLUMN_DELETED_AT + " FROM " + TABLE_TRASH +
+                " ORDER BY " + COLUMN_DELETED_AT + " DESC";
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor c = db.rawQuery(sql, null);
+        if (c.moveToFirst()) {
+            do {
+                Note n = readNoteFromCursor(c);
+                n.setDeleted(true);
+                list.add(n);
+            } while (c.moveToNext());
+        }
+        c.close();
+        db.close();
+        return list;
+    }
+
+    // Copy the row into notes_trash and drop it from notes in one transaction
+    public void moveToTrash(int id) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            trashNote(db, id, System.currentTimeMillis());
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+    }
+
+    // Caller owns the transaction; deletedAt doubles as the sync time of the deletion.
+    // Sub-notes go to the trash with the note.
+    private void trashNote(SQLiteDatabase db, int id, long deletedAt) {
+        execWrite(db, SUBTREE + " INSERT INTO " + TABLE_TRASH + " (" + NOTE_COLUMNS + ", " + COLUMN_DELETED_AT + ")" +
+                        " SELECT " + NOTE_COLUMNS + ", ? FROM " + TABLE_NOTES +
+                        " WHERE " + COLUMN_ID + " IN (SELECT " + COLUMN_ID + " FROM subtree)",
+                new Object[]{id, deletedAt});
+        execWrite(db, SUBTREE + " DELETE FROM " + TABLE_NOTES +
+                " WHERE " + COLUMN_ID + " IN (SELECT " + COLUMN_ID + " FROM subtree)", new Object[]{id});
+    }
+
+    // Trashed trees under the roots picked by rootWhere, as "trashed(id, depth)"
+    private static String trashedTrees(String rootWhere) {
+        return "WITH RECURSIVE trashed(" + COLUMN_ID + ", depth) AS (" +
+                "SELECT " + COLUMN_ID + ", 0 FROM " + TABLE_TRASH + " WHERE " + rootWhere + " UNION ALL" +
+                " SELECT t." + COLUMN_ID + ", d.depth + 1 FROM " + TABLE_TRASH + " t JOIN trashed d" +
+                " ON t." + COLUMN_PARENT_ID + " = d." + COLUMN_ID + ")";
+    }
+
+    // Trash rows brought back parents first, so the tree triggers rebuild the counters from
+    // zero. A restored root keeps its parent only if that note is still live.
+    private static final String RESTORED_COLUMNS;
+    static {
+        List<String> columns = new ArrayList<>();
+        for (String column : NOTE_PROJECTION) {
+            if (column.equals(COLUMN_PARENT_ID)) {
+                columns.add("CASE WHEN d.depth = 0 THEN (SELECT p." + COLUMN_ID + " FROM " + TABLE_NOTES + " p" +
+                        " WHERE p." + COLUMN_ID + " = t." + COLUMN_PARENT_ID + ") ELSE t." + COLUMN_PARENT_ID + " END");
+            } else if (column.equals(COLUMN_DESCENDANTS) || column.equals(COLUMN_DESCENDANTS_DONE)) {
+                columns.add("0");
+            } else {
+                columns.add("t." + column);
+            }
+        }
+        RESTORED_COLUMNS = TextUtils.join(", ", columns);
+    }
+
+    // Caller owns the transaction. A restore is a fresh edit, so it wins over the deletion
+    // on other devices.
+    private static void restoreTrees(SQLiteDatabase db, String rootWhere, Object[] args) {
+        String trees = trashedTrees(rootWhere);
+        String inTrees = " WHERE " + COLUMN_ID + " IN (SELECT " + COLUMN_ID + " FROM trashed)";
+        Object[] updateArgs = new Object[args.length + 1];
+        System.arraycopy(args, 0, updateArgs, 0, args.length);
+        updateArgs[args.length] = System.currentTimeMillis();
+        // The trees' parameters come first in the statement text
+        execWrite(db, trees + " UPDATE " + TABLE_TRASH + " SET " + COLUMN_UPDATED_AT + "=?, " +
+                COLUMN_VERSION + "=" + COLUMN_VERSION + "+1" + inTrees, updateArgs);
+        execWrite(db, trees + " INSERT INTO " + TABLE_NOTES + " (" + NOTE_COLUMNS + ")" +
+                " SELECT " + RESTORED_COLUMNS + " FROM trashed d JOIN " + TABLE_TRASH + " t" +
+                " ON t." + COLUMN_ID + " = d." + COLUMN_ID + " ORDER BY d.depth", args);
+        execWrite(db, trees + " DELETE FROM " + TABLE_TRASH + inTrees, args);
+    }
+
+    // Restores the note with the sub-notes that were trashed along with it
+    public void restoreFromTrash(int id) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            restoreTrees(db, COLUMN_ID + " = ?", new Object[]{id});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+    }
+
+    // Brings back a note that went to the trash or the archive while the editor had it open;
+    // false when it was deleted for good
+    public boolean restoreNote(int id) {
+        String[] args = {String.valueOf(id)};
+        SQLiteDatabase db = this.getReadableDatabase();
+        boolean trashed = DatabaseUtils.queryNumEntries(db, TABLE_TRASH, COLUMN_ID + "=?", args) > 0;
+        boolean archived = !trashed && DatabaseUtils.queryNumEntries(db, TABLE_ARCHIVE, COLUMN_ID + "=?", args) > 0;
+        db.close();
+        if (trashed) {
+            restoreFromTrash(id);
+        } else if (archived) {
+            restoreFromArchive(id);
+        }
+        return trashed || archived;
+    }
+
+    public void restoreAllFromTrash() {
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            // Every trash row whose parent is not in the trash too starts a tree
+            restoreTrees(db, COLUMN_PARENT_ID + " IS NULL OR " + COLUMN_PARENT_ID +
+                    " NOT IN (SELECT " + COLUMN_ID + " FROM " + TABLE_TRASH + ")", new Object[0]);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+    }
+
+    public void moveAllToTrash() {
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            execWrite(db, "INSERT INTO " + TABLE_TRASH + " (" + NOTE_COLUMNS + ", " + COLUMN_DELETED_AT + ")" +
+                            " SELECT " + NOTE_COLUMNS + ", ? FROM " + TABLE_NOTES,
+                    new Object[]{System.currentTimeMillis()});
+            execWrite(db, "DELETE FROM " + TABLE_NOTES, new Object[0]);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+    }
+
+    public void permanentlyDeleteNote(int id) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        Set<Integer> tags;
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_TRASH, COLUMN_ID + " = ?", new String[]{String.valueOf(id)});
+            db.delete(TABLE_CONTENT, COLUMN_NOTE_ID + " = ?", new String[]{String.valueOf(id)});
+            db.delete(TABLE_REVISIONS, COLUMN_NOTE_ID + " = ?", new String[]{String.valueOf(id)});
+            db.delete(TABLE_CHECKLIST, COLUMN_NOTE_ID + " = ?", new String[]{String.valueOf(id)});
+            db.delete(TABLE_NOTE_LINKS, COLUMN_SOURCE_ID + " = ?", new String[]{String.valueOf(id)});
+            db.delete(TABLE_NOTE_ATTACHMENTS, COLUMN_NOTE_ID + " = ?", new String[]{String.valueOf(id)});
+            tags = deleteNoteTags(db, id);
+            deleteDraft(db, id);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+        TagIndex.onNoteTagsChanged(getDatabaseName(), id, Collections.<Integer>emptySet(), tags);
+        collectAttachmentsLater();
+    }
+
+    // Whole-table delete: no per-row filtering needed any more
+    public void emptyTrash() {
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            execWrite(db, "DELETE FROM " + TABLE_CONTENT + " WHERE " + COLUMN_NOTE_ID +
+                    " IN (SELECT " + COLUMN_ID + " FROM " + TABLE_TRASH + ")", new Object[0]);
+            execWrite(db, "DELETE FROM " + TABLE_DRAFTS + " WHERE " + COLUMN_NOTE_ID +
+                    " IN (SELECT " + COLUMN_ID + " FROM " + TABLE_TRASH + ")", new Object[0]);
+            execWrite(db, "DELETE FROM " + TABLE_REVISIONS + " WHERE " + COLUMN_NOTE_ID +
+                    " IN (SELECT " + COLUMN_ID + " FROM " + TABLE_TRASH + ")", new Object[0]);
+            execWrite(db, "DELETE FROM " + TABLE_NOTE_TAGS + " WHERE " + COLUMN_NOTE_ID +
+                    " IN (SELECT " + COLUMN_ID + " FROM " + TABLE_TRASH + ")", new Object[0]);
+            execWrite(db, "DELETE FROM " + TABLE_CHECKLIST + " WHERE " + COLUMN_NOTE_ID +
+                    " IN (SELECT " + COLUMN_ID + " FROM " + TABLE_TRASH + ")", new Object[0]);
+            execWrite(db, "DELETE FROM " + TABLE_NOTE_LINKS + " WHERE " + COLUMN_SOURCE_ID +
+                    " IN (SELECT " + COLUMN_ID + " FROM " + TABLE_TRASH + ")", new Object[0]);
+            execWrite(db, "DELETE FROM " + TABLE_NOTE_ATTACHMENTS + " WHERE " + COLUMN_NOTE_ID +
+                    " IN (SELECT " + COLUMN_ID + " FROM " + TABLE_TRASH + ")", new Object[0]);
+            execWrite(db, "DELETE FROM " + TABLE_TRASH, new Object[0]);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+        TagIndex.invalidate(getDatabaseName());
+        collectAttachmentsLater();
+    }
+
+    // ===== DRAFTS =====
+    public void saveDraft(Draft draft) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        List<String> chunks = splitBody(draft.getContent());
+        ContentValues v = new ContentValues();
+        v.put(COLUMN_NOTE_ID, draft.getNoteId());
+        v.put(COLUMN_TITLE, draft.getTitle());
+        v.put(COLUMN_BODY, chunks.isEmpty() ? draft.getContent() : null);
+        v.put(COLUMN_CHUNKS, chunks.size());
+        v.put(COLUMN_CATEGORY, draft.getCategoryId());
+        v.put(COLUMN_REMINDER_TIME, draft.getReminderTime());
+        v.put(COLUMN_REPEAT_DAYS, draft.getRepeatDays());
+        v.put(COLUMN_HASH, draft.getHash());
+        v.put(COLUMN_SAVED_AT, draft.getSavedAt());
+        db.beginTransaction();
+        try {
+            db.insertWithOnConflict(TABLE_DRAFTS, null, v, SQLiteDatabase.CONFLICT_REPLACE);
+            writeChunks(db, TABLE_DRAFT_CHUNKS, draft.getNoteId(), chunks, false);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+    }
+
+    public Draft getDraft(int noteId) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor c = db.query(TABLE_DRAFTS,
+                new String[]{COLUMN_TITLE, COLUMN_BODY, COLUMN_CATEGORY, COLUMN_REMINDER_TIME,
+                        COLUMN_REPEAT_DAYS, COLUMN_HASH, COLUMN_SAVED_AT, COLUMN_CHUNKS},
+                COLUMN_NOTE_ID + "=?", new String[]{String.valueOf(noteId)}, null, null, null);
+        Draft draft = null;
+        if (c.moveToFirst()) {
+            int chunks = c.getInt(7);
+            String body = chunks > 0 ? readChunks(db, TABLE_DRAFT_CHUNKS, noteId, chunks, false) : c.getString(1);
+            draft = new Draft(noteId, c.getString(0), body, c.getInt(2),
+                    c.getLong(3), c.getInt(4), c.getLong(5), c.getLong(6));
+        }
+        c.close();
+        db.close();
+        return draft;
+    }
+
+    public void deleteDraft(int noteId) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        deleteDraft(db, noteId);
+        db.close();
+    }
+
+    private static void deleteDraft(SQLiteDatabase db, int noteId) {
+        db.delete(TABLE_DRAFTS, COLUMN_NOTE_ID + "=?", new String[]{String.valueOf(noteId)});
+    }
+
+    // ===== STORAGE =====
+    // One-off background pass (MaintenanceTask) over bodies stored before compression:
+    // rewrites the next batch of long plain bodies after afterNoteId. Returns the last
+    // note_id looked at, or 0 when nothing is left. Notes rows are not touched, so this
+    // is neither an edit nor a journal entry. Sealed bodies are plain text by design and
+    // stay out of it: rewriting one would also drop its note's draft.
+    public long compressStoredBodies(long afterNoteId, int limit) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        Cursor c = db.query(TABLE_CONTENT, new String[]{COLUMN_NOTE_ID},
+                COLUMN_NOTE_ID + " > ? AND " + COLUMN_FORMAT + " = " + FORMAT_TEXT +
+                        " AND (" + COLUMN_CHUNKS + " > 0 OR length(" + COLUMN_BODY + ") >= " + COMPRESS_MIN_CHARS + ")" +
+                        " AND NOT " + encryptedOwner(TABLE_NOTES) + " AND NOT " + encryptedOwner(TABLE_TRASH),
+                new String[]{String.valueOf(afterNoteId)}, null, null, COLUMN_NOTE_ID, String.valueOf(limit));
+        List<Long> ids = new ArrayList<>();
+        while (c.moveToNext()) ids.add(c.getLong(0));
+        c.close();
+        if (!ids.isEmpty()) {
+            db.beginTransaction();
+            try {
+                for (long id : ids) writeBody(db, id, readBody(db, id));
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+        db.close();
+        return ids.isEmpty() ? 0 : ids.get(ids.size() - 1);
+    }
+
+    // Whether the note_content row's note (live or trashed, by primary key) is encrypted
+    private static String encryptedOwner(String table) {
+        return "EXISTS (SELECT 1 FROM " + table + " WHERE " + table + "." + COLUMN_ID + " = " +
+                TABLE_CONTENT + "." + COLUMN_NOTE_ID + " AND " + table + "." + COLUMN_ENCRYPTED + " = 1)";
+    }
+
+    // Hands free pages back to the file system. Rewrites the whole file: background only.
+    public void vacuum() {
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.execSQL("VACUUM");
+        db.close();
+    }
+
+    // ===== CATEGORIES =====
+    // Every category by code (built-ins first); CategoryRegistry caches this
+    public List<Category> getCategories() {
+        List<Category> list = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor c = db.query(TABLE_CATEGORIES,
+                new String[]{COLUMN_ID, COLUMN_KEY, COLUMN_NAME, COLUMN_COLOR, COLUMN_RECURRING},
+                null, null, null, null, COLUMN_ID);
+        while (c.moveToNext()) {
+            list.add(new Category(c.getInt(0), c.getString(1), c.getString(2), c.getInt(3), c.getInt(4) == 1));
+        }
+        c.close();
+        db.close();
+        return list;
+    }
+
+    // User-defined category; returns its code, or the existing one if the key is taken
+    public int addCategory(String key, String name, int color, boolean recurring) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        ContentValues v = new ContentValues();
+        v.put(COLUMN_KEY, key);
+        v.put(COLUMN_NAME, name);
+        v.put(COLUMN_COLOR, color);
+        v.put(COLUMN_RECURRING, recurring ? 1 : 0);
+        long id = db.insertWithOnConflict(TABLE_CATEGORIES, null, v, SQLiteDatabase.CONFLICT_IGNORE);
+        if (id == -1) {
+            id = DatabaseUtils.longForQuery(db, "SELECT " + COLUMN_ID + " FROM " + TABLE_CATEGORIES +
+                    " WHERE " + COLUMN_KEY + "=?", new String[]{key});
+        }
+        db.close();
+        CategoryRegistry.invalidate();
+        return (int) id;
+    }
+
+    // ===== FOLDERS =====
+    public List<Folder> getFolders() {
+        List<Folder> list = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor c = db.query(TABLE_FOLDERS, new String[]{COLUMN_ID, COLUMN_KEY, COLUMN_NAME},
+                null, null, null, null, COLUMN_POSITION + ", " + COLUMN_ID);
+        while (c.moveToNext()) list.add(new Folder(c.getInt(0), c.getString(1), c.getString(2)));
+        c.close();
+        db.close();
+        return list;
+    }
+
+    // New folder at the end of the tabs; the key is random so folders made on two
+    // devices never collide when synced
+    public Folder addFolder(String name) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        String key = UUID.randomUUID().toString();
+        ContentValues v = new ContentValues();
+        v.put(COLUMN_KEY, key);
+        v.put(COLUMN_NAME, name.trim());
+        v.put(COLUMN_POSITION, DatabaseUtils.longForQuery(db,
+                "SELECT IFNULL(MAX(" + COLUMN_POSITION + "), -1) + 1 FROM " + TABLE_FOLDERS, null));
+        long id = db.insert(TABLE_FOLDERS, null, v);
+        db.close();
+        return new Folder((int) id, key, name.trim());
+    }
+
+    // Sync: a pulled note may live in a folder this device hasn't seen; it shows up under its key
+    public void ensureFolder(String key) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.execSQL("INSERT OR IGNORE INTO " + TABLE_FOLDERS + " (" + COLUMN_KEY + ", " + COLUMN_NAME + ", " + COLUMN_POSITION + ")" +
+                " SELECT ?, ?, IFNULL(MAX(" + COLUMN_POSITION + "), -1) + 1 FROM " + TABLE_FOLDERS, new Object[]{key, key});
+        db.close();
+    }
+
+    public void renameFolder(int id, String name) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        ContentValues v = new ContentValues();
+        v.put(COLUMN_NAME, name.trim());
+        db.update(TABLE_FOLDERS, v, COLUMN_ID + "=?", new String[]{String.valueOf(id)});
+        db.close();
+    }
+
+    // Notes of a deleted folder (including trashed and archived ones) go back to the main tab
+    public void deleteFolder(Folder folder) {
+        if (folder.isBuiltIn()) return;
+        SQLiteDatabase db = this.getWritableDatabase();
+        String[] args = new String[]{folder.getKey()};
+        db.beginTransaction();
+        try {
+            ContentValues v = new ContentValues();
+            v.put(COLUMN_FOLDER, FOLDER_MAIN);
+            db.update(TABLE_TRASH, v, COLUMN_FOLDER + "=?", args);
+            db.update(TABLE_ARCHIVE, v, COLUMN_FOLDER + "=?", args);
+            v.put(COLUMN_UPDATED_AT, System.currentTimeMillis());
+            updateNoteRow(db, v, COLUMN_FOLDER + "=?", args);
+            db.delete(TABLE_FOLDERS, COLUMN_ID + "=?", new String[]{String.valueOf(folder.getId())});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+    }
+
+    // ===== CHECKLISTS =====
+    public List<ChecklistItem> getChecklistItems(int noteId) {
+        List<ChecklistItem> list = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor c = db.query(TABLE_CHECKLIST, new String[]{COLUMN_ID, COLUMN_TEXT, COLUMN_CHECKED},
+                COLUMN_NOTE_ID + "=?", new String[]{String.valueOf(noteId)}, null, null, COLUMN_POSITION);
+        while (c.moveToNext()) list.add(new ChecklistItem(c.getInt(0), c.getString(1), c.getInt(2) == 1));
+        c.close();
+        db.close();
+        return list;
+    }
+
+    // Turns a text note into a checklist, one item per non-empty line. The old body is kept
+    // as a revision and the note's draft is dropped; the row version moves on, so an editor
+    // still holding the text version gets a conflict instead of overwriting.
+    public void convertToChecklist(int noteId, String title, List<String> lines) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        long now = System.currentTimeMillis();
+        db.beginTransaction();
+        try {
+            seedRevisions(db, noteId);
+            ContentValues v = new ContentValues();
+            v.put(COLUMN_TITLE, title);
+            putBodyColumns(v, "");
+            v.put(COLUMN_ITEMS_TOTAL, 0);
+            v.put(COLUMN_ITEMS_DONE, 0);
+            v.put(COLUMN_UPDATED_AT, now);
+            updateNoteRow(db, v, COLUMN_ID + "=?", new String[]{String.valueOf(noteId)});
+            writeBody(db, noteId, "");
+            syncLinks(db, noteId, "");
+            ContentValues item = new ContentValues();
+            item.put(COLUMN_NOTE_ID, noteId);
+            int position = 0;
+            for (String line : lines) {
+                if (line.trim().isEmpty()) continue;
+                item.put(COLUMN_POSITION, ++position);
+                item.put(COLUMN_TEXT, line.trim());
+                db.insert(TABLE_CHECKLIST, null, item);
+            }
+            deleteDraft(db, noteId);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+    }
+
+    // Appends an item after the current last one
+    public ChecklistItem addChecklistItem(int noteId, String text) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        Cursor c = db.rawQuery("SELECT MAX(" + COLUMN_POSITION + ") FROM " + TABLE_CHECKLIST +
+                " WHERE " + COLUMN_NOTE_ID + "=?", new String[]{String.valueOf(noteId)});
+        double last = c.moveToFirst() && !c.isNull(0) ? c.getDouble(0) : 0;
+        c.close();
+        ContentValues v = new ContentValues();
+        v.put(COLUMN_NOTE_ID, noteId);
+        v.put(COLUMN_POSITION, last + 1);
+        v.put(COLUMN_TEXT, text);
+        long id = db.insert(TABLE_CHECKLIST, null, v);
+        db.close();
+        return new ChecklistItem((int) id, text, false);
+    }
+
+    // One row; the progress trigger adjusts the note's counters
+    public void setChecklistItemChecked(int itemId, boolean checked) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        ContentValues v = new ContentValues();
+        v.put(COLUMN_CHECKED, checked ? 1 : 0);
+        db.update(TABLE_CHECKLIST, v, COLUMN_ID + "=?", new String[]{String.valueOf(itemId)});
+        db.close();
+    }
+
+    public void updateChecklistItemText(int itemId, String text) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        ContentValues v = new ContentValues();
+        v.put(COLUMN_TEXT, text);
+        db.update(TABLE_CHECKLIST, v, COLUMN_ID + "=?", new String[]{String.valueOf(itemId)});
+        db.close();
+    }
+
+    public void deleteChecklistItem(int itemId) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.delete(TABLE_CHECKLIST, COLUMN_ID + "=?", new String[]{String.valueOf(itemId)});
+        db.close();
+    }
+
+    // Moves an item between two neighbours (-1: list start / end) by giving it the midpoint
+    // of their positions. Only when repeated moves into one gap have used up the double's
+    // precision does the note's list get renumbered.
+    public void moveChecklistItem(int noteId, int itemId, int prevId, int nextId) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            double prev = prevId != -1 ? checklistPosition(db, prevId) : Double.NaN;
+            double next = nextId != -1 ? checklistPosition(db, nextId) : Double.NaN;
+            double position;
+            if (Double.isNaN(prev) && Double.isNaN(next)) position = 1;
+            else if (Double.isNaN(prev)) position = next - 1;
+            else if (Double.isNaN(next)) position = prev + 1;
+            else position = prev + (next - prev) / 2;
+
+            boolean fits = (Double.isNaN(prev) || position > prev) && (Double.isNaN(next) || position < next);
+            if (fits) {
+                ContentValues v = new ContentValues();
+                v.put(COLUMN_POSITION, position);
+                db.update(TABLE_CHECKLIST, v, COLUMN_ID + "=?", new String[]{String.valueOf(itemId)});
+            } else {
+                renumberChecklist(db, noteId, itemId, prevId);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+    }
+
+    private static double checklistPosition(SQLiteDatabase db, int itemId) {
+        Cursor c = db.query(TABLE_CHECKLIST, new String[]{COLUMN_POSITION},
+                COLUMN_ID + "=?", new String[]{String.valueOf(itemId)}, null, null, null);
+        double position = c.moveToFirst() ? c.getDouble(0) : Double.NaN;
+        c.close();
+        return position;
+    }
+
+    // Rewrites every position of a note as 1..n, with itemId placed right after prevId
+    private static void renumberChecklist(SQLiteDatabase db, int noteId, int itemId, int prevId) {
+        List<Integer> order = new ArrayList<>();
+        if (prevId == -1) order.add(itemId);
+        Cursor c = db.query(TABLE_CHECKLIST, new String[]{COLUMN_ID},
+                COLUMN_NOTE_ID + "=? AND " + COLUMN_ID + "!=?",
+                new String[]{String.valueOf(noteId), String.valueOf(itemId)}, null, null, COLUMN_POSITION);
+        while (c.moveToNext()) {
+            order.add(c.getInt(0));
+            if (c.getInt(0) == prevId) order.add(itemId);
+        }
+        c.close();
+        ContentValues v = new ContentValues();
+        for (int i = 0; i < order.size(); i++) {
+            v.put(COLUMN_POSITION, i + 1);
+            db.update(TABLE_CHECKLIST, v, COLUMN_ID + "=?", new String[]{String.valueOf(order.get(i))});
+        }
+    }
+
+    // ===== TAGS =====
+    public List<Tag> getTags() {
+        List<Tag> list = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor c = db.query(TABLE_TAGS, new String[]{COLUMN_ID, COLUMN_NAME},
+                null, null, null, null, COLUMN_NAME);
+        while (c.moveToNext()) list.add(new Tag(c.getInt(0), c.getString(1)));
+        c.close();
+        db.close();
+        return list;
+    }
+
+    // Returns the new tag's id, or the existing one when the name is taken. NOCASE only
+    // folds ASCII, so Cyrillic names are compared here instead (the table is small).
+    public int addTag(String name) {
+        String trimmed = name.trim();
+        SQLiteDatabase db = this.getWritableDatabase();
+        long id = -1;
+        Cursor c = db.query(TABLE_TAGS, new String[]{COLUMN_ID, COLUMN_NAME}, null, null, null, null, null);
+        while (id == -1 && c.moveToNext()) {
+            if (c.getString(1).equalsIgnoreCase(trimmed)) id = c.getLong(0);
+        }
+        c.close();
+        if (id == -1) {
+            ContentValues v = new ContentValues();
+            v.put(COLUMN_NAME, trimmed);
+            id = db.insert(TABLE_TAGS, null, v);
+        }
+        db.close();
+        return (int) id;
+    }
+
+    public Set<Integer> getNoteTagIds(int noteId) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        Set<Integer> ids = readNoteTagIds(db, noteId);
+        db.close();
+        return ids;
+    }
+
+    // Replaces the note's tags with tagIds, writing only the difference, and passes the
+    // same difference on to TagIndex once committed
+    public void setNoteTags(int noteId, Collection<Integer> tagIds) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        Set<Integer> added = new HashSet<>(tagIds);
+        Set<Integer> removed;
+        db.beginTransaction();
+        try {
+            removed = readNoteTagIds(db, noteId);
+            added.removeAll(removed);
+            removed.removeAll(tagIds);
+            for (int tag : removed) {
+                db.delete(TABLE_NOTE_TAGS, COLUMN_NOTE_ID + "=? AND " + COLUMN_TAG_ID + "=?",
+                        new String[]{String.valueOf(noteId), String.valueOf(tag)});
+            }
+            ContentValues v = new ContentValues();
+            v.put(COLUMN_NOTE_ID, noteId);
+            for (int tag : added) {
+                v.put(COLUMN_TAG_ID, tag);
+                db.insert(TABLE_NOTE_TAGS, null, v);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+        TagIndex.onNoteTagsChanged(getDatabaseName(), noteId, added, removed);
+    }
+
+    // Cold build of TagIndex: rows arrive grouped by tag with ascending note ids, so every
+    // add appends to the end of its bitmap
+    SparseArray<IdBitmap> readTagBitmaps() {
+        SparseArray<IdBitmap> byTag = new SparseArray<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor c = db.rawQuery("SELECT " + COLUMN_TAG_ID + ", " + COLUMN_NOTE_ID + " FROM " + TABLE_NOTE_TAGS +
+                " ORDER BY " + COLUMN_TAG_ID + ", " + COLUMN_NOTE_ID, null);
+        IdBitmap current = null;
+        int currentTag = 0;
+        while (c.moveToNext()) {
+            int tag = c.getInt(0);
+            if (current == null || tag != currentTag) {
+                current = new IdBitmap();
+                currentTag = tag;
+                byTag.put(tag, current);
+            }
+            current.add(c.getInt(1));
+        }
+        c.close();
+        db.close();
+        return byTag;
+    }
+
+    private static Set<Integer> readNoteTagIds(SQLiteDatabase db, int noteId) {
+        Set<Integer> ids = new HashSet<>();
+        Cursor c = db.query(TABLE_NOTE_TAGS, new String[]{COLUMN_TAG_ID},
+                COLUMN_NOTE_ID + "=?", new String[]{String.valueOf(noteId)}, null, null, null);
+        while (c.moveToNext()) ids.add(c.getInt(0));
+        c.close();
+        return ids;
+    }
+
+    // Purge of one note; returns the tags it had so TagIndex can drop it from them
+    private static Set<Integer> deleteNoteTags(SQLiteDatabase db, int noteId) {
+        Set<Integer> ids = readNoteTagIds(db, noteId);
+        db.delete(TABLE_NOTE_TAGS, COLUMN_NOTE_ID + "=?", new String[]{String.valueOf(noteId)});
+        return ids;
+    }
+
+    // ===== LINKS =====
+    // Live notes whose body links to this note's title, in id order
+    public List<Note> getBacklinks(int noteId) {
+        List<Note> list = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        String title = titleOf(db, noteId);
+        if (title != null) {
+            Cursor c = db.query(TABLE_NOTES, NOTE_PROJECTION,
+                    COLUMN_ID + " IN (SELECT " + COLUMN_SOURCE_ID + " FROM " + TABLE_NOTE_LINKS +
+                            " WHERE " + COLUMN_TARGET_TITLE + " = ?) AND " + COLUMN_ID + " != ?",
+                    new String[]{title, String.valueOf(noteId)}, null, null, null);
+            while (c.moveToNext()) list.add(readNoteFromCursor(c));
+            c.close();
+        }
+        db.close();
+        return list;
+    }
+
+    // The live note a [[title]] link leads to, or -1. Titles need not be unique: the
+    // first match in the title index wins.
+    public int findNoteByTitle(String title) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        int id = findNoteByTitle(db, title.trim(), -1);
+        db.close();
+        return id;
+    }
+
+    private static int findNoteByTitle(SQLiteDatabase db, String title, int exceptId) {
+        Cursor c = db.query(TABLE_NOTES, new String[]{COLUMN_ID},
+                COLUMN_TITLE + " = ? COLLATE NOCASE AND " + COLUMN_ID + " != ?",
+                new String[]{title, String.valueOf(exceptId)}, null, null, null, "1");
+        int id = c.moveToFirst() ? c.getInt(0) : -1;
+        c.close();
+        return id;
+    }
+
+    private static String titleOf(SQLiteDatabase db, int id) {
+        Cursor c = db.query(TABLE_NOTES, new String[]{COLUMN_TITLE},
+                COLUMN_ID + "=?", new String[]{String.valueOf(id)}, null, null, null);
+        String title = c.moveToFirst() ? c.getString(0) : null;
+        c.close();
+        return title;
+    }
+
+    // Brings the note's link rows in line with body by writing only the difference from
+    // what they were; no other note is looked at. Caller owns the transaction.
+    private static void syncLinks(SQLiteDatabase db, long noteId, String body) {
+        Set<String> targets = NoteLinks.parse(body);
+        String source = String.valueOf(noteId);
+        Set<String> old = new HashSet<>();
+        Cursor c = db.query(TABLE_NOTE_LINKS, new String[]{COLUMN_TARGET_TITLE},
+                COLUMN_SOURCE_ID + "=?", new String[]{source}, null, null, null);
+        while (c.moveToNext()) old.add(c.getString(0));
+        c.close();
+        for (String title : old) {
+            if (!targets.contains(title)) {
+                db.delete(TABLE_NOTE_LINKS, COLUMN_SOURCE_ID + "=? AND " + COLUMN_TARGET_TITLE + "=?",
+                        new String[]{source, title});
+            }
+        }
+        ContentValues v = new ContentValues();
+        v.put(COLUMN_SOURCE_ID, noteId);
+        for (String title : targets) {
+            if (old.contains(title)) continue;
+            v.put(COLUMN_TARGET_TITLE, title);
+            // Another spelling of a target already linked (the key ignores case)
+            db.insertWithOnConflict(TABLE_NOTE_LINKS, null, v, SQLiteDatabase.CONFLICT_IGNORE);
+        }
+    }
+
+    // A renamed note keeps its backlinks: every live note that links to the old title (the
+    // target index names them, nothing else is read) gets its links rewritten, as an edit
+    // of its own that syncs. Skipped while another note still answers to the old title.
+    private void relinkRenamedNote(SQLiteDatabase db, int id, String oldTitle, String newTitle, long now) {
+        if (findNoteByTitle(db, oldTitle.trim(), id) != -1) return;
+        List<Integer> sources = new ArrayList<>();
+        Cursor c = db.rawQuery("SELECT l." + COLUMN_SOURCE_ID + " FROM " + TABLE_NOTE_LINKS + " l" +
+                        " JOIN " + TABLE_NOTES + " n ON n." + COLUMN_ID + " = l." + COLUMN_SOURCE_ID +
+                        " WHERE l." + COLUMN_TARGET_TITLE + " = ? AND l." + COLUMN_SOURCE_ID + " != ?",
+                new String[]{oldTitle.trim(), String.valueOf(id)});
+        while (c.moveToNext()) sources.add(c.getInt(0));
+        c.close();
+        for (int source : sources) {
+            String body = readBody(db, source);
+            String relinked = NoteLinks.rename(body, oldTitle, newTitle);
+            if (relinked == null || relinked.equals(body)) continue;
+            ContentValues v = new ContentValues();
+            putBodyColumns(v, relinked);
+            v.put(COLUMN_UPDATED_AT, now);
+            updateNoteRow(db, v, COLUMN_ID + "=?", new String[]{String.valueOf(source)});
+            writeBody(db, source, relinked);
+            syncLinks(db, source, relinked);
+        }
+    }
+
+    // ===== ATTACHMENTS =====
+    // Files attached to a note, in the order they were added
+    public List<Attachment> getAttachments(int noteId) {
+        List<Attachment> list = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor c = db.rawQuery("SELECT na." + COLUMN_HASH + ", na." + COLUMN_NAME + ", a." + COLUMN_MIME + ", a." + COLUMN_SIZE +
+                        " FROM " + TABLE_NOTE_ATTACHMENTS + " na" +
+                        " JOIN " + TABLE_ATTACHMENTS + " a ON a." + COLUMN_HASH + " = na." + COLUMN_HASH +
+                        " WHERE na." + COLUMN_NOTE_ID + " = ? ORDER BY na." + COLUMN_POSITION,
+                new String[]{String.valueOf(noteId)});
+        while (c.moveToNext()) {
+            list.add(new Attachment(c.getString(0), c.getString(1), c.getString(2), c.getLong(3)));
+        }
+        c.close();
+        db.close();
+        return list;
+    }
+
+    // Records a stored file (AttachmentStore) as attached to a live note, after the ones it
+    // has; the same content attached to it again changes nothing. False if the note is gone.
+    boolean addAttachment(int noteId, Attachment attachment) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        String[] args = new String[]{String.valueOf(noteId)};
+        boolean added = false;
+        db.beginTransaction();
+        try {
+            Cursor c = db.query(TABLE_NOTES, new String[]{COLUMN_ID}, COLUMN_ID + "=?", args, null, null, null);
+            boolean live = c.moveToFirst();
+            c.close();
+            if (live) {
+                ContentValues v = new ContentValues();
+                v.put(COLUMN_HASH, attachment.getHash());
+                v.put(COLUMN_MIME, attachment.getMime());
+                v.put(COLUMN_SIZE, attachment.getSize());
+                db.insertWithOnConflict(TABLE_ATTACHMENTS, null, v, SQLiteDatabase.CONFLICT_IGNORE);
+
+                c = db.rawQuery("SELECT IFNULL(MAX(" + COLUMN_POSITION + "), 0) + 1 FROM " + TABLE_NOTE_ATTACHMENTS +
+                        " WHERE " + COLUMN_NOTE_ID + " = ?", args);
+                int position = c.moveToFirst() ? c.getInt(0) : 1;
+                c.close();
+                v = new ContentValues();
+                v.put(COLUMN_NOTE_ID, noteId);
+                v.put(COLUMN_HASH, attachment.getHash());
+                v.put(COLUMN_POSITION, position);
+                v.put(COLUMN_NAME, attachment.getName());
+                db.insertWithOnConflict(TABLE_NOTE_ATTACHMENTS, null, v, SQLiteDatabase.CONFLICT_IGNORE);
+                added = true;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+        return added;
+    }
+
+    // The file itself stays until the next collection (AttachmentStore.remove runs one)
+    void removeAttachment(int noteId, String hash) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.delete(TABLE_NOTE_ATTACHMENTS, COLUMN_NOTE_ID + "=? AND " + COLUMN_HASH + "=?",
+                new String[]{String.valueOf(noteId), hash});
+        db.close();
+    }
+
+    // Drops the rows of files no note refers to any more and returns their hashes, so the
+    // caller (AttachmentStore, holding its lock) can delete the files
+    List<String> deleteUnreferencedAttachments() {
+        List<String> hashes = new ArrayList<>();
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            Cursor c = db.query(TABLE_ATTACHMENTS, new String[]{COLUMN_HASH}, COLUMN_REFS + " <= 0",
+                    null, null, null, null);
+            while (c.moveToNext()) hashes.add(c.getString(0));
+            c.close();
+            if (!hashes.isEmpty()) db.delete(TABLE_ATTACHMENTS, COLUMN_REFS + " <= 0", null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+        return hashes;
+    }
+
+    // Every stored file, referenced or not (AttachmentStore.sweep)
+    Set<String> getAttachmentHashes() {
+        Set<String> hashes = new HashSet<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor c = db.query(TABLE_ATTACHMENTS, new String[]{COLUMN_HASH}, null, null, null, null, null);
+        while (c.moveToNext()) hashes.add(c.getString(0));
+        c.close();
+        db.close();
+        return hashes;
     }
 
-    @Override public void onCreate(SQLiteDatabase db) { db.execSQL(CREATE_TABLE_NOTES); }
+    // For a note row written without the triggers' help (restores that rebuild the row)
+    private static void refreshCover(SQLiteDatabase db, long noteId) {
+        db.execSQL(coverUpdate("?"), new Object[]{noteId, noteId, noteId});
+    }
 
-    @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        if (oldVersion < 2) {
-            db.execSQL("ALTER TABLE " + TABLE_NOTES + " ADD COLUMN " + COLUMN_IS_PINNED + " INTEGER DEFAULT 0");
+    // ===== REVISIONS =====
+    // Saved versions of a note, newest first (metadata only)
+    public List<Revision> getRevisions(int noteId) {
+        List<Revision> list = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor c = db.query(TABLE_REVISIONS,
+                new String[]{COLUMN_REV, COLUMN_CREATED_AT, COLUMN_TITLE, COLUMN_KIND, "length(" + COLUMN_DATA + ")"},
+                COLUMN_NOTE_ID + "=?", new String[]{String.valueOf(noteId)}, null, null, COLUMN_REV + " DESC");
+        while (c.moveToNext()) {
+            list.add(new Revision(noteId, c.getInt(0), c.getLong(1), c.getString(2),
+                    c.getInt(3) == REVISION_SNAPSHOT, c.getInt(4)));
         }
-        if (oldVersion < 3) {
-            db.execSQL("ALTER TABLE " + TABLE_NOTES + " ADD COLUMN " + COLUMN_REPEAT_DAYS + " INTEGER DEFAULT 0");
+        c.close();
+        db.close();
+        return list;
+    }
+
+    // Body of one revision: the nearest snapshot at or before it plus the deltas after that
+    public String getRevisionContent(int noteId, int rev) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        String content = readRevision(db, noteId, rev);
+        db.close();
+        return content;
+    }
+
+    // Retention (MaintenanceTask): per note, drops revisions older than cutoffTime and all
+    // but the newest keepPerNote, always keeping the latest. The oldest kept revision is
+    // rewritten as a snapshot first when it was a delta. Returns how many were dropped.
+    public int pruneRevisions(long cutoffTime, int keepPerNote) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        List<long[]> notes = new ArrayList<>();
+        Cursor c = db.rawQuery("SELECT " + COLUMN_NOTE_ID + ", MIN(" + COLUMN_REV + "), MAX(" + COLUMN_REV + ")," +
+                        " MIN(CASE WHEN " + COLUMN_CREATED_AT + " >= ? THEN " + COLUMN_REV + " END)" +
+                        " FROM " + TABLE_REVISIONS + " GROUP BY " + COLUMN_NOTE_ID,
+                new String[]{String.valueOf(cutoffTime)});
+        while (c.moveToNext()) {
+            long latest = c.getLong(2);
+            long keepFrom = Math.max(latest - keepPerNote + 1, c.isNull(3) ? latest : c.getLong(3));
+            if (keepFrom > c.getLong(1)) notes.add(new long[]{c.getLong(0), keepFrom});
         }
-        if (oldVersion < 4) {
-            db.execSQL("ALTER TABLE " + TABLE_NOTES + " ADD COLUMN " + COLUMN_CATEGORY + " TEXT DEFAULT 'personal'");
+        c.close();
+
+        int pruned = 0;
+        for (long[] note : notes) {
+            String[] args = new String[]{String.valueOf(note[0]), String.valueOf(note[1])};
+            db.beginTransaction();
+            try {
+                String text = readRevision(db, note[0], (int) note[1]);
+                ContentValues v = new ContentValues();
+                v.put(COLUMN_KIND, REVISION_SNAPSHOT);
+                v.put(COLUMN_DATA, ContentCodec.compress(text, Deflater.DEFAULT_COMPRESSION));
+                db.update(TABLE_REVISIONS, v, COLUMN_NOTE_ID + "=? AND " + COLUMN_REV + "=? AND " +
+                        COLUMN_KIND + "=" + REVISION_DELTA, args);
+                pruned += db.delete(TABLE_REVISIONS, COLUMN_NOTE_ID + "=? AND " + COLUMN_REV + "<?", args);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
         }
-        if (oldVersion < 5) {
-            db.execSQL("ALTER TABLE " + TABLE_NOTES + " ADD COLUMN " + COLUMN_IS_DELETED + " INTEGER DEFAULT 0");
-            db.execSQL("ALTER TABLE " + TABLE_NOTES + " ADD COLUMN " + COLUMN_DELETED_AT + " INTEGER DEFAULT 0");
+        db.close();
+        return pruned;
+    }
+
+    // Appends a revision after an editor save: a delta against the previous revision,
+    // or a snapshot when there is none, the chain since the last snapshot is long or
+    // the delta is no smaller. Bodies too long for one row are not versioned, and neither
+    // are sealed ones.
+    private static void recordRevision(SQLiteDatabase db, long noteId, String title, String content, long now) {
+        if (content == null) content = "";
+        if (content.length() > CHUNK_CHARS || NoteCipher.isSealed(content)) return;
+        Cursor c = db.rawQuery("SELECT MAX(" + COLUMN_REV + "), MAX(CASE WHEN " + COLUMN_KIND + " = " + REVISION_SNAPSHOT +
+                        " THEN " + COLUMN_REV + " END) FROM " + TABLE_REVISIONS + " WHERE " + COLUMN_NOTE_ID + "=?",
+                new String[]{String.valueOf(noteId)});
+        c.moveToFirst();
+        int latest = c.isNull(0) ? -1 : c.getInt(0);
+        int lastSnapshot = c.isNull(1) ? -1 : c.getInt(1);
+        c.close();
+
+        int kind = REVISION_SNAPSHOT;
+        byte[] data = ContentCodec.compress(content, Deflater.DEFAULT_COMPRESSION);
+        if (latest >= 0 && lastSnapshot >= 0 && latest - lastSnapshot + 1 < REVISION_SNAPSHOT_INTERVAL) {
+            byte[] delta = RevisionDelta.encode(readRevision(db, noteId, latest), content);
+            if (delta.length < data.length) {
+                kind = REVISION_DELTA;
+                data = delta;
+            }
         }
-        // NEW: add FOLDER and infer from old "category='secondary'" if present
-        if (oldVersion < 6) {
-            db.execSQL("ALTER TABLE " + TABLE_NOTES + " ADD COLUMN " + COLUMN_FOLDER +
-                    " TEXT DEFAULT '" + FOLDER_MAIN + "'");
-            // If you previously abused category to store folder, keep category as-is
-            // but mark the folder accordingly:
-            db.execSQL("UPDATE " + TABLE_NOTES +
-                    " SET " + COLUMN_FOLDER + "='" + FOLDER_SECONDARY + "'" +
-                    " WHERE " + COLUMN_CATEGORY + "='secondary'");
+        ContentValues v = new ContentValues();
+        v.put(COLUMN_NOTE_ID, noteId);
+        v.put(COLUMN_REV, latest + 1);
+        v.put(COLUMN_CREATED_AT, now);
+        v.put(COLUMN_TITLE, title);
+        v.put(COLUMN_KIND, kind);
+        v.put(COLUMN_DATA, data);
+        db.insert(TABLE_REVISIONS, null, v);
+    }
+
+    // Before a note's first versioned save: keep the stored version as revision 0
+    private void seedRevisions(SQLiteDatabase db, long noteId) {
+        String[] args = new String[]{String.valueOf(noteId)};
+        if (DatabaseUtils.queryNumEntries(db, TABLE_REVISIONS, COLUMN_NOTE_ID + "=?", args) > 0) return;
+        Cursor c = db.query(TABLE_NOTES, new String[]{COLUMN_TITLE, COLUMN_UPDATED_AT, COLUMN_CREATED_AT},
+                COLUMN_ID + "=?", args, null, null, null);
+        if (c.moveToFirst()) {
+            long at = c.getLong(1) > 0 ? c.getLong(1) : c.getLong(2);
+            recordRevision(db, noteId, c.getString(0), readBody(db, noteId), at);
         }
+        c.close();
     }
 
-    // ===== CREATE =====
-    public long addNote(Note note) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(COLUMN_TITLE, note.getTitle());
-        values.put(COLUMN_CONTENT, note.getContent());
-        values.put(COLUMN_CREATED_AT, note.getCreatedAt());
-        values.put(COLUMN_REMINDER_TIME, note.getReminderTime());
-        values.put(COLUMN_IS_COMPLETED, note.isCompleted() ? 1 : 0);
-        values.put(COLUMN_IS_PINNED, note.isPinned() ? 1 : 0);
-        values.put(COLUMN_REPEAT_DAYS, note.getRepeatDays());
-        values.put(COLUMN_CATEGORY, note.getCategory() == null ? "personal" : note.getCategory());
-        values.put(COLUMN_IS_DELETED, 0);
-        values.put(COLUMN_DELETED_AT, 0);
-        // folder defaults to MAIN; if your Note model later adds folder, set it here
-        long id = db.insert(TABLE_NOTES, null, values);
-        db.close();
-        return id;
+    private static String readRevision(SQLiteDatabase db, long noteId, int rev) {
+        String id = String.valueOf(noteId);
+        String upTo = String.valueOf(rev);
+        Cursor c = db.rawQuery("SELECT " + COLUMN_KIND + ", " + COLUMN_DATA + " FROM " + TABLE_REVISIONS +
+                        " WHERE " + COLUMN_NOTE_ID + "=? AND " + COLUMN_REV + "<=? AND " + COLUMN_REV + ">=" +
+                        "(SELECT MAX(" + COLUMN_REV + ") FROM " + TABLE_REVISIONS + " WHERE " + COLUMN_NOTE_ID + "=?" +
+                        " AND " + COLUMN_REV + "<=? AND " + COLUMN_KIND + "=" + REVISION_SNAPSHOT + ")" +
+                        " ORDER BY " + COLUMN_REV,
+                new String[]{id, upTo, id, upTo});
+        String text = null;
+        while (c.moveToNext()) {
+            text = c.getInt(0) == REVISION_SNAPSHOT
+                    ? ContentCodec.decompress(c.getBlob(1))
+                    : RevisionDelta.apply(text, c.getBlob(1));
+        }
+        c.close();
+        return text;
     }
 
-    // ===== READ =====
-    public Note getNote(int id) {
+    // ===== STATS =====
+    // Reads the handful of counter rows; never touches notes itself
+    public NoteStats getStats() {
+        NoteStats stats = new NoteStats();
         SQLiteDatabase db = this.getReadableDatabase();
-        Cursor c = db.query(
-                TABLE_NOTES, null,
-                COLUMN_ID + "=? AND " + COLUMN_IS_DELETED + "=0",
-                new String[]{String.valueOf(id)}, null, null, null
-        );
-        Note note = null;
-        if (c != null && c.moveToFirst()) note = readNoteFromCursor(c);
-        if (c != null) c.close();
+        Cursor c = db.query(TABLE_STATS, new String[]{COLUMN_KIND, COLUMN_KEY, COLUMN_COUNT},
+                null, null, null, null, null);
+        while (c.moveToNext()) {
+            stats.put(c.getString(0), c.getString(1), c.getInt(2));
+        }
+        c.close();
         db.close();
-        return note;
+        return stats;
     }
 
-    public List<Note> getAllNotes() {
-        List<Note> list = new ArrayList<>();
-        String sql = "SELECT * FROM " + TABLE_NOTES +
-                " WHERE " + COLUMN_IS_DELETED + "=0" +
-                " ORDER BY " + COLUMN_IS_PINNED + " DESC, " +
-                COLUMN_IS_COMPLETED + " ASC, " +
-                COLUMN_CREATED_AT + " DESC";
+    // ===== CHANGE LOG =====
+    // Entries after the given seq, oldest first. Start from 0 (or getLatestChangeSeq()
+    // after a full read) and pass the last seq seen on the next call.
+    public List<NoteChange> getChangesSince(long seq, int limit) {
+        List<NoteChange> list = new ArrayList<>();
         SQLiteDatabase db = this.getReadableDatabase();
-        Cursor c = db.rawQuery(sql, null);
-        if (c.moveToFirst()) {
-            do { list.add(readNoteFromCursor(c)); } while (c.moveToNext());
+        Cursor c = db.query(TABLE_CHANGES,
+                new String[]{COLUMN_SEQ, COLUMN_NOTE_ID, COLUMN_SYNC_ID, COLUMN_OP, COLUMN_CHANGED_AT},
+                COLUMN_SEQ + " > ?", new String[]{String.valueOf(seq)},
+                null, null, COLUMN_SEQ + " ASC", String.valueOf(limit));
+        while (c.moveToNext()) {
+            list.add(new NoteChange(c.getLong(0), c.getInt(1), c.getString(2), c.getString(3), c.getLong(4)));
         }
         c.close();
         db.close();
         return list;
     }
 
-    public List<Note> getActiveNotes() {
-        List<Note> list = new ArrayList<>();
-        String sql = "SELECT * FROM " + TABLE_NOTES +
-                " WHERE " + COLUMN_IS_COMPLETED + " = 0 AND " + COLUMN_IS_DELETED + " = 0" +
-                " ORDER BY " + COLUMN_IS_PINNED + " DESC, " + COLUMN_CREATED_AT + " DESC";
+    public long getLatestChangeSeq() {
+        return readChangeSeq("MAX");
+    }
+
+    // A consumer whose cursor is below this - 1 missed truncated entries and must re-read everything
+    public long getOldestChangeSeq() {
+        return readChangeSeq("MIN");
+    }
+
+    private long readChangeSeq(String aggregate) {
         SQLiteDatabase db = this.getReadableDatabase();
-        Cursor c = db.rawQuery(sql, null);
-        if (c.moveToFirst()) {
-            do { list.add(readNoteFromCursor(c)); } while (c.moveToNext());
-        }
+        long seq = readChangeSeq(db, aggregate);
+        db.close();
+        return seq;
+    }
+
+    private static long readChangeSeq(SQLiteDatabase db, String aggregate) {
+        Cursor c = db.rawQuery("SELECT " + aggregate + "(" + COLUMN_SEQ + ") FROM " + TABLE_CHANGES, null);
+        long seq = 0;
+        if (c.moveToFirst() && !c.isNull(0)) seq = c.getLong(0);
         c.close();
+        return seq;
+    }
+
+    // Drops journal entries older than cutoffTime (MaintenanceTask)
+    public int truncateChanges(long cutoffTime) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        int deleted = db.delete(TABLE_CHANGES, COLUMN_CHANGED_AT + " < ?",
+                new String[]{String.valueOf(cutoffTime)});
         db.close();
-        return list;
+        return deleted;
     }
 
-    // NEW: active notes by folder (main/secondary)
-    public List<Note> getActiveNotesByFolder(String folder) {
-        if (folder == null) folder = FOLDER_MAIN;
-        List<Note> list = new ArrayList<>();
+    public int getTrashCount() {
         SQLiteDatabase db = this.getReadableDatabase();
-        Cursor c = db.query(TABLE_NOTES, null,
-                COLUMN_IS_DELETED + "=0 AND " + COLUMN_IS_COMPLETED + "=0 AND " + COLUMN_FOLDER + "=?",
-                new String[]{folder}, null, null,
-                COLUMN_IS_PINNED + " DESC, " + COLUMN_CREATED_AT + " DESC");
-        if (c.moveToFirst()) {
-            do { list.add(readNoteFromCursor(c)); } while (c.moveToNext());
-        }
+        String sql = "SELECT COUNT(*) FROM " + TABLE_TRASH;
+        Cursor c = db.rawQuery(sql, null);
+        int count = 0;
+        if (c.moveToFirst()) count = c.getInt(0);
         c.close();
         db.close();
-        return list;
+        return count;
     }
 
-    // Existing helper left intact
-    public List<Note> getNotesByCategory(String categoryKey) {
+    public int cleanupOldTrashNotes(int daysOld) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        long cutoffTime = System.currentTimeMillis() - (daysOld * 24L * 60L * 60L * 1000L);
+        String[] args = new String[]{String.valueOf(cutoffTime)};
+        int deletedCount;
+        db.beginTransaction();
+        try {
+            execWrite(db, "DELETE FROM " + TABLE_CONTENT + " WHERE " + COLUMN_NOTE_ID +
+                    " IN (SELECT " + COLUMN_ID + " FROM " + TABLE_TRASH + " WHERE " + COLUMN_DELETED_AT + " < ?)", args);
+            execWrite(db, "DELETE FROM " + TABLE_DRAFTS + " WHERE " + COLUMN_NOTE_ID +
+                    " IN (SELECT " + COLUMN_ID + " FROM " + TABLE_TRASH + " WHERE " + COLUMN_DELETED_AT + " < ?)", args);
+            execWrite(db, "DELETE FROM " + TABLE_REVISIONS + " WHERE " + COLUMN_NOTE_ID +
+                    " IN (SELECT " + COLUMN_ID + " FROM " + TABLE_TRASH + " WHERE " + COLUMN_DELETED_AT + " < ?)", args);
+            execWrite(db, "DELETE FROM " + TABLE_NOTE_TAGS + " WHERE " + COLUMN_NOTE_ID +
+                    " IN (SELECT " + COLUMN_ID + " FROM " + TABLE_TRASH + " WHERE " + COLUMN_DELETED_AT + " < ?)", args);
+            execWrite(db, "DELETE FROM " + TABLE_CHECKLIST + " WHERE " + COLUMN_NOTE_ID +
+                    " IN (SELECT " + COLUMN_ID + " FROM " + TABLE_TRASH + " WHERE " + COLUMN_DELETED_AT + " < ?)", args);
+            execWrite(db, "DELETE FROM " + TABLE_NOTE_LINKS + " WHERE " + COLUMN_SOURCE_ID +
+                    " IN (SELECT " + COLUMN_ID + " FROM " + TABLE_TRASH + " WHERE " + COLUMN_DELETED_AT + " < ?)", args);
+            execWrite(db, "DELETE FROM " + TABLE_NOTE_ATTACHMENTS + " WHERE " + COLUMN_NOTE_ID +
+                    " IN (SELECT " + COLUMN_ID + " FROM " + TABLE_TRASH + " WHERE " + COLUMN_DELETED_AT + " < ?)", args);
+            deletedCount = db.delete(TABLE_TRASH, COLUMN_DELETED_AT + " < ?", args);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+        if (deletedCount > 0) {
+            TagIndex.invalidate(getDatabaseName());
+            collectAttachmentsLater();
+        }
+        return deletedCount;
+    }
+
+    // ===== SYNC =====
+    // Live notes with their bodies in id order, for a device's first (full) push
+    public List<Note> getNotesForSync(int afterId, int limit) {
         List<Note> list = new ArrayList<>();
         SQLiteDatabase db = this.getReadableDatabase();
-        Cursor c = db.query(TABLE_NOTES, null,
-                COLUMN_CATEGORY + "=? AND " + COLUMN_IS_DELETED + "=0 AND " + COLUMN_IS_COMPLETED + "=0",
-                new String[]{categoryKey == null ? "personal" : categoryKey},
-                null, null,
-                COLUMN_IS_PINNED + " DESC, " + COLUMN_CREATED_AT + " DESC");
-        if (c.moveToFirst()) {
-            do { list.add(readNoteFromCursor(c)); } while (c.moveToNext());
-        }
+        Cursor c = db.rawQuery(SELECT_NOTE + " WHERE " + COLUMN_ID + " > ? ORDER BY " + COLUMN_ID + " LIMIT ?",
+                new String[]{String.valueOf(afterId), String.valueOf(limit)});
+        while (c.moveToNext()) list.add(readNoteFromCursor(c));
         c.close();
+        for (Note n : list) attachBody(db, n);
         db.close();
         return list;
     }
 
-    // ===== UPDATE =====
-    public int updateNote(Note note) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(COLUMN_TITLE, note.getTitle());
-        values.put(COLUMN_CONTENT, note.getContent());
-        values.put(COLUMN_REMINDER_TIME, note.getReminderTime());
-        values.put(COLUMN_IS_COMPLETED, note.isCompleted() ? 1 : 0);
-        values.put(COLUMN_IS_PINNED, note.isPinned() ? 1 : 0);
-        values.put(COLUMN_REPEAT_DAYS, note.getRepeatDays());
-        values.put(COLUMN_CATEGORY, note.getCategory() == null ? "personal" : note.getCategory());
-        // IMPORTANT: do not touch folder here (so we don’t accidentally reset it)
-        int rows = db.update(TABLE_NOTES, values, COLUMN_ID + " = ?", new String[]{String.valueOf(note.getId())});
+    // What a journal entry amounts to for other devices right now: the live note with
+    // its body, a tombstone if it was trashed or purged, or null if it only moved into
+    // the archive (archiving is local housekeeping, not an edit)
+    public Note getSyncState(String syncId, long changedAt) {
+        if (syncId == null) return null;
+        String[] args = new String[]{syncId};
+        SQLiteDatabase db = this.getReadableDatabase();
+        Note note = null;
+        Cursor c = db.rawQuery(SELECT_NOTE + " WHERE " + COLUMN_SYNC_ID + "=?", args);
+        if (c.moveToFirst()) note = readNoteFromCursor(c);
+        c.close();
+        if (note != null) attachBody(db, note);
+        if (note == null) {
+            c = db.query(TABLE_TRASH, new String[]{COLUMN_DELETED_AT}, COLUMN_SYNC_ID + "=?", args, null, null, null);
+            if (c.moveToFirst()) note = Note.tombstone(syncId, c.getLong(0));
+            c.close();
+        }
+        if (note == null) {
+            c = db.query(TABLE_ARCHIVE, new String[]{COLUMN_ID}, COLUMN_SYNC_ID + "=?", args, null, null, null);
+            boolean archived = c.moveToFirst();
+            c.close();
+            if (!archived) note = Note.tombstone(syncId, changedAt);
+        }
         db.close();
-        return rows;
+        return note;
     }
 
-    public void updateNotePinned(int id, boolean pinned) {
+    // Applies pulled notes in one transaction, last writer wins on updated_at.
+    // The journal entries this writes only echo the server, so when pushCursor was
+    // already at the head of the journal the returned cursor skips past them.
+    public long applyRemoteNotes(List<Note> remote, long pushCursor) {
         SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues v = new ContentValues();
-        v.put(COLUMN_IS_PINNED, pinned ? 1 : 0);
-        db.update(TABLE_NOTES, v, COLUMN_ID + "=?", new String[]{String.valueOf(id)});
+        long cursor = pushCursor;
+        db.beginTransaction();
+        try {
+            boolean caughtUp = pushCursor >= readChangeSeq(db, "MAX");
+            for (Note r : remote) applyRemoteNote(db, r);
+            if (caughtUp) cursor = readChangeSeq(db, "MAX");
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
         db.close();
+        return cursor;
     }
 
-    // Existing method (change visible category only)
-    public void updateNoteCategory(int id, String categoryKey) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues v = new ContentValues();
-        v.put(COLUMN_CATEGORY, categoryKey == null ? "personal" : categoryKey);
-        db.update(TABLE_NOTES, v, COLUMN_ID + "=?", new String[]{String.valueOf(id)});
-        db.close();
+    private void applyRemoteNote(SQLiteDatabase db, Note r) {
+        String[] args = new String[]{r.getSyncId()};
+        Cursor c = db.query(TABLE_NOTES, new String[]{COLUMN_ID, COLUMN_UPDATED_AT},
+                COLUMN_SYNC_ID + "=?", args, null, null, null);
+        if (c.moveToFirst()) {
+            int id = c.getInt(0);
+            long localTime = c.getLong(1);
+            c.close();
+            if (r.getUpdatedAt() <= localTime) return;
+            if (r.isDeleted()) {
+                trashNote(db, id, r.getUpdatedAt());
+            } else {
+                updateNoteRow(db, remoteValues(r), COLUMN_ID + "=?", new String[]{String.valueOf(id)});
+                writeBody(db, id, r.getContent());
+                syncLinks(db, id, r.getContent());
+            }
+            return;
+        }
+        c.close();
+
+        // Trashed here: a newer remote edit brings it back under the same id
+        c = db.query(TABLE_TRASH, new String[]{COLUMN_ID, COLUMN_DELETED_AT},
+                COLUMN_SYNC_ID + "=?", args, null, null, null);
+        if (c.moveToFirst()) {
+            int id = c.getInt(0);
+            long deletedAt = c.getLong(1);
+            c.close();
+            if (r.isDeleted() || r.getUpdatedAt() <= deletedAt) return;
+            db.delete(TABLE_TRASH, COLUMN_ID + "=?", new String[]{String.valueOf(id)});
+            ContentValues v = remoteValues(r);
+            v.put(COLUMN_ID, id);
+            v.put(COLUMN_SORT_KEY, topSortKey(db, v.getAsString(COLUMN_FOLDER), 0));
+            db.insert(TABLE_NOTES, null, v);
+            writeBody(db, id, r.getContent());
+            syncLinks(db, id, r.getContent());
+            refreshCover(db, id);
+            return;
+        }
+        c.close();
+
+        // Archived here: a newer remote version replaces the archived copy
+        c = db.query(TABLE_ARCHIVE, new String[]{COLUMN_ID, COLUMN_UPDATED_AT},
+                COLUMN_SYNC_ID + "=?", args, null, null, null);
+        int archivedId = -1;
+        if (c.moveToFirst()) {
+            int id = c.getInt(0);
+            long localTime = c.getLong(1);
+            c.close();
+            if (r.getUpdatedAt() <= localTime) return;
+            db.delete(TABLE_ARCHIVE, COLUMN_ID + "=?", new String[]{String.valueOf(id)});
+            archivedId = id;
+        } else {
+            c.close();
+        }
+
+        if (r.isDeleted()) {
+            // Its files go at the next collection
+            if (archivedId != -1) {
+                db.delete(TABLE_NOTE_ATTACHMENTS, COLUMN_NOTE_ID + "=?", new String[]{String.valueOf(archivedId)});
+            }
+            return;
+        }
+        ContentValues v = remoteValues(r);
+        v.put(COLUMN_SORT_KEY, topSortKey(db, v.getAsString(COLUMN_FOLDER), 0));
+        long id = db.insert(TABLE_NOTES, null, v);
+        if (id != -1) {
+            writeBody(db, id, r.getContent());
+            syncLinks(db, id, r.getContent());
+            // Attachments stay on this device: the replaced archived copy hands its own over
+            if (archivedId != -1) {
+                ContentValues moved = new ContentValues();
+                moved.put(COLUMN_NOTE_ID, id);
+                db.update(TABLE_NOTE_ATTACHMENTS, moved, COLUMN_NOTE_ID + "=?", new String[]{String.valueOf(archivedId)});
+                refreshCover(db, id);
+            }
+        }
     }
 
-    // NEW: move note between tabs without touching category
-    public void updateNoteFolder(int id, String folder) {
-        SQLiteDatabase db = this.getWritableDatabase();
+    private static ContentValues remoteValues(Note r) {
         ContentValues v = new ContentValues();
-        v.put(COLUMN_FOLDER, (folder == null ? FOLDER_MAIN : folder));
-        db.update(TABLE_NOTES, v, COLUMN_ID + "=?", new String[]{String.valueOf(id)});
-        db.close();
+        v.put(COLUMN_TITLE, r.getTitle() == null ? "" : r.getTitle());
+        putBodyColumns(v, r.getContent());
+        v.put(COLUMN_CREATED_AT, r.getCreatedAt());
+        v.put(COLUMN_REMINDER_TIME, r.getReminderTime());
+        v.put(COLUMN_IS_COMPLETED, r.isCompleted() ? 1 : 0);
+        v.put(COLUMN_COMPLETED_AT, r.getCompletedAt());
+        v.put(COLUMN_IS_PINNED, r.isPinned() ? 1 : 0);
+        v.put(COLUMN_REPEAT_DAYS, r.getRepeatDays());
+        v.put(COLUMN_CATEGORY, r.getCategoryId());
+        v.put(COLUMN_FOLDER, r.getFolder() == null ? FOLDER_MAIN : r.getFolder());
+        v.put(COLUMN_SYNC_ID, r.getSyncId());
+        v.put(COLUMN_UPDATED_AT, r.getUpdatedAt());
+        return v;
     }
 
-    // ===== TRASH =====
-    public void deleteNote(int id) { moveToTrash(id); }
+    // ===== ARCHIVE =====
+    // Moves completed notes finished before cutoffTime into notes_archive, in batches,
+    // so the live table only carries what the lists actually show. Runs off the UI thread.
+    public int archiveCompletedNotes(long cutoffTime) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        int archived = 0;
+        while (true) {
+            List<Note> batch = new ArrayList<>();
+            // Only notes without sub-notes; they come back from the archive top-level
+            Cursor c = db.query(TABLE_NOTES, NOTE_PROJECTION,
+                    COLUMN_IS_COMPLETED + "=1 AND " + COLUMN_COMPLETED_AT + " < ? AND " + COLUMN_DESCENDANTS + "=0",
+                    new String[]{String.valueOf(cutoffTime)}, null, null, null,
+                    String.valueOf(ARCHIVE_BATCH_SIZE));
+            if (c.moveToFirst()) {
+                do { batch.add(readNoteFromCursor(c)); } while (c.moveToNext());
+            }
+            c.close();
+            if (batch.isEmpty()) break;
 
-    public void deleteAllNotes() { moveAllToTrash(); }
+            long now = System.currentTimeMillis();
+            db.beginTransaction();
+            try {
+                for (Note n : batch) {
+                    ContentValues v = new ContentValues();
+                    v.put(COLUMN_ID, n.getId());
+                    v.put(COLUMN_TITLE, n.getTitle());
+                    v.put(COLUMN_CONTENT, ContentCodec.compress(readBody(db, n.getId())));
+                    v.put(COLUMN_CREATED_AT, n.getCreatedAt());
+                    v.put(COLUMN_REMINDER_TIME, n.getReminderTime());
+                    v.put(COLUMN_IS_COMPLETED, 1);
+                    v.put(COLUMN_IS_PINNED, n.isPinned() ? 1 : 0);
+                    v.put(COLUMN_REPEAT_DAYS, n.getRepeatDays());
+                    v.put(COLUMN_CATEGORY, n.getCategoryId());
+                    v.put(COLUMN_FOLDER, n.getFolder());
+                    v.put(COLUMN_COMPLETED_AT, n.getCompletedAt());
+                    v.put(COLUMN_SYNC_ID, n.getSyncId());
+                    v.put(COLUMN_UPDATED_AT, n.getUpdatedAt());
+                    v.put(COLUMN_ARCHIVED_AT, now);
+                    if (n.isChecklist()) {
+                        v.put(COLUMN_ITEMS_TOTAL, n.getItemsTotal());
+                        v.put(COLUMN_ITEMS_DONE, n.getItemsDone());
+                    }
+                    db.insertWithOnConflict(TABLE_ARCHIVE, null, v, SQLiteDatabase.CONFLICT_REPLACE);
+                    db.delete(TABLE_NOTES, COLUMN_ID + "=?", new String[]{String.valueOf(n.getId())});
+                    db.delete(TABLE_CONTENT, COLUMN_NOTE_ID + "=?", new String[]{String.valueOf(n.getId())});
+                    db.delete(TABLE_NOTE_LINKS, COLUMN_SOURCE_ID + "=?", new String[]{String.valueOf(n.getId())});
+                }
+                db.setTransactionSuccessful();
+                archived += batch.size();
+            } finally {
+                db.endTransaction();
+            }
+            if (batch.size() < ARCHIVE_BATCH_SIZE) break;
+        }
+        db.close();
+        return archived;
+    }
 
-    public List<Note> getTrashNotes() {
+    // Keyset page of archived notes (metadata only, content stays compressed).
+    // Pass the last note of the previous page, or null for the first page.
+    public List<Note> getArchivedNotes(Note after, int limit) {
         List<Note> list = new ArrayList<>();
-        String sql = "SELECT * FROM " + TABLE_NOTES +
-                " WHERE " + COLUMN_IS_DELETED + "=1" +
-                " ORDER BY " + COLUMN_DELETED_AT + " DESC";
+        String columns = COLUMN_ID + ", " + COLUMN_TITLE + ", " + COLUMN_CREATED_AT + ", " +
+                COLUMN_REMINDER_TIME + ", " + COLUMN_IS_COMPLETED + ", " + COLUMN_IS_PINNED + ", " +
+                COLUMN_REPEAT_DAYS + ", " + COLUMN_CATEGORY + ", " + COLUMN_FOLDER + ", " + COLUMN_COMPLETED_AT;
+        String sql;
+        String[] args;
+        if (after == null) {
+            sql = "SELECT " + columns + " FROM " + TABLE_ARCHIVE +
+                    " ORDER BY " + COLUMN_COMPLETED_AT + " DESC, " + COLUMN_ID + " DESC LIMIT ?";
+            args = new String[]{String.valueOf(limit)};
+        } else {
+            sql = "SELECT " + columns + " FROM " + TABLE_ARCHIVE +
+                    " WHERE " + COLUMN_COMPLETED_AT + " < ? OR (" + COLUMN_COMPLETED_AT + " = ? AND " + COLUMN_ID + " < ?)" +
+                    " ORDER BY " + COLUMN_COMPLETED_AT + " DESC, " + COLUMN_ID + " DESC LIMIT ?";
+            String completedAt = String.valueOf(after.getCompletedAt());
+            args = new String[]{completedAt, completedAt, String.valueOf(after.getId()), String.valueOf(limit)};
+        }
         SQLiteDatabase db = this.getReadableDatabase();
-        Cursor c = db.rawQuery(sql, null);
+        Cursor c = db.rawQuery(sql, args);
         if (c.moveToFirst()) {
             do { list.add(readNoteFromCursor(c)); } while (c.moveToNext());
         }
@@ -257,49 +3345,94 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         return list;
     }
 
-    public void moveToTrash(int id) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(COLUMN_IS_DELETED, 1);
-        values.put(COLUMN_DELETED_AT, System.currentTimeMillis());
-        db.update(TABLE_NOTES, values, COLUMN_ID + " = ?", new String[]{String.valueOf(id)});
+    // Decompresses the body of one archived note on demand
+    public String getArchivedNoteContent(int id) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor c = db.query(TABLE_ARCHIVE, new String[]{COLUMN_CONTENT},
+                COLUMN_ID + "=?", new String[]{String.valueOf(id)}, null, null, null);
+        String content = null;
+        if (c.moveToFirst() && !c.isNull(0)) content = ContentCodec.decompress(c.getBlob(0));
+        c.close();
         db.close();
+        return content;
     }
 
-    public void restoreFromTrash(int id) {
+    // Brings an archived note back to the live list as not completed
+    public void restoreFromArchive(int id) {
         SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(COLUMN_IS_DELETED, 0);
-        values.put(COLUMN_DELETED_AT, 0);
-        db.update(TABLE_NOTES, values, COLUMN_ID + " = ?", new String[]{String.valueOf(id)});
-        db.close();
-    }
+        Cursor c = db.query(TABLE_ARCHIVE, null, COLUMN_ID + "=?",
+                new String[]{String.valueOf(id)}, null, null, null);
+        if (!c.moveToFirst()) {
+            c.close();
+            db.close();
+            return;
+        }
+        ContentValues v = new ContentValues();
+        v.put(COLUMN_ID, id);
+        v.put(COLUMN_TITLE, c.getString(c.getColumnIndexOrThrow(COLUMN_TITLE)));
+        int idxContent = c.getColumnIndexOrThrow(COLUMN_CONTENT);
+        String body = c.isNull(idxContent) ? null : ContentCodec.decompress(c.getBlob(idxContent));
+        putBodyColumns(v, body);
+        v.put(COLUMN_CREATED_AT, c.getLong(c.getColumnIndexOrThrow(COLUMN_CREATED_AT)));
+        v.put(COLUMN_REMINDER_TIME, c.getLong(c.getColumnIndexOrThrow(COLUMN_REMINDER_TIME)));
+        v.put(COLUMN_IS_COMPLETED, 0);
+        v.put(COLUMN_COMPLETED_AT, 0);
+        v.put(COLUMN_IS_PINNED, c.getInt(c.getColumnIndexOrThrow(COLUMN_IS_PINNED)));
+        v.put(COLUMN_REPEAT_DAYS, c.getInt(c.getColumnIndexOrThrow(COLUMN_REPEAT_DAYS)));
+        v.put(COLUMN_CATEGORY, c.getInt(c.getColumnIndexOrThrow(COLUMN_CATEGORY)));
+        v.put(COLUMN_FOLDER, c.getString(c.getColumnIndexOrThrow(COLUMN_FOLDER)));
+        v.put(COLUMN_SYNC_ID, c.getString(c.getColumnIndexOrThrow(COLUMN_SYNC_ID)));
+        v.put(COLUMN_UPDATED_AT, System.currentTimeMillis());
+        int idxItems = c.getColumnIndexOrThrow(COLUMN_ITEMS_TOTAL);
+        if (!c.isNull(idxItems)) {
+            v.put(COLUMN_ITEMS_TOTAL, c.getInt(idxItems));
+            v.put(COLUMN_ITEMS_DONE, c.getInt(c.getColumnIndexOrThrow(COLUMN_ITEMS_DONE)));
+        }
+        c.close();
 
-    public void moveAllToTrash() {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(COLUMN_IS_DELETED, 1);
-        values.put(COLUMN_DELETED_AT, System.currentTimeMillis());
-        db.update(TABLE_NOTES, values, COLUMN_IS_DELETED + " = 0", null);
+        db.beginTransaction();
+        try {
+            db.insert(TABLE_NOTES, null, v);
+            writeBody(db, id, body);
+            syncLinks(db, id, body);
+            refreshCover(db, id);
+            db.delete(TABLE_ARCHIVE, COLUMN_ID + "=?", new String[]{String.valueOf(id)});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
         db.close();
     }
 
-    public void permanentlyDeleteNote(int id) {
+    public void deleteArchivedNote(int id) {
         SQLiteDatabase db = this.getWritableDatabase();
-        db.delete(TABLE_NOTES, COLUMN_ID + " = ?", new String[]{String.valueOf(id)});
+        Set<Integer> tags;
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_ARCHIVE, COLUMN_ID + "=?", new String[]{String.valueOf(id)});
+            db.delete(TABLE_REVISIONS, COLUMN_NOTE_ID + "=?", new String[]{String.valueOf(id)});
+            db.delete(TABLE_CHECKLIST, COLUMN_NOTE_ID + "=?", new String[]{String.valueOf(id)});
+            db.delete(TABLE_NOTE_ATTACHMENTS, COLUMN_NOTE_ID + "=?", new String[]{String.valueOf(id)});
+            tags = deleteNoteTags(db, id);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
         db.close();
+        TagIndex.onNoteTagsChanged(getDatabaseName(), id, Collections.<Integer>emptySet(), tags);
+        collectAttachmentsLater();
     }
 
-    public void emptyTrash() {
-        SQLiteDatabase db = this.getWritableDatabase();
-        db.delete(TABLE_NOTES, COLUMN_IS_DELETED + " = 1", null);
-        db.close();
+    // A purge may have released attachment files; deleting them is disk work the caller
+    // (often the UI thread) does not wait for. Other database files (benchmark copies,
+    // tests) collect through their own AttachmentStore.
+    private void collectAttachmentsLater() {
+        if (DATABASE_NAME.equals(getDatabaseName())) MaintenanceTask.collectAttachments(appContext);
     }
 
-    public int getTrashCount() {
+    public int getArchiveCount() {
         SQLiteDatabase db = this.getReadableDatabase();
-        String sql = "SELECT COUNT(*) FROM " + TABLE_NOTES + " WHERE " + COLUMN_IS_DELETED + " = 1";
-        Cursor c = db.rawQuery(sql, null);
+        Cursor c = db.rawQuery("SELECT COUNT(*) FROM " + TABLE_ARCHIVE, null);
         int count = 0;
         if (c.moveToFirst()) count = c.getInt(0);
         c.close();
@@ -307,16 +3440,6 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         return count;
     }
 
-    public int cleanupOldTrashNotes(int daysOld) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        long cutoffTime = System.currentTimeMillis() - (daysOld * 24L * 60L * 60L * 1000L);
-        int deletedCount = db.delete(TABLE_NOTES,
-                COLUMN_IS_DELETED + " = 1 AND " + COLUMN_DELETED_AT + " < ?",
-                new String[]{String.valueOf(cutoffTime)});
-        db.close();
-        return deletedCount;
-    }
-
     // ===== CALENDAR (same as before) =====
     public Map<String, Integer> getNotesCountForMonth(int year, int month) {
         Map<String, Integer> dateCountMap = new HashMap<>();
@@ -332,10 +3455,9 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         long monthEnd = calendar.getTimeInMillis();
 
         String sql = "SELECT " + COLUMN_REMINDER_TIME + " FROM " + TABLE_NOTES +
-                " WHERE " + COLUMN_IS_DELETED + "=0" +
-                " AND " + COLUMN_IS_COMPLETED + "=0" +
+                " WHERE " + COLUMN_IS_COMPLETED + "=0" +
                 " AND " + COLUMN_REMINDER_TIME + " BETWEEN ? AND ?" +
-                " AND " + COLUMN_CATEGORY + " != 'everyday'";
+                " AND " + COLUMN_CATEGORY + " NOT IN " + RECURRING_CATEGORIES;
 
         Cursor c = db.rawQuery(sql, new String[]{ String.valueOf(monthStart), String.valueOf(monthEnd) });
         if (c.moveToFirst()) {
@@ -370,11 +3492,10 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         dayEnd.set(year, month, day, 23, 59, 59);
         dayEnd.set(Calendar.MILLISECOND, 999);
 
-        String sql = "SELECT * FROM " + TABLE_NOTES +
-                " WHERE " + COLUMN_IS_DELETED + "=0" +
-                " AND " + COLUMN_IS_COMPLETED + "=0" +
+        String sql = "SELECT " + NOTE_COLUMNS + " FROM " + TABLE_NOTES +
+                " WHERE " + COLUMN_IS_COMPLETED + "=0" +
                 " AND " + COLUMN_REMINDER_TIME + " BETWEEN ? AND ?" +
-                " AND " + COLUMN_CATEGORY + " != 'everyday'" +
+                " AND " + COLUMN_CATEGORY + " NOT IN " + RECURRING_CATEGORIES +
                 " ORDER BY " + COLUMN_REMINDER_TIME + " ASC";
 
         Cursor c = db.rawQuery(sql, new String[]{ String.valueOf(startTime), String.valueOf(dayEnd.getTimeInMillis()) });
@@ -395,10 +3516,9 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             int weekdayIndex = convertDayOfWeekToBitIndex(dayStart.get(Calendar.DAY_OF_WEEK));
             int mask = (1 << weekdayIndex);
 
-            String everySql = "SELECT * FROM " + TABLE_NOTES +
-                    " WHERE " + COLUMN_IS_DELETED + "=0" +
-                    " AND " + COLUMN_IS_COMPLETED + "=0" +
-                    " AND " + COLUMN_CATEGORY + "='everyday' " +
+            String everySql = "SELECT " + NOTE_COLUMNS + " FROM " + TABLE_NOTES +
+                    " WHERE " + COLUMN_IS_COMPLETED + "=0" +
+                    " AND " + COLUMN_CATEGORY + " IN " + RECURRING_CATEGORIES +
                     " AND " + COLUMN_REPEAT_DAYS + " > 0 " +
                     " AND ((" + COLUMN_REPEAT_DAYS + " & ?) != 0)";
 
@@ -431,9 +3551,8 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             int mask = (1 << weekdayIndex);
 
             String sql = "SELECT 1 FROM " + TABLE_NOTES +
-                    " WHERE " + COLUMN_IS_DELETED + "=0" +
-                    " AND " + COLUMN_IS_COMPLETED + "=0" +
-                    " AND " + COLUMN_CATEGORY + "='everyday' " +
+                    " WHERE " + COLUMN_IS_COMPLETED + "=0" +
+                    " AND " + COLUMN_CATEGORY + " IN " + RECURRING_CATEGORIES +
                     " AND " + COLUMN_REPEAT_DAYS + " > 0 " +
                     " AND ((" + COLUMN_REPEAT_DAYS + " & ?) != 0) LIMIT 1";
 
@@ -472,11 +3591,176 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     }
 
     // ===== INTERNAL =====
+    private static void execWrite(SQLiteDatabase db, String sql, Object[] args) {
+        StatementListener listener = statementListener;
+        if (listener != null) listener.onStatement(sql);
+        db.execSQL(sql, args);
+    }
+
+    // UPDATE notes SET <values>, version = version + 1 WHERE <where>. Every write to an
+    // existing notes row goes through here, so a changed row always has a new version.
+    private static int updateNoteRow(SQLiteDatabase db, ContentValues values, String where, String[] whereArgs) {
+        StringBuilder sql = new StringBuilder("UPDATE " + TABLE_NOTES + " SET ");
+        List<Object> args = new ArrayList<>();
+        for (String key : values.keySet()) {
+            sql.append(key).append("=?, ");
+            args.add(values.get(key));
+        }
+        sql.append(COLUMN_VERSION).append("=").append(COLUMN_VERSION).append("+1 WHERE ").append(where);
+        Collections.addAll(args, (Object[]) whereArgs);
+        StatementListener listener = statementListener;
+        if (listener != null) listener.onStatement(sql.toString());
+        SQLiteStatement stmt = db.compileStatement(sql.toString());
+        try {
+            for (int i = 0; i < args.size(); i++) {
+                Object arg = args.get(i);
+                if (arg == null) {
+                    stmt.bindNull(i + 1);
+                } else if (arg instanceof Long || arg instanceof Integer) {
+                    stmt.bindLong(i + 1, ((Number) arg).longValue());
+                } else {
+                    stmt.bindString(i + 1, arg.toString());
+                }
+            }
+            return stmt.executeUpdateDelete();
+        } finally {
+            stmt.close();
+        }
+    }
+
+    // The notes row columns that follow the body: a sealed body leaves no plain text there
+    private static void putBodyColumns(ContentValues values, String content) {
+        boolean sealed = NoteCipher.isSealed(content);
+        values.put(COLUMN_PREVIEW, sealed ? null : previewOf(content));
+        values.put(COLUMN_ENCRYPTED, sealed ? 1 : 0);
+    }
+
+    private static String previewOf(String content) {
+        if (content == null) return null;
+        return content.length() <= PREVIEW_LENGTH ? content : content.substring(0, PREVIEW_LENGTH);
+    }
+
+    // Caller holds a transaction when the body may be chunked. Long bodies are stored
+    // deflated (chunked ones always, one BLOB per chunk), the rest as plain text. Sealed
+    // bodies were compressed before encryption and are stored as they are; the plain text
+    // kept for the note elsewhere (versions, the editor's draft) goes when one is written.
+    private void writeBody(SQLiteDatabase db, long noteId, String body) {
+        boolean sealed = NoteCipher.isSealed(body);
+        if (sealed) {
+            db.delete(TABLE_REVISIONS, COLUMN_NOTE_ID + "=?", new String[]{String.valueOf(noteId)});
+            deleteDraft(db, (int) noteId);
+        }
+        List<String> chunks = splitBody(body);
+        ContentValues v = new ContentValues();
+        v.put(COLUMN_NOTE_ID, noteId);
+        v.put(COLUMN_CHUNKS, chunks.size());
+        if (!chunks.isEmpty()) {
+            v.putNull(COLUMN_BODY);
+            v.put(COLUMN_FORMAT, sealed ? FORMAT_TEXT : FORMAT_DEFLATE);
+        } else {
+            byte[] packed = !sealed && body != null && body.length() >= COMPRESS_MIN_CHARS
+                    ? ContentCodec.compress(body, Deflater.DEFAULT_COMPRESSION) : null;
+            // Incompressible text (already shorter than its char count) stays plain
+            if (packed != null && packed.length < body.length()) {
+                v.put(COLUMN_BODY, packed);
+                v.put(COLUMN_FORMAT, FORMAT_DEFLATE);
+            } else {
+                v.put(COLUMN_BODY, body);
+                v.put(COLUMN_FORMAT, FORMAT_TEXT);
+            }
+        }
+        db.insertWithOnConflict(TABLE_CONTENT, null, v, SQLiteDatabase.CONFLICT_REPLACE);
+        writeChunks(db, TABLE_NOTE_CHUNKS, noteId, chunks, !sealed);
+    }
+
+    // Decompresses lazily: only callers that want the body (editor, export, search) get here
+    private String readBody(SQLiteDatabase db, long noteId) {
+        Cursor c = db.query(TABLE_CONTENT, new String[]{COLUMN_BODY, COLUMN_CHUNKS, COLUMN_FORMAT},
+                COLUMN_NOTE_ID + "=?", new String[]{String.valueOf(noteId)}, null, null, null);
+        String body = null;
+        int chunks = 0;
+        boolean deflate = false;
+        if (c.moveToFirst()) {
+            chunks = c.getInt(1);
+            deflate = c.getInt(2) == FORMAT_DEFLATE;
+            if (chunks == 0) body = readChunk(c, deflate);
+        }
+        c.close();
+        return chunks > 0 ? readChunks(db, TABLE_NOTE_CHUNKS, noteId, chunks, deflate) : body;
+    }
+
+    // Column 0 of the current row, as stored in the given format
+    private static String readChunk(Cursor c, boolean deflate) {
+        if (c.isNull(0)) return null;
+        return deflate ? ContentCodec.decompress(c.getBlob(0)) : c.getString(0);
+    }
+
+    // Fills in the body of a note read with metadata only; the note stays clean
+    private void attachBody(SQLiteDatabase db, Note note) {
+        note.setContent(readBody(db, note.getId()));
+        note.clearDirty();
+    }
+
+    // Pieces of at most CHUNK_CHARS, or none when the body fits in one row. Never splits
+    // a surrogate pair, which SQLite could not store as valid UTF-8.
+    static List<String> splitBody(String body) {
+        List<String> chunks = new ArrayList<>();
+        if (body == null || body.length() <= CHUNK_CHARS) return chunks;
+        int start = 0;
+        while (start < body.length()) {
+            int end = Math.min(body.length(), start + CHUNK_CHARS);
+            if (end < body.length() && Character.isHighSurrogate(body.charAt(end - 1))) end--;
+            chunks.add(body.substring(start, end));
+            start = end;
+        }
+        return chunks;
+    }
+
+    // Replaces the chunks stored for one body
+    private static void writeChunks(SQLiteDatabase db, String table, long ownerId, List<String> chunks, boolean deflate) {
+        db.delete(table, COLUMN_NOTE_ID + "=?", new String[]{String.valueOf(ownerId)});
+        for (int i = 0; i < chunks.size(); i++) {
+            ContentValues v = new ContentValues();
+            v.put(COLUMN_NOTE_ID, ownerId);
+            v.put(COLUMN_CHUNK, i);
+            if (deflate) {
+                v.put(COLUMN_BODY, ContentCodec.compress(chunks.get(i), Deflater.DEFAULT_COMPRESSION));
+            } else {
+                v.put(COLUMN_BODY, chunks.get(i));
+            }
+            db.insert(table, null, v);
+        }
+    }
+
+    // Each chunk row fits a CursorWindow on its own, so the cursor pages through them
+    private static String readChunks(SQLiteDatabase db, String table, long ownerId, int chunks, boolean deflate) {
+        StringBuilder sb = new StringBuilder(chunks * CHUNK_CHARS);
+        Cursor c = db.query(table, new String[]{COLUMN_BODY}, COLUMN_NOTE_ID + "=?",
+                new String[]{String.valueOf(ownerId)}, null, null, COLUMN_CHUNK);
+        while (c.moveToNext()) sb.append(readChunk(c, deflate));
+        c.close();
+        return sb.toString();
+    }
+
+    // Keeps the original completion time across re-saves; stamps "now" on first completion
+    private long stampCompletedAt(Note note) {
+        if (!note.isCompleted()) {
+            note.setCompletedAt(0);
+        } else if (note.getCompletedAt() <= 0) {
+            note.setCompletedAt(System.currentTimeMillis());
+        }
+        return note.getCompletedAt();
+    }
+
     private Note readNoteFromCursor(Cursor c) {
         Note n = new Note();
         n.setId(c.getInt(c.getColumnIndexOrThrow(COLUMN_ID)));
         n.setTitle(c.getString(c.getColumnIndexOrThrow(COLUMN_TITLE)));
-        n.setContent(c.getString(c.getColumnIndexOrThrow(COLUMN_CONTENT)));
+        // Only body-joining reads carry "content"; list reads get the preview instead
+        int idxContent = c.getColumnIndex(COLUMN_CONTENT);
+        n.setContent(idxContent >= 0 ? c.getString(idxContent) : null);
+        int idxPreview = c.getColumnIndex(COLUMN_PREVIEW);
+        n.setPreview(idxPreview >= 0 ? c.getString(idxPreview) : null);
         n.setCreatedAt(c.getLong(c.getColumnIndexOrThrow(COLUMN_CREATED_AT)));
         n.setReminderTime(c.getLong(c.getColumnIndexOrThrow(COLUMN_REMINDER_TIME)));
         n.setCompleted(c.getInt(c.getColumnIndexOrThrow(COLUMN_IS_COMPLETED)) == 1);
@@ -484,15 +3768,46 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         n.setRepeatDays(c.getInt(c.getColumnIndexOrThrow(COLUMN_REPEAT_DAYS)));
 
         int idxCat = c.getColumnIndex(COLUMN_CATEGORY);
-        n.setCategory(idxCat >= 0 ? c.getString(idxCat) : "personal");
+        n.setCategoryId(idxCat >= 0 ? c.getInt(idxCat) : Category.PERSONAL);
+
+        int idxFolder = c.getColumnIndex(COLUMN_FOLDER);
+        if (idxFolder >= 0 && !c.isNull(idxFolder)) n.setFolder(c.getString(idxFolder));
+
+        int idxCompletedAt = c.getColumnIndex(COLUMN_COMPLETED_AT);
+        n.setCompletedAt(idxCompletedAt >= 0 ? c.getLong(idxCompletedAt) : 0);
+
+        int idxSyncId = c.getColumnIndex(COLUMN_SYNC_ID);
+        if (idxSyncId >= 0) n.setSyncId(c.getString(idxSyncId));
+        int idxUpdatedAt = c.getColumnIndex(COLUMN_UPDATED_AT);
+        n.setUpdatedAt(idxUpdatedAt >= 0 ? c.getLong(idxUpdatedAt) : 0);
+        int idxVersion = c.getColumnIndex(COLUMN_VERSION);
+        n.setVersion(idxVersion >= 0 ? c.getInt(idxVersion) : 0);
+
+        int idxItemsTotal = c.getColumnIndex(COLUMN_ITEMS_TOTAL);
+        if (idxItemsTotal >= 0 && !c.isNull(idxItemsTotal)) {
+            n.setChecklistProgress(c.getInt(idxItemsTotal), c.getInt(c.getColumnIndexOrThrow(COLUMN_ITEMS_DONE)));
+        }
+
+        int idxSortKey = c.getColumnIndex(COLUMN_SORT_KEY);
+        if (idxSortKey >= 0) n.setSortKey(c.getString(idxSortKey));
+
+        int idxParent = c.getColumnIndex(COLUMN_PARENT_ID);
+        if (idxParent >= 0) n.setParentId(c.getInt(idxParent));
+        int idxDescendants = c.getColumnIndex(COLUMN_DESCENDANTS);
+        if (idxDescendants >= 0) {
+            n.setSubtreeProgress(c.getInt(idxDescendants), c.getInt(c.getColumnIndexOrThrow(COLUMN_DESCENDANTS_DONE)));
+        }
+        int idxCover = c.getColumnIndex(COLUMN_COVER);
+        if (idxCover >= 0) n.setCover(c.getString(idxCover));
+        int idxEncrypted = c.getColumnIndex(COLUMN_ENCRYPTED);
+        if (idxEncrypted >= 0) n.setEncrypted(c.getInt(idxEncrypted) == 1);
 
-        int idxDeleted = c.getColumnIndex(COLUMN_IS_DELETED);
+        // deleted_at only exists on notes_trash rows
         int idxDeletedAt = c.getColumnIndex(COLUMN_DELETED_AT);
-        n.setDeleted(idxDeleted >= 0 && c.getInt(idxDeleted) == 1);
         n.setDeletedAt(idxDeletedAt >= 0 ? c.getLong(idxDeletedAt) : 0);
 
-        // Note: we do not need to store folder on Note model for UI,
-        // because folder is only used to filter/move in DB. (Optional to add later.)
+        // The note now matches its row; later setter calls mark what to write back
+        n.clearDirty();
         return n;
     }
 }
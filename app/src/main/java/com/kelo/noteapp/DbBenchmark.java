@@ -0,0 +1,205 @@
+package com.kelo.noteapp;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+/**
+ * Developer micro-benchmark for DbProfile presets. Each run copies the user's
+ * database, applies the preset and times the app's own hot paths on the copy:
+ * bulk insert, folder list load, month aggregation and search. A separate pass
+ * weighs body compression: codec time against the bytes and pages it saves.
+ * Never writes to the live database; must be called off the UI thread.
+ */
+public final class DbBenchmark {
+
+    private static final String PREFS_NAME = "NotesAppPrefs";
+    private static final String KEY_RESULT_PREFIX = "db_bench_";
+    private static final String KEY_COMPRESSION_RESULT = "db_bench_compression";
+    private static final String BENCH_DB_NAME = "NotesDatabase_bench.db";
+
+    private static final int INSERT_COUNT = 200;
+    private static final int READ_REPEATS = 5;
+    private static final String SEARCH_QUERY = "е";
+
+    private DbBenchmark() {}
+
+    // Runs every preset in turn and stores a summary line per preset
+    public static void runAll(Context context) throws IOException {
+        for (DbProfile p : DbProfile.PRESETS) {
+            String summary = run(context, p);
+            prefs(context).edit().putString(KEY_RESULT_PREFIX + p.key, summary).apply();
+        }
+        prefs(context).edit().putString(KEY_COMPRESSION_RESULT, runCompression(context)).apply();
+    }
+
+    public static String getLastCompressionResult(Context context) {
+        return prefs(context).getString(KEY_COMPRESSION_RESULT, null);
+    }
+
+    // Deflate round trip over the bodies long enough to be stored compressed, against
+    // what it saves: bytes read from disk and the pages they occupy
+    private static String runCompression(Context context) {
+        DatabaseHelper helper = new DatabaseHelper(context);
+        SQLiteDatabase db = helper.getReadableDatabase();
+        int pageSize = Integer.parseInt(DbProfile.pragma(db, "page_size"));
+        db.close();
+
+        int count = 0;
+        long rawBytes = 0;
+        long packedBytes = 0;
+        long compressNs = 0;
+        long decompressNs = 0;
+        for (Note n : helper.getAllNotes()) {
+            String body = helper.getNoteContent(n.getId());
+            if (body == null || body.length() < DatabaseHelper.COMPRESS_MIN_CHARS) continue;
+            long start = System.nanoTime();
+            byte[] packed = ContentCodec.compress(body, Deflater.DEFAULT_COMPRESSION);
+            compressNs += System.nanoTime() - start;
+            start = System.nanoTime();
+            ContentCodec.decompress(packed);
+            decompressNs += System.nanoTime() - start;
+            count++;
+            rawBytes += body.getBytes(StandardCharsets.UTF_8).length;
+            packedBytes += packed.length;
+        }
+        helper.close();
+        if (count == 0) return "сжатие: нет заметок длиннее " + DatabaseHelper.COMPRESS_MIN_CHARS + " символов";
+
+        long savedPages = (rawBytes - packedBytes) / pageSize;
+        return String.format(Locale.US,
+                "сжатие %d заметок: %d КБ → %d КБ (−%d%%) · упаковка: %.1f мс · распаковка: %.1f мс · −%d страниц чтения",
+                count, rawBytes / 1024, packedBytes / 1024, 100 - packedBytes * 100 / rawBytes,
+                ms(compressNs), ms(decompressNs), savedPages);
+    }
+
+    // Last recorded summary for a preset, or null if never measured
+    public static String getLastResult(Context context, DbProfile p) {
+        return prefs(context).getString(KEY_RESULT_PREFIX + p.key, null);
+    }
+
+    private static String run(Context context, DbProfile p) throws IOException {
+        context.deleteDatabase(BENCH_DB_NAME);
+        File src = context.getDatabasePath(DatabaseHelper.DATABASE_NAME);
+        File dst = context.getDatabasePath(BENCH_DB_NAME);
+        if (src.exists()) {
+            checkpoint(context);
+            copy(src, dst);
+            // Frames a busy reader kept in the WAL belong to the copy too, and the WAL is only
+            // read right alongside its index
+            for (String sidecar : new String[]{"-wal", "-shm"}) {
+                File file = new File(src.getPath() + sidecar);
+                if (file.exists()) copy(file, new File(dst.getPath() + sidecar));
+            }
+            if (p.pageSize > 0) rebuildWithPageSize(dst, p.pageSize);
+        }
+
+        DatabaseHelper helper = new DatabaseHelper(context, BENCH_DB_NAME, p);
+        try {
+            SQLiteDatabase db = helper.getReadableDatabase();
+            String journal = DbProfile.pragma(db, "journal_mode");
+            String pageSize = DbProfile.pragma(db, "page_size");
+            db.close();
+
+            long start = System.nanoTime();
+            for (int i = 0; i < INSERT_COUNT; i++) {
+                Note n = new Note();
+                n.setTitle("Benchmark " + i);
+                n.setContent("Тестовая заметка для замера производительности базы данных №" + i);
+                n.setCreatedAt(System.currentTimeMillis());
+                helper.addNote(n);
+            }
+            long insertNs = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < READ_REPEATS; i++) {
+                helper.getActiveNotesByFolder(DatabaseHelper.FOLDER_MAIN);
+            }
+            long listNs = (System.nanoTime() - start) / READ_REPEATS;
+
+            Calendar cal = Calendar.getInstance();
+            start = System.nanoTime();
+            for (int i = 0; i < READ_REPEATS; i++) {
+                helper.getNotesCountForMonth(cal.get(Calendar.YEAR), cal.get(Calendar.MONTH));
+            }
+            long monthNs = (System.nanoTime() - start) / READ_REPEATS;
+
+            start = System.nanoTime();
+            for (int i = 0; i < READ_REPEATS; i++) {
+                search(helper.getAllNotesWithContent(), SEARCH_QUERY);
+            }
+            long searchNs = (System.nanoTime() - start) / READ_REPEATS;
+
+            return String.format(Locale.US,
+                    "вставка %d: %.1f мс · список: %.1f мс · месяц: %.1f мс · поиск: %.1f мс (%s, %s Б)",
+                    INSERT_COUNT, ms(insertNs), ms(listNs), ms(monthNs), ms(searchNs), journal, pageSize);
+        } finally {
+            helper.close();
+            context.deleteDatabase(BENCH_DB_NAME);
+        }
+    }
+
+    // Same matching as SearchActivity
+    private static int search(List<Note> notes, String query) {
+        int hits = 0;
+        String lower = query.toLowerCase();
+        for (Note n : notes) {
+            if (n.getTitle().toLowerCase().contains(lower) ||
+                    (n.getContent() != null && n.getContent().toLowerCase().contains(lower))) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    // Moves the live WAL into the main file so that file alone is the data as of now; a
+    // no-op outside WAL mode
+    private static void checkpoint(Context context) {
+        DatabaseHelper helper = new DatabaseHelper(context);
+        try {
+            DbProfile.pragma(helper.getWritableDatabase(), "wal_checkpoint(TRUNCATE)");
+        } finally {
+            helper.close();
+        }
+    }
+
+    // page_size can only change on an existing file via VACUUM outside WAL mode
+    private static void rebuildWithPageSize(File file, int pageSize) {
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(file.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+        try {
+            DbProfile.pragma(db, "journal_mode=DELETE");
+            DbProfile.pragma(db, "page_size=" + pageSize);
+            db.execSQL("VACUUM");
+        } finally {
+            db.close();
+        }
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        try (InputStream in = new FileInputStream(from); OutputStream out = new FileOutputStream(to)) {
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buf)) > 0) out.write(buf, 0, n);
+        }
+    }
+
+    private static double ms(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,88 @@
+package com.kelo.noteapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Named set of SQLite PRAGMAs applied every time the database is opened.
+ * The active preset is chosen in the developer section of Settings; DbBenchmark
+ * measures each preset on a copy of the user's own data.
+ */
+public final class DbProfile {
+
+    private static final String PREFS_NAME = "NotesAppPrefs";
+    public static final String KEY_DB_PROFILE = "db_profile";
+
+    // null / 0 means "leave the SQLite / Android default alone"; journalMode is always set,
+    // since the mode is stored in the file and a preset left unset would keep the last one's
+    public final String key;
+    public final String displayName;
+    public final String journalMode;
+    public final String synchronous;
+    public final int cacheSizeKb;
+    public final long mmapSize;
+    public final String tempStore;
+    public final int pageSize; // only takes effect for a newly created database
+
+    // Android's own default journal mode
+    public static final DbProfile DEFAULT = new DbProfile("default", "Системный",
+            "TRUNCATE", null, 0, 0, null, 0);
+    public static final DbProfile BALANCED = new DbProfile("balanced", "Сбалансированный",
+            "WAL", "NORMAL", 4096, 0, "MEMORY", 4096);
+    public static final DbProfile FAST = new DbProfile("fast", "Быстрый",
+            "WAL", "NORMAL", 16384, 64L * 1024L * 1024L, "MEMORY", 8192);
+    public static final DbProfile SAFE = new DbProfile("safe", "Надёжный",
+            "TRUNCATE", "FULL", 2048, 0, null, 4096);
+
+    public static final DbProfile[] PRESETS = {DEFAULT, BALANCED, FAST, SAFE};
+
+    private DbProfile(String key, String displayName, String journalMode, String synchronous,
+                      int cacheSizeKb, long mmapSize, String tempStore, int pageSize) {
+        this.key = key;
+        this.displayName = displayName;
+        this.journalMode = journalMode;
+        this.synchronous = synchronous;
+        this.cacheSizeKb = cacheSizeKb;
+        this.mmapSize = mmapSize;
+        this.tempStore = tempStore;
+        this.pageSize = pageSize;
+    }
+
+    public static DbProfile forKey(String key) {
+        for (DbProfile p : PRESETS) {
+            if (p.key.equals(key)) return p;
+        }
+        return DEFAULT;
+    }
+
+    public static DbProfile fromPrefs(Context context) {
+        return forKey(context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getString(KEY_DB_PROFILE, DEFAULT.key));
+    }
+
+    // Called from DatabaseHelper.onConfigure, before onCreate/onUpgrade
+    void apply(SQLiteDatabase db) {
+        if (pageSize > 0) pragma(db, "page_size=" + pageSize);
+        // Let the framework own WAL so its connection pool is set up to match
+        if ("WAL".equals(journalMode)) {
+            db.enableWriteAheadLogging();
+        } else {
+            db.disableWriteAheadLogging();
+            pragma(db, "journal_mode=" + journalMode);
+        }
+        if (synchronous != null) pragma(db, "synchronous=" + synchronous);
+        if (cacheSizeKb > 0) pragma(db, "cache_size=-" + cacheSizeKb); // negative = KiB
+        if (mmapSize > 0) pragma(db, "mmap_size=" + mmapSize);
+        if (tempStore != null) pragma(db, "temp_store=" + tempStore);
+    }
+
+    // Some PRAGMAs return a row, so always go through rawQuery
+    static String pragma(SQLiteDatabase db, String statement) {
+        Cursor c = db.rawQuery("PRAGMA " + statement, null);
+        String value = null;
+        if (c.moveToFirst()) value = c.getString(0);
+        c.close();
+        return value;
+    }
+}
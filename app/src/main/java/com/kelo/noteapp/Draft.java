@@ -0,0 +1,64 @@
+package com.kelo.noteapp;
+
+// Unsaved editor state for one note (see DatabaseHelper.saveDraft). A draft for a
+// note that doesn't exist yet is stored under NEW_NOTE.
+public class Draft {
+
+    public static final int NEW_NOTE = 0;
+
+    private final int noteId;
+    private final String title;
+    private final String content;
+    private final int categoryId;
+    private final long reminderTime;
+    private final int repeatDays;
+    private final long hash;
+    private final long savedAt;
+
+    public Draft(int noteId, String title, String content, int categoryId,
+                 long reminderTime, int repeatDays, long savedAt) {
+        this(noteId, title, content, categoryId, reminderTime, repeatDays,
+                hashOf(title, content, categoryId, reminderTime, repeatDays), savedAt);
+    }
+
+    Draft(int noteId, String title, String content, int categoryId,
+          long reminderTime, int repeatDays, long hash, long savedAt) {
+        this.noteId = noteId;
+        this.title = title;
+        this.content = content;
+        this.categoryId = categoryId;
+        this.reminderTime = reminderTime;
+        this.repeatDays = repeatDays;
+        this.hash = hash;
+        this.savedAt = savedAt;
+    }
+
+    public int getNoteId() { return noteId; }
+    public String getTitle() { return title; }
+    public String getContent() { return content; }
+    public int getCategoryId() { return categoryId; }
+    public long getReminderTime() { return reminderTime; }
+    public int getRepeatDays() { return repeatDays; }
+    public long getHash() { return hash; }
+    public long getSavedAt() { return savedAt; }
+
+    // 64-bit FNV-1a over the editable fields; linear in the text, so call it off the UI thread
+    public static long hashOf(String title, String content, int categoryId, long reminderTime, int repeatDays) {
+        long h = 0xcbf29ce484222325L;
+        h = mix(h, title);
+        h = mix(h, content);
+        h = (h ^ categoryId) * 0x100000001b3L;
+        h = (h ^ reminderTime) * 0x100000001b3L;
+        h = (h ^ repeatDays) * 0x100000001b3L;
+        return h;
+    }
+
+    private static long mix(long h, String s) {
+        if (s == null) return (h ^ 0xff) * 0x100000001b3L;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        // Field separator, so ("ab", "c") and ("a", "bc") differ
+        return (h ^ 0x1f) * 0x100000001b3L;
+    }
+}
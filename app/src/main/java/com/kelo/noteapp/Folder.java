@@ -0,0 +1,24 @@
+package com.kelo.noteapp;
+
+// One row of the folders table, i.e. one tab of the main screen. Notes reference the key.
+public class Folder {
+
+    private final int id;
+    private final String key;
+    private final String name;
+
+    public Folder(int id, String key, String name) {
+        this.id = id;
+        this.key = key;
+        this.name = name;
+    }
+
+    public int getId() { return id; }
+    // Stored in notes.folder and sent on the sync wire
+    public String getKey() { return key; }
+    public String getName() { return name; }
+    // The two original tabs can be renamed but not deleted
+    public boolean isBuiltIn() {
+        return DatabaseHelper.FOLDER_MAIN.equals(key) || DatabaseHelper.FOLDER_SECONDARY.equals(key);
+    }
+}
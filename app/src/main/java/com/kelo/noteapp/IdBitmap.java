@@ -0,0 +1,336 @@
+package com.kelo.noteapp;
+
+import java.util.Arrays;
+
+// Compressed set of non-negative ids (note ids), laid out like a Roaring bitmap: ids are
+// grouped by their high 16 bits and each group is kept either as a sorted char array
+// (up to ARRAY_MAX ids) or as a 65536-bit bitset once it gets denser than that. Set
+// operations walk the groups pairwise, so their cost follows what is stored rather than
+// the id range. Not thread-safe; TagIndex guards its bitmaps.
+public final class IdBitmap {
+
+    // Above this an array group takes more memory than the 8 KB bitset
+    private static final int ARRAY_MAX = 4096;
+    private static final int BITSET_WORDS = 1 << 10;
+
+    // Groups sorted by high bits; containers[i] is char[] (first sizes[i] used) or long[]
+    private char[] keys = new char[4];
+    private Object[] containers = new Object[4];
+    private int[] sizes = new int[4];
+    private int count;
+
+    public IdBitmap() {
+    }
+
+    public IdBitmap copy() {
+        IdBitmap b = new IdBitmap();
+        b.keys = Arrays.copyOf(keys, Math.max(count, 1));
+        b.containers = new Object[b.keys.length];
+        b.sizes = Arrays.copyOf(sizes, b.keys.length);
+        b.count = count;
+        for (int i = 0; i < count; i++) {
+            Object c = containers[i];
+            b.containers[i] = c instanceof long[] ? ((long[]) c).clone()
+                    : Arrays.copyOf((char[]) c, Math.max(sizes[i], 1));
+        }
+        return b;
+    }
+
+    public boolean contains(int id) {
+        int i = Arrays.binarySearch(keys, 0, count, (char) (id >>> 16));
+        if (i < 0) return false;
+        char low = (char) id;
+        Object c = containers[i];
+        if (c instanceof long[]) return (((long[]) c)[low >>> 6] & (1L << low)) != 0;
+        return Arrays.binarySearch((char[]) c, 0, sizes[i], low) >= 0;
+    }
+
+    public void add(int id) {
+        char high = (char) (id >>> 16);
+        char low = (char) id;
+        int i = Arrays.binarySearch(keys, 0, count, high);
+        if (i < 0) {
+            i = -i - 1;
+            insertGroup(i, high, new char[4], 0);
+        }
+        Object c = containers[i];
+        if (c instanceof long[]) {
+            long[] bits = (long[]) c;
+            long mask = 1L << low;
+            if ((bits[low >>> 6] & mask) == 0) {
+                bits[low >>> 6] |= mask;
+                sizes[i]++;
+            }
+            return;
+        }
+        char[] array = (char[]) c;
+        int n = sizes[i];
+        int at = Arrays.binarySearch(array, 0, n, low);
+        if (at >= 0) return;
+        at = -at - 1;
+        if (n == ARRAY_MAX) {
+            long[] bits = toBits(array, n);
+            bits[low >>> 6] |= 1L << low;
+            containers[i] = bits;
+        } else {
+            if (n == array.length) array = Arrays.copyOf(array, Math.min(ARRAY_MAX, n * 2));
+            System.arraycopy(array, at, array, at + 1, n - at);
+            array[at] = low;
+            containers[i] = array;
+        }
+        sizes[i] = n + 1;
+    }
+
+    public void remove(int id) {
+        int i = Arrays.binarySearch(keys, 0, count, (char) (id >>> 16));
+        if (i < 0) return;
+        char low = (char) id;
+        Object c = containers[i];
+        if (c instanceof long[]) {
+            long[] bits = (long[]) c;
+            long mask = 1L << low;
+            if ((bits[low >>> 6] & mask) == 0) return;
+            bits[low >>> 6] &= ~mask;
+            if (--sizes[i] <= ARRAY_MAX) containers[i] = toArray(bits, sizes[i]);
+        } else {
+            char[] array = (char[]) c;
+            int n = sizes[i];
+            int at = Arrays.binarySearch(array, 0, n, low);
+            if (at < 0) return;
+            System.arraycopy(array, at + 1, array, at, n - at - 1);
+            sizes[i] = n - 1;
+        }
+        if (sizes[i] == 0) removeGroup(i);
+    }
+
+    public int cardinality() {
+        int total = 0;
+        for (int i = 0; i < count; i++) total += sizes[i];
+        return total;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    // Ids in ascending order
+    public int[] toArray() {
+        int[] out = new int[cardinality()];
+        int k = 0;
+        for (int i = 0; i < count; i++) {
+            int base = keys[i] << 16;
+            Object c = containers[i];
+            if (c instanceof long[]) {
+                long[] bits = (long[]) c;
+                for (int w = 0; w < BITSET_WORDS; w++) {
+                    long word = bits[w];
+                    while (word != 0) {
+                        out[k++] = base | (w << 6) | Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
+                    }
+                }
+            } else {
+                char[] array = (char[]) c;
+                for (int j = 0; j < sizes[i]; j++) out[k++] = base | array[j];
+            }
+        }
+        return out;
+    }
+
+    public static IdBitmap and(IdBitmap a, IdBitmap b) {
+        IdBitmap out = new IdBitmap();
+        int i = 0, j = 0;
+        while (i < a.count && j < b.count) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                Object ca = a.containers[i], cb = b.containers[j];
+                if (ca instanceof char[] && cb instanceof char[]) {
+                    char[] x = (char[]) ca, y = (char[]) cb;
+                    char[] r = new char[Math.min(a.sizes[i], b.sizes[j])];
+                    int n = 0, p = 0, q = 0;
+                    while (p < a.sizes[i] && q < b.sizes[j]) {
+                        if (x[p] < y[q]) p++;
+                        else if (x[p] > y[q]) q++;
+                        else { r[n++] = x[p]; p++; q++; }
+                    }
+                    out.appendArray(a.keys[i], r, n);
+                } else if (ca instanceof char[] || cb instanceof char[]) {
+                    // Sparse side filtered through the dense one
+                    boolean aSparse = ca instanceof char[];
+                    char[] x = (char[]) (aSparse ? ca : cb);
+                    long[] bits = (long[]) (aSparse ? cb : ca);
+                    int size = aSparse ? a.sizes[i] : b.sizes[j];
+                    char[] r = new char[size];
+                    int n = 0;
+                    for (int p = 0; p < size; p++) {
+                        if ((bits[x[p] >>> 6] & (1L << x[p])) != 0) r[n++] = x[p];
+                    }
+                    out.appendArray(a.keys[i], r, n);
+                } else {
+                    long[] x = (long[]) ca, y = (long[]) cb;
+                    long[] r = new long[BITSET_WORDS];
+                    for (int w = 0; w < BITSET_WORDS; w++) r[w] = x[w] & y[w];
+                    out.appendBits(a.keys[i], r);
+                }
+                i++;
+                j++;
+            }
+        }
+        return out;
+    }
+
+    public static IdBitmap or(IdBitmap a, IdBitmap b) {
+        IdBitmap out = new IdBitmap();
+        int i = 0, j = 0;
+        while (i < a.count || j < b.count) {
+            if (j >= b.count || (i < a.count && a.keys[i] < b.keys[j])) {
+                out.appendCopy(a, i++);
+            } else if (i >= a.count || a.keys[i] > b.keys[j]) {
+                out.appendCopy(b, j++);
+            } else {
+                Object ca = a.containers[i], cb = b.containers[j];
+                if (ca instanceof char[] && cb instanceof char[]
+                        && a.sizes[i] + b.sizes[j] <= ARRAY_MAX) {
+                    char[] x = (char[]) ca, y = (char[]) cb;
+                    char[] r = new char[a.sizes[i] + b.sizes[j]];
+                    int n = 0, p = 0, q = 0;
+                    while (p < a.sizes[i] || q < b.sizes[j]) {
+                        if (q >= b.sizes[j] || (p < a.sizes[i] && x[p] < y[q])) r[n++] = x[p++];
+                        else if (p >= a.sizes[i] || x[p] > y[q]) r[n++] = y[q++];
+                        else { r[n++] = x[p++]; q++; }
+                    }
+                    out.appendArray(a.keys[i], r, n);
+                } else {
+                    long[] r = a.bitsOf(i);
+                    orInto(r, b, j);
+                    out.appendBits(a.keys[i], r);
+                }
+                i++;
+                j++;
+            }
+        }
+        return out;
+    }
+
+    // Ids of a that are not in b
+    public static IdBitmap andNot(IdBitmap a, IdBitmap b) {
+        IdBitmap out = new IdBitmap();
+        int j = 0;
+        for (int i = 0; i < a.count; i++) {
+            while (j < b.count && b.keys[j] < a.keys[i]) j++;
+            if (j >= b.count || b.keys[j] != a.keys[i]) {
+                out.appendCopy(a, i);
+                continue;
+            }
+            Object ca = a.containers[i], cb = b.containers[j];
+            if (ca instanceof char[]) {
+                char[] x = (char[]) ca;
+                char[] r = new char[a.sizes[i]];
+                int n = 0;
+                for (int p = 0; p < a.sizes[i]; p++) {
+                    boolean inB = cb instanceof long[]
+                            ? (((long[]) cb)[x[p] >>> 6] & (1L << x[p])) != 0
+                            : Arrays.binarySearch((char[]) cb, 0, b.sizes[j], x[p]) >= 0;
+                    if (!inB) r[n++] = x[p];
+                }
+                out.appendArray(a.keys[i], r, n);
+            } else {
+                long[] r = ((long[]) ca).clone();
+                if (cb instanceof long[]) {
+                    long[] y = (long[]) cb;
+                    for (int w = 0; w < BITSET_WORDS; w++) r[w] &= ~y[w];
+                } else {
+                    char[] y = (char[]) cb;
+                    for (int q = 0; q < b.sizes[j]; q++) r[y[q] >>> 6] &= ~(1L << y[q]);
+                }
+                out.appendBits(a.keys[i], r);
+            }
+        }
+        return out;
+    }
+
+    // ----- groups -----
+
+    private long[] bitsOf(int i) {
+        Object c = containers[i];
+        return c instanceof long[] ? ((long[]) c).clone() : toBits((char[]) c, sizes[i]);
+    }
+
+    private static void orInto(long[] bits, IdBitmap b, int j) {
+        Object c = b.containers[j];
+        if (c instanceof long[]) {
+            long[] y = (long[]) c;
+            for (int w = 0; w < BITSET_WORDS; w++) bits[w] |= y[w];
+        } else {
+            char[] y = (char[]) c;
+            for (int q = 0; q < b.sizes[j]; q++) bits[y[q] >>> 6] |= 1L << y[q];
+        }
+    }
+
+    private static long[] toBits(char[] array, int n) {
+        long[] bits = new long[BITSET_WORDS];
+        for (int p = 0; p < n; p++) bits[array[p] >>> 6] |= 1L << array[p];
+        return bits;
+    }
+
+    private static char[] toArray(long[] bits, int n) {
+        char[] array = new char[Math.max(n, 1)];
+        int k = 0;
+        for (int w = 0; w < BITSET_WORDS; w++) {
+            long word = bits[w];
+            while (word != 0) {
+                array[k++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return array;
+    }
+
+    private void appendCopy(IdBitmap from, int i) {
+        Object c = from.containers[i];
+        if (c instanceof long[]) appendGroup(from.keys[i], ((long[]) c).clone(), from.sizes[i]);
+        else appendGroup(from.keys[i], Arrays.copyOf((char[]) c, from.sizes[i]), from.sizes[i]);
+    }
+
+    private void appendArray(char key, char[] array, int n) {
+        if (n > 0) appendGroup(key, array, n);
+    }
+
+    // Keeps the bitset only while the group is dense enough to need it
+    private void appendBits(char key, long[] bits) {
+        int n = 0;
+        for (long word : bits) n += Long.bitCount(word);
+        if (n == 0) return;
+        appendGroup(key, n <= ARRAY_MAX ? toArray(bits, n) : bits, n);
+    }
+
+    private void appendGroup(char key, Object container, int size) {
+        insertGroup(count, key, container, size);
+    }
+
+    private void insertGroup(int at, char key, Object container, int size) {
+        if (count == keys.length) {
+            int cap = count * 2;
+            keys = Arrays.copyOf(keys, cap);
+            containers = Arrays.copyOf(containers, cap);
+            sizes = Arrays.copyOf(sizes, cap);
+        }
+        System.arraycopy(keys, at, keys, at + 1, count - at);
+        System.arraycopy(containers, at, containers, at + 1, count - at);
+        System.arraycopy(sizes, at, sizes, at + 1, count - at);
+        keys[at] = key;
+        containers[at] = container;
+        sizes[at] = size;
+        count++;
+    }
+
+    private void removeGroup(int at) {
+        System.arraycopy(keys, at + 1, keys, at, count - at - 1);
+        System.arraycopy(containers, at + 1, containers, at, count - at - 1);
+        System.arraycopy(sizes, at + 1, sizes, at, count - at - 1);
+        containers[--count] = null;
+    }
+}
@@ -25,24 +25,25 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.Window;
+import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.ImageView;
 import android.widget.PopupMenu;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.core.content.ContextCompat;
-import androidx.fragment.app.Fragment;
-import androidx.fragment.app.FragmentActivity;
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.ItemTouchHelper;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
-import androidx.viewpager2.adapter.FragmentStateAdapter;
 import androidx.viewpager2.widget.ViewPager2;
 
+import com.google.android.material.chip.Chip;
+import com.google.android.material.chip.ChipGroup;
 import com.google.android.material.snackbar.Snackbar;
 import com.google.android.material.tabs.TabLayout;
 import com.google.android.material.tabs.TabLayoutMediator;
@@ -51,6 +52,9 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -72,8 +76,11 @@ public class MainActivity extends AppCompatActivity implements CalendarAdapter.O
     // Tabs + pager
     private TabLayout tabs;
     private ViewPager2 viewPager;
-    private PrimaryNotesFragment primaryFragment;
-    private SecondaryNotesFragment secondaryFragment;
+    private MainTabsAdapter tabsAdapter;
+    private List<Folder> folders = new ArrayList<>();
+    // Pages ViewPager2 has created so far, by folder key
+    private final Map<String, NotesFragment> folderPages = new HashMap<>();
+    private int lastPage;
 
     // Calendar view
     private View calendarViewContainer;
@@ -101,14 +108,21 @@ public class MainActivity extends AppCompatActivity implements CalendarAdapter.O
     private int currentSortMode = 0; // 0 newest, 1 oldest, 2 category, 3 title
     private static final String PREF_SORT_MODE = "sort_mode";
 
+    // Tag filter bar: each tag chip cycles off -> required -> excluded; the mode chip
+    // switches required tags between "all of them" and "any of them"
+    private static final int TAG_INCLUDE = 1;
+    private static final int TAG_EXCLUDE = 2;
+    private View tagFilterBar;
+    private ChipGroup tagFilterChips;
+    private final Map<Integer, Integer> tagFilterStates = new HashMap<>();
+    private boolean tagFilterRequireAll = true;
+
     private static final String CHANNEL_ID = "notes_reminder_channel";
     private static final int ADD_NOTE_REQUEST = 1;
     private static final int EDIT_NOTE_REQUEST = 2;
     private static final String PREFS_NAME = "NotesAppPrefs";
     private static final String PREF_VIEW_MODE = "view_mode";
 
-    // Category key for secondary folder
-    private static final String SECONDARY_CATEGORY = "secondary";
 
     // Prevent swipe visuals while context menu is open
     private boolean suppressSwipe = false;
@@ -116,6 +130,10 @@ public class MainActivity extends AppCompatActivity implements CalendarAdapter.O
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+
+        // Large schema upgrades run behind a progress screen, not on this thread
+        if (MigrationActivity.redirectIfUpgradePending(this)) return;
+
         setContentView(R.layout.activity_main);
 
         // Toolbar
@@ -128,7 +146,7 @@ public class MainActivity extends AppCompatActivity implements CalendarAdapter.O
         databaseHelper = new DatabaseHelper(this);
         createNotificationChannel();
 
-        setupTabsAndPager();      // tabs UI (primary / secondary)
+        setupTabsAndPager();      // one tab per folder
         setupListView();          // legacy RVs (no-op if not present)
         setupCalendarView();      // calendar mode
 
@@ -150,6 +168,9 @@ public class MainActivity extends AppCompatActivity implements CalendarAdapter.O
 
 
         handleNotificationIntent(getIntent());
+
+        // Archive old completed notes etc. off the UI thread
+        MaintenanceTask.runIfDue(this);
     }
 
     private void initializeViews() {
@@ -160,6 +181,8 @@ public class MainActivity extends AppCompatActivity implements CalendarAdapter.O
         // Tabs & pager
         tabs = findViewById(R.id.tabs);
         viewPager = findViewById(R.id.viewPager);
+        tagFilterBar = findViewById(R.id.tagFilterBar);
+        tagFilterChips = findViewById(R.id.tagFilterChips);
 
         // Optional legacy list RVs (not present in your new XML; keep null-safe)
         recyclerViewMain = findViewById(getIdByName("recyclerView"));
@@ -192,39 +215,111 @@ public class MainActivity extends AppCompatActivity implements CalendarAdapter.O
     private void setupTabsAndPager() {
         if (tabs == null || viewPager == null) return;
 
-        primaryFragment = PrimaryNotesFragment.newInstance();
-        secondaryFragment = SecondaryNotesFragment.newInstance();
-
-        List<Fragment> frags = new ArrayList<>();
-        frags.add(primaryFragment);
-        frags.add(secondaryFragment);
-
-        viewPager.setAdapter(new TabPagerAdapter(this, frags));
+        folders = databaseHelper.getFolders();
+        tabsAdapter = new MainTabsAdapter(this, folders);
+        viewPager.setAdapter(tabsAdapter);
         new TabLayoutMediator(tabs, viewPager, (tab, position) -> {
-            if (position == 0) tab.setText("Основная");
-            else tab.setText("Доп. папка");
+            tab.setText(tabsAdapter.getFolder(position).getName());
+            tab.view.setOnLongClickListener(v -> {
+                showFolderActions(tabsAdapter.getFolder(position));
+                return true;
+            });
         }).attach();
 
+        // Neighbours get their views ready but stay unloaded; once a page is shown, the
+        // next one in the swipe direction loads its notes
         viewPager.setOffscreenPageLimit(1);
+        viewPager.registerOnPageChangeCallback(new ViewPager2.OnPageChangeCallback() {
+            @Override
+            public void onPageSelected(int position) {
+                final int next = position >= lastPage ? position + 1 : position - 1;
+                lastPage = position;
+                viewPager.post(() -> preloadPage(next));
+                updateCountsAndEmpty();
+            }
+        });
     }
 
-    private static class TabPagerAdapter extends FragmentStateAdapter {
-        private final List<Fragment> fragments;
+    private void preloadPage(int position) {
+        if (tabsAdapter == null || position < 0 || position >= tabsAdapter.getItemCount()) return;
+        NotesFragment page = folderPages.get(tabsAdapter.getFolder(position).getKey());
+        if (page != null) page.preload();
+    }
 
-        public TabPagerAdapter(@NonNull FragmentActivity fa, @NonNull List<Fragment> fragments) {
-            super(fa);
-            this.fragments = fragments;
-        }
+    void onFolderPageAttached(NotesFragment page) {
+        folderPages.put(page.getFolder(), page);
+    }
 
-        @NonNull @Override
-        public Fragment createFragment(int position) {
-            return fragments.get(position);
-        }
+    void onFolderPageDetached(NotesFragment page) {
+        if (folderPages.get(page.getFolder()) == page) folderPages.remove(page.getFolder());
+    }
 
-        @Override
-        public int getItemCount() {
-            return fragments.size();
-        }
+    private void reloadFolders(String select) {
+        folders = databaseHelper.getFolders();
+        if (tabsAdapter == null) return;
+        tabsAdapter.setFolders(folders);
+        int position = select != null ? tabsAdapter.positionOf(select) : -1;
+        if (position >= 0) viewPager.setCurrentItem(position, false);
+        updateCountsAndEmpty();
+    }
+
+    private void showNewFolderDialog() {
+        final EditText input = new EditText(this);
+        input.setSingleLine(true);
+        input.setHint("Название папки");
+        new AlertDialog.Builder(this)
+                .setTitle("Новая папка")
+                .setView(input)
+                .setPositiveButton("Создать", (d, which) -> {
+                    String name = input.getText().toString().trim();
+                    if (name.isEmpty()) return;
+                    reloadFolders(databaseHelper.addFolder(name).getKey());
+                })
+                .setNegativeButton("Отмена", null)
+                .show();
+    }
+
+    private void showFolderActions(final Folder folder) {
+        String[] actions = folder.isBuiltIn()
+                ? new String[]{"Переименовать"}
+                : new String[]{"Переименовать", "Удалить"};
+        new AlertDialog.Builder(this)
+                .setTitle(folder.getName())
+                .setItems(actions, (d, which) -> {
+                    if (which == 0) showRenameFolderDialog(folder);
+                    else confirmDeleteFolder(folder);
+                })
+                .show();
+    }
+
+    private void showRenameFolderDialog(final Folder folder) {
+        final EditText input = new EditText(this);
+        input.setSingleLine(true);
+        input.setText(folder.getName());
+        new AlertDialog.Builder(this)
+                .setTitle("Переименовать папку")
+                .setView(input)
+                .setPositiveButton("Сохранить", (d, which) -> {
+                    String name = input.getText().toString().trim();
+                    if (name.isEmpty()) return;
+                    databaseHelper.renameFolder(folder.getId(), name);
+                    reloadFolders(null);
+                })
+                .setNegativeButton("Отмена", null)
+                .show();
+    }
+
+    private void confirmDeleteFolder(final Folder folder) {
+        new AlertDialog.Builder(this)
+                .setTitle("Удалить папку «" + folder.getName() + "»?")
+                .setMessage("Заметки из неё переместятся в основную папку.")
+                .setPositiveButton("Удалить", (d, which) -> {
+                    databaseHelper.deleteFolder(folder);
+                    reloadFolders(DatabaseHelper.FOLDER_MAIN);
+                    notifyTabsChanged();
+                })
+                .setNegativeButton("Отмена", null)
+                .show();
     }
 
     // ---------------------------
@@ -476,6 +571,12 @@ public class MainActivity extends AppCompatActivity implements CalendarAdapter.O
     private void loadNotes() {
         if (databaseHelper == null) return;
 
+        // Tabs load their own lists; counters come from note_stats
+        if (recyclerViewMain == null && recyclerViewSecondary == null) {
+            updateCountsAndEmpty();
+            return;
+        }
+
         mainNotes.clear();
         secondaryNotes.clear();
 
@@ -483,8 +584,7 @@ public class MainActivity extends AppCompatActivity implements CalendarAdapter.O
         List<Note> all = databaseHelper.getActiveNotes();
 
         for (Note n : all) {
-            String cat = n.getCategory();
-            if (SECONDARY_CATEGORY.equalsIgnoreCase(cat)) secondaryNotes.add(n);
+            if (n.getCategoryId() == Category.SECONDARY) secondaryNotes.add(n);
             else mainNotes.add(n);
         }
 
@@ -527,9 +627,7 @@ public class MainActivity extends AppCompatActivity implements CalendarAdapter.O
                 Collections.sort(list, (a, b) -> {
                     if (a.isPinned() != b.isPinned()) return a.isPinned() ? -1 : 1;
                     if (a.isCompleted() != b.isCompleted()) return a.isCompleted() ? 1 : -1;
-                    String ca = a.getCategory() != null ? a.getCategory() : "personal";
-                    String cb = b.getCategory() != null ? b.getCategory() : "personal";
-                    return ca.compareTo(cb);
+                    return Integer.compare(a.getCategoryId(), b.getCategoryId());
                 });
                 break;
             case 3:
@@ -550,13 +648,37 @@ public class MainActivity extends AppCompatActivity implements CalendarAdapter.O
     }
 
     private void updateCountsAndEmpty() {
-        int mainCount = mainNotes.size();
-        int secondaryCount = secondaryNotes.size();
+        if (databaseHelper == null) return;
+        NoteStats stats = databaseHelper.getStats();
+        int mainCount = stats.getActiveInFolder(DatabaseHelper.FOLDER_MAIN);
+        int secondaryCount = stats.getActiveInFolder(DatabaseHelper.FOLDER_SECONDARY);
+
+        for (int i = 0; i < folders.size(); i++) {
+            updateTabBadge(i, stats.getActiveInFolder(folders.get(i).getKey()));
+        }
 
         if (mainListCount != null) mainListCount.setText(String.valueOf(mainCount));
         if (secondPriorityCount != null) secondPriorityCount.setText(String.valueOf(secondaryCount));
         if (emptyView != null) {
-            emptyView.setVisibility((mainCount == 0 && secondaryCount == 0) ? View.VISIBLE : View.GONE);
+            // The empty state belongs to the tab on screen, not to the first two folders
+            boolean empty;
+            if (tabsAdapter != null && viewPager != null && viewPager.getCurrentItem() < tabsAdapter.getItemCount()) {
+                empty = stats.getActiveInFolder(tabsAdapter.getFolder(viewPager.getCurrentItem()).getKey()) == 0;
+            } else {
+                empty = mainCount == 0 && secondaryCount == 0;
+            }
+            emptyView.setVisibility(empty ? View.VISIBLE : View.GONE);
+        }
+    }
+
+    private void updateTabBadge(int position, int count) {
+        if (tabs == null) return;
+        TabLayout.Tab tab = tabs.getTabAt(position);
+        if (tab == null) return;
+        if (count > 0) {
+            tab.getOrCreateBadge().setNumber(count);
+        } else {
+            tab.removeBadge();
         }
     }
 
@@ -578,7 +700,7 @@ public class MainActivity extends AppCompatActivity implements CalendarAdapter.O
         });
 
         menu.getMenu().add(0, 1, 0, note.isPinned() ? "Открепить" : "Закрепить");
-        if (SECONDARY_CATEGORY.equals(note.getCategory())) {
+        if (note.getCategoryId() == Category.SECONDARY) {
             menu.getMenu().add(0, 2, 1, "Переместить в основную");
         } else {
             menu.getMenu().add(0, 3, 1, "Переместить в доп. папку");
@@ -601,13 +723,13 @@ public class MainActivity extends AppCompatActivity implements CalendarAdapter.O
                 updateAppWidget();
                 return true;
             } else if (item.getItemId() == 2) { // move to main
-                databaseHelper.updateNoteCategory(note.getId(), "personal");
+                databaseHelper.updateNoteCategory(note.getId(), Category.PERSONAL);
                 notifyTabsChanged();
                 loadNotes();
                 updateAppWidget();
                 return true;
             } else if (item.getItemId() == 3) { // move to secondary
-                databaseHelper.updateNoteCategory(note.getId(), SECONDARY_CATEGORY);
+                databaseHelper.updateNoteCategory(note.getId(), Category.SECONDARY);
                 notifyTabsChanged();
                 loadNotes();
                 updateAppWidget();
@@ -627,7 +749,7 @@ public class MainActivity extends AppCompatActivity implements CalendarAdapter.O
         Intent intent = new Intent(MainActivity.this, AddEditNoteActivity.class);
         intent.putExtra("note_id", note.getId());
         intent.putExtra("note_title", note.getTitle());
-        intent.putExtra("note_content", note.getContent());
+        intent.putExtra("note_content", note.getPreview());
         intent.putExtra("note_reminder", note.getReminderTime());
         startActivityForResult(intent, EDIT_NOTE_REQUEST);
     }
@@ -637,18 +759,84 @@ public class MainActivity extends AppCompatActivity implements CalendarAdapter.O
         Intent intent = new Intent(MainActivity.this, AddEditNoteActivity.class);
         intent.putExtra("note_id", note.getId());
         intent.putExtra("note_title", note.getTitle());
-        intent.putExtra("note_content", note.getContent());
+        intent.putExtra("note_content", note.getPreview());
         intent.putExtra("note_reminder", note.getReminderTime());
         startActivityForResult(intent, EDIT_NOTE_REQUEST);
     }
 
-    public void notifyTabsChanged() {
-        if (primaryFragment != null && primaryFragment.isAdded()) {
-            primaryFragment.reload();
+    // Editor for a new note under parent; it is saved into the parent's tab
+    public void openNewSubNote(Note parent) {
+        if (parent == null) return;
+        Intent intent = new Intent(MainActivity.this, AddEditNoteActivity.class);
+        intent.putExtra("parent_id", parent.getId());
+        startActivityForResult(intent, ADD_NOTE_REQUEST);
+    }
+
+    // Rebuilt on resume: the editor may have added tags
+    private void setupTagFilterBar() {
+        if (tagFilterChips == null) return;
+        List<Tag> tags = databaseHelper.getTags();
+        tagFilterBar.setVisibility(tags.isEmpty() ? View.GONE : View.VISIBLE);
+        tagFilterChips.removeAllViews();
+
+        final Chip mode = new Chip(this);
+        mode.setText(tagFilterRequireAll ? "Все" : "Любой");
+        mode.setOnClickListener(v -> {
+            tagFilterRequireAll = !tagFilterRequireAll;
+            mode.setText(tagFilterRequireAll ? "Все" : "Любой");
+            notifyTabsChanged();
+        });
+        tagFilterChips.addView(mode);
+
+        Set<Integer> known = new HashSet<>();
+        for (final Tag tag : tags) {
+            known.add(tag.getId());
+            final Chip chip = new Chip(this);
+            bindTagChip(chip, tag);
+            chip.setOnClickListener(v -> {
+                Integer state = tagFilterStates.get(tag.getId());
+                if (state == null) tagFilterStates.put(tag.getId(), TAG_INCLUDE);
+                else if (state == TAG_INCLUDE) tagFilterStates.put(tag.getId(), TAG_EXCLUDE);
+                else tagFilterStates.remove(tag.getId());
+                bindTagChip(chip, tag);
+                notifyTabsChanged();
+            });
+            tagFilterChips.addView(chip);
+        }
+        // Forget states of tags that no longer exist
+        tagFilterStates.keySet().retainAll(known);
+    }
+
+    private void bindTagChip(Chip chip, Tag tag) {
+        Integer state = tagFilterStates.get(tag.getId());
+        if (state == null) chip.setText(tag.getName());
+        else if (state == TAG_INCLUDE) chip.setText("+ " + tag.getName());
+        else chip.setText("− " + tag.getName());
+        chip.setChipBackgroundColorResource(state == null ? R.color.chip_background
+                : state == TAG_INCLUDE ? R.color.colorPrimary : R.color.text_secondary);
+    }
+
+    // Called by the list fragments on every reload; a no-op while no tag chip is active
+    public void applyTagFilter(List<Note> notes) {
+        if (tagFilterStates.isEmpty()) return;
+        List<Integer> include = new ArrayList<>();
+        List<Integer> exclude = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> e : tagFilterStates.entrySet()) {
+            (e.getValue() == TAG_INCLUDE ? include : exclude).add(e.getKey());
         }
-        if (secondaryFragment != null && secondaryFragment.isAdded()) {
-            secondaryFragment.reload();
+        List<Integer> none = Collections.emptyList();
+        TagIndex.Match match = TagIndex.filter(databaseHelper,
+                tagFilterRequireAll ? include : none, tagFilterRequireAll ? none : include, exclude);
+        for (Iterator<Note> it = notes.iterator(); it.hasNext(); ) {
+            if (!match.matches(it.next().getId())) it.remove();
+        }
+    }
+
+    public void notifyTabsChanged() {
+        for (NotesFragment page : folderPages.values()) {
+            page.invalidate();
         }
+        updateCountsAndEmpty();
         updateAppWidget();
     }
 
@@ -685,7 +873,7 @@ public class MainActivity extends AppCompatActivity implements CalendarAdapter.O
         if (pos < 0 || pos >= source.size()) return;
         Note note = source.get(pos);
         note.setCompleted(!note.isCompleted());
-        databaseHelper.updateNote(note);
+        databaseHelper.updateNoteCompleted(note);
         adapter.notifyItemChanged(pos);
 
         if (note.isCompleted()) cancelNotification(note.getId());
@@ -699,7 +887,7 @@ public class MainActivity extends AppCompatActivity implements CalendarAdapter.O
         if (pos < 0 || pos >= source.size()) return;
         Note note = source.get(pos);
         note.setPinned(!note.isPinned());
-        databaseHelper.updateNote(note);
+        databaseHelper.updateNotePinned(note.getId(), note.isPinned());
         applySortingToList(source);
         adapter.notifyDataSetChanged();
         notifyTabsChanged();
@@ -729,6 +917,9 @@ public class MainActivity extends AppCompatActivity implements CalendarAdapter.O
         } else if (id == R.id.action_sort) {
             showCustomSortDialog();
             return true;
+        } else if (id == R.id.action_new_folder) {
+            showNewFolderDialog();
+            return true;
         } else if (id == R.id.action_settings) {
             startActivity(new Intent(this, SettingsActivity.class));
             return true;
@@ -802,7 +993,7 @@ public class MainActivity extends AppCompatActivity implements CalendarAdapter.O
                     Intent editIntent = new Intent(this, AddEditNoteActivity.class);
                     editIntent.putExtra("note_id", note.getId());
                     editIntent.putExtra("note_title", note.getTitle());
-                    editIntent.putExtra("note_content", note.getContent());
+                    editIntent.putExtra("note_content", note.getPreview());
                     editIntent.putExtra("note_reminder", note.getReminderTime());
                     startActivityForResult(editIntent, EDIT_NOTE_REQUEST);
                 }
@@ -827,6 +1018,7 @@ public class MainActivity extends AppCompatActivity implements CalendarAdapter.O
     @Override
     protected void onResume() {
         super.onResume();
+        setupTagFilterBar();
         if (!isCalendarView) {
             notifyTabsChanged();
             loadNotes();
@@ -861,7 +1053,7 @@ public class MainActivity extends AppCompatActivity implements CalendarAdapter.O
         Intent intent = new Intent(this, NotificationReceiver.class);
         intent.putExtra("note_id", note.getId());
         intent.putExtra("note_title", note.getTitle());
-        intent.putExtra("note_content", note.getContent());
+        intent.putExtra("note_content", note.getPreview());
 
         PendingIntent pendingIntent = PendingIntent.getBroadcast(this, note.getId(), intent,
                 PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
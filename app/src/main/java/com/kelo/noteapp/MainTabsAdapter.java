@@ -5,20 +5,49 @@ import androidx.fragment.app.Fragment;
 import androidx.fragment.app.FragmentActivity;
 import androidx.viewpager2.adapter.FragmentStateAdapter;
 
+import java.util.ArrayList;
+import java.util.List;
+
+// One NotesFragment per folder, created only when ViewPager2 first needs that page.
+// Item ids are folder ids, so pages keep their state when folders are added or removed.
 public class MainTabsAdapter extends FragmentStateAdapter {
 
-    private final PrimaryNotesFragment primaryFragment = PrimaryNotesFragment.newInstance();
-    private final SecondaryNotesFragment secondaryFragment = SecondaryNotesFragment.newInstance();
+    private final List<Folder> folders = new ArrayList<>();
+
+    public MainTabsAdapter(@NonNull FragmentActivity fa, @NonNull List<Folder> folders) {
+        super(fa);
+        this.folders.addAll(folders);
+    }
+
+    public void setFolders(@NonNull List<Folder> list) {
+        folders.clear();
+        folders.addAll(list);
+        notifyDataSetChanged();
+    }
 
-    public MainTabsAdapter(@NonNull FragmentActivity fa) { super(fa); }
+    public Folder getFolder(int position) { return folders.get(position); }
+
+    public int positionOf(String key) {
+        for (int i = 0; i < folders.size(); i++) {
+            if (folders.get(i).getKey().equals(key)) return i;
+        }
+        return -1;
+    }
 
     @NonNull @Override
     public Fragment createFragment(int position) {
-        return position == 0 ? primaryFragment : secondaryFragment;
+        return NotesFragment.newInstance(folders.get(position).getKey());
     }
 
-    @Override public int getItemCount() { return 2; }
+    @Override public int getItemCount() { return folders.size(); }
 
-    public PrimaryNotesFragment getPrimaryFragment() { return primaryFragment; }
-    public SecondaryNotesFragment getSecondaryFragment() { return secondaryFragment; }
+    @Override public long getItemId(int position) { return folders.get(position).getId(); }
+
+    @Override
+    public boolean containsItem(long itemId) {
+        for (Folder f : folders) {
+            if (f.getId() == itemId) return true;
+        }
+        return false;
+    }
 }
@@ -0,0 +1,116 @@
+package com.kelo.noteapp;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Background housekeeping for the notes database (archiving old completed notes,
+ * syncing with the configured server, truncating the change journal, pruning
+ * revisions, compressing bodies left over from before compression, respacing
+ * manual-order keys that have grown long, deleting attachment files nothing refers to).
+ * Runs at most once per interval, on a single worker thread, never on the UI thread.
+ */
+public final class MaintenanceTask {
+
+    private static final String PREFS_NAME = "NotesAppPrefs";
+    private static final String KEY_LAST_RUN = "maintenance_last_run";
+    public static final String KEY_ARCHIVE_COMPLETED_DAYS = "archive_completed_days";
+    public static final int DEFAULT_ARCHIVE_COMPLETED_DAYS = 30;
+    // How long note_changes entries are kept for incremental consumers
+    private static final int CHANGE_LOG_RETENTION_DAYS = 30;
+    // Set once the bodies stored before compression existed have been recompressed
+    private static final String KEY_CONTENT_COMPRESSED = "content_compressed";
+    private static final int COMPRESS_BATCH_SIZE = 50;
+    // Revision retention: older ones go, but at most this many are kept per note anyway
+    private static final int REVISION_RETENTION_DAYS = 90;
+    private static final int REVISIONS_PER_NOTE = 50;
+
+    private static final long RUN_INTERVAL_MS = 12L * 60L * 60L * 1000L;
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private MaintenanceTask() {}
+
+    public static void runIfDue(Context context) {
+        final Context app = context.getApplicationContext();
+        SharedPreferences prefs = app.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        long now = System.currentTimeMillis();
+        if (now - prefs.getLong(KEY_LAST_RUN, 0) < RUN_INTERVAL_MS) return;
+        prefs.edit().putLong(KEY_LAST_RUN, now).apply();
+        EXECUTOR.execute(() -> run(app));
+    }
+
+    public static void runNow(Context context) {
+        final Context app = context.getApplicationContext();
+        EXECUTOR.execute(() -> run(app));
+    }
+
+    // Queued by a drag whose new key came out past SortKeys.REBALANCE_LENGTH
+    public static void rebalanceSortKeys(Context context, final String folder) {
+        final Context app = context.getApplicationContext();
+        EXECUTOR.execute(() -> new DatabaseHelper(app).rebalanceSortKeys(folder));
+    }
+
+    // Same, for the sub-notes of one note
+    public static void rebalanceChildSortKeys(Context context, final int parentId) {
+        final Context app = context.getApplicationContext();
+        EXECUTOR.execute(() -> new DatabaseHelper(app).rebalanceChildSortKeys(parentId));
+    }
+
+    // Queued by purges (trash, archive): deletes the attachment files nothing refers to any more
+    public static void collectAttachments(Context context) {
+        final Context app = context.getApplicationContext();
+        EXECUTOR.execute(() -> new AttachmentStore(app).collectGarbage());
+    }
+
+    private static void run(Context context) {
+        // Started before an upgrade another entry point is running: wait for it
+        DatabaseHelper.upgradeIfPending(context, null);
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        DatabaseHelper db = new DatabaseHelper(context);
+
+        int archiveDays = prefs.getInt(KEY_ARCHIVE_COMPLETED_DAYS, DEFAULT_ARCHIVE_COMPLETED_DAYS);
+        if (archiveDays > 0) {
+            long cutoff = System.currentTimeMillis() - archiveDays * 24L * 60L * 60L * 1000L;
+            db.archiveCompletedNotes(cutoff);
+        }
+
+        // Before truncation, so the journal still covers everything not yet pushed
+        SyncEngine sync = SyncEngine.fromPrefs(context);
+        if (sync != null) {
+            try {
+                sync.sync();
+            } catch (IOException | RuntimeException e) {
+                // Cursors are saved per batch; the next run carries on from there. A failure
+                // inside the database (RuntimeException) must not skip the rest of the run
+            }
+        }
+
+        db.truncateChanges(System.currentTimeMillis() - CHANGE_LOG_RETENTION_DAYS * 24L * 60L * 60L * 1000L);
+        db.pruneRevisions(System.currentTimeMillis() - REVISION_RETENTION_DAYS * 24L * 60L * 60L * 1000L,
+                REVISIONS_PER_NOTE);
+
+        // Drags queue their own rebalance; keys at the top only grow with new notes
+        for (Folder folder : db.getFolders()) {
+            if (db.needsSortKeyRebalance(folder.getKey())) db.rebalanceSortKeys(folder.getKey());
+        }
+
+        // Purges queue their own collection; this also catches one the process died before
+        // running, and files an interrupted attach left behind
+        new AttachmentStore(context, db).sweep();
+
+        // New writes compress on their own; this only catches up on older rows, in short
+        // transactions, and an interrupted pass simply starts over next time
+        if (!prefs.getBoolean(KEY_CONTENT_COMPRESSED, false)) {
+            long after = 0;
+            boolean any = false;
+            while ((after = db.compressStoredBodies(after, COMPRESS_BATCH_SIZE)) > 0) any = true;
+            if (any) db.vacuum();
+            prefs.edit().putBoolean(KEY_CONTENT_COMPRESSED, true).apply();
+        }
+    }
+}
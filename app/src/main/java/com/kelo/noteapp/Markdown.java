@@ -0,0 +1,359 @@
+package com.kelo.noteapp;
+
+import android.content.Context;
+import android.graphics.Typeface;
+import android.text.Spannable;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.BackgroundColorSpan;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StyleSpan;
+import android.text.style.TypefaceSpan;
+import android.text.style.UnderlineSpan;
+
+import androidx.core.content.ContextCompat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// The Markdown subset of note bodies: # headings, - and 1. list items, **bold**, *italic*,
+// `code`, ``` fenced blocks, [text](url) links and [[note]] links (NoteLinks). Parsing goes
+// line by line, and a line's tokens depend only on the line itself and on whether a fenced
+// block is open before it. That is what lets the editor restyle just the lines an edit
+// touched (MarkdownHighlighter) while list previews render whole snippets (MarkdownPreviews).
+public final class Markdown {
+
+    static final int HEADING = 1;
+    static final int BOLD = 2;
+    static final int ITALIC = 3;
+    static final int CODE = 4;
+    static final int LINK = 5;
+    static final int LIST = 6;
+    static final int FENCE = 7;
+
+    // Relative size of heading levels 1..6
+    private static final float[] HEADING_SCALE = {1.5f, 1.3f, 1.15f, 1.05f, 1f, 1f};
+    private static final int CODE_BACKGROUND = 0x1F9E9E9E;
+
+    // One styled run: content [start, end) with `open` marker chars before it and `close`
+    // after it. Headings carry their level, list items 1 when numbered, links their url.
+    static final class Token {
+        final int kind, start, end, open, close, level;
+        final String url;
+
+        Token(int kind, int start, int end, int open, int close, int level, String url) {
+            this.kind = kind;
+            this.start = start;
+            this.end = end;
+            this.open = open;
+            this.close = close;
+            this.level = level;
+            this.url = url;
+        }
+    }
+
+    // Every span this class sets implements it, so restyling removes exactly these
+    interface MarkdownSpan {}
+
+    // Marks a line after which a fenced block is still open (the editor's per-line state)
+    static final class FenceOpen implements MarkdownSpan {}
+
+    private static final class Style extends StyleSpan implements MarkdownSpan {
+        Style(int style) { super(style); }
+    }
+
+    private static final class Size extends RelativeSizeSpan implements MarkdownSpan {
+        Size(float proportion) { super(proportion); }
+    }
+
+    private static final class Color extends ForegroundColorSpan implements MarkdownSpan {
+        Color(int color) { super(color); }
+    }
+
+    private static final class Background extends BackgroundColorSpan implements MarkdownSpan {
+        Background(int color) { super(color); }
+    }
+
+    private static final class Mono extends TypefaceSpan implements MarkdownSpan {
+        Mono() { super("monospace"); }
+    }
+
+    private static final class Underline extends UnderlineSpan implements MarkdownSpan {}
+
+    private final int markerColor;
+    private final int linkColor;
+
+    public Markdown(Context context) {
+        this(ContextCompat.getColor(context, R.color.text_tertiary),
+                ContextCompat.getColor(context, R.color.colorPrimary));
+    }
+
+    Markdown(int markerColor, int linkColor) {
+        this.markerColor = markerColor;
+        this.linkColor = linkColor;
+    }
+
+    // ===== Parsing =====
+
+    // Tokens of text[lineStart, lineEnd) (no line break inside) into out; returns whether a
+    // fenced block is open after the line
+    static boolean parseLine(CharSequence text, int lineStart, int lineEnd, boolean inFence, List<Token> out) {
+        int i = lineStart;
+        while (i < lineEnd && i - lineStart < 3 && text.charAt(i) == ' ') i++;
+        if (startsWith(text, i, lineEnd, "```")) {
+            out.add(new Token(FENCE, lineStart, lineEnd, 0, 0, 0, null));
+            return !inFence;
+        }
+        if (inFence) {
+            out.add(new Token(FENCE, lineStart, lineEnd, 0, 0, 0, null));
+            return true;
+        }
+
+        int hashes = 0;
+        while (i + hashes < lineEnd && text.charAt(i + hashes) == '#') hashes++;
+        if (hashes >= 1 && hashes <= 6 && (i + hashes == lineEnd || text.charAt(i + hashes) == ' ')) {
+            int content = Math.min(lineEnd, i + hashes + 1);
+            out.add(new Token(HEADING, content, lineEnd, content - lineStart, 0, hashes, null));
+            parseInline(text, content, lineEnd, out);
+            return false;
+        }
+
+        // List items may be indented any amount (nesting)
+        int k = lineStart;
+        while (k < lineEnd && (text.charAt(k) == ' ' || text.charAt(k) == '\t')) k++;
+        int marker = listMarkerEnd(text, k, lineEnd);
+        if (marker > 0) {
+            out.add(new Token(LIST, k, marker, 0, 0, Character.isDigit(text.charAt(k)) ? 1 : 0, null));
+            parseInline(text, marker, lineEnd, out);
+            return false;
+        }
+
+        parseInline(text, lineStart, lineEnd, out);
+        return false;
+    }
+
+    // End of "- ", "* ", "+ ", "12. " or "12) " at i (space included), or -1
+    private static int listMarkerEnd(CharSequence text, int i, int end) {
+        if (i + 1 < end && "-*+".indexOf(text.charAt(i)) >= 0 && text.charAt(i + 1) == ' ') return i + 2;
+        int d = i;
+        while (d < end && d - i < 9 && Character.isDigit(text.charAt(d))) d++;
+        if (d > i && d + 1 < end && (text.charAt(d) == '.' || text.charAt(d) == ')') && text.charAt(d + 1) == ' ') {
+            return d + 2;
+        }
+        return -1;
+    }
+
+    static void parseInline(CharSequence s, int from, int to, List<Token> out) {
+        int i = from;
+        while (i < to) {
+            char c = s.charAt(i);
+            if (c == '`') {
+                int close = indexOf(s, "`", i + 1, to);
+                if (close > i + 1) {
+                    out.add(new Token(CODE, i + 1, close, 1, 1, 0, null));
+                    i = close + 1;
+                    continue;
+                }
+            } else if (c == '[' && i + 1 < to && s.charAt(i + 1) == '[') {
+                int close = indexOf(s, "]]", i + 2, to);
+                if (close > i + 2) {
+                    out.add(new Token(LINK, i + 2, close, 2, 2, 0, null));
+                    i = close + 2;
+                    continue;
+                }
+            } else if (c == '[') {
+                int mid = indexOf(s, "](", i + 1, to);
+                int close = mid > i + 1 ? indexOf(s, ")", mid + 2, to) : -1;
+                if (close > mid + 2 && indexOf(s, "[", i + 1, mid) < 0) {
+                    String url = s.subSequence(mid + 2, close).toString().trim();
+                    out.add(new Token(LINK, i + 1, mid, 1, close + 1 - mid, 0, url));
+                    i = close + 1;
+                    continue;
+                }
+            } else if (c == '*' || c == '_') {
+                int n = i + 1 < to && s.charAt(i + 1) == c ? 2 : 1;
+                int inner = i + n;
+                // snake_case words are not emphasis
+                boolean opens = inner < to && !Character.isWhitespace(s.charAt(inner)) &&
+                        (c == '*' || i == from || !Character.isLetterOrDigit(s.charAt(i - 1)));
+                int close = opens ? emphasisClose(s, c, n, inner, to) : -1;
+                if (close > inner) {
+                    out.add(new Token(n == 2 ? BOLD : ITALIC, inner, close, n, n, 0, null));
+                    parseInline(s, inner, close, out);
+                    i = close + n;
+                    continue;
+                }
+                // An unmatched run stays text as a whole
+                i += n;
+                continue;
+            }
+            i++;
+        }
+    }
+
+    // Start of the n-char closing run of c for emphasis opened before from, or -1
+    private static int emphasisClose(CharSequence s, char c, int n, int from, int to) {
+        for (int k = from + 1; k + n <= to; k++) {
+            if (s.charAt(k) == '`') {
+                // Code spans inside emphasis keep their markers to themselves
+                int code = indexOf(s, "`", k + 1, to);
+                if (code > 0) k = code;
+                continue;
+            }
+            if (s.charAt(k) != c) continue;
+            boolean run2 = k + 1 < to && s.charAt(k + 1) == c;
+            if (n == 1 && run2) {
+                k++; // the inner **...** of *a **b** c* is not the end
+                continue;
+            }
+            if (n == 2 && !run2) continue;
+            if (Character.isWhitespace(s.charAt(k - 1))) continue;
+            if (c == '_' && k + n < to && Character.isLetterOrDigit(s.charAt(k + n))) continue;
+            return k;
+        }
+        return -1;
+    }
+
+    // The url of the [text](url) link the offset falls in, markers included, or null
+    static String urlAt(CharSequence text, int offset) {
+        if (text == null || offset < 0 || offset > text.length()) return null;
+        int lineStart = offset;
+        while (lineStart > 0 && text.charAt(lineStart - 1) != '\n') lineStart--;
+        int lineEnd = offset;
+        while (lineEnd < text.length() && text.charAt(lineEnd) != '\n') lineEnd++;
+        List<Token> tokens = new ArrayList<>();
+        parseInline(text, lineStart, lineEnd, tokens);
+        for (Token t : tokens) {
+            if (t.kind == LINK && t.url != null && offset >= t.start - t.open && offset <= t.end + t.close) return t.url;
+        }
+        return null;
+    }
+
+    // ===== Editor: styles in place, markers stay visible but dimmed =====
+
+    // Restyles one line of an editable text; returns whether a fenced block is open after it
+    boolean styleLine(Spannable text, int lineStart, int lineEnd, boolean inFence) {
+        clear(text, lineStart, lineEnd);
+        List<Token> tokens = new ArrayList<>();
+        boolean after = parseLine(text, lineStart, lineEnd, inFence, tokens);
+        for (Token t : tokens) {
+            apply(text, t, t.start, t.end);
+            if (t.open > 0) set(text, new Color(markerColor), t.start - t.open, t.start);
+            if (t.close > 0) set(text, new Color(markerColor), t.end, t.end + t.close);
+        }
+        // Over the line break too, so an empty line inside a block still carries it
+        if (after) set(text, new FenceOpen(), lineStart, Math.min(text.length(), lineEnd + 1));
+        return after;
+    }
+
+    // Whether a fenced block is open before the line starting at lineStart, as styleLine
+    // left it on the line above
+    static boolean fenceOpenBefore(Spanned text, int lineStart) {
+        if (lineStart == 0) return false;
+        return text.getSpans(lineStart - 1, lineStart, FenceOpen.class).length > 0;
+    }
+
+    // Spans of the lines from start to the line break at end: those starting there (an edit
+    // can leave one starting on the break itself), not the line above's FenceOpen that ends
+    // on the boundary
+    static void clear(Spannable text, int start, int end) {
+        for (MarkdownSpan span : text.getSpans(start, Math.min(text.length(), end + 1), MarkdownSpan.class)) {
+            int spanStart = text.getSpanStart(span);
+            if (spanStart >= start && spanStart <= end) text.removeSpan(span);
+        }
+    }
+
+    // ===== Previews: rendered text with the markers taken out =====
+
+    public CharSequence render(String source) {
+        if (source == null) return null;
+        int n = source.length();
+        List<Token> tokens = new ArrayList<>();
+        boolean inFence = false;
+        for (int lineStart = 0; lineStart <= n; ) {
+            int lineEnd = source.indexOf('\n', lineStart);
+            if (lineEnd < 0) lineEnd = n;
+            inFence = parseLine(source, lineStart, lineEnd, inFence, tokens);
+            lineStart = lineEnd + 1;
+        }
+
+        // What is dropped: markers, and the ``` lines with their line break
+        boolean[] drop = new boolean[n];
+        char[] replace = new char[n];
+        for (Token t : tokens) {
+            if (t.kind == FENCE && startsWith(source, skipSpaces(source, t.start, t.end), t.end, "```")) {
+                for (int i = t.start; i < Math.min(n, t.end + 1); i++) drop[i] = true;
+                continue;
+            }
+            if (t.kind == LIST && t.level == 0) replace[t.start] = '•';
+            for (int i = t.start - t.open; i < t.start; i++) drop[i] = true;
+            for (int i = t.end; i < t.end + t.close; i++) drop[i] = true;
+        }
+        int[] map = new int[n + 1];
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++) {
+            map[i] = sb.length();
+            if (!drop[i]) sb.append(replace[i] != 0 ? replace[i] : source.charAt(i));
+        }
+        map[n] = sb.length();
+
+        SpannableStringBuilder out = new SpannableStringBuilder(sb);
+        for (Token t : tokens) {
+            if (map[t.start] < map[t.end]) apply(out, t, map[t.start], map[t.end]);
+        }
+        return out;
+    }
+
+    private void apply(Spannable text, Token t, int start, int end) {
+        switch (t.kind) {
+            case HEADING:
+                set(text, new Style(Typeface.BOLD), start, end);
+                set(text, new Size(HEADING_SCALE[t.level - 1]), start, end);
+                break;
+            case BOLD:
+                set(text, new Style(Typeface.BOLD), start, end);
+                break;
+            case ITALIC:
+                set(text, new Style(Typeface.ITALIC), start, end);
+                break;
+            case CODE:
+            case FENCE:
+                set(text, new Mono(), start, end);
+                set(text, new Background(CODE_BACKGROUND), start, end);
+                break;
+            case LINK:
+                set(text, new Color(linkColor), start, end);
+                set(text, new Underline(), start, end);
+                break;
+            case LIST:
+                set(text, new Color(linkColor), start, end);
+                break;
+        }
+    }
+
+    private static void set(Spannable text, Object span, int start, int end) {
+        if (start < end) text.setSpan(span, start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+    }
+
+    private static int skipSpaces(CharSequence s, int i, int end) {
+        while (i < end && s.charAt(i) == ' ') i++;
+        return i;
+    }
+
+    private static boolean startsWith(CharSequence s, int i, int end, String prefix) {
+        if (end - i < prefix.length()) return false;
+        for (int k = 0; k < prefix.length(); k++) {
+            if (s.charAt(i + k) != prefix.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    // indexOf over a CharSequence range; -1 when needle does not start before to
+    private static int indexOf(CharSequence s, String needle, int from, int to) {
+        for (int i = from; i + needle.length() <= to; i++) {
+            if (startsWith(s, i, to, needle)) return i;
+        }
+        return -1;
+    }
+}
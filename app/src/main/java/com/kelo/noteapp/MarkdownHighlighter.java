@@ -0,0 +1,128 @@
+package com.kelo.noteapp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.widget.EditText;
+
+// Live Markdown styling of the editor. An edit restyles only the lines it touched, then
+// carries on below only while the fence state a line leaves behind (Markdown.FenceOpen)
+// comes out different from before. Opening a ``` block near the top of a long note does
+// change everything below it, so that part runs in slices, one per UI message, and typing
+// stays responsive on large notes.
+public final class MarkdownHighlighter implements TextWatcher {
+
+    // Chars restyled per message beyond the lines the edit itself touched
+    private static final int SLICE_CHARS = 8 * 1024;
+
+    private final Markdown markdown;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private Editable text;
+    // Range the last change inserted, until afterTextChanged handles it (-1: none)
+    private int changeStart = -1, changeEnd;
+    // Lines [stale, staleEnd] were styled for a fence state the lines above no longer leave
+    // (a sliced restyle stopped there, maybe more than once); -1: none. The next slice
+    // starts at stale, and no restyle may stop early inside the range.
+    private int stale = -1, staleEnd = -1;
+    private final Runnable resume = new Runnable() {
+        @Override
+        public void run() {
+            if (text == null || stale < 0) return;
+            int from = Math.min(stale, text.length());
+            restyle(text, from, from);
+        }
+    };
+
+    MarkdownHighlighter(Markdown markdown) {
+        this.markdown = markdown;
+    }
+
+    // Styles what the field holds now and every later change to it
+    public static MarkdownHighlighter attach(EditText editText) {
+        MarkdownHighlighter highlighter = new MarkdownHighlighter(new Markdown(editText.getContext()));
+        editText.addTextChangedListener(highlighter);
+        highlighter.text = editText.getText();
+        highlighter.restyle(highlighter.text, 0, highlighter.text.length());
+        return highlighter;
+    }
+
+    @Override
+    public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+    }
+
+    @Override
+    public void onTextChanged(CharSequence s, int start, int before, int count) {
+        changeStart = start;
+        changeEnd = start + count;
+        // The stale range moves with the text below the change
+        if (stale > start) stale = Math.max(start, stale + count - before);
+        if (staleEnd > start) staleEnd = Math.max(start, staleEnd + count - before);
+    }
+
+    @Override
+    public void afterTextChanged(Editable s) {
+        text = s;
+        if (changeStart < 0) return;
+        int from = changeStart, to = changeEnd;
+        changeStart = -1;
+        restyle(s, Math.min(from, s.length()), Math.min(to, s.length()));
+    }
+
+    // Restyles the lines of [from, to), then the lines below until their state agrees
+    void restyle(Editable s, int from, int to) {
+        int length = s.length();
+        int pos = from;
+        while (pos > 0 && s.charAt(pos - 1) != '\n') pos--;
+        int passStart = pos;
+        boolean fence = Markdown.fenceOpenBefore(s, pos);
+        int budget = (to - pos) + SLICE_CHARS;
+        int done = 0;
+        while (true) {
+            int lineEnd = pos;
+            while (lineEnd < length && s.charAt(lineEnd) != '\n') lineEnd++;
+            // Below the change and outside the stale range, the state styleLine left on this
+            // line's break before can be trusted
+            boolean untouched = pos > to && (stale < 0 || pos < stale || pos > staleEnd);
+            boolean fenceWas = untouched && lineEnd < length && Markdown.fenceOpenBefore(s, lineEnd + 1);
+            fence = markdown.styleLine(s, pos, lineEnd, fence);
+            if (lineEnd >= length) {
+                passed(passStart, length + 1);
+                break;
+            }
+            done += lineEnd + 1 - pos;
+            pos = lineEnd + 1;
+            if (untouched && fence == fenceWas) {
+                passed(passStart, pos);
+                break;
+            }
+            if (pos > to && done > budget) {
+                sliced(passStart, pos);
+                break;
+            }
+        }
+    }
+
+    // A restyle of [passStart, end) finished: whatever it covered of the stale range is fine
+    private void passed(int passStart, int end) {
+        if (stale < 0 || end <= staleEnd) return;
+        if (passStart <= stale) {
+            stale = staleEnd = -1;
+            handler.removeCallbacks(resume);
+        } else if (passStart <= staleEnd) {
+            staleEnd = passStart;
+        }
+    }
+
+    // A restyle of [passStart, pos) ran out of its slice: what lies below pos is stale
+    private void sliced(int passStart, int pos) {
+        if (stale < 0) {
+            stale = staleEnd = pos;
+        } else {
+            stale = passStart <= stale && pos > stale ? pos : Math.min(stale, pos);
+            staleEnd = Math.max(staleEnd, pos);
+        }
+        handler.removeCallbacks(resume);
+        handler.post(resume);
+    }
+}
@@ -0,0 +1,98 @@
+package com.kelo.noteapp;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.LruCache;
+import android.widget.TextView;
+
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Rendered Markdown of list row previews, cached by a 64-bit hash of the preview text, so
+// scrolling back over a row or reloading the list does not parse it again. Rendering runs on
+// one background thread; a row shows the plain text until its rendering lands, and takes it
+// only if it still shows the same text by then.
+public final class MarkdownPreviews {
+
+    private static MarkdownPreviews instance;
+
+    // Previews are a few hundred chars; this is a few screens of rows many times over
+    private static final int MAX_ENTRIES = 512;
+
+    private static final class Entry {
+        final String source;
+        final CharSequence rendered;
+
+        Entry(String source, CharSequence rendered) {
+            this.source = source;
+            this.rendered = rendered;
+        }
+    }
+
+    private final Markdown markdown;
+    // Main thread only
+    private final LruCache<Long, Entry> cache = new LruCache<>(MAX_ENTRIES);
+    private final Handler main = new Handler(Looper.getMainLooper());
+    // Newest request first, as in ThumbnailCache: after a fling, the rows now on screen are
+    // rendered before the ones scrolled past
+    private final ThreadPoolExecutor renderer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingDeque<Runnable>() {
+                @Override
+                public boolean offer(Runnable r) {
+                    return offerFirst(r);
+                }
+            });
+
+    public static synchronized MarkdownPreviews get(Context context) {
+        if (instance == null) instance = new MarkdownPreviews(new Markdown(context.getApplicationContext()));
+        return instance;
+    }
+
+    private MarkdownPreviews(Markdown markdown) {
+        this.markdown = markdown;
+    }
+
+    // Shows source rendered in view; main thread only
+    public void bind(TextView view, final String source) {
+        if (source == null || source.isEmpty()) {
+            clear(view);
+            view.setText(source);
+            return;
+        }
+        final Long key = hashOf(source);
+        view.setTag(key);
+        Entry cached = cache.get(key);
+        // Another text with the same hash is a miss, not a wrong preview
+        if (cached != null && cached.source.equals(source)) {
+            view.setText(cached.rendered);
+            return;
+        }
+        view.setText(source);
+        renderer.execute(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            final CharSequence rendered = markdown.render(source);
+            main.post(() -> {
+                cache.put(key, new Entry(source, rendered));
+                if (key.equals(view.getTag())) view.setText(rendered);
+            });
+        });
+    }
+
+    // For a row showing something else: a rendering still running for it is ignored
+    public void clear(TextView view) {
+        view.setTag(null);
+    }
+
+    // FNV-1a over the UTF-16 chars
+    static long hashOf(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
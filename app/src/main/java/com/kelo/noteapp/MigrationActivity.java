@@ -0,0 +1,98 @@
+package com.kelo.noteapp;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.os.Bundle;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Runs a pending database upgrade on a worker thread with step progress,
+// then hands the original launch intent back to the activity it was meant for.
+public class MigrationActivity extends AppCompatActivity {
+
+    // Class name of the activity to relaunch afterwards (MainActivity when missing)
+    private static final String EXTRA_TARGET = "migration_target";
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private ProgressBar progressMigration;
+    private TextView textMigrationStep;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_migration);
+
+        progressMigration = findViewById(R.id.progressMigration);
+        textMigrationStep = findViewById(R.id.textMigrationStep);
+
+        executor.execute(() -> {
+            boolean ok = true;
+            try {
+                DatabaseHelper.upgradeIfPending(getApplicationContext(), new DatabaseHelper.MigrationListener() {
+                    @Override
+                    public void onStepStarted(int toVersion, int stepIndex, int stepCount) {
+                        runOnUiThread(() -> showStep(stepIndex, stepCount));
+                    }
+
+                    @Override
+                    public void onStepFinished(int toVersion, long elapsedMs) {
+                    }
+                });
+            } catch (Exception e) {
+                ok = false;
+            }
+            final boolean success = ok;
+            runOnUiThread(() -> {
+                if (!success) {
+                    // The transaction rolled back, so the target would just send us here again
+                    Toast.makeText(this, "Не удалось обновить базу данных", Toast.LENGTH_LONG).show();
+                    finish();
+                    return;
+                }
+                String target = getIntent().getStringExtra(EXTRA_TARGET);
+                Intent next = new Intent(getIntent());
+                next.removeExtra(EXTRA_TARGET);
+                if (target != null) next.setClassName(this, target);
+                else next.setClass(this, MainActivity.class);
+                startActivity(next);
+                finish();
+            });
+        });
+    }
+
+    // For an activity's onCreate, before it touches the database: with an upgrade pending,
+    // this screen takes its place and relaunches it with the same intent afterwards
+    static boolean redirectIfUpgradePending(Activity activity) {
+        if (!DatabaseHelper.isUpgradePending(activity)) return false;
+        activity.startActivity(new Intent(activity.getIntent())
+                .setClass(activity, MigrationActivity.class)
+                .putExtra(EXTRA_TARGET, activity.getClass().getName()));
+        activity.finish();
+        return true;
+    }
+
+    private void showStep(int stepIndex, int stepCount) {
+        progressMigration.setIndeterminate(false);
+        progressMigration.setMax(stepCount);
+        progressMigration.setProgress(stepIndex - 1);
+        textMigrationStep.setText("Шаг " + stepIndex + " из " + stepCount);
+    }
+
+    @Override
+    public void onBackPressed() {
+        // The upgrade can't be interrupted halfway; stay until it finishes
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        executor.shutdown();
+    }
+}
@@ -3,20 +3,22 @@ package com.kelo.noteapp;
 import android.app.AlertDialog;
 import android.content.Context;
 
+import java.util.List;
+
 public class MoveToFolderDialog {
 
     public interface OnFolderChosen {
-        void onChosen(String categoryKey);
+        void onChosen(int categoryId);
     }
 
-    private static final String[] CAT_KEYS    = {"work","personal","family","errand","other","everyday"};
-    private static final String[] CAT_DISPLAY = {"Работа","Личное","Семья","Поручение","Другое","Ежедневно"};
-
     public static void show(Context ctx, OnFolderChosen callback) {
+        final List<Category> choices = CategoryRegistry.get(ctx).getPickable();
+        String[] names = new String[choices.size()];
+        for (int i = 0; i < names.length; i++) names[i] = choices.get(i).getName();
         new AlertDialog.Builder(ctx)
                 .setTitle("Переместить в папку")
-                .setItems(CAT_DISPLAY, (d, which) -> {
-                    if (callback != null) callback.onChosen(CAT_KEYS[which]);
+                .setItems(names, (d, which) -> {
+                    if (callback != null) callback.onChosen(choices.get(which).getId());
                 })
                 .setNegativeButton("Отмена", null)
                 .show();
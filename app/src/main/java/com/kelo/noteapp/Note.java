@@ -6,6 +6,8 @@ public class Note implements Serializable {
     private int id;
     private String title;
     private String content;
+    // Short leading snippet of the body; list queries load this instead of content
+    private String preview;
     private long createdAt;
     private long reminderTime;
     private boolean isCompleted;
@@ -14,25 +16,81 @@ public class Note implements Serializable {
     // Repeat days bitmask (Mon=1<<0 ... Sun=1<<6)
     private int repeatDays;
 
-    // Category (work, personal, family, errand, other, everyday)
-    private String category;
+    // Category code (Category.* or a user category); CategoryRegistry has name and color
+    private int categoryId;
     private String folder = "main"; // "main" or "secondary"
 
     // NEW: Trash functionality
     private boolean isDeleted;
     private long deletedAt;
 
+    // When the note was last marked completed (0 = not completed); drives archiving
+    private long completedAt;
+
+    // Sync identity shared by every copy of this note, and the time of its last edit
+    private String syncId;
+    private long updatedAt;
+    // Row version this copy was read at (optimistic concurrency, see DatabaseHelper.updateNote)
+    private int version;
+
+    // Checklist progress (items_total / items_done); total is -1 for a plain text note.
+    // Maintained by the database, never written back by updateNote.
+    private int itemsTotal = -1;
+    private int itemsDone;
+
+    // Position in the folder's manual order (SortKeys); null until the row has one.
+    // Local to this device: not synced, and not written by updateNote.
+    private String sortKey;
+
+    // Sub-notes: the parent's id (0 for a top-level note) and how many notes sit below this
+    // one, and how many of those are completed. Local like sortKey; counts are kept by the database.
+    private int parentId;
+    private int descendants;
+    private int descendantsDone;
+
+    // Hash of the note's first image attachment (AttachmentStore), shown as the list row's
+    // thumbnail; null without one. Kept by the database, local like sortKey.
+    private String cover;
+
+    // Whether the body is sealed (NoteCipher), as the row says; lists read no body. A note
+    // holding its body goes by the body itself.
+    private boolean encrypted;
+
+    // Columns updateNote writes, as bits of dirtyFields. Folder has its own update path.
+    static final int FIELD_TITLE = 1;
+    static final int FIELD_CONTENT = 1 << 1;
+    static final int FIELD_REMINDER = 1 << 2;
+    static final int FIELD_COMPLETED = 1 << 3;
+    static final int FIELD_PINNED = 1 << 4;
+    static final int FIELD_REPEAT = 1 << 5;
+    static final int FIELD_CATEGORY = 1 << 6;
+    static final int ALL_FIELDS = (1 << 7) - 1;
+
+    // Fields changed through setters since the note was read or last saved. Only
+    // tracked for notes that came from the database; anything else counts as all dirty.
+    private transient boolean tracking;
+    private transient int dirtyFields;
 
 
     public Note() {
         this.isCompleted = false;
         this.isPinned = false;
         this.repeatDays = 0;
-        this.category = "personal"; // default
+        this.categoryId = Category.PERSONAL; // default
         this.isDeleted = false;
         this.deletedAt = 0;
     }
 
+    // Sync marker for a note deleted at deletedAt; carries no content
+    static Note tombstone(String syncId, long deletedAt) {
+        Note n = new Note();
+        n.syncId = syncId;
+        n.updatedAt = deletedAt;
+        n.deletedAt = deletedAt;
+        n.isDeleted = true;
+        return n;
+    }
+
     public String getFolder() { return folder; }
 
     public void setFolder(String folder) { this.folder = folder; }
@@ -43,27 +101,67 @@ public class Note implements Serializable {
     public int getId() { return id; }
     public String getTitle() { return title; }
     public String getContent() { return content; }
+    public String getPreview() { return isEncrypted() ? null : preview != null ? preview : content; }
     public long getCreatedAt() { return createdAt; }
     public long getReminderTime() { return reminderTime; }
     public boolean isCompleted() { return isCompleted; }
     public boolean isPinned() { return isPinned; }
     public int getRepeatDays() { return repeatDays; }
-    public String getCategory() { return category; }
+    public int getCategoryId() { return categoryId; }
     public boolean isDeleted() { return isDeleted; }
     public long getDeletedAt() { return deletedAt; }
+    public long getCompletedAt() { return completedAt; }
+    public String getSyncId() { return syncId; }
+    public long getUpdatedAt() { return updatedAt; }
+    public int getVersion() { return version; }
+    public boolean isChecklist() { return itemsTotal >= 0; }
+    public int getItemsTotal() { return itemsTotal; }
+    public int getItemsDone() { return itemsDone; }
+    public String getSortKey() { return sortKey; }
+    public int getParentId() { return parentId; }
+    public boolean hasSubNotes() { return descendants > 0; }
+    public int getDescendants() { return descendants; }
+    public int getDescendantsDone() { return descendantsDone; }
+    public String getCover() { return cover; }
+    public boolean isEncrypted() { return content != null ? NoteCipher.isSealed(content) : encrypted; }
 
     // Setters
     public void setId(int id) { this.id = id; }
-    public void setTitle(String title) { this.title = title; }
-    public void setContent(String content) { this.content = content; }
+    public void setTitle(String title) { mark(FIELD_TITLE, this.title, title); this.title = title; }
+    public void setContent(String content) { mark(FIELD_CONTENT, this.content, content); this.content = content; }
+    public void setPreview(String preview) { this.preview = preview; }
     public void setCreatedAt(long createdAt) { this.createdAt = createdAt; }
-    public void setReminderTime(long reminderTime) { this.reminderTime = reminderTime; }
-    public void setCompleted(boolean completed) { isCompleted = completed; }
-    public void setPinned(boolean pinned) { isPinned = pinned; }
-    public void setRepeatDays(int repeatDays) { this.repeatDays = repeatDays; }
-    public void setCategory(String category) { this.category = category; }
+    public void setReminderTime(long reminderTime) { mark(FIELD_REMINDER, this.reminderTime, reminderTime); this.reminderTime = reminderTime; }
+    public void setCompleted(boolean completed) { mark(FIELD_COMPLETED, isCompleted, completed); isCompleted = completed; }
+    public void setPinned(boolean pinned) { mark(FIELD_PINNED, isPinned, pinned); isPinned = pinned; }
+    public void setRepeatDays(int repeatDays) { mark(FIELD_REPEAT, this.repeatDays, repeatDays); this.repeatDays = repeatDays; }
+    public void setCategoryId(int categoryId) { mark(FIELD_CATEGORY, this.categoryId, categoryId); this.categoryId = categoryId; }
     public void setDeleted(boolean deleted) { isDeleted = deleted; }
     public void setDeletedAt(long deletedAt) { this.deletedAt = deletedAt; }
+    public void setCompletedAt(long completedAt) { mark(FIELD_COMPLETED, this.completedAt, completedAt); this.completedAt = completedAt; }
+    public void setSyncId(String syncId) { this.syncId = syncId; }
+    public void setUpdatedAt(long updatedAt) { this.updatedAt = updatedAt; }
+    public void setVersion(int version) { this.version = version; }
+    public void setChecklistProgress(int total, int done) { itemsTotal = total; itemsDone = done; }
+    public void setSortKey(String sortKey) { this.sortKey = sortKey; }
+    public void setParentId(int parentId) { this.parentId = parentId; }
+    public void setSubtreeProgress(int total, int done) { descendants = total; descendantsDone = done; }
+    public void setCover(String cover) { this.cover = cover; }
+    public void setEncrypted(boolean encrypted) { this.encrypted = encrypted; }
+
+    // Dirty tracking
+    int getDirtyFields() { return tracking ? dirtyFields : ALL_FIELDS; }
+    boolean isDirty(int field) { return (getDirtyFields() & field) != 0; }
+
+    // Called once the note matches its row: after a read or a successful save
+    void clearDirty() {
+        tracking = true;
+        dirtyFields = 0;
+    }
+
+    private void mark(int field, Object oldValue, Object newValue) {
+        if (oldValue == null ? newValue != null : !oldValue.equals(newValue)) dirtyFields |= field;
+    }
 
     // Helpers
     public boolean hasReminder() { return reminderTime > 0; }
@@ -72,7 +170,7 @@ public class Note implements Serializable {
 
     // NEW: Helper method to check if this is an everyday category task
     public boolean isEverydayCategory() {
-        return "everyday".equals(category);
+        return categoryId == Category.EVERYDAY;
     }
 
     // NEW: Helper method to check if this should be treated as recurring
@@ -30,9 +30,16 @@ import java.util.Locale;
 
 public class NoteAdapter extends RecyclerView.Adapter<NoteAdapter.NoteViewHolder> {
 
+    // Row text of an encrypted note: its body is only opened in the editor
+    static final String ENCRYPTED_PREVIEW = "🔒 Зашифрованная заметка";
+
     private final Context context;
     public final List<Note> notesList;
     private final OnNoteListener onNoteListener;
+    private final CategoryRegistry categories;
+    private final ThumbnailCache thumbnails;
+    private final MarkdownPreviews previews;
+    private TreeListener treeListener;
 
     public interface OnNoteListener {
         void onNoteClick(int position);
@@ -44,8 +51,23 @@ public class NoteAdapter extends RecyclerView.Adapter<NoteAdapter.NoteViewHolder
         default void onMoveToSecondary(int position) {}
     }
 
+    // Sub-notes are rows of the same list, indented by depth; the owner keeps track of
+    // what is expanded and loads a note's children when it is opened
+    public interface TreeListener {
+        int depthOf(Note note);
+        boolean isExpanded(Note note);
+        void onToggleExpanded(int position);
+    }
+
+    public void setTreeListener(TreeListener treeListener) {
+        this.treeListener = treeListener;
+    }
+
     public NoteAdapter(Context context, List<Note> notesList, OnNoteListener onNoteListener) {
         this.context = context;
+        this.categories = CategoryRegistry.get(context);
+        this.thumbnails = ThumbnailCache.get(context);
+        this.previews = MarkdownPreviews.get(context);
         this.notesList = notesList;
         this.onNoteListener = onNoteListener;
     }
@@ -68,34 +90,60 @@ public class NoteAdapter extends RecyclerView.Adapter<NoteAdapter.NoteViewHolder
 
         // Title & content
         holder.textTitle.setText(note.getTitle());
-        holder.textContent.setText(note.getContent());
+        // Checklists show their progress instead of a body preview, encrypted notes a mark
+        if (note.isEncrypted()) {
+            previews.clear(holder.textContent);
+            holder.textContent.setText(ENCRYPTED_PREVIEW);
+        } else if (note.isChecklist()) {
+            previews.clear(holder.textContent);
+            holder.textContent.setText("☑ " + note.getItemsDone() + "/" + note.getItemsTotal());
+        } else {
+            previews.bind(holder.textContent, note.getPreview());
+        }
 
         // Created date
         SimpleDateFormat sdf = new SimpleDateFormat("dd MMM yyyy", new Locale("ru"));
         String dateText = sdf.format(new Date(note.getCreatedAt()));
         holder.textDate.setText(dateText);
 
-        // Category stripe and text
-        String cat = note.getCategory();
-        if (cat != null && !cat.isEmpty()) {
-            holder.categoryStripe.setVisibility(View.VISIBLE);
-            holder.textCategory.setText(displayNameFor(cat));
-            holder.categoryStripe.setBackgroundColor(colorFor(cat));
+        // Tree: indent sub-notes, and show the expander on notes that have any
+        int depth = treeListener != null ? treeListener.depthOf(note) : 0;
+        ViewGroup.MarginLayoutParams lp = (ViewGroup.MarginLayoutParams) holder.cardView.getLayoutParams();
+        lp.setMarginStart(holder.baseMargin + depth * holder.indentStep);
+        holder.cardView.setLayoutParams(lp);
+        if (treeListener != null && note.hasSubNotes()) {
+            holder.textSubNotes.setVisibility(View.VISIBLE);
+            holder.textSubNotes.setText((treeListener.isExpanded(note) ? "▾ " : "▸ ") +
+                    note.getDescendantsDone() + "/" + note.getDescendants());
+            holder.textSubNotes.setOnClickListener(v -> {
+                if (holder.getAdapterPosition() != RecyclerView.NO_POSITION) {
+                    treeListener.onToggleExpanded(holder.getAdapterPosition());
+                }
+            });
         } else {
-            holder.categoryStripe.setVisibility(View.GONE);
+            holder.textSubNotes.setVisibility(View.GONE);
+            holder.textSubNotes.setOnClickListener(null);
         }
 
-        // Pin status - using existing badges
+        // First image attachment: a memory hit binds here, anything else loads in the background
+        if (note.getCover() != null) {
+            holder.imageThumb.setVisibility(View.VISIBLE);
+            thumbnails.load(holder.imageThumb, note.getCover(), holder.thumbSize);
+        } else {
+            thumbnails.clear(holder.imageThumb);
+            holder.imageThumb.setVisibility(View.GONE);
+        }
+
+        // Category stripe and text
+        int cat = note.getCategoryId();
+        holder.categoryStripe.setVisibility(View.VISIBLE);
+        holder.textCategory.setText(categories.nameOf(cat));
+        holder.categoryStripe.setBackgroundColor(categories.colorOf(cat));
+
+        // Pin status - every note has a category stripe now, so always the white badge
         if (note.isPinned()) {
-            if (cat != null && !cat.isEmpty()) {
-                // Has category - use white badge
-                holder.textPinnedBadge.setVisibility(View.VISIBLE);
-                holder.textPinnedBadgeAlt.setVisibility(View.GONE);
-            } else {
-                // No category - use alt badge
-                holder.textPinnedBadge.setVisibility(View.GONE);
-                holder.textPinnedBadgeAlt.setVisibility(View.VISIBLE);
-            }
+            holder.textPinnedBadge.setVisibility(View.VISIBLE);
+            holder.textPinnedBadgeAlt.setVisibility(View.GONE);
         } else {
             holder.textPinnedBadge.setVisibility(View.GONE);
             holder.textPinnedBadgeAlt.setVisibility(View.GONE);
@@ -129,7 +177,7 @@ public class NoteAdapter extends RecyclerView.Adapter<NoteAdapter.NoteViewHolder
             }
 
             // NEW: For everyday tasks, add repetition info
-            if ("everyday".equals(note.getCategory())) {
+            if (categories.isRecurring(cat)) {
                 reminderText += " (каждые 7 дней)";
             }
 
@@ -157,10 +205,10 @@ public class NoteAdapter extends RecyclerView.Adapter<NoteAdapter.NoteViewHolder
 
         // NEW: Special handling for everyday category
         // For everyday tasks, we can show a special indicator in the category text or modify the display
-        if ("everyday".equals(note.getCategory())) {
+        if (categories.isRecurring(cat)) {
             // Could add a recurring icon or special text to indicate it's an everyday task
             // Since we don't want to change layout, we can modify the category text display
-            holder.textCategory.setText("📅 " + displayNameFor(cat)); // Add emoji to indicate recurring
+            holder.textCategory.setText("📅 " + categories.nameOf(cat)); // Add emoji to indicate recurring
         }
 
         // Completion status
@@ -231,8 +279,9 @@ public class NoteAdapter extends RecyclerView.Adapter<NoteAdapter.NoteViewHolder
     static class NoteViewHolder extends RecyclerView.ViewHolder {
         CardView cardView;
         TextView textTitle, textContent, textDate, textReminderTime, textCategory;
-        TextView textPinnedBadge, textPinnedBadgeAlt;
-        ImageView iconReminder;
+        TextView textPinnedBadge, textPinnedBadgeAlt, textSubNotes;
+        final int baseMargin, indentStep, thumbSize;
+        ImageView iconReminder, imageThumb;
         CheckBox checkboxComplete;
         ImageButton btnDelete;
         LinearLayout reminderContainer, categoryStripe;
@@ -252,6 +301,11 @@ public class NoteAdapter extends RecyclerView.Adapter<NoteAdapter.NoteViewHolder
             textPinnedBadgeAlt = itemView.findViewById(R.id.textPinnedBadgeAlt);
             reminderContainer = itemView.findViewById(R.id.reminderContainer);
             categoryStripe = itemView.findViewById(R.id.categoryStripe);
+            textSubNotes = itemView.findViewById(R.id.textSubNotes);
+            imageThumb = itemView.findViewById(R.id.imageThumb);
+            thumbSize = imageThumb.getLayoutParams().width;
+            baseMargin = ((ViewGroup.MarginLayoutParams) cardView.getLayoutParams()).getMarginStart();
+            indentStep = Math.round(20 * itemView.getResources().getDisplayMetrics().density);
         }
     }
 
@@ -259,25 +313,4 @@ public class NoteAdapter extends RecyclerView.Adapter<NoteAdapter.NoteViewHolder
         SharedPreferences prefs = context.getSharedPreferences("NotesAppPrefs", Context.MODE_PRIVATE);
         return prefs.getBoolean("time_24h", true);
     }
-
-    // Category helpers - UPDATED with everyday category
-    private String displayNameFor(String key) {
-        switch (key) {
-            case "work":     return "Работа";
-            case "family":   return "Семья";
-            case "errand":   return "Поручение";
-            case "personal": return "Личное";
-            case "everyday": return "Ежедневно"; // NEW
-            default:         return "Другое";
-        }
-    }
-
-    private int colorFor(String key) {
-        if ("work".equals(key))     return ContextCompat.getColor(context, R.color.category_work);
-        if ("personal".equals(key)) return ContextCompat.getColor(context, R.color.category_personal);
-        if ("family".equals(key))   return ContextCompat.getColor(context, R.color.category_family);
-        if ("errand".equals(key))   return ContextCompat.getColor(context, R.color.category_errand);
-        if ("everyday".equals(key)) return ContextCompat.getColor(context, R.color.recurring_indicator_color); // NEW - Blue color
-        return ContextCompat.getColor(context, R.color.category_other);
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,29 @@
+package com.kelo.noteapp;
+
+// One entry of the note_changes journal (see DatabaseHelper.getChangesSince)
+public class NoteChange {
+
+    public static final String OP_INSERT = "insert";
+    public static final String OP_UPDATE = "update";
+    public static final String OP_DELETE = "delete";
+
+    private final long seq;
+    private final int noteId;
+    private final String syncId;
+    private final String op;
+    private final long changedAt;
+
+    public NoteChange(long seq, int noteId, String syncId, String op, long changedAt) {
+        this.seq = seq;
+        this.noteId = noteId;
+        this.syncId = syncId;
+        this.op = op;
+        this.changedAt = changedAt;
+    }
+
+    public long getSeq() { return seq; }
+    public int getNoteId() { return noteId; }
+    public String getSyncId() { return syncId; }
+    public String getOp() { return op; }
+    public long getChangedAt() { return changedAt; }
+}
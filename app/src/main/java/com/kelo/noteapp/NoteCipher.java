@@ -0,0 +1,87 @@
+package com.kelo.noteapp;
+
+import android.util.Base64;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.zip.Deflater;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+// AES-GCM for the bodies of encrypted notes. A sealed body stays a String wherever a body
+// goes (DatabaseHelper, sync, archive, export): PREFIX, then Base64 of a flags byte, the IV
+// and the ciphertext with its tag. Nothing but the editor ever opens one; everything else
+// only needs isSealed to keep it out of previews, search and version history.
+public final class NoteCipher {
+
+    // Not something a note is going to start with: U+FFFE is a noncharacter
+    static final String PREFIX = "\uFFFEaesgcm1:";
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int TAG_BITS = 128;
+    private static final int IV_BYTES = 12;
+    // flags: the plaintext was deflated first (long bodies, as note_content stores them)
+    private static final int FLAG_DEFLATE = 1;
+
+    private final SecretKey key;
+
+    NoteCipher(SecretKey key) {
+        this.key = key;
+    }
+
+    public static boolean isSealed(String body) {
+        return body != null && body.startsWith(PREFIX);
+    }
+
+    // The note's sync id is bound in as associated data: a body copied onto another note
+    // does not open there
+    public String seal(String plaintext, String syncId) throws GeneralSecurityException {
+        if (plaintext == null) plaintext = "";
+        int flags = 0;
+        byte[] data = plaintext.getBytes(StandardCharsets.UTF_8);
+        if (plaintext.length() >= DatabaseHelper.COMPRESS_MIN_CHARS) {
+            byte[] packed = ContentCodec.compress(plaintext, Deflater.BEST_SPEED);
+            if (packed.length < data.length) {
+                data = packed;
+                flags |= FLAG_DEFLATE;
+            }
+        }
+        // The key picks the IV: keystore keys refuse one chosen by the caller
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+        cipher.updateAAD(associatedData(syncId));
+        byte[] iv = cipher.getIV();
+        byte[] sealed = cipher.doFinal(data);
+
+        ByteBuffer out = ByteBuffer.allocate(1 + iv.length + sealed.length);
+        out.put((byte) flags).put(iv).put(sealed);
+        return PREFIX + Base64.encodeToString(out.array(), Base64.NO_WRAP);
+    }
+
+    // Throws AEADBadTagException when the body was altered, belongs to another note or was
+    // sealed with another key (another device, or a key reset with the screen lock)
+    public String open(String body, String syncId) throws GeneralSecurityException {
+        if (!isSealed(body)) return body;
+        byte[] raw;
+        try {
+            raw = Base64.decode(body.substring(PREFIX.length()), Base64.NO_WRAP);
+        } catch (IllegalArgumentException e) {
+            throw new GeneralSecurityException("Malformed sealed body", e);
+        }
+        if (raw.length < 1 + IV_BYTES + TAG_BITS / 8) throw new GeneralSecurityException("Truncated sealed body");
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, raw, 1, IV_BYTES));
+        cipher.updateAAD(associatedData(syncId));
+        byte[] data = cipher.doFinal(raw, 1 + IV_BYTES, raw.length - 1 - IV_BYTES);
+        return (raw[0] & FLAG_DEFLATE) != 0
+                ? ContentCodec.decompress(data)
+                : new String(data, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] associatedData(String syncId) {
+        return (syncId != null ? syncId : "").getBytes(StandardCharsets.UTF_8);
+    }
+}
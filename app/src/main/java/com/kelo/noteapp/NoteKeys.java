@@ -0,0 +1,126 @@
+package com.kelo.noteapp;
+
+import android.annotation.TargetApi;
+import android.app.KeyguardManager;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyPermanentlyInvalidatedException;
+import android.security.keystore.KeyProperties;
+import android.security.keystore.UserNotAuthenticatedException;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+// The key of encrypted notes: one AES key in the AndroidKeyStore, created on first use. It
+// never leaves the keystore, and the keystore lets it work only for SESSION_SECONDS after
+// the user last confirmed the screen lock, so one confirmation opens any number of notes
+// for a while. The key is looked up again on every use, so that window is the keystore's
+// alone. Keystore keys are not part of backups and do not survive the screen lock being
+// removed: a restored database, another device or a reset lock keeps the bodies sealed for
+// good, and isKeyLost tells those failures apart.
+public final class NoteKeys {
+
+    private static NoteKeys instance;
+
+    private static final String KEYSTORE = "AndroidKeyStore";
+    private static final String ALIAS = "note_bodies";
+    static final int SESSION_SECONDS = 5 * 60;
+
+    private final KeyguardManager keyguard;
+
+    public static synchronized NoteKeys get(Context context) {
+        if (instance == null) instance = new NoteKeys(context.getApplicationContext());
+        return instance;
+    }
+
+    private NoteKeys(Context context) {
+        keyguard = (KeyguardManager) context.getSystemService(Context.KEYGUARD_SERVICE);
+    }
+
+    // Needs keystore keys bound to the lock screen (Android 6) and a lock screen to confirm
+    public boolean isAvailable() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && keyguard != null && keyguard.isDeviceSecure();
+    }
+
+    // Blocking keystore calls: not on the UI thread. For sealing: makes the key if there is none
+    public synchronized NoteCipher cipher() throws GeneralSecurityException, IOException {
+        SecretKey key = loadKey();
+        return new NoteCipher(key != null ? key : createKey());
+    }
+
+    // For opening: with no key here a new one could not open anything sealed before
+    public synchronized NoteCipher existingCipher() throws GeneralSecurityException, IOException {
+        SecretKey key = loadKey();
+        if (key == null) throw new KeyLostException();
+        return new NoteCipher(key);
+    }
+
+    // After isKeyLost on sealing: the dead key goes, the next cipher() makes a new one
+    public synchronized void dropKey() throws GeneralSecurityException, IOException {
+        keyStore().deleteEntry(ALIAS);
+    }
+
+    private static SecretKey loadKey() throws GeneralSecurityException, IOException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            throw new GeneralSecurityException("Encrypted notes need Android 6");
+        }
+        return (SecretKey) keyStore().getKey(ALIAS, null);
+    }
+
+    private static KeyStore keyStore() throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance(KEYSTORE);
+        keyStore.load(null);
+        return keyStore;
+    }
+
+    // Whether e means the note can never be opened on this device: the key went with the
+    // screen lock, or there is none (a restore, another device), or the body's tag fails,
+    // which is also what a body sealed under another device's key does
+    public static boolean isKeyLost(Exception e) {
+        if (e instanceof KeyLostException || e instanceof AEADBadTagException) return true;
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && e instanceof KeyPermanentlyInvalidatedException;
+    }
+
+    // Whether e only means the session is over: confirmIntent, then retry
+    public static boolean needsUnlock(Exception e) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && e instanceof UserNotAuthenticatedException;
+    }
+
+    // The system's screen lock prompt; RESULT_OK starts a new session
+    public Intent confirmIntent() {
+        return keyguard.createConfirmDeviceCredentialIntent("Зашифрованная заметка",
+                "Подтвердите блокировку экрана, чтобы открыть заметку");
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private static SecretKey createKey() throws GeneralSecurityException {
+        KeyGenParameterSpec.Builder spec = new KeyGenParameterSpec.Builder(ALIAS,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .setKeySize(256)
+                .setUserAuthenticationRequired(true);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            spec.setUserAuthenticationParameters(SESSION_SECONDS,
+                    KeyProperties.AUTH_DEVICE_CREDENTIAL | KeyProperties.AUTH_BIOMETRIC_STRONG);
+        } else {
+            spec.setUserAuthenticationValidityDurationSeconds(SESSION_SECONDS);
+        }
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE);
+        generator.init(spec.build());
+        return generator.generateKey();
+    }
+
+    static final class KeyLostException extends GeneralSecurityException {
+        KeyLostException() {
+            super("No note key on this device");
+        }
+    }
+}
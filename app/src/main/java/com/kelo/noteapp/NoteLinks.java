@@ -0,0 +1,52 @@
+package com.kelo.noteapp;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Wiki-style links in note bodies: [[Title]] points at the note with that title. The
+// database keeps one note_links row per distinct target of a note (see DatabaseHelper),
+// so backlinks are an index lookup rather than a scan of every body.
+public final class NoteLinks {
+
+    // No brackets or line breaks inside a link; anything else is the target's title
+    private static final Pattern LINK = Pattern.compile("\\[\\[([^\\[\\]\\n]+)]]");
+
+    private NoteLinks() {}
+
+    // Distinct link targets in the order they first appear, trimmed
+    public static Set<String> parse(String text) {
+        Set<String> targets = new LinkedHashSet<>();
+        if (text == null || text.indexOf("[[") < 0) return targets;
+        Matcher m = LINK.matcher(text);
+        while (m.find()) {
+            String title = m.group(1).trim();
+            if (!title.isEmpty()) targets.add(title);
+        }
+        return targets;
+    }
+
+    // Target of the link the offset falls in (brackets included), or null
+    public static String linkAt(String text, int offset) {
+        if (text == null || offset < 0) return null;
+        Matcher m = LINK.matcher(text);
+        while (m.find()) {
+            if (m.start() > offset) break;
+            if (offset <= m.end()) {
+                String title = m.group(1).trim();
+                return title.isEmpty() ? null : title;
+            }
+        }
+        return null;
+    }
+
+    // Points every link to from at to instead; the match ignores case and the spaces
+    // around the title, as parse does
+    public static String rename(String text, String from, String to) {
+        if (text == null) return null;
+        Pattern link = Pattern.compile("\\[\\[\\s*" + Pattern.quote(from.trim()) + "\\s*]]",
+                Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        return link.matcher(text).replaceAll(Matcher.quoteReplacement("[[" + to.trim() + "]]"));
+    }
+}
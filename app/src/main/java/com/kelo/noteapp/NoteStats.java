@@ -0,0 +1,39 @@
+package com.kelo.noteapp;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Snapshot of the trigger-maintained note_stats table (see DatabaseHelper.getStats)
+public class NoteStats {
+
+    // kind values stored in note_stats
+    static final String KIND_TOTAL = "total";
+    static final String KIND_COMPLETED = "completed";
+    static final String KIND_REMINDER = "reminder";
+    static final String KIND_TRASH = "trash";
+    static final String KIND_FOLDER = "folder";
+    static final String KIND_ACTIVE_FOLDER = "active_folder";
+    static final String KIND_CATEGORY = "category";
+
+    private final Map<String, Integer> counts = new HashMap<>();
+
+    void put(String kind, String key, int count) {
+        counts.put(kind + ":" + key, count);
+    }
+
+    private int get(String kind, String key) {
+        Integer n = counts.get(kind + ":" + (key == null ? "" : key));
+        return n == null ? 0 : n;
+    }
+
+    // Live notes (not trashed, not archived)
+    public int getTotal() { return get(KIND_TOTAL, ""); }
+    public int getCompleted() { return get(KIND_COMPLETED, ""); }
+    public int getWithReminder() { return get(KIND_REMINDER, ""); }
+    public int getTrashed() { return get(KIND_TRASH, ""); }
+
+    public int getFolderCount(String folder) { return get(KIND_FOLDER, folder); }
+    // Not completed notes in a folder (tab badges)
+    public int getActiveInFolder(String folder) { return get(KIND_ACTIVE_FOLDER, folder); }
+    public int getCategoryCount(int categoryId) { return get(KIND_CATEGORY, String.valueOf(categoryId)); }
+}
@@ -0,0 +1,514 @@
+package com.kelo.noteapp;
+
+import android.content.Context;
+import android.content.DialogInterface;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.os.Bundle;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
+import androidx.fragment.app.Fragment;
+import androidx.recyclerview.widget.ItemTouchHelper;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import androidx.appcompat.app.AlertDialog;
+
+import com.google.android.material.bottomsheet.BottomSheetDialog;
+import com.google.android.material.snackbar.Snackbar;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// One tab of the main screen: the active notes of one folder. ViewPager2 creates these on
+// demand, and a page only queries its notes once it is shown (or preloaded as the next
+// page), so startup cost does not grow with the number of folders.
+public class NotesFragment extends Fragment {
+
+    private static final String ARG_FOLDER = "folder";
+
+    private String folder;
+    private RecyclerView recycler;
+    private View emptyText;
+    private NoteAdapter adapter;
+    private final List<Note> data = new ArrayList<>();
+    private DatabaseHelper db;
+
+    // swipe control while the sheet is visible
+    private ItemTouchHelper itemTouchHelper;
+    private boolean allowSwipe = true;
+
+    // Notes may have changed since the last query; cleared by reload()
+    private boolean stale = true;
+
+    // Sub-note tree: ids of the expanded notes (kept across reloads) and the depth of
+    // every sub-note row on screen (top-level rows are not in the map)
+    private final Set<Integer> expanded = new HashSet<>();
+    private final Map<Integer, Integer> depths = new HashMap<>();
+
+    public static NotesFragment newInstance(String folder) {
+        NotesFragment fragment = new NotesFragment();
+        Bundle args = new Bundle();
+        args.putString(ARG_FOLDER, folder);
+        fragment.setArguments(args);
+        return fragment;
+    }
+
+    public String getFolder() {
+        return folder;
+    }
+
+    @Override
+    public void onAttach(@NonNull Context context) {
+        super.onAttach(context);
+        db = new DatabaseHelper(context);
+        folder = getArguments() != null ? getArguments().getString(ARG_FOLDER) : null;
+        if (folder == null) folder = DatabaseHelper.FOLDER_MAIN;
+        if (context instanceof MainActivity) ((MainActivity) context).onFolderPageAttached(this);
+    }
+
+    @Override
+    public void onDetach() {
+        if (getActivity() instanceof MainActivity) ((MainActivity) getActivity()).onFolderPageDetached(this);
+        super.onDetach();
+    }
+
+    // ViewPager2 only resumes the page on screen
+    @Override
+    public void onResume() {
+        super.onResume();
+        if (stale) reload();
+    }
+
+    @Nullable
+    @Override
+    public View onCreateView(@NonNull LayoutInflater inflater,
+                             @Nullable ViewGroup container,
+                             @Nullable Bundle savedInstanceState) {
+        View v = inflater.inflate(R.layout.fragment_notes_list, container, false);
+        recycler = v.findViewById(R.id.notesRecycler);
+        emptyText = v.findViewById(R.id.emptyText);
+
+        recycler.setLayoutManager(new LinearLayoutManager(getContext()));
+        adapter = new NoteAdapter(getContext(), data, new NoteAdapter.OnNoteListener() {
+            @Override
+            public void onNoteClick(int position) {
+                if (getActivity() instanceof MainActivity) {
+                    ((MainActivity) getActivity()).openEditFromNote(data.get(position));
+                }
+            }
+            @Override
+            public void onDeleteClick(int position) {
+                trashRow(position);
+            }
+            @Override
+            public void onCompleteClick(int position) {
+                Note note = data.get(position);
+                note.setCompleted(!note.isCompleted());
+                db.updateNoteCompleted(note);
+                adapter.notifyItemChanged(position);
+                if (getActivity() instanceof MainActivity) ((MainActivity) getActivity()).handleCompleteToggle(note);
+            }
+            @Override
+            public void onPinClick(int position) {
+                Note note = data.get(position);
+                note.setPinned(!note.isPinned());
+                db.updateNotePinned(note.getId(), note.isPinned());
+                reload();
+                if (getActivity() instanceof MainActivity) ((MainActivity) getActivity()).notifyTabsChanged();
+            }
+            @Override
+            public void onMoveToSecondary(int position) {
+                // not used here; long-press sheet handles it
+            }
+        });
+        adapter.setTreeListener(new NoteAdapter.TreeListener() {
+            @Override
+            public int depthOf(Note note) {
+                return NotesFragment.this.depthOf(note);
+            }
+            @Override
+            public boolean isExpanded(Note note) {
+                return expanded.contains(note.getId());
+            }
+            @Override
+            public void onToggleExpanded(int position) {
+                toggleExpanded(position);
+            }
+        });
+        recycler.setAdapter(adapter);
+
+        attachSwipeAndDrag();
+
+        stale = true;
+        return v;
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        adapter = null;
+    }
+
+    // ---------- Long press -> BottomSheet ----------
+    // A long press starts a drag (see attachSwipeAndDrag); released without moving, it
+    // opens this sheet instead
+    private void showNoteActionsSheet(Note note, int position) {
+        allowSwipe = false; // freeze swipe while sheet is open
+
+        BottomSheetDialog dialog = new BottomSheetDialog(requireContext());
+        dialog.setContentView(R.layout.sheet_note_actions);
+
+        TextView actionPin = dialog.findViewById(R.id.actionPin);
+        TextView actionMove = dialog.findViewById(R.id.actionMove);
+
+        if (actionPin != null) {
+            actionPin.setText(note.isPinned() ? "Открепить" : "Закрепить");
+            actionPin.setOnClickListener(v -> {
+                boolean newPinned = !note.isPinned();
+                db.updateNotePinned(note.getId(), newPinned);
+                note.setPinned(newPinned);
+                reload();
+                if (getActivity() instanceof MainActivity) ((MainActivity) getActivity()).notifyTabsChanged();
+                dialog.dismiss();
+            });
+        }
+
+        TextView actionAddSub = dialog.findViewById(R.id.actionAddSubNote);
+        if (actionAddSub != null) {
+            actionAddSub.setOnClickListener(v -> {
+                dialog.dismiss();
+                expanded.add(note.getId());
+                if (getActivity() instanceof MainActivity) ((MainActivity) getActivity()).openNewSubNote(note);
+            });
+        }
+
+        TextView actionParent = dialog.findViewById(R.id.actionSetParent);
+        if (actionParent != null) {
+            actionParent.setOnClickListener(v -> {
+                dialog.dismiss();
+                chooseParent(note);
+            });
+        }
+
+        TextView actionTopLevel = dialog.findViewById(R.id.actionTopLevel);
+        if (actionTopLevel != null) {
+            actionTopLevel.setVisibility(note.getParentId() > 0 ? View.VISIBLE : View.GONE);
+            actionTopLevel.setOnClickListener(v -> {
+                dialog.dismiss();
+                db.setNoteParent(note.getId(), 0);
+                reload();
+            });
+        }
+
+        if (actionMove != null) {
+            actionMove.setText("Переместить в папку…");
+            actionMove.setOnClickListener(v -> {
+                dialog.dismiss();
+                chooseFolder(note);
+            });
+        }
+
+        dialog.setOnDismissListener(new DialogInterface.OnDismissListener() {
+            @Override public void onDismiss(DialogInterface dialogInterface) {
+                allowSwipe = true;
+            }
+        });
+        dialog.show();
+    }
+
+    private void chooseFolder(Note note) {
+        final List<Folder> targets = new ArrayList<>();
+        for (Folder f : db.getFolders()) {
+            if (!f.getKey().equals(folder)) targets.add(f);
+        }
+        String[] names = new String[targets.size()];
+        for (int i = 0; i < names.length; i++) names[i] = targets.get(i).getName();
+        new AlertDialog.Builder(requireContext())
+                .setTitle("Переместить в папку")
+                .setItems(names, (d, which) -> {
+                    db.updateNoteFolder(note.getId(), targets.get(which).getKey());
+                    int pos = data.indexOf(note);
+                    if (pos >= 0 && adapter != null) {
+                        data.remove(pos);
+                        adapter.notifyItemRemoved(pos);
+                        updateEmpty();
+                    }
+                    if (getActivity() instanceof MainActivity) ((MainActivity) getActivity()).notifyTabsChanged();
+                })
+                .setNegativeButton("Отмена", null)
+                .show();
+    }
+
+    // Any other note of this tab's top level can take the note; the database refuses
+    // cycles (a note under its own sub-note)
+    private void chooseParent(Note note) {
+        final List<Note> targets = new ArrayList<>();
+        for (Note n : db.getActiveNotesByFolder(folder)) {
+            if (n.getId() != note.getId() && n.getId() != note.getParentId()) targets.add(n);
+        }
+        String[] names = new String[targets.size()];
+        for (int i = 0; i < names.length; i++) names[i] = targets.get(i).getTitle();
+        new AlertDialog.Builder(requireContext())
+                .setTitle("Сделать подзадачей")
+                .setItems(names, (d, which) -> {
+                    Note parent = targets.get(which);
+                    if (!db.setNoteParent(note.getId(), parent.getId())) {
+                        Snackbar.make(recycler, "Нельзя вложить заметку в её же подзадачу", Snackbar.LENGTH_SHORT).show();
+                        return;
+                    }
+                    expanded.add(parent.getId());
+                    reload();
+                })
+                .setNegativeButton("Отмена", null)
+                .show();
+    }
+
+    // ---------- Sub-notes ----------
+    private int depthOf(Note note) {
+        Integer depth = depths.get(note.getId());
+        return depth != null ? depth : 0;
+    }
+
+    // Children are only queried when their parent is opened
+    private void toggleExpanded(int position) {
+        if (position < 0 || position >= data.size()) return;
+        Note note = data.get(position);
+        if (expanded.remove(note.getId())) {
+            int count = subRowCount(position);
+            for (int i = 0; i < count; i++) depths.remove(data.remove(position + 1).getId());
+            adapter.notifyItemChanged(position);
+            adapter.notifyItemRangeRemoved(position + 1, count);
+        } else {
+            expanded.add(note.getId());
+            int count = insertChildren(position);
+            adapter.notifyItemChanged(position);
+            adapter.notifyItemRangeInserted(position + 1, count);
+        }
+    }
+
+    // Inserts the children of the row at position below it, and theirs if they are
+    // expanded too; returns how many rows were added
+    private int insertChildren(int position) {
+        Note parent = data.get(position);
+        int depth = depthOf(parent) + 1;
+        int at = position + 1;
+        for (Note child : db.getChildNotes(parent.getId())) {
+            data.add(at, child);
+            depths.put(child.getId(), depth);
+            at++;
+            if (child.hasSubNotes() && expanded.contains(child.getId())) at += insertChildren(at - 1);
+        }
+        return at - position - 1;
+    }
+
+    // Rows shown below the row at position that belong to its subtree
+    private int subRowCount(int position) {
+        int depth = depthOf(data.get(position));
+        int end = position + 1;
+        while (end < data.size() && depthOf(data.get(end)) > depth) end++;
+        return end - position - 1;
+    }
+
+    // Nearest sibling above (step -1) or below (step 1) in the same pinned block, skipping
+    // the open sub-notes of other siblings; -1 if there is none
+    private int siblingId(int position, int step) {
+        Note note = data.get(position);
+        int depth = depthOf(note);
+        for (int i = position + step; i >= 0 && i < data.size(); i += step) {
+            Note n = data.get(i);
+            int d = depthOf(n);
+            if (d < depth) return -1;
+            if (d == depth) return n.isPinned() == note.isPinned() ? n.getId() : -1;
+        }
+        return -1;
+    }
+
+    // Trashes the note with its sub-notes; undo brings the whole subtree back
+    private void trashRow(int position) {
+        Note note = data.get(position);
+        db.moveToTrash(note.getId());
+        int count = subRowCount(position) + 1;
+        for (int i = 0; i < count; i++) depths.remove(data.remove(position).getId());
+        adapter.notifyItemRangeRemoved(position, count);
+        updateEmpty();
+        Snackbar.make(recycler, "Заметка перемещена в корзину", Snackbar.LENGTH_LONG)
+                .setAction("ОТМЕНИТЬ", v -> {
+                    db.restoreFromTrash(note.getId());
+                    reload();
+                    if (getActivity() instanceof MainActivity) ((MainActivity) getActivity()).notifyTabsChanged();
+                }).show();
+        if (getActivity() instanceof MainActivity) ((MainActivity) getActivity()).notifyTabsChanged();
+    }
+
+    // ---------- Swipe to delete, long-press drag to reorder ----------
+    private void attachSwipeAndDrag() {
+        ItemTouchHelper.SimpleCallback callback = new ItemTouchHelper.SimpleCallback(
+                ItemTouchHelper.UP | ItemTouchHelper.DOWN,
+                ItemTouchHelper.LEFT | ItemTouchHelper.RIGHT) {
+
+            // Note being dragged, and whether it has left its place yet
+            private Note dragged;
+            private boolean moved;
+
+            @Override public boolean isItemViewSwipeEnabled() { return allowSwipe; }
+
+            @Override public boolean isLongPressDragEnabled() { return allowSwipe; }
+
+            @Override
+            public void onSelectedChanged(@Nullable RecyclerView.ViewHolder viewHolder, int actionState) {
+                super.onSelectedChanged(viewHolder, actionState);
+                if (actionState != ItemTouchHelper.ACTION_STATE_DRAG || viewHolder == null) return;
+                int pos = viewHolder.getAdapterPosition();
+                dragged = pos >= 0 && pos < data.size() ? data.get(pos) : null;
+                moved = false;
+            }
+
+            // Only among siblings, within the pinned or the unpinned block. Open notes
+            // stay put (and are not passed), so a row never leaves its sub-notes behind.
+            @Override
+            public boolean onMove(@NonNull RecyclerView recyclerView,
+                                  @NonNull RecyclerView.ViewHolder viewHolder,
+                                  @NonNull RecyclerView.ViewHolder target) {
+                int from = viewHolder.getAdapterPosition(), to = target.getAdapterPosition();
+                if (from < 0 || to < 0 || from >= data.size() || to >= data.size()) return false;
+                Note a = data.get(from), b = data.get(to);
+                if (a.isPinned() != b.isPinned() || a.getParentId() != b.getParentId()) return false;
+                if (expanded.contains(a.getId()) || expanded.contains(b.getId())) return false;
+                Collections.swap(data, from, to);
+                adapter.notifyItemMoved(from, to);
+                moved = true;
+                return true;
+            }
+
+            // Drop: one row gets a key between its new neighbours
+            @Override
+            public void clearView(@NonNull RecyclerView recyclerView, @NonNull RecyclerView.ViewHolder viewHolder) {
+                super.clearView(recyclerView, viewHolder);
+                Note note = dragged;
+                dragged = null;
+                if (note == null) return;
+                int pos = data.indexOf(note);
+                if (pos < 0) return;
+                if (!moved) {
+                    showNoteActionsSheet(note, pos);
+                    return;
+                }
+                String key = db.moveNote(note.getId(), siblingId(pos, -1), siblingId(pos, 1));
+                note.setSortKey(key);
+                if (SortKeys.needsRebalance(key)) {
+                    if (note.getParentId() > 0) MaintenanceTask.rebalanceChildSortKeys(requireContext(), note.getParentId());
+                    else MaintenanceTask.rebalanceSortKeys(requireContext(), folder);
+                }
+            }
+
+            @Override
+            public void onSwiped(@NonNull RecyclerView.ViewHolder viewHolder, int direction) {
+                int pos = viewHolder.getAdapterPosition();
+                if (pos >= 0 && pos < data.size()) trashRow(pos);
+            }
+
+            @Override
+            public void onChildDraw(@NonNull Canvas c,
+                                    @NonNull RecyclerView recyclerView,
+                                    @NonNull RecyclerView.ViewHolder viewHolder,
+                                    float dX, float dY,
+                                    int actionState, boolean isCurrentlyActive) {
+                if (actionState == ItemTouchHelper.ACTION_STATE_SWIPE) {
+                    View item = viewHolder.itemView;
+                    Paint p = new Paint();
+                    p.setColor(ContextCompat.getColor(requireContext(), R.color.delete_color));
+                    if (dX > 0) c.drawRect(item.getLeft(), item.getTop(), dX, item.getBottom(), p);
+                    else c.drawRect(item.getRight() + dX, item.getTop(), item.getRight(), item.getBottom(), p);
+
+                    Drawable icon = ContextCompat.getDrawable(requireContext(), R.drawable.ic_delete);
+                    if (icon != null) {
+                        int m = (item.getHeight() - icon.getIntrinsicHeight()) / 2;
+                        int top = item.getTop() + m;
+                        int bottom = top + icon.getIntrinsicHeight();
+                        if (dX > 0) {
+                            int left = item.getLeft() + m;
+                            int right = left + icon.getIntrinsicWidth();
+                            icon.setBounds(left, top, right, bottom);
+                        } else {
+                            int right = item.getRight() - m;
+                            int left = right - icon.getIntrinsicWidth();
+                            icon.setBounds(left, top, right, bottom);
+                        }
+                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) icon.setTint(Color.WHITE);
+                        icon.draw(c);
+                    }
+                }
+                super.onChildDraw(c, recyclerView, viewHolder, dX, dY, actionState, isCurrentlyActive);
+            }
+        };
+
+        itemTouchHelper = new ItemTouchHelper(callback);
+        itemTouchHelper.attachToRecyclerView(recycler);
+    }
+
+    // Same order as getActiveNotesByFolder (top-level rows only): pinned first, then the manual order (notes
+    // without a key on top), newest first on ties
+    private void sortDefault() {
+        Collections.sort(data, new Comparator<Note>() {
+            @Override
+            public int compare(Note a, Note b) {
+                if (a.isPinned() != b.isPinned()) return a.isPinned() ? -1 : 1;
+                if (a.isCompleted() != b.isCompleted()) return a.isCompleted() ? 1 : -1;
+                String ka = a.getSortKey(), kb = b.getSortKey();
+                if (ka == null ? kb != null : !ka.equals(kb)) {
+                    if (ka == null) return -1;
+                    if (kb == null) return 1;
+                    return ka.compareTo(kb);
+                }
+                return Long.compare(b.getCreatedAt(), a.getCreatedAt());
+            }
+        });
+    }
+
+    private void updateEmpty() {
+        if (emptyText != null) emptyText.setVisibility(data.isEmpty() ? View.VISIBLE : View.GONE);
+    }
+
+    // Called when notes may have changed: the visible page reloads now, the rest when shown
+    public void invalidate() {
+        stale = true;
+        if (isResumed()) reload();
+    }
+
+    // Loads an offscreen page ahead of a swipe to it
+    public void preload() {
+        if (stale) reload();
+    }
+
+    public void reload() {
+        if (adapter == null) return; // no view yet: stays stale until onResume
+        stale = false;
+        data.clear();
+        data.addAll(db.getActiveNotesByFolder(folder));
+        if (getActivity() instanceof MainActivity) ((MainActivity) getActivity()).applyTagFilter(data);
+        sortDefault();
+        // Open notes stay open: their children are read again below them
+        depths.clear();
+        for (int i = data.size() - 1; i >= 0; i--) {
+            if (data.get(i).hasSubNotes() && expanded.contains(data.get(i).getId())) insertChildren(i);
+        }
+        adapter.notifyDataSetChanged();
+        updateEmpty();
+    }
+}
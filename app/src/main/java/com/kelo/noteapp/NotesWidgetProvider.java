@@ -14,9 +14,11 @@ public class NotesWidgetProvider extends AppWidgetProvider {
 
     @Override
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
-        for (int appWidgetId : appWidgetIds) {
-            updateAppWidget(context, appWidgetManager, appWidgetId);
-        }
+        DatabaseHelper.runWhenReady(this, context, () -> {
+            for (int appWidgetId : appWidgetIds) {
+                updateAppWidget(context, appWidgetManager, appWidgetId);
+            }
+        });
     }
 
     static void updateAppWidget(Context context, AppWidgetManager appWidgetManager, int appWidgetId) {
@@ -51,13 +53,13 @@ public class NotesWidgetProvider extends AppWidgetProvider {
                 Note note1 = notes.get(0);
                 views.setViewVisibility(R.id.note1, android.view.View.VISIBLE);
                 views.setTextViewText(R.id.noteTitle1, note1.getTitle());
-                views.setTextViewText(R.id.noteContent1, truncateText(note1.getContent(), 50));
+                views.setTextViewText(R.id.noteContent1, truncateText(note1.getPreview(), 50));
 
                 // Установка клика для первой заметки
                 Intent intent1 = new Intent(context, AddEditNoteActivity.class);
                 intent1.putExtra("note_id", note1.getId());
                 intent1.putExtra("note_title", note1.getTitle());
-                intent1.putExtra("note_content", note1.getContent());
+                intent1.putExtra("note_content", note1.getPreview());
                 intent1.putExtra("note_reminder", note1.getReminderTime());
                 PendingIntent pendingIntent1 = PendingIntent.getActivity(
                         context,
@@ -74,13 +76,13 @@ public class NotesWidgetProvider extends AppWidgetProvider {
                 Note note2 = notes.get(1);
                 views.setViewVisibility(R.id.note2, android.view.View.VISIBLE);
                 views.setTextViewText(R.id.noteTitle2, note2.getTitle());
-                views.setTextViewText(R.id.noteContent2, truncateText(note2.getContent(), 50));
+                views.setTextViewText(R.id.noteContent2, truncateText(note2.getPreview(), 50));
 
                 // Установка клика для второй заметки
                 Intent intent2 = new Intent(context, AddEditNoteActivity.class);
                 intent2.putExtra("note_id", note2.getId());
                 intent2.putExtra("note_title", note2.getTitle());
-                intent2.putExtra("note_content", note2.getContent());
+                intent2.putExtra("note_content", note2.getPreview());
                 intent2.putExtra("note_reminder", note2.getReminderTime());
                 PendingIntent pendingIntent2 = PendingIntent.getActivity(
                         context,
@@ -97,13 +99,13 @@ public class NotesWidgetProvider extends AppWidgetProvider {
                 Note note3 = notes.get(2);
                 views.setViewVisibility(R.id.note3, android.view.View.VISIBLE);
                 views.setTextViewText(R.id.noteTitle3, note3.getTitle());
-                views.setTextViewText(R.id.noteContent3, truncateText(note3.getContent(), 50));
+                views.setTextViewText(R.id.noteContent3, truncateText(note3.getPreview(), 50));
 
                 // Установка клика для третьей заметки
                 Intent intent3 = new Intent(context, AddEditNoteActivity.class);
                 intent3.putExtra("note_id", note3.getId());
                 intent3.putExtra("note_title", note3.getTitle());
-                intent3.putExtra("note_content", note3.getContent());
+                intent3.putExtra("note_content", note3.getPreview());
                 intent3.putExtra("note_reminder", note3.getReminderTime());
                 PendingIntent pendingIntent3 = PendingIntent.getActivity(
                         context,
@@ -21,6 +21,10 @@ public class NotificationActionReceiver extends BroadcastReceiver {
 
     @Override
     public void onReceive(Context context, Intent intent) {
+        DatabaseHelper.runWhenReady(this, context, () -> handle(context, intent));
+    }
+
+    private void handle(Context context, Intent intent) {
         // Check notification permission first (API 33+)
         if (Build.VERSION.SDK_INT >= 33) {
             if (ContextCompat.checkSelfPermission(context, "android.permission.POST_NOTIFICATIONS")
@@ -52,7 +56,7 @@ public class NotificationActionReceiver extends BroadcastReceiver {
         if (note != null) {
             // Mark note as completed
             note.setCompleted(true);
-            databaseHelper.updateNote(note);
+            databaseHelper.updateNoteCompleted(note);
 
             // Cancel any future alarms for this note
             cancelAlarm(context, noteId);
@@ -23,6 +23,11 @@ public class NotificationReceiver extends BroadcastReceiver {
     @RequiresPermission(Manifest.permission.POST_NOTIFICATIONS)
     @Override
     public void onReceive(Context context, Intent intent) {
+        DatabaseHelper.runWhenReady(this, context, () -> showReminder(context, intent));
+    }
+
+    @RequiresPermission(Manifest.permission.POST_NOTIFICATIONS)
+    private void showReminder(Context context, Intent intent) {
         int noteId = intent.getIntExtra("note_id", -1);
         String title = intent.getStringExtra("note_title");
         String content = intent.getStringExtra("note_content");
@@ -35,6 +40,8 @@ public class NotificationReceiver extends BroadcastReceiver {
         if (note == null || note.isCompleted()) {
             return;
         }
+        // A reminder set before the note was encrypted carries its old text
+        if (note.isEncrypted()) content = null;
 
         createChannel(context);
 
@@ -110,7 +117,14 @@ public class NotificationReceiver extends BroadcastReceiver {
                     note.getReminderTime()); // extract hour/min from stored reminderTime
             // Update stored time and reschedule
             note.setReminderTime(next);
-            databaseHelper.updateNote(note);
+            if (databaseHelper.updateNote(note) == DatabaseHelper.UPDATE_CONFLICT) {
+                // Edited meanwhile (e.g. in the editor): move the reminder on the fresh copy
+                Note latest = databaseHelper.getNote(noteId);
+                if (latest != null && latest.getRepeatDays() != 0) {
+                    latest.setReminderTime(computeNextOccurrenceFromNow(latest.getRepeatDays(), latest.getReminderTime()));
+                    if (databaseHelper.updateNote(latest) != DatabaseHelper.UPDATE_CONFLICT) note = latest;
+                }
+            }
             schedule(context, note);
         }
     }
@@ -137,7 +151,7 @@ public class NotificationReceiver extends BroadcastReceiver {
         Intent i = new Intent(context, NotificationReceiver.class);
         i.putExtra("note_id", note.getId());
         i.putExtra("note_title", note.getTitle());
-        i.putExtra("note_content", note.getContent());
+        i.putExtra("note_content", note.getPreview());
 
         PendingIntent pi = PendingIntent.getBroadcast(
                 context,
@@ -0,0 +1,29 @@
+package com.kelo.noteapp;
+
+// One saved version of a note (metadata only; DatabaseHelper.getRevisionContent rebuilds the text)
+public class Revision {
+
+    private final int noteId;
+    private final int rev;
+    private final long createdAt;
+    private final String title;
+    private final boolean snapshot;
+    private final int storedBytes;
+
+    public Revision(int noteId, int rev, long createdAt, String title, boolean snapshot, int storedBytes) {
+        this.noteId = noteId;
+        this.rev = rev;
+        this.createdAt = createdAt;
+        this.title = title;
+        this.snapshot = snapshot;
+        this.storedBytes = storedBytes;
+    }
+
+    public int getNoteId() { return noteId; }
+    public int getRev() { return rev; }
+    public long getCreatedAt() { return createdAt; }
+    public String getTitle() { return title; }
+    // Full text rather than a delta against the previous revision
+    public boolean isSnapshot() { return snapshot; }
+    public int getStoredBytes() { return storedBytes; }
+}
@@ -0,0 +1,140 @@
+package com.kelo.noteapp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compact edit script turning one text into another, for note revisions.
+ *
+ * The base text is indexed in BLOCK-sized pieces; the target is scanned for runs that
+ * match somewhere in the base (moved paragraphs included) and encoded as COPY(start,
+ * length) of the base, everything else as INSERT(chars). The op stream is deflated.
+ * Its size follows the size of the edit, not of the note.
+ */
+public final class RevisionDelta {
+
+    private static final int BLOCK = 16;
+    private static final int OP_COPY = 0;
+    private static final int OP_INSERT = 1;
+
+    private RevisionDelta() {}
+
+    public static byte[] encode(String base, String target) {
+        if (base == null) base = "";
+        if (target == null) target = "";
+
+        // First occurrence of each aligned block of the base
+        Map<Integer, Integer> index = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length(); i += BLOCK) {
+            Integer key = hash(base, i);
+            if (!index.containsKey(key)) index.put(key, i);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater))) {
+            int pos = 0;
+            int pending = 0;
+            while (pos + BLOCK <= target.length()) {
+                Integer start = index.get(hash(target, pos));
+                if (start == null || !base.regionMatches(start, target, pos, BLOCK)) {
+                    pos++;
+                    continue;
+                }
+                // Grow the match both ways, backwards only into text not yet emitted
+                int baseStart = start;
+                int targetStart = pos;
+                while (targetStart > pending && baseStart > 0
+                        && base.charAt(baseStart - 1) == target.charAt(targetStart - 1)) {
+                    baseStart--;
+                    targetStart--;
+                }
+                int baseEnd = start + BLOCK;
+                int targetEnd = pos + BLOCK;
+                while (baseEnd < base.length() && targetEnd < target.length()
+                        && base.charAt(baseEnd) == target.charAt(targetEnd)) {
+                    baseEnd++;
+                    targetEnd++;
+                }
+                if (targetStart > pending) writeInsert(out, target, pending, targetStart);
+                out.writeByte(OP_COPY);
+                writeVarint(out, baseStart);
+                writeVarint(out, baseEnd - baseStart);
+                pos = pending = targetEnd;
+            }
+            if (pending < target.length()) writeInsert(out, target, pending, target.length());
+        } catch (IOException e) {
+            // In-memory streams don't fail
+            throw new IllegalStateException(e);
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    public static String apply(String base, byte[] delta) {
+        if (base == null) base = "";
+        StringBuilder sb = new StringBuilder(base.length());
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(delta)))) {
+            while (true) {
+                int op = in.read();
+                if (op < 0) break;
+                if (op == OP_COPY) {
+                    int start = readVarint(in);
+                    sb.append(base, start, start + readVarint(in));
+                } else if (op == OP_INSERT) {
+                    int n = readVarint(in);
+                    for (int i = 0; i < n; i++) sb.append(in.readChar());
+                } else {
+                    throw new IllegalStateException("Corrupted revision delta");
+                }
+            }
+        } catch (IOException | IndexOutOfBoundsException e) {
+            throw new IllegalStateException("Corrupted revision delta", e);
+        }
+        return sb.toString();
+    }
+
+    // UTF-16 units as they are: a run may start or end inside a surrogate pair
+    private static void writeInsert(DataOutputStream out, String text, int from, int to) throws IOException {
+        out.writeByte(OP_INSERT);
+        writeVarint(out, to - from);
+        for (int i = from; i < to; i++) out.writeChar(text.charAt(i));
+    }
+
+    private static int hash(String s, int from) {
+        int h = 0;
+        for (int i = from; i < from + BLOCK; i++) h = 31 * h + s.charAt(i);
+        return h;
+    }
+
+    private static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.read();
+            if (b < 0) throw new EOFException();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Varint too long");
+    }
+}
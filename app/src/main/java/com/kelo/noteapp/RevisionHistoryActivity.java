@@ -0,0 +1,154 @@
+package com.kelo.noteapp;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.view.LayoutInflater;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.Toolbar;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Saved versions of one note, newest first. Opening a version rebuilds its text from the
+// nearest snapshot; "Восстановить" hands the version back to the editor, which only
+// writes it (as a new revision) when the user saves.
+public class RevisionHistoryActivity extends AppCompatActivity {
+
+    public static final String EXTRA_NOTE_ID = "note_id";
+    // Result: the chosen revision and its title
+    public static final String EXTRA_REV = "rev";
+    public static final String EXTRA_TITLE = "title";
+
+    private RecyclerView recyclerView;
+    private TextView emptyView;
+    private DatabaseHelper databaseHelper;
+    private int noteId;
+    private final List<Revision> revisions = new ArrayList<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_revision_history);
+
+        Toolbar toolbar = findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+            getSupportActionBar().setTitle("История версий");
+        }
+
+        recyclerView = findViewById(R.id.recyclerView);
+        emptyView = findViewById(R.id.emptyView);
+        databaseHelper = new DatabaseHelper(this);
+        noteId = getIntent().getIntExtra(EXTRA_NOTE_ID, -1);
+
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        final RevisionAdapter adapter = new RevisionAdapter();
+        recyclerView.setAdapter(adapter);
+
+        executor.execute(() -> {
+            List<Revision> list = databaseHelper.getRevisions(noteId);
+            runOnUiThread(() -> {
+                if (isFinishing()) return;
+                revisions.addAll(list);
+                adapter.notifyDataSetChanged();
+                boolean empty = revisions.isEmpty();
+                recyclerView.setVisibility(empty ? View.GONE : View.VISIBLE);
+                emptyView.setVisibility(empty ? View.VISIBLE : View.GONE);
+            });
+        });
+    }
+
+    private void openRevision(final Revision revision) {
+        executor.execute(() -> {
+            String content = databaseHelper.getRevisionContent(noteId, revision.getRev());
+            runOnUiThread(() -> {
+                if (isFinishing()) return;
+                new AlertDialog.Builder(this)
+                        .setTitle(revision.getTitle())
+                        .setMessage(content == null || content.isEmpty() ? "Без текста" : content)
+                        .setPositiveButton("Восстановить", (dialog, which) -> {
+                            Intent result = new Intent();
+                            result.putExtra(EXTRA_REV, revision.getRev());
+                            result.putExtra(EXTRA_TITLE, revision.getTitle());
+                            setResult(RESULT_OK, result);
+                            finish();
+                        })
+                        .setNegativeButton("Закрыть", null)
+                        .show();
+            });
+        });
+    }
+
+    private static String formatSize(int bytes) {
+        return bytes < 1024 ? bytes + " Б" : String.format(Locale.US, "%.1f КБ", bytes / 1024.0);
+    }
+
+    private class RevisionAdapter extends RecyclerView.Adapter<RevisionAdapter.ViewHolder> {
+
+        private final SimpleDateFormat dateFormat = new SimpleDateFormat("dd MMM yyyy, HH:mm", new Locale("ru"));
+
+        @NonNull
+        @Override
+        public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            View view = LayoutInflater.from(parent.getContext())
+                    .inflate(android.R.layout.simple_list_item_2, parent, false);
+            return new ViewHolder(view);
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+            final Revision revision = revisions.get(position);
+            holder.title.setText(dateFormat.format(new Date(revision.getCreatedAt())) + " · " + revision.getTitle());
+            holder.details.setText((revision.isSnapshot() ? "Полная копия" : "Изменения") +
+                    " · " + formatSize(revision.getStoredBytes()));
+            holder.itemView.setOnClickListener(v -> openRevision(revision));
+        }
+
+        @Override
+        public int getItemCount() {
+            return revisions.size();
+        }
+
+        class ViewHolder extends RecyclerView.ViewHolder {
+            final TextView title;
+            final TextView details;
+
+            ViewHolder(View itemView) {
+                super(itemView);
+                title = itemView.findViewById(android.R.id.text1);
+                details = itemView.findViewById(android.R.id.text2);
+            }
+        }
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == android.R.id.home) {
+            onBackPressed();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        executor.shutdown();
+    }
+}
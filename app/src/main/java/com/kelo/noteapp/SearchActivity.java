@@ -32,6 +32,7 @@ public class SearchActivity extends AppCompatActivity implements NoteAdapter.OnN
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        if (MigrationActivity.redirectIfUpgradePending(this)) return;
         setContentView(R.layout.activity_search);
 
         // Настройка toolbar
@@ -53,7 +54,7 @@ public class SearchActivity extends AppCompatActivity implements NoteAdapter.OnN
         recyclerView.setHasFixedSize(true);
 
         // Загрузка всех заметок
-        allNotes = databaseHelper.getAllNotes();
+        allNotes = databaseHelper.getAllNotesWithContent();
         filteredNotes = new ArrayList<>();
 
         // Настройка адаптера
@@ -93,7 +94,7 @@ public class SearchActivity extends AppCompatActivity implements NoteAdapter.OnN
     public void onPinClick(int position) {
         Note note = filteredNotes.get(position);
         note.setPinned(!note.isPinned());
-        databaseHelper.updateNote(note);
+        databaseHelper.updateNotePinned(note.getId(), note.isPinned());
 
         // Пересортировать список: закрепленные сверху
         java.util.Collections.sort(filteredNotes, (a, b) -> {
@@ -115,7 +116,7 @@ public class SearchActivity extends AppCompatActivity implements NoteAdapter.OnN
 
             for (Note note : allNotes) {
                 if (note.getTitle().toLowerCase().contains(lowerQuery) ||
-                        note.getContent().toLowerCase().contains(lowerQuery)) {
+                        (note.getContent() != null && note.getContent().toLowerCase().contains(lowerQuery))) {
                     filteredNotes.add(note);
                 }
             }
@@ -147,7 +148,7 @@ public class SearchActivity extends AppCompatActivity implements NoteAdapter.OnN
         Intent intent = new Intent(SearchActivity.this, AddEditNoteActivity.class);
         intent.putExtra("note_id", note.getId());
         intent.putExtra("note_title", note.getTitle());
-        intent.putExtra("note_content", note.getContent());
+        intent.putExtra("note_content", note.getPreview());
         intent.putExtra("note_reminder", note.getReminderTime());
         startActivity(intent);
         finish();
@@ -171,7 +172,7 @@ public class SearchActivity extends AppCompatActivity implements NoteAdapter.OnN
     public void onCompleteClick(int position) {
         Note note = filteredNotes.get(position);
         note.setCompleted(!note.isCompleted());
-        databaseHelper.updateNote(note);
+        databaseHelper.updateNoteCompleted(note);
         noteAdapter.notifyItemChanged(position);
     }
 
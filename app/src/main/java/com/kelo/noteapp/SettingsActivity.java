@@ -4,10 +4,14 @@ import android.app.AlertDialog;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.net.Uri;
 import android.os.Bundle;
+import android.text.InputType;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.CompoundButton;
+import android.widget.EditText;
+import android.widget.LinearLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -17,6 +21,19 @@ import androidx.appcompat.widget.Toolbar;
 
 import com.google.android.material.switchmaterial.SwitchMaterial;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 public class SettingsActivity extends AppCompatActivity {
 
     private static final String PREFS_NAME = "NotesAppPrefs";
@@ -28,6 +45,8 @@ public class SettingsActivity extends AppCompatActivity {
     private static final String KEY_TIME_24H = "time_24h";
     private static final String KEY_TRASH_AUTO_DELETE_DAYS = "trash_auto_delete_days";
 
+    private static final int EXPORT_REQUEST = 300;
+
     private SharedPreferences preferences;
 
     private SwitchMaterial switchDarkMode;
@@ -40,8 +59,14 @@ public class SettingsActivity extends AppCompatActivity {
     private TextView textNotesCount;
     private TextView textTrashAutoDelete;
     private TextView textTrashCount;
+    private TextView textArchiveCount;
+    private TextView textArchiveAfter;
+    private TextView textSync;
+    private TextView textDbProfile;
+    private TextView textDbBenchmark;
 
     private DatabaseHelper databaseHelper;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -77,6 +102,11 @@ public class SettingsActivity extends AppCompatActivity {
         textNotesCount = findViewById(R.id.textNotesCount);
         textTrashAutoDelete = findViewById(R.id.textTrashAutoDelete);
         textTrashCount = findViewById(R.id.textTrashCount);
+        textArchiveCount = findViewById(R.id.textArchiveCount);
+        textArchiveAfter = findViewById(R.id.textArchiveAfter);
+        textSync = findViewById(R.id.textSync);
+        textDbProfile = findViewById(R.id.textDbProfile);
+        textDbBenchmark = findViewById(R.id.textDbBenchmark);
     }
 
     private void setupClickListeners() {
@@ -178,6 +208,28 @@ public class SettingsActivity extends AppCompatActivity {
             });
         }
 
+        // Archived completed notes
+        View layoutCompleted = findViewById(R.id.layoutCompleted);
+        if (layoutCompleted != null) {
+            layoutCompleted.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    startActivity(new Intent(SettingsActivity.this, CompletedActivity.class));
+                }
+            });
+        }
+
+        // Archive age
+        View layoutArchiveAfter = findViewById(R.id.layoutArchiveAfter);
+        if (layoutArchiveAfter != null) {
+            layoutArchiveAfter.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    showArchiveAfterDialog();
+                }
+            });
+        }
+
         // Export
         View layoutExport = findViewById(R.id.layoutExport);
         if (layoutExport != null) {
@@ -211,6 +263,39 @@ public class SettingsActivity extends AppCompatActivity {
             });
         }
 
+        // Sync server
+        View layoutSync = findViewById(R.id.layoutSync);
+        if (layoutSync != null) {
+            layoutSync.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    showSyncDialog();
+                }
+            });
+        }
+
+        // Developer: database profile
+        View layoutDbProfile = findViewById(R.id.layoutDbProfile);
+        if (layoutDbProfile != null) {
+            layoutDbProfile.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    showDbProfileDialog();
+                }
+            });
+        }
+
+        // Developer: database benchmark
+        View layoutDbBenchmark = findViewById(R.id.layoutDbBenchmark);
+        if (layoutDbBenchmark != null) {
+            layoutDbBenchmark.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    runDbBenchmark();
+                }
+            });
+        }
+
         // About
         View layoutAbout = findViewById(R.id.layoutAbout);
         if (layoutAbout != null) {
@@ -234,6 +319,8 @@ public class SettingsActivity extends AppCompatActivity {
         int defaultReminder = preferences.getInt(KEY_DEFAULT_REMINDER, 0);
         boolean time24h = preferences.getBoolean(KEY_TIME_24H, true);
         int trashDays = preferences.getInt(KEY_TRASH_AUTO_DELETE_DAYS, 30);
+        int archiveDays = preferences.getInt(MaintenanceTask.KEY_ARCHIVE_COMPLETED_DAYS,
+                MaintenanceTask.DEFAULT_ARCHIVE_COMPLETED_DAYS);
 
         if (switchDarkMode != null) switchDarkMode.setChecked(darkMode);
         if (switchSound != null) switchSound.setChecked(sound);
@@ -262,6 +349,202 @@ public class SettingsActivity extends AppCompatActivity {
                 textTrashAutoDelete.setText(trashDays + " дней");
             }
         }
+
+        // Archive age label
+        if (textArchiveAfter != null) {
+            textArchiveAfter.setText(archiveDays == 0 ? "Никогда" : "Через " + archiveDays + " дней");
+        }
+
+        updateSyncLabel();
+
+        // Database profile label
+        if (textDbProfile != null) {
+            textDbProfile.setText(DbProfile.fromPrefs(this).displayName);
+        }
+    }
+
+    private void updateSyncLabel() {
+        if (textSync == null) return;
+        String url = preferences.getString(SyncEngine.KEY_SERVER_URL, "");
+        long last = preferences.getLong(SyncEngine.KEY_LAST_SYNC, 0);
+        if (url.isEmpty()) {
+            textSync.setText("Не настроен");
+        } else if (!SyncEngine.isAllowedUrl(this, url)) {
+            textSync.setText(url + "\nНужен адрес https://");
+        } else if (last == 0) {
+            textSync.setText(url);
+        } else {
+            textSync.setText(url + "\nПоследняя синхронизация: " +
+                    DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT).format(new Date(last)));
+        }
+    }
+
+    private void showSyncDialog() {
+        final EditText input = new EditText(this);
+        input.setHint("https://notes.example.org");
+        input.setSingleLine(true);
+        input.setText(preferences.getString(SyncEngine.KEY_SERVER_URL, ""));
+
+        // The server's access token, sent with every request
+        final EditText token = new EditText(this);
+        token.setHint("Токен доступа");
+        token.setSingleLine(true);
+        token.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_PASSWORD);
+        token.setText(preferences.getString(SyncEngine.KEY_AUTH_TOKEN, ""));
+
+        LinearLayout fields = new LinearLayout(this);
+        fields.setOrientation(LinearLayout.VERTICAL);
+        int pad = Math.round(20 * getResources().getDisplayMetrics().density);
+        fields.setPadding(pad, 0, pad, 0);
+        fields.addView(input);
+        fields.addView(token);
+
+        new AlertDialog.Builder(this)
+                .setTitle("Сервер синхронизации")
+                .setView(fields)
+                .setPositiveButton("Синхронизировать", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if (saveSyncUrl(input.getText().toString(), token.getText().toString())) runSync();
+                    }
+                })
+                .setNeutralButton("Сохранить", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        saveSyncUrl(input.getText().toString(), token.getText().toString());
+                    }
+                })
+                .setNegativeButton("Отмена", null)
+                .show();
+    }
+
+    // False, with nothing saved, for an address the engine would refuse or fail on
+    private boolean saveSyncUrl(String url, String token) {
+        url = url.trim();
+        if (!url.isEmpty() && !SyncEngine.isAllowedUrl(this, url)) {
+            Toast.makeText(this, "Нужен адрес вида https://сервер", Toast.LENGTH_LONG).show();
+            return false;
+        }
+        preferences.edit()
+                .putString(SyncEngine.KEY_SERVER_URL, url)
+                .putString(SyncEngine.KEY_AUTH_TOKEN, token.trim())
+                .apply();
+        updateSyncLabel();
+        return true;
+    }
+
+    private void runSync() {
+        final SyncEngine engine = SyncEngine.fromPrefs(getApplicationContext());
+        if (engine == null) {
+            Toast.makeText(this, "Укажите адрес сервера https://", Toast.LENGTH_LONG).show();
+            return;
+        }
+        Toast.makeText(this, "Синхронизация…", Toast.LENGTH_SHORT).show();
+        executor.execute(() -> {
+            String message;
+            try {
+                SyncEngine.Result result = engine.sync();
+                message = "Отправлено: " + result.pushed + ", получено: " + result.pulled;
+            } catch (Exception e) {
+                message = "Ошибка синхронизации: " + e.getMessage();
+            }
+            final String text = message;
+            runOnUiThread(() -> {
+                if (isFinishing()) return;
+                Toast.makeText(SettingsActivity.this, text, Toast.LENGTH_LONG).show();
+                updateSyncLabel();
+                updateCounts();
+            });
+        });
+    }
+
+    private void showDbProfileDialog() {
+        final DbProfile[] presets = DbProfile.PRESETS;
+        final String[] options = new String[presets.length];
+        DbProfile current = DbProfile.fromPrefs(this);
+        int checked = 0;
+        for (int i = 0; i < presets.length; i++) {
+            options[i] = presets[i].displayName;
+            if (presets[i] == current) checked = i;
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle("Профиль базы данных")
+                .setSingleChoiceItems(options, checked, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        // Picked up on the next database open; page size only for a new database
+                        preferences.edit().putString(DbProfile.KEY_DB_PROFILE, presets[which].key).apply();
+                        if (textDbProfile != null) textDbProfile.setText(options[which]);
+                        dialog.dismiss();
+                    }
+                })
+                .setNegativeButton("Отмена", null)
+                .show();
+    }
+
+    private void runDbBenchmark() {
+        final AlertDialog progress = new AlertDialog.Builder(this)
+                .setTitle("Тест производительности БД")
+                .setMessage("Идёт замер, это может занять до минуты…")
+                .setCancelable(false)
+                .show();
+
+        executor.execute(() -> {
+            String error = null;
+            try {
+                DbBenchmark.runAll(getApplicationContext());
+            } catch (Exception e) {
+                error = e.getMessage();
+            }
+            final String failure = error;
+            runOnUiThread(() -> {
+                if (isFinishing()) return;
+                progress.dismiss();
+                if (failure != null) {
+                    Toast.makeText(SettingsActivity.this, "Ошибка теста: " + failure, Toast.LENGTH_LONG).show();
+                    return;
+                }
+                showDbBenchmarkResults();
+            });
+        });
+    }
+
+    private void showDbBenchmarkResults() {
+        StringBuilder sb = new StringBuilder();
+        for (DbProfile p : DbProfile.PRESETS) {
+            String result = DbBenchmark.getLastResult(this, p);
+            sb.append(p.displayName).append(":\n")
+                    .append(result != null ? result : "нет данных")
+                    .append("\n\n");
+        }
+        String compression = DbBenchmark.getLastCompressionResult(this);
+        if (compression != null) sb.append(compression);
+        new AlertDialog.Builder(this)
+                .setTitle("Результаты теста")
+                .setMessage(sb.toString().trim())
+                .setPositiveButton("OK", null)
+                .show();
+    }
+
+    private void showArchiveAfterDialog() {
+        final String[] options = {"Никогда", "Через 7 дней", "Через 30 дней", "Через 90 дней"};
+        final int[] values = {0, 7, 30, 90};
+
+        new AlertDialog.Builder(this)
+                .setTitle("Архивировать выполненные")
+                .setItems(options, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        preferences.edit().putInt(MaintenanceTask.KEY_ARCHIVE_COMPLETED_DAYS, values[which]).apply();
+                        if (textArchiveAfter != null) textArchiveAfter.setText(options[which]);
+                        // Apply the new age right away in the background
+                        if (values[which] > 0) MaintenanceTask.runNow(SettingsActivity.this);
+                        dialog.dismiss();
+                    }
+                })
+                .setNegativeButton("Отмена", null)
+                .show();
     }
 
     // AUTO-DELETE DIALOG - FIXED VERSION THAT WILL DEFINITELY WORK!
@@ -384,8 +667,9 @@ public class SettingsActivity extends AppCompatActivity {
     }
 
     private void updateCounts() {
-        int notesCount = databaseHelper.getAllNotes().size();
-        int trashCount = databaseHelper.getTrashCount();
+        NoteStats stats = databaseHelper.getStats();
+        int notesCount = stats.getTotal();
+        int trashCount = stats.getTrashed();
 
         if (textNotesCount != null) {
             textNotesCount.setText("Всего заметок: " + notesCount);
@@ -393,11 +677,60 @@ public class SettingsActivity extends AppCompatActivity {
         if (textTrashCount != null) {
             textTrashCount.setText("В корзине: " + trashCount);
         }
+        if (textArchiveCount != null) {
+            textArchiveCount.setText("В архиве: " + databaseHelper.getArchiveCount());
+        }
     }
 
     private void exportNotes() {
-        // Implement export functionality
-        Toast.makeText(this, "Экспорт заметок (в разработке)", Toast.LENGTH_SHORT).show();
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("text/plain");
+        intent.putExtra(Intent.EXTRA_TITLE,
+                "notes_" + new SimpleDateFormat("yyyyMMdd", Locale.US).format(new Date()) + ".txt");
+        startActivityForResult(intent, EXPORT_REQUEST);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == EXPORT_REQUEST && resultCode == RESULT_OK && data != null && data.getData() != null) {
+            writeExport(data.getData());
+        }
+    }
+
+    // Plain text, one note after another. Bodies are streamed chunk by chunk, so a
+    // multi-megabyte note is never held in memory in one piece.
+    private void writeExport(final Uri uri) {
+        executor.execute(() -> {
+            int exported = 0;
+            String error = null;
+            try {
+                OutputStream stream = getContentResolver().openOutputStream(uri);
+                if (stream == null) throw new IOException("Не удалось открыть файл");
+                try (Writer out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8))) {
+                    for (Note n : databaseHelper.getAllNotes()) {
+                        out.write(n.getTitle());
+                        out.write("\n\n");
+                        databaseHelper.writeNoteContent(n.getId(), out);
+                        out.write("\n\n----------\n\n");
+                        exported++;
+                    }
+                }
+            } catch (IOException | SecurityException e) {
+                error = e.getMessage();
+            }
+            final String failure = error;
+            final int count = exported;
+            runOnUiThread(() -> {
+                if (isFinishing()) return;
+                if (failure != null) {
+                    Toast.makeText(SettingsActivity.this, "Ошибка экспорта: " + failure, Toast.LENGTH_LONG).show();
+                } else {
+                    Toast.makeText(SettingsActivity.this, "Экспортировано заметок: " + count, Toast.LENGTH_SHORT).show();
+                }
+            });
+        });
     }
 
     private void importNotes() {
@@ -447,4 +780,10 @@ public class SettingsActivity extends AppCompatActivity {
         super.onResume();
         updateCounts(); // Refresh counts when returning to settings
     }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        executor.shutdown();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,93 @@
+package com.kelo.noteapp;
+
+// Keys of the manual note order (notes.sort_key). A key is a string of base-62 digits
+// read as a fraction in [0, 1), so there is always room for another key between any two:
+// a dragged note gets a key between its new neighbours and no other row changes.
+// Digits are ASCII-ordered, so SQLite's BINARY collation and String.compareTo agree
+// with the numeric order. Keys never end in '0' (that would equal the shorter key).
+public final class SortKeys {
+
+    private static final String DIGITS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+    private static final int BASE = DIGITS.length();
+
+    // Past this length a folder's keys are respaced (see DatabaseHelper.rebalanceSortKeys).
+    // Repeated drags into one gap add a digit every ~6 moves, new notes on top every ~60.
+    public static final int REBALANCE_LENGTH = 16;
+
+    private SortKeys() {}
+
+    public static boolean needsRebalance(String key) {
+        return key != null && key.length() > REBALANCE_LENGTH;
+    }
+
+    // A key strictly between a and b; null means no neighbour on that side
+    public static String between(String a, String b) {
+        if (a == null && b == null) return String.valueOf(DIGITS.charAt(BASE / 2));
+        if (a == null) return before(b);
+        if (b == null) return after(a);
+        if (a.compareTo(b) >= 0) throw new IllegalArgumentException(a + " >= " + b);
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; ; i++) {
+            int da = i < a.length() ? digit(a.charAt(i)) : 0;
+            int db = i < b.length() ? digit(b.charAt(i)) : 0;
+            if (da == db) {
+                out.append(DIGITS.charAt(da));
+                continue;
+            }
+            // First differing digit (da < db): the midpoint if there is one, otherwise keep
+            // a's digit and go just past the rest of a, which stays below b
+            if (db - da > 1) return out.append(DIGITS.charAt((da + db) / 2)).toString();
+            out.append(DIGITS.charAt(da));
+            return out.append(after(i + 1 < a.length() ? a.substring(i + 1) : "")).toString();
+        }
+    }
+
+    // Smaller than b. Steps the leading digit down rather than halving, so a run of new
+    // notes on top grows the key by one digit per BASE inserts, not per six.
+    private static String before(String b) {
+        int d = digit(b.charAt(0));
+        if (d > 1) return String.valueOf(DIGITS.charAt(d - 1));
+        if (d == 1) return "0" + DIGITS.charAt(BASE - 1);
+        return "0" + before(b.substring(1));
+    }
+
+    // Greater than a, by the same stepping. Past the end of a (a prefix of b in between)
+    // it starts mid-range, so the next key into that gap can still halve it.
+    private static String after(String a) {
+        if (a.isEmpty()) return String.valueOf(DIGITS.charAt(BASE / 2));
+        int d = digit(a.charAt(0));
+        if (d < BASE - 1) return String.valueOf(DIGITS.charAt(d + 1));
+        return DIGITS.charAt(BASE - 1) + after(a.substring(1));
+    }
+
+    // count evenly spaced ascending keys, all of one short length, leaving room at both ends
+    public static String[] spread(int count) {
+        int length = 1;
+        long span = BASE;
+        while (span < 16L * (count + 1)) {
+            span *= BASE;
+            length++;
+        }
+        long step = span / (count + 1);
+        String[] keys = new String[count];
+        char[] buf = new char[length];
+        for (int i = 0; i < count; i++) {
+            long value = (i + 1) * step;
+            for (int p = length - 1; p >= 0; p--) {
+                buf[p] = DIGITS.charAt((int) (value % BASE));
+                value /= BASE;
+            }
+            int end = length;
+            while (buf[end - 1] == '0') end--;
+            keys[i] = new String(buf, 0, end);
+        }
+        return keys;
+    }
+
+    private static int digit(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'A' && c <= 'Z') return c - 'A' + 10;
+        if (c >= 'a' && c <= 'z') return c - 'a' + 36;
+        throw new IllegalArgumentException("Not a sort key digit: " + c);
+    }
+}
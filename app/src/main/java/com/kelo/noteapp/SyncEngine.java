@@ -0,0 +1,347 @@
+package com.kelo.noteapp;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Delta sync with a notes sync server over HTTPS, gzip-compressed JSON both ways. Every
+ * request carries the server's access token as a bearer Authorization header.
+ *
+ * Push follows the note_changes journal from a saved cursor and sends the current
+ * state of each changed note (one per note per batch), so the cost tracks the number
+ * of changed notes rather than the size of the database. Pull asks the server for
+ * everything after its own saved cursor. Conflicts resolve last-writer-wins on
+ * updated_at; deletions travel as tombstones. Both cursors are saved after every
+ * batch, so an interrupted sync resumes where it stopped, and re-applying a batch
+ * is harmless because an equal updated_at never overwrites.
+ *
+ * Blocking; call off the UI thread.
+ */
+public final class SyncEngine {
+
+    private static final String PREFS_NAME = "NotesAppPrefs";
+    public static final String KEY_SERVER_URL = "sync_server_url";
+    public static final String KEY_AUTH_TOKEN = "sync_auth_token";
+    public static final String KEY_LAST_SYNC = "sync_last_run";
+    private static final String KEY_DEVICE_ID = "sync_device_id";
+    // Last journal seq pushed (-1 = never: send everything once)
+    private static final String KEY_PUSH_SEQ = "sync_push_seq";
+    // Server seq of the last change pulled
+    private static final String KEY_PULL_SEQ = "sync_pull_seq";
+    // Progress of an unfinished full push: journal head it started at, last note id sent
+    private static final String KEY_FULL_PUSH_HEAD = "sync_full_push_head";
+    private static final String KEY_FULL_PUSH_AFTER = "sync_full_push_after";
+
+    static final int BATCH_SIZE = 100;
+    private static final int TIMEOUT_MS = 15_000;
+
+    public static final class Result {
+        public final int pushed;
+        public final int pulled;
+
+        Result(int pushed, int pulled) {
+            this.pushed = pushed;
+            this.pulled = pulled;
+        }
+    }
+
+    private final DatabaseHelper db;
+    private final String serverUrl;
+    private final String authToken;
+    private final SharedPreferences prefs;
+    // Categories travel by key, stored locally by code; refreshed at the start of each sync
+    private final Map<Integer, String> categoryKeys = new HashMap<>();
+    private final Map<String, Integer> categoryCodes = new HashMap<>();
+    private final Set<String> folderKeys = new HashSet<>();
+
+    // Null when no server is configured, or the saved address is not one this build may use
+    public static SyncEngine fromPrefs(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String url = prefs.getString(KEY_SERVER_URL, null);
+        if (url == null || !isAllowedUrl(context, url.trim())) return null;
+        return new SyncEngine(new DatabaseHelper(context), url.trim(), prefs.getString(KEY_AUTH_TOKEN, ""), prefs);
+    }
+
+    // Note bodies travel in the clear over plain http, so it is only accepted from debug
+    // builds (a test server on the local network); those are also the only builds whose
+    // network security config lets it through
+    public static boolean isAllowedUrl(Context context, String url) {
+        String protocol;
+        try {
+            protocol = new URL(url).getProtocol();
+        } catch (MalformedURLException e) {
+            return false;
+        }
+        if ("https".equals(protocol)) return true;
+        return "http".equals(protocol)
+                && (context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+    }
+
+    SyncEngine(DatabaseHelper db, String serverUrl, String authToken, SharedPreferences prefs) {
+        this.db = db;
+        this.serverUrl = serverUrl.endsWith("/") ? serverUrl.substring(0, serverUrl.length() - 1) : serverUrl;
+        this.authToken = authToken;
+        this.prefs = prefs;
+    }
+
+    public synchronized Result sync() throws IOException {
+        loadKeys();
+        int pushed = push();
+        int pulled = pull();
+        prefs.edit().putLong(KEY_LAST_SYNC, System.currentTimeMillis()).apply();
+        return new Result(pushed, pulled);
+    }
+
+    // ===== PUSH =====
+    private int push() throws IOException {
+        long cursor = prefs.getLong(KEY_PUSH_SEQ, -1);
+        int pushed = 0;
+        // First sync, or the journal was truncated past our cursor: send every note once
+        if (cursor < 0 || cursor < db.getOldestChangeSeq() - 1) {
+            pushed += pushAll();
+            cursor = prefs.getLong(KEY_PUSH_SEQ, -1);
+        }
+        while (true) {
+            List<NoteChange> changes = db.getChangesSince(cursor, BATCH_SIZE);
+            if (changes.isEmpty()) break;
+            Map<String, Note> states = new LinkedHashMap<>();
+            Set<String> seen = new HashSet<>();
+            for (NoteChange change : changes) {
+                String syncId = change.getSyncId();
+                if (syncId == null || !seen.add(syncId)) continue;
+                Note state = db.getSyncState(syncId, change.getChangedAt());
+                if (state != null) states.put(syncId, state);
+            }
+            if (!states.isEmpty()) postNotes(states.values());
+            pushed += states.size();
+            cursor = changes.get(changes.size() - 1).getSeq();
+            prefs.edit().putLong(KEY_PUSH_SEQ, cursor).commit();
+        }
+        return pushed;
+    }
+
+    // Journal entries after the recorded head are pushed as deltas afterwards
+    private int pushAll() throws IOException {
+        long head = prefs.getLong(KEY_FULL_PUSH_HEAD, -1);
+        if (head < 0) {
+            head = db.getLatestChangeSeq();
+            prefs.edit().putLong(KEY_FULL_PUSH_HEAD, head).putInt(KEY_FULL_PUSH_AFTER, 0).commit();
+        }
+        int afterId = prefs.getInt(KEY_FULL_PUSH_AFTER, 0);
+        int pushed = 0;
+        while (true) {
+            List<Note> page = db.getNotesForSync(afterId, BATCH_SIZE);
+            if (page.isEmpty()) break;
+            postNotes(page);
+            pushed += page.size();
+            afterId = page.get(page.size() - 1).getId();
+            prefs.edit().putInt(KEY_FULL_PUSH_AFTER, afterId).commit();
+        }
+        List<Note> tombstones = new ArrayList<>();
+        for (Note trashed : db.getTrashNotes()) {
+            if (trashed.getSyncId() != null) {
+                tombstones.add(Note.tombstone(trashed.getSyncId(), trashed.getDeletedAt()));
+            }
+        }
+        for (int i = 0; i < tombstones.size(); i += BATCH_SIZE) {
+            postNotes(tombstones.subList(i, Math.min(i + BATCH_SIZE, tombstones.size())));
+        }
+        pushed += tombstones.size();
+        prefs.edit()
+                .putLong(KEY_PUSH_SEQ, head)
+                .remove(KEY_FULL_PUSH_HEAD)
+                .remove(KEY_FULL_PUSH_AFTER)
+                .commit();
+        return pushed;
+    }
+
+    private void postNotes(Collection<Note> notes) throws IOException {
+        try {
+            JSONArray array = new JSONArray();
+            for (Note n : notes) array.put(toJson(n));
+            JSONObject body = new JSONObject();
+            body.put("device", deviceId());
+            body.put("notes", array);
+            request("POST", "/sync/push", body);
+        } catch (JSONException e) {
+            throw new IOException("Cannot encode sync batch", e);
+        }
+    }
+
+    // ===== PULL =====
+    private int pull() throws IOException {
+        long since = prefs.getLong(KEY_PULL_SEQ, 0);
+        int pulled = 0;
+        try {
+            while (true) {
+                JSONObject page = request("GET", "/sync/pull?since=" + since + "&limit=" + BATCH_SIZE +
+                        "&device=" + URLEncoder.encode(deviceId(), "UTF-8"), null);
+                JSONArray array = page.getJSONArray("notes");
+                List<Note> notes = new ArrayList<>();
+                for (int i = 0; i < array.length(); i++) notes.add(fromJson(array.getJSONObject(i)));
+
+                long pushCursor = db.applyRemoteNotes(notes, prefs.getLong(KEY_PUSH_SEQ, -1));
+                since = page.getLong("next");
+                prefs.edit().putLong(KEY_PULL_SEQ, since).putLong(KEY_PUSH_SEQ, pushCursor).commit();
+                pulled += notes.size();
+                if (!page.optBoolean("more", false)) break;
+            }
+        } catch (JSONException e) {
+            throw new IOException("Malformed sync response", e);
+        }
+        return pulled;
+    }
+
+    // ===== WIRE FORMAT =====
+    // Category codes and folder keys as they are before this sync pulls anything
+    private void loadKeys() {
+        categoryKeys.clear();
+        categoryCodes.clear();
+        for (Category c : db.getCategories()) {
+            if (c.getKey() == null) continue;
+            categoryKeys.put(c.getId(), c.getKey());
+            categoryCodes.put(c.getKey(), c.getId());
+        }
+        folderKeys.clear();
+        for (Folder f : db.getFolders()) folderKeys.add(f.getKey());
+    }
+
+    // A key this device hasn't seen arrives as a new user category named after it
+    private int categoryCode(String key) {
+        Integer code = categoryCodes.get(key);
+        if (code == null) {
+            code = db.addCategory(key, key, 0, false);
+            categoryKeys.put(code, key);
+            categoryCodes.put(key, code);
+        }
+        return code;
+    }
+
+    JSONObject toJson(Note n) throws JSONException {
+        JSONObject o = new JSONObject();
+        o.put("sync_id", n.getSyncId());
+        o.put("updated_at", n.getUpdatedAt());
+        if (n.isDeleted()) {
+            o.put("deleted", true);
+            return o;
+        }
+        o.put("title", n.getTitle());
+        o.put("content", n.getContent() == null ? "" : n.getContent());
+        o.put("created_at", n.getCreatedAt());
+        o.put("reminder_time", n.getReminderTime());
+        o.put("is_completed", n.isCompleted());
+        o.put("completed_at", n.getCompletedAt());
+        o.put("is_pinned", n.isPinned());
+        o.put("repeat_days", n.getRepeatDays());
+        String category = categoryKeys.get(n.getCategoryId());
+        o.put("category", category != null ? category : "personal");
+        o.put("folder", n.getFolder());
+        return o;
+    }
+
+    Note fromJson(JSONObject o) throws JSONException {
+        if (o.optBoolean("deleted", false)) {
+            return Note.tombstone(o.getString("sync_id"), o.getLong("updated_at"));
+        }
+        Note n = new Note();
+        n.setSyncId(o.getString("sync_id"));
+        n.setUpdatedAt(o.getLong("updated_at"));
+        n.setTitle(o.optString("title", ""));
+        n.setContent(o.optString("content", ""));
+        n.setCreatedAt(o.optLong("created_at"));
+        n.setReminderTime(o.optLong("reminder_time"));
+        n.setCompleted(o.optBoolean("is_completed"));
+        n.setCompletedAt(o.optLong("completed_at"));
+        n.setPinned(o.optBoolean("is_pinned"));
+        n.setRepeatDays(o.optInt("repeat_days"));
+        n.setCategoryId(categoryCode(o.optString("category", "personal")));
+        String folder = o.optString("folder", DatabaseHelper.FOLDER_MAIN);
+        // A folder created on another device gets a tab here too
+        if (folderKeys.add(folder)) db.ensureFolder(folder);
+        n.setFolder(folder);
+        return n;
+    }
+
+    private String deviceId() {
+        String id = prefs.getString(KEY_DEVICE_ID, null);
+        if (id == null) {
+            id = UUID.randomUUID().toString();
+            prefs.edit().putString(KEY_DEVICE_ID, id).commit();
+        }
+        return id;
+    }
+
+    private JSONObject request(String method, String path, JSONObject body) throws IOException {
+        URLConnection opened = new URL(serverUrl + path).openConnection();
+        // Any other scheme (file:, ftp:, jar:) would open a connection of another kind
+        if (!(opened instanceof HttpURLConnection)) throw new IOException("Not an http(s) address: " + serverUrl);
+        HttpURLConnection conn = (HttpURLConnection) opened;
+        try {
+            conn.setConnectTimeout(TIMEOUT_MS);
+            conn.setReadTimeout(TIMEOUT_MS);
+            conn.setRequestMethod(method);
+            if (!authToken.isEmpty()) conn.setRequestProperty("Authorization", "Bearer " + authToken);
+            // Set explicitly, so the response is left compressed and decoded below
+            conn.setRequestProperty("Accept-Encoding", "gzip");
+            if (body != null) {
+                conn.setDoOutput(true);
+                conn.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+                conn.setRequestProperty("Content-Encoding", "gzip");
+                try (OutputStream out = new GZIPOutputStream(conn.getOutputStream())) {
+                    out.write(body.toString().getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            int code = conn.getResponseCode();
+            if (code == HttpURLConnection.HTTP_UNAUTHORIZED || code == HttpURLConnection.HTTP_FORBIDDEN) {
+                throw new IOException("Sync server rejected the access token");
+            }
+            if (code != HttpURLConnection.HTTP_OK) throw new IOException("Sync server returned " + code + " for " + path);
+            InputStream in = conn.getInputStream();
+            if ("gzip".equalsIgnoreCase(conn.getContentEncoding())) in = new GZIPInputStream(in);
+            try {
+                return new JSONObject(readAll(in));
+            } catch (JSONException e) {
+                throw new IOException("Malformed sync response", e);
+            } finally {
+                in.close();
+            }
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[16 * 1024];
+        int n;
+        while ((n = in.read(buf)) > 0) out.write(buf, 0, n);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,16 @@
+package com.kelo.noteapp;
+
+// One row of the tags table; notes link to tags through note_tags
+public class Tag {
+
+    private final int id;
+    private final String name;
+
+    public Tag(int id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    public int getId() { return id; }
+    public String getName() { return name; }
+}
@@ -0,0 +1,94 @@
+package com.kelo.noteapp;
+
+import android.util.SparseArray;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+// Tag -> note ids, one IdBitmap per tag, so the main list's tag filters are set operations
+// in memory instead of note_tags joins. Built from note_tags the first time a filter runs
+// and then kept current by DatabaseHelper's tag writes; purges that touch many notes at
+// once just drop it and let the next filter rebuild. One index per database file.
+public final class TagIndex {
+
+    private static final Map<String, SparseArray<IdBitmap>> loaded = new HashMap<>();
+
+    private TagIndex() {
+    }
+
+    // Result of a filter: notes carrying every tag of "all", at least one of "any" (when
+    // given) and none of "none". Keeps working on its own copy if the index changes later.
+    public static final class Match {
+        // null when nothing was required: every note passes unless excluded
+        private final IdBitmap include;
+        private final IdBitmap exclude;
+
+        Match(IdBitmap include, IdBitmap exclude) {
+            this.include = include;
+            this.exclude = exclude;
+        }
+
+        public boolean matches(int noteId) {
+            return (include == null || include.contains(noteId))
+                    && (exclude == null || !exclude.contains(noteId));
+        }
+    }
+
+    public static synchronized Match filter(DatabaseHelper db, Collection<Integer> all,
+                                            Collection<Integer> any, Collection<Integer> none) {
+        SparseArray<IdBitmap> byTag = loaded.get(db.getDatabaseName());
+        if (byTag == null) {
+            byTag = db.readTagBitmaps();
+            loaded.put(db.getDatabaseName(), byTag);
+        }
+        IdBitmap include = null;
+        for (int tag : all) {
+            IdBitmap b = bitmapOf(byTag, tag);
+            include = include == null ? b.copy() : IdBitmap.and(include, b);
+        }
+        if (!any.isEmpty()) {
+            IdBitmap union = new IdBitmap();
+            for (int tag : any) union = IdBitmap.or(union, bitmapOf(byTag, tag));
+            include = include == null ? union : IdBitmap.and(include, union);
+        }
+        IdBitmap exclude = null;
+        if (!none.isEmpty()) {
+            exclude = new IdBitmap();
+            for (int tag : none) exclude = IdBitmap.or(exclude, bitmapOf(byTag, tag));
+        }
+        if (include != null && exclude != null) {
+            include = IdBitmap.andNot(include, exclude);
+            exclude = null;
+        }
+        return new Match(include, exclude);
+    }
+
+    // Called after the note_tags rows of one note were committed
+    static synchronized void onNoteTagsChanged(String dbName, int noteId,
+                                               Collection<Integer> added, Collection<Integer> removed) {
+        SparseArray<IdBitmap> byTag = loaded.get(dbName);
+        if (byTag == null) return; // not built yet: the lazy load will read the new rows
+        for (int tag : added) {
+            IdBitmap b = byTag.get(tag);
+            if (b == null) {
+                b = new IdBitmap();
+                byTag.put(tag, b);
+            }
+            b.add(noteId);
+        }
+        for (int tag : removed) {
+            IdBitmap b = byTag.get(tag);
+            if (b != null) b.remove(noteId);
+        }
+    }
+
+    static synchronized void invalidate(String dbName) {
+        loaded.remove(dbName);
+    }
+
+    private static IdBitmap bitmapOf(SparseArray<IdBitmap> byTag, int tag) {
+        IdBitmap b = byTag.get(tag);
+        return b != null ? b : new IdBitmap();
+    }
+}
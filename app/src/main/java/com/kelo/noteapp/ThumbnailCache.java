@@ -0,0 +1,218 @@
+package com.kelo.noteapp;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.media.ThumbnailUtils;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Square thumbnails of image attachments for list rows, in two levels: decoded bitmaps in
+// a memory LRU bounded by bytes, and small JPEGs under cacheDir/thumbs bounded by total
+// size. Binding a row is a map lookup; anything else (disk read, or a downsampled decode of
+// the original) runs on background threads and lands on the row only if it still shows
+// that attachment. Thumbnails are keyed by content hash, so they never go stale.
+public final class ThumbnailCache {
+
+    private static ThumbnailCache instance;
+
+    private static final String DISK_DIR = "thumbs";
+    private static final long DISK_MAX_BYTES = 16L * 1024L * 1024L;
+    private static final int DISK_QUALITY = 85;
+
+    private final AttachmentStore store;
+    private final File diskDir;
+    private final LruCache<String, Bitmap> memory;
+    private final Handler main = new Handler(Looper.getMainLooper());
+    // Views waiting for each key being loaded; main thread only. Rows showing the same
+    // image share one load.
+    private final Map<String, List<ImageView>> waiting = new HashMap<>();
+    // Newest request first: after a fling, the rows now on screen are loaded before the
+    // ones scrolled past
+    private final ThreadPoolExecutor loader = new ThreadPoolExecutor(2, 2, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingDeque<Runnable>() {
+                @Override
+                public boolean offer(Runnable r) {
+                    return offerFirst(r);
+                }
+            });
+    // Bytes under diskDir, counted on first write; guarded by diskDir
+    private long diskBytes = -1;
+
+    public static synchronized ThumbnailCache get(Context context) {
+        if (instance == null) instance = new ThumbnailCache(context.getApplicationContext());
+        return instance;
+    }
+
+    private ThumbnailCache(Context context) {
+        store = new AttachmentStore(context);
+        diskDir = new File(context.getCacheDir(), DISK_DIR);
+        // An eighth of the heap: a screenful of rows is a few hundred KB at most
+        int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+        memory = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+    }
+
+    // Shows the thumbnail of hash at size x size px in view; main thread only. A miss clears
+    // the view until the load finishes.
+    public void load(ImageView view, String hash, int size) {
+        final String key = hash + "_" + size;
+        view.setTag(key);
+        Bitmap cached = memory.get(key);
+        if (cached != null) {
+            view.setImageBitmap(cached);
+            return;
+        }
+        view.setImageDrawable(null);
+        List<ImageView> views = waiting.get(key);
+        if (views != null) {
+            views.add(view);
+            return;
+        }
+        views = new ArrayList<>();
+        views.add(view);
+        waiting.put(key, views);
+        loader.execute(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            final Bitmap bitmap = loadOffMain(key, hash, size);
+            main.post(() -> deliver(key, bitmap));
+        });
+    }
+
+    // For a row without a thumbnail: a load still running for it is ignored
+    public void clear(ImageView view) {
+        view.setTag(null);
+        view.setImageDrawable(null);
+    }
+
+    private void deliver(String key, Bitmap bitmap) {
+        List<ImageView> views = waiting.remove(key);
+        if (bitmap == null) return;
+        memory.put(key, bitmap);
+        if (views == null) return;
+        for (ImageView view : views) {
+            if (key.equals(view.getTag())) view.setImageBitmap(bitmap);
+        }
+    }
+
+    // Worker thread: the disk copy, else a decode of the original that is then written out
+    private Bitmap loadOffMain(String key, String hash, int size) {
+        File cached = new File(diskDir, key + ".jpg");
+        if (cached.exists()) {
+            Bitmap bitmap = BitmapFactory.decodeFile(cached.getPath());
+            if (bitmap != null) {
+                // Trimming goes oldest-used first
+                cached.setLastModified(System.currentTimeMillis());
+                return bitmap;
+            }
+        }
+        Bitmap bitmap = decodeThumbnail(store.fileOf(hash), size);
+        if (bitmap != null) writeToDisk(cached, bitmap);
+        return bitmap;
+    }
+
+    // Decodes at the largest power-of-two reduction that still covers size, so a photo never
+    // gets into memory at full resolution, then upright and center-cropped to size x size
+    static Bitmap decodeThumbnail(File file, int size) {
+        if (!file.exists()) return null;
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize(options.outWidth, options.outHeight, size);
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap decoded = BitmapFactory.decodeFile(file.getPath(), options);
+        if (decoded == null) return null;
+        int rotation = rotationOf(file);
+        if (rotation != 0) {
+            Matrix m = new Matrix();
+            m.postRotate(rotation);
+            Bitmap rotated = Bitmap.createBitmap(decoded, 0, 0, decoded.getWidth(), decoded.getHeight(), m, true);
+            if (rotated != decoded) decoded.recycle();
+            decoded = rotated;
+        }
+        return ThumbnailUtils.extractThumbnail(decoded, size, size, ThumbnailUtils.OPTIONS_RECYCLE_INPUT);
+    }
+
+    static int sampleSize(int width, int height, int size) {
+        int sample = 1;
+        while (width / (sample * 2) >= size && height / (sample * 2) >= size) sample *= 2;
+        return sample;
+    }
+
+    // Camera photos are stored sideways with an EXIF orientation; anything else reads as 0
+    private static int rotationOf(File file) {
+        try {
+            switch (new ExifInterface(file.getPath()).getAttributeInt(
+                    ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL)) {
+                case ExifInterface.ORIENTATION_ROTATE_90:  return 90;
+                case ExifInterface.ORIENTATION_ROTATE_180: return 180;
+                case ExifInterface.ORIENTATION_ROTATE_270: return 270;
+                default:                                   return 0;
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private void writeToDisk(File file, Bitmap bitmap) {
+        synchronized (diskDir) {
+            if (!diskDir.isDirectory() && !diskDir.mkdirs()) return;
+            try (OutputStream out = new FileOutputStream(file)) {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, DISK_QUALITY, out);
+            } catch (IOException e) {
+                file.delete();
+                return;
+            }
+            if (diskBytes < 0) {
+                diskBytes = 0;
+                File[] files = diskDir.listFiles();
+                if (files != null) for (File f : files) diskBytes += f.length();
+            } else {
+                diskBytes += file.length();
+            }
+            if (diskBytes > DISK_MAX_BYTES) trimDisk();
+        }
+    }
+
+    // Least recently used first, down to three quarters of the budget
+    private void trimDisk() {
+        File[] files = diskDir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File f : files) {
+            if (diskBytes <= DISK_MAX_BYTES * 3 / 4) break;
+            long length = f.length();
+            if (f.delete()) diskBytes -= length;
+        }
+    }
+}
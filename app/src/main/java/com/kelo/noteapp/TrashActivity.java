@@ -212,10 +212,8 @@ public class TrashActivity extends AppCompatActivity implements TrashAdapter.OnT
                 .setPositiveButton("Восстановить", new DialogInterface.OnClickListener() {
                     @Override
                     public void onClick(DialogInterface dialog, int which) {
-                        // Restore all notes
-                        for (Note note : trashNotes) {
-                            databaseHelper.restoreFromTrash(note.getId());
-                        }
+                        // Restore all notes in one transaction
+                        databaseHelper.restoreAllFromTrash();
 
                         int count = trashNotes.size();
                         trashNotes.clear();
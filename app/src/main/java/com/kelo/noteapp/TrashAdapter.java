@@ -11,7 +11,6 @@ import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.cardview.widget.CardView;
-import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.text.SimpleDateFormat;
@@ -24,6 +23,7 @@ public class TrashAdapter extends RecyclerView.Adapter<TrashAdapter.TrashViewHol
     private final Context context;
     private final List<Note> trashNotes;
     private final OnTrashListener onTrashListener;
+    private final CategoryRegistry categories;
 
     public interface OnTrashListener {
         void onRestoreClick(int position);
@@ -32,6 +32,7 @@ public class TrashAdapter extends RecyclerView.Adapter<TrashAdapter.TrashViewHol
 
     public TrashAdapter(Context context, List<Note> trashNotes, OnTrashListener onTrashListener) {
         this.context = context;
+        this.categories = CategoryRegistry.get(context);
         this.trashNotes = trashNotes;
         this.onTrashListener = onTrashListener;
     }
@@ -49,17 +50,13 @@ public class TrashAdapter extends RecyclerView.Adapter<TrashAdapter.TrashViewHol
 
         // Title & content
         holder.textTitle.setText(note.getTitle());
-        holder.textContent.setText(note.getContent());
+        holder.textContent.setText(note.isEncrypted() ? NoteAdapter.ENCRYPTED_PREVIEW : note.getPreview());
 
         // Category stripe
-        String cat = note.getCategory();
-        if (cat != null && !cat.isEmpty()) {
-            holder.categoryStripe.setVisibility(View.VISIBLE);
-            holder.textCategory.setText(displayNameFor(cat));
-            holder.categoryStripe.setBackgroundColor(colorFor(cat));
-        } else {
-            holder.categoryStripe.setVisibility(View.GONE);
-        }
+        int cat = note.getCategoryId();
+        holder.categoryStripe.setVisibility(View.VISIBLE);
+        holder.textCategory.setText(categories.nameOf(cat));
+        holder.categoryStripe.setBackgroundColor(categories.colorOf(cat));
 
         // Created date
         SimpleDateFormat sdf = new SimpleDateFormat("dd MMM yyyy", new Locale("ru"));
@@ -124,25 +121,4 @@ public class TrashAdapter extends RecyclerView.Adapter<TrashAdapter.TrashViewHol
             categoryStripe = itemView.findViewById(R.id.categoryStripe);
         }
     }
-
-    // Category helpers - UPDATED with everyday category
-    private String displayNameFor(String key) {
-        switch (key) {
-            case "work":     return "Работа";
-            case "family":   return "Семья";
-            case "errand":   return "Поручение";
-            case "personal": return "Личное";
-            case "everyday": return "Ежедневно"; // NEW
-            default:         return "Другое";
-        }
-    }
-
-    private int colorFor(String key) {
-        if ("work".equals(key))     return ContextCompat.getColor(context, R.color.category_work);
-        if ("personal".equals(key)) return ContextCompat.getColor(context, R.color.category_personal);
-        if ("family".equals(key))   return ContextCompat.getColor(context, R.color.category_family);
-        if ("errand".equals(key))   return ContextCompat.getColor(context, R.color.category_errand);
-        if ("everyday".equals(key)) return ContextCompat.getColor(context, R.color.recurring_indicator_color); // NEW - Blue color
-        return ContextCompat.getColor(context, R.color.category_other);
-    }
-}
\ No newline at end of file
+}
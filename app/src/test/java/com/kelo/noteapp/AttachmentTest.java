@@ -0,0 +1,117 @@
+package com.kelo.noteapp;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Attachments: one stored file per distinct content, reference counts that free a file only
+ * when the last note holding it is purged, and the cover shown in list rows.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AttachmentTest extends DatabaseTest {
+
+    private AttachmentStore store;
+
+    @Before
+    public void setUp() {
+        store = new AttachmentStore(context, helper);
+    }
+
+    @Test
+    public void sameContentIsStoredOnceAndFreedWithTheLastNote() throws IOException {
+        int first = add("Первая", "");
+        int second = add("Вторая", "");
+        Attachment shared = attach(first, "photo.jpg", "image/jpeg", "одни и те же байты");
+        Attachment again = attach(second, "copy.jpg", "image/jpeg", "одни и те же байты");
+        Attachment own = attach(first, "notes.txt", "text/plain", "только у первой");
+
+        assertEquals(shared.getHash(), again.getHash());
+        assertEquals(64, shared.getHash().length());
+        assertNotEquals(shared.getHash(), own.getHash());
+        assertEquals(2, helper.getAttachments(first).size());
+        assertEquals("copy.jpg", helper.getAttachments(second).get(0).getName());
+
+        // Attaching the same content to the same note again adds nothing
+        attach(first, "photo again.jpg", "image/jpeg", "одни и те же байты");
+        assertEquals(2, helper.getAttachments(first).size());
+
+        // The trash still holds its references
+        helper.moveToTrash(first);
+        assertEquals(0, store.collectGarbage());
+        assertTrue(store.fileOf(own.getHash()).exists());
+
+        // Purged: its own file goes at the next collection, not on the purging thread, and
+        // the shared one stays for the other note
+        helper.permanentlyDeleteNote(first);
+        assertTrue(store.fileOf(own.getHash()).exists());
+        assertEquals(1, store.collectGarbage());
+        assertFalse(store.fileOf(own.getHash()).exists());
+        assertTrue(store.fileOf(shared.getHash()).exists());
+
+        store.remove(second, shared.getHash());
+        assertFalse(store.fileOf(shared.getHash()).exists());
+        assertTrue(helper.getAttachments(second).isEmpty());
+    }
+
+    @Test
+    public void coverIsTheFirstImageAndStaysLocal() throws IOException {
+        int id = add("Фото", "");
+        int version = helper.getNote(id).getVersion();
+        attach(id, "doc.pdf", "application/pdf", "pdf");
+        assertNull(helper.getNote(id).getCover());
+
+        Attachment one = attach(id, "one.png", "image/png", "первая картинка");
+        Attachment two = attach(id, "two.png", "IMAGE/PNG", "вторая картинка");
+        assertEquals(one.getHash(), helper.getNote(id).getCover());
+        assertTrue(two.isImage());
+
+        // The cover survives a trip through the trash
+        helper.moveToTrash(id);
+        helper.restoreFromTrash(id);
+        assertEquals(one.getHash(), helper.getNote(id).getCover());
+        int restoredVersion = helper.getNote(id).getVersion();
+
+        store.remove(id, one.getHash());
+        assertEquals(two.getHash(), helper.getNote(id).getCover());
+        store.remove(id, two.getHash());
+        assertNull(helper.getNote(id).getCover());
+
+        // Attachments are not edits: nothing was written as a new version
+        assertEquals(version + 1, restoredVersion);
+        assertEquals(restoredVersion, helper.getNote(id).getVersion());
+    }
+
+    @Test
+    public void sweepDeletesFilesWithoutRows() throws IOException {
+        int id = add("Заметка", "");
+        Attachment kept = attach(id, "a.txt", "text/plain", "нужный файл");
+        helper.moveToTrash(id);
+        helper.permanentlyDeleteNote(id);
+        // A note gone before the attach finished keeps nothing
+        assertNull(store.attach(id, new ByteArrayInputStream(new byte[]{1, 2, 3}), "late.bin", null));
+
+        int other = add("Другая", "");
+        Attachment live = attach(other, "b.txt", "text/plain", "живой файл");
+        store.sweep();
+        assertFalse(store.fileOf(kept.getHash()).exists());
+        String[] files = store.fileOf(live.getHash()).getParentFile().list();
+        assertEquals(1, files.length);
+        assertEquals(live.getHash(), files[0]);
+        List<Attachment> attachments = helper.getAttachments(other);
+        assertEquals(1, attachments.size());
+        assertEquals(live.getHash(), attachments.get(0).getHash());
+    }
+
+    private Attachment attach(int noteId, String name, String mime, String content) throws IOException {
+        return store.attach(noteId, new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), name, mime);
+    }
+}
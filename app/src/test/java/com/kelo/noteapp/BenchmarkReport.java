@@ -0,0 +1,14 @@
+package com.kelo.noteapp;
+
+// Console output of the benchmark tests, printed only with -Dbenchmarks.report=true: the
+// default run checks their results and stays quiet
+final class BenchmarkReport {
+
+    static final boolean ENABLED = Boolean.getBoolean("benchmarks.report");
+
+    private BenchmarkReport() {}
+
+    static void print(CharSequence report) {
+        if (ENABLED) System.out.println(report);
+    }
+}
@@ -0,0 +1,108 @@
+package com.kelo.noteapp;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checklist notes: progress counters follow item writes without journaling the note, and
+ * fractional positions keep the order through repeated moves into the same gap.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ChecklistTest extends DatabaseTest {
+
+    private int noteId;
+
+    @Before
+    public void setUp() {
+        noteId = (int) helper.addNoteFromDraft(note("Покупки", "хлеб\nмолоко\n\nсыр"));
+    }
+
+    @Test
+    public void progressFollowsItemWrites() {
+        assertFalse(helper.getNote(noteId).isChecklist());
+        helper.convertToChecklist(noteId, "Покупки", Arrays.asList("хлеб\nмолоко\n\nсыр".split("\n")));
+        assertProgress(0, 3);
+
+        List<ChecklistItem> items = helper.getChecklistItems(noteId);
+        assertEquals(Arrays.asList("хлеб", "молоко", "сыр"), texts(items));
+        helper.setChecklistItemChecked(items.get(0).getId(), true);
+        helper.setChecklistItemChecked(items.get(0).getId(), true);
+        helper.setChecklistItemChecked(items.get(2).getId(), true);
+        assertProgress(2, 3);
+
+        helper.addChecklistItem(noteId, "чай");
+        helper.deleteChecklistItem(items.get(2).getId());
+        assertProgress(1, 3);
+
+        // Progress travels with the note through the trash
+        helper.moveToTrash(noteId);
+        helper.restoreFromTrash(noteId);
+        assertProgress(1, 3);
+    }
+
+    @Test
+    public void itemWritesAreNotJournaled() {
+        helper.convertToChecklist(noteId, "Покупки", Arrays.asList("хлеб", "молоко"));
+        List<NoteChange> before = helper.getChangesSince(0, 1000);
+        long seq = before.get(before.size() - 1).getSeq();
+
+        // Progress counters change without a version bump: nothing for sync to push
+        List<ChecklistItem> items = helper.getChecklistItems(noteId);
+        helper.setChecklistItemChecked(items.get(0).getId(), true);
+        helper.addChecklistItem(noteId, "чай");
+        helper.deleteChecklistItem(items.get(1).getId());
+        assertProgress(1, 2);
+        assertTrue(helper.getChangesSince(seq, 1000).isEmpty());
+    }
+
+    @Test
+    public void repeatedMovesIntoOneGapKeepOrder() {
+        helper.convertToChecklist(noteId, "Покупки", Arrays.asList("a", "b"));
+        List<ChecklistItem> items = helper.getChecklistItems(noteId);
+        int first = items.get(0).getId();
+        int second = items.get(1).getId();
+        List<String> expected = new ArrayList<>(Arrays.asList("a", "b"));
+        // Each new item is moved right after "a": the gap halves every time, past the
+        // precision of a double, which forces a renumbering on the way
+        for (int i = 0; i < 80; i++) {
+            ChecklistItem item = helper.addChecklistItem(noteId, "x" + i);
+            helper.moveChecklistItem(noteId, item.getId(), first, nextAfter(first));
+            expected.add(1, "x" + i);
+        }
+        assertEquals(expected, texts(helper.getChecklistItems(noteId)));
+
+        helper.moveChecklistItem(noteId, first, second, -1);
+        expected.remove("a");
+        expected.add("a");
+        assertEquals(expected, texts(helper.getChecklistItems(noteId)));
+    }
+
+    private int nextAfter(int id) {
+        List<ChecklistItem> items = helper.getChecklistItems(noteId);
+        for (int i = 0; i < items.size() - 1; i++) {
+            if (items.get(i).getId() == id) return items.get(i + 1).getId();
+        }
+        return -1;
+    }
+
+    private void assertProgress(int done, int total) {
+        Note note = helper.getNote(noteId);
+        assertTrue(note.isChecklist());
+        assertEquals(total, note.getItemsTotal());
+        assertEquals(done, note.getItemsDone());
+    }
+
+    private static List<String> texts(List<ChecklistItem> items) {
+        List<String> list = new ArrayList<>();
+        for (ChecklistItem item : items) list.add(item.getText());
+        return list;
+    }
+}
@@ -0,0 +1,126 @@
+package com.kelo.noteapp;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Bodies over CHUNK_CHARS: stored in pieces that read back exactly, never split inside a
+ * surrogate pair, streamed to the editor a piece at a time, and rewritten without leaving
+ * pieces of a longer version behind.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ChunkedBodyTest extends DatabaseTest {
+
+    private static final int CHUNK = DatabaseHelper.CHUNK_CHARS;
+
+    @Test
+    public void longBodiesSplitAndReassembleExactly() {
+        String body = text(new Random(7), CHUNK * 2 + CHUNK / 2);
+        List<String> pieces = DatabaseHelper.splitBody(body);
+        assertEquals(3, pieces.size());
+        for (String piece : pieces) assertTrue(piece.length() <= CHUNK);
+        assertTrue(DatabaseHelper.splitBody(body.substring(0, CHUNK)).isEmpty());
+
+        int id = add("Длинная", body);
+        assertEquals(3, chunks(id));
+        assertEquals(body, helper.getNoteContent(id));
+        assertEquals(body, helper.getNote(id).getContent());
+    }
+
+    @Test
+    public void theEditorReadsTheBodyAChunkAtATime() throws IOException {
+        String body = text(new Random(9), CHUNK * 2 + 100);
+        int id = add("Длинная", body);
+        Note meta = helper.getNoteMetadata(id);
+        assertNull(meta.getContent());
+        assertEquals("Длинная", meta.getTitle());
+
+        final List<Integer> pieces = new ArrayList<>();
+        final StringBuilder read = new StringBuilder();
+        helper.writeNoteContent(id, new Writer() {
+            @Override
+            public void write(char[] buf, int off, int len) {
+                pieces.add(len);
+                read.append(buf, off, len);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        assertEquals(3, pieces.size());
+        for (int len : pieces) assertTrue(len <= CHUNK);
+        assertEquals(body, read.toString());
+    }
+
+    @Test
+    public void surrogatePairOnABoundaryStaysWhole() {
+        // An emoji whose high half would be the last char of the first piece
+        StringBuilder sb = new StringBuilder(text(new Random(11), CHUNK - 1));
+        sb.append("😀");
+        sb.append(text(new Random(12), CHUNK / 4));
+        String body = sb.toString();
+
+        List<String> pieces = DatabaseHelper.splitBody(body);
+        assertEquals(2, pieces.size());
+        assertEquals(CHUNK - 1, pieces.get(0).length());
+        assertTrue(pieces.get(1).startsWith("😀"));
+        assertEquals(body, pieces.get(0) + pieces.get(1));
+
+        int id = add("Длинная", body);
+        assertEquals(body, helper.getNoteContent(id));
+    }
+
+    @Test
+    public void shorterBodiesLeaveNoStaleChunks() {
+        Random random = new Random(5);
+        int id = add("Длинная", text(random, CHUNK * 3 - 10));
+        assertEquals(3, chunks(id));
+
+        String shorter = text(random, CHUNK + CHUNK / 2);
+        update(id, shorter);
+        assertEquals(2, chunks(id));
+        assertEquals(shorter, helper.getNoteContent(id));
+
+        update(id, "коротко");
+        assertEquals(0, chunks(id));
+        assertEquals("коротко", helper.getNoteContent(id));
+    }
+
+    private void update(int id, String body) {
+        Note note = helper.getNote(id);
+        note.setContent(body);
+        assertEquals(1, helper.updateNote(note));
+    }
+
+    private long chunks(int id) {
+        SQLiteDatabase db = helper.getReadableDatabase();
+        long n = DatabaseUtils.queryNumEntries(db, "note_chunks", "note_id = ?", new String[]{String.valueOf(id)});
+        db.close();
+        return n;
+    }
+
+    private static String text(Random random, int chars) {
+        StringBuilder sb = new StringBuilder(chars + 16);
+        while (sb.length() < chars) {
+            sb.append("строка ").append(random.nextInt(1000)).append(random.nextInt(10) == 0 ? '\n' : ' ');
+        }
+        return sb.substring(0, chars);
+    }
+}
@@ -0,0 +1,32 @@
+package com.kelo.noteapp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Deflated bodies: read back exactly, and a cut-off blob is reported rather than read back
+ * as the part of the text that survived.
+ */
+public class ContentCodecTest {
+
+    @Test
+    public void roundTripsAndRefusesTruncatedInput() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) sb.append("строка ").append(i).append('\n');
+        String text = sb.toString();
+        byte[] packed = ContentCodec.compress(text);
+        assertEquals(text, ContentCodec.decompress(packed));
+        assertEquals("", ContentCodec.decompress(ContentCodec.compress("")));
+
+        byte[] cut = Arrays.copyOf(packed, packed.length / 2);
+        try {
+            ContentCodec.decompress(cut);
+            fail("expected a truncated blob to be refused");
+        } catch (IllegalStateException expected) {
+            // not half a note passed off as the whole one
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.kelo.noteapp;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compression harness: fills a database with long plain bodies as they were stored
+ * before compression (2k notes by default, -Dcompression.rows=N to change), runs the
+ * background recompression pass and, with -Dbenchmarks.report=true, prints file size and
+ * body read time before and after, next to the raw codec cost.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ContentCompressionBenchmarkTest extends DatabaseTest {
+
+    private static final int ROWS = Integer.getInteger("compression.rows", 2_000);
+    private static final int BODY_CHARS = 8 * 1024;
+
+    private static final String[] WORDS = {
+            "купить", "молоко", "встреча", "в", "офисе", "позвонить", "маме", "отчёт", "по", "проекту",
+            "список", "дел", "на", "неделю", "забрать", "посылку", "оплатить", "счёт", "за", "интернет",
+            "meeting", "notes", "deadline", "review", "draft", "idea", "tomorrow", "and", "the", "with",
+            "1", "2", "15", "2024", "—", "•", "важно", "срочно", "потом", "идеи"
+    };
+
+    @Test
+    public void recompressionShrinksFileAndKeepsBodies() {
+        List<String> bodies = seedPlainBodies();
+        helper.vacuum();
+        long sizeBefore = context.getDatabasePath(dbName()).length();
+        long readBefore = readAll(bodies);
+
+        long start = System.nanoTime();
+        long after = 0;
+        int batches = 0;
+        while ((after = helper.compressStoredBodies(after, 50)) > 0) batches++;
+        long passMs = (System.nanoTime() - start) / 1_000_000L;
+        helper.vacuum();
+        long sizeAfter = context.getDatabasePath(dbName()).length();
+        long readAfter = readAll(bodies);
+
+        SQLiteDatabase db = helper.getReadableDatabase();
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, "note_content",
+                "format = " + DatabaseHelper.FORMAT_TEXT + " AND length(body) >= " + DatabaseHelper.COMPRESS_MIN_CHARS));
+        db.close();
+        assertTrue(batches > 0);
+        assertTrue("file should shrink: " + sizeBefore + " -> " + sizeAfter, sizeAfter < sizeBefore);
+
+        // Codec alone, for comparison with the read time it changes
+        long compressNs = 0;
+        long decompressNs = 0;
+        for (String body : bodies) {
+            long t = System.nanoTime();
+            byte[] packed = ContentCodec.compress(body, Deflater.DEFAULT_COMPRESSION);
+            compressNs += System.nanoTime() - t;
+            t = System.nanoTime();
+            ContentCodec.decompress(packed);
+            decompressNs += System.nanoTime() - t;
+        }
+
+        BenchmarkReport.print(ROWS + " bodies of " + BODY_CHARS + " chars:" +
+                "\n  file: " + sizeBefore / 1024 + " KB -> " + sizeAfter / 1024 + " KB" +
+                "\n  read all bodies: " + readBefore + " ms plain, " + readAfter + " ms deflated" +
+                "\n  recompression pass: " + passMs + " ms in " + batches + " batches" +
+                "\n  codec only: compress " + compressNs / 1_000_000L + " ms, decompress " + decompressNs / 1_000_000L + " ms");
+    }
+
+    @Test
+    public void newWritesAreStoredDeflatedOnlyWhenLong() {
+        long smallId = add("small", "short body");
+        long largeId = add("large", randomText(new Random(1), BODY_CHARS));
+
+        SQLiteDatabase db = helper.getReadableDatabase();
+        assertEquals(DatabaseHelper.FORMAT_TEXT, format(db, smallId));
+        assertEquals(DatabaseHelper.FORMAT_DEFLATE, format(db, largeId));
+        db.close();
+        assertEquals(large.getContent(), helper.getNoteContent((int) largeId));
+        assertEquals(large.getContent(), helper.getNote((int) largeId).getContent());
+    }
+
+    // Plain rows written straight into note_content, the way pre-compression versions left them
+    private List<String> seedPlainBodies() {
+        Random random = new Random(42);
+        List<String> bodies = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            add("Note " + i, "");
+            bodies.add(randomText(random, BODY_CHARS));
+        }
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                db.execSQL("UPDATE note_content SET body = ?, format = " + DatabaseHelper.FORMAT_TEXT +
+                        " WHERE note_id = ?", new Object[]{bodies.get(i), i + 1});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+        return bodies;
+    }
+
+    private long readAll(List<String> bodies) {
+        long start = System.nanoTime();
+        for (int i = 0; i < bodies.size(); i++) {
+            assertEquals(bodies.get(i), helper.getNoteContent(i + 1));
+        }
+        return (System.nanoTime() - start) / 1_000_000L;
+    }
+
+    private static long format(SQLiteDatabase db, long noteId) {
+        return DatabaseUtils.longForQuery(db, "SELECT format FROM note_content WHERE note_id = ?",
+                new String[]{String.valueOf(noteId)});
+    }
+
+    private static String randomText(Random random, int chars) {
+        StringBuilder sb = new StringBuilder(chars + 16);
+        while (sb.length() < chars) {
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+            sb.append(random.nextInt(12) == 0 ? '\n' : ' ');
+        }
+        return sb.substring(0, chars);
+    }
+}
@@ -0,0 +1,55 @@
+package com.kelo.noteapp;
+
+import android.content.Context;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+/**
+ * Base of the tests that run against a DatabaseHelper of their own: a fresh file per test,
+ * named after the test class and deleted again afterwards, and shorthands for adding notes.
+ * A subclass's own @Before runs after the helper is open, its @After before it is closed.
+ */
+@RunWith(RobolectricTestRunner.class)
+abstract class DatabaseTest {
+
+    protected Context context;
+    protected DatabaseHelper helper;
+
+    @Before
+    public final void openDatabase() {
+        context = RuntimeEnvironment.getApplication();
+        context.deleteDatabase(dbName());
+        helper = openHelper(dbName());
+    }
+
+    @After
+    public final void closeDatabase() {
+        helper.close();
+        context.deleteDatabase(dbName());
+    }
+
+    protected String dbName() {
+        return getClass().getSimpleName() + ".db";
+    }
+
+    // Overridden to watch the helper (QueryPlanTest's CursorFactory)
+    protected DatabaseHelper openHelper(String name) {
+        return new DatabaseHelper(context, name, DbProfile.DEFAULT);
+    }
+
+    protected static Note note(String title, String content) {
+        Note note = new Note();
+        note.setTitle(title);
+        note.setContent(content);
+        note.setCreatedAt(System.currentTimeMillis());
+        return note;
+    }
+
+    protected int add(String title, String content) {
+        return (int) helper.addNote(note(title, content));
+    }
+}
@@ -0,0 +1,99 @@
+package com.kelo.noteapp;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.*;
+
+/**
+ * Editor drafts: what was autosaved comes back field for field (long bodies included), and
+ * a save of the note drops its draft unless the save lost to a newer write or the note is
+ * gone.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DraftTest extends DatabaseTest {
+
+    @Test
+    public void draftsComeBackAsSaved() {
+        int id = add("Отпуск", "");
+        helper.saveDraft(new Draft(id, "Отпуск в мае", "купить билеты", Category.WORK, 5000L, 3, 100L));
+        helper.saveDraft(new Draft(Draft.NEW_NOTE, "Новая", "", Category.PERSONAL, 0, 0, 200L));
+
+        Draft draft = helper.getDraft(id);
+        assertEquals(id, draft.getNoteId());
+        assertEquals("Отпуск в мае", draft.getTitle());
+        assertEquals("купить билеты", draft.getContent());
+        assertEquals(Category.WORK, draft.getCategoryId());
+        assertEquals(5000L, draft.getReminderTime());
+        assertEquals(3, draft.getRepeatDays());
+        assertEquals(100L, draft.getSavedAt());
+        assertEquals(Draft.hashOf("Отпуск в мае", "купить билеты", Category.WORK, 5000L, 3), draft.getHash());
+        assertEquals("Новая", helper.getDraft(Draft.NEW_NOTE).getTitle());
+
+        // A later snapshot replaces the draft; a body past the chunk size is stored in pieces
+        // and goes with the draft
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() <= DatabaseHelper.CHUNK_CHARS + 10) sb.append("длинный черновик ");
+        String longBody = sb.toString();
+        helper.saveDraft(new Draft(id, "Отпуск в мае", longBody, Category.WORK, 5000L, 3, 300L));
+        assertEquals(longBody, helper.getDraft(id).getContent());
+        assertTrue(draftChunks() > 0);
+        helper.deleteDraft(id);
+        assertNull(helper.getDraft(id));
+        assertEquals(0, draftChunks());
+        assertNotNull(helper.getDraft(Draft.NEW_NOTE));
+    }
+
+    @Test
+    public void savingTheNoteDropsItsDraft() {
+        helper.saveDraft(new Draft(Draft.NEW_NOTE, "Новая", "текст", Category.PERSONAL, 0, 0, 1L));
+        int id = (int) helper.addNoteFromDraft(note("Новая", "текст"));
+        assertNull(helper.getDraft(Draft.NEW_NOTE));
+
+        // A plain update (a reminder, a swipe) leaves the editor's draft alone
+        Note current = helper.getNote(id);
+        helper.saveDraft(new Draft(id, "Новая", "текст и ещё", Category.PERSONAL, 0, 0, 2L));
+        current.setPinned(true);
+        assertEquals(1, helper.updateNote(current));
+        assertNotNull(helper.getDraft(id));
+
+        // An editor save that lost to a newer write keeps it for the merged retry
+        Note stale = helper.getNote(id);
+        Note newer = helper.getNote(id);
+        newer.setTitle("Переименована");
+        assertEquals(1, helper.updateNote(newer));
+        stale.setContent("текст и ещё");
+        assertEquals(DatabaseHelper.UPDATE_CONFLICT, helper.updateNoteFromDraft(stale));
+        assertNotNull(helper.getDraft(id));
+
+        Note merged = helper.getNote(id);
+        merged.setContent("текст и ещё");
+        assertEquals(1, helper.updateNoteFromDraft(merged));
+        assertNull(helper.getDraft(id));
+
+        // A save to a note trashed meanwhile keeps the draft, the only copy of the edit
+        helper.saveDraft(new Draft(id, "Переименована", "после корзины", Category.PERSONAL, 0, 0, 4L));
+        Note open = helper.getNote(id);
+        helper.moveToTrash(id);
+        open.setContent("после корзины");
+        assertEquals(DatabaseHelper.UPDATE_MISSING, helper.updateNoteFromDraft(open));
+        assertEquals("после корзины", helper.getDraft(id).getContent());
+        helper.restoreFromTrash(id);
+
+        // Saved unchanged, the draft still goes
+        helper.saveDraft(new Draft(id, "Переименована", "текст и ещё", Category.PERSONAL, 0, 0, 3L));
+        assertEquals(0, helper.updateNoteFromDraft(helper.getNote(id)));
+        assertNull(helper.getDraft(id));
+    }
+
+    private long draftChunks() {
+        SQLiteDatabase db = helper.getReadableDatabase();
+        long n = DatabaseUtils.queryNumEntries(db, "draft_chunks");
+        db.close();
+        return n;
+    }
+}
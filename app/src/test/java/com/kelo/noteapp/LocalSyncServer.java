@@ -0,0 +1,189 @@
+package com.kelo.noteapp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-process stand-in for the sync server, speaking the protocol SyncEngine expects:
+ * POST /sync/push {device, notes} and GET /sync/pull?since=&limit=&device= returning
+ * {notes, next, more}. Last writer wins on updated_at; every accepted note gets a new
+ * server seq. A pull skips notes last written by the asking device. Requests without
+ * the expected bearer token are answered 401.
+ */
+class LocalSyncServer {
+
+    private static final class Entry {
+        final JSONObject note;
+        final String device;
+
+        Entry(JSONObject note, String device) {
+            this.note = note;
+            this.device = device;
+        }
+    }
+
+    private final HttpServer server;
+    private final String token;
+    // server seq -> entry; a note's older entry is removed when it is overwritten
+    private final TreeMap<Long, Entry> log = new TreeMap<>();
+    private final Map<String, Long> seqBySyncId = new HashMap<>();
+    private long seq;
+
+    private int pushRequests;
+    private int notesReceived;
+    private int failPushRequest = -1;
+
+    LocalSyncServer(String token) throws IOException {
+        this.token = token;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/sync/push", this::handlePush);
+        server.createContext("/sync/pull", this::handlePull);
+        server.start();
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+
+    // The n-th push request from now (1-based) answers 500 without storing anything
+    synchronized void failPushRequest(int n) {
+        failPushRequest = pushRequests + n;
+    }
+
+    synchronized int getNotesReceived() { return notesReceived; }
+
+    synchronized void resetCounters() { notesReceived = 0; }
+
+    synchronized int size() { return seqBySyncId.size(); }
+
+    synchronized JSONObject get(String syncId) {
+        Long s = seqBySyncId.get(syncId);
+        return s == null ? null : log.get(s).note;
+    }
+
+    private synchronized void handlePush(HttpExchange exchange) throws IOException {
+        if (!authorized(exchange)) return;
+        pushRequests++;
+        if (pushRequests == failPushRequest) {
+            exchange.getRequestBody().close();
+            exchange.sendResponseHeaders(500, -1);
+            exchange.close();
+            return;
+        }
+        try {
+            JSONObject body = new JSONObject(readBody(exchange));
+            String device = body.getString("device");
+            JSONArray notes = body.getJSONArray("notes");
+            int accepted = 0;
+            for (int i = 0; i < notes.length(); i++) {
+                JSONObject note = notes.getJSONObject(i);
+                notesReceived++;
+                String syncId = note.getString("sync_id");
+                Long current = seqBySyncId.get(syncId);
+                if (current != null && note.getLong("updated_at") <= log.get(current).note.getLong("updated_at")) {
+                    continue;
+                }
+                if (current != null) log.remove(current);
+                seq++;
+                log.put(seq, new Entry(note, device));
+                seqBySyncId.put(syncId, seq);
+                accepted++;
+            }
+            respond(exchange, new JSONObject().put("accepted", accepted));
+        } catch (JSONException e) {
+            exchange.sendResponseHeaders(400, -1);
+            exchange.close();
+        }
+    }
+
+    private synchronized void handlePull(HttpExchange exchange) throws IOException {
+        if (!authorized(exchange)) return;
+        Map<String, String> query = parseQuery(exchange.getRequestURI());
+        long since = Long.parseLong(query.get("since"));
+        int limit = Integer.parseInt(query.get("limit"));
+        String device = query.get("device");
+        try {
+            JSONArray notes = new JSONArray();
+            long next = since;
+            for (Map.Entry<Long, Entry> e : log.tailMap(since, false).entrySet()) {
+                if (notes.length() == limit) break;
+                next = e.getKey();
+                if (!e.getValue().device.equals(device)) notes.put(e.getValue().note);
+            }
+            JSONObject page = new JSONObject();
+            page.put("notes", notes);
+            page.put("next", next);
+            page.put("more", log.higherKey(next) != null);
+            respond(exchange, page);
+        } catch (JSONException e) {
+            exchange.sendResponseHeaders(500, -1);
+            exchange.close();
+        }
+    }
+
+    private boolean authorized(HttpExchange exchange) throws IOException {
+        if (("Bearer " + token).equals(exchange.getRequestHeaders().getFirst("Authorization"))) return true;
+        exchange.getRequestBody().close();
+        exchange.sendResponseHeaders(401, -1);
+        exchange.close();
+        return false;
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            in = new GZIPInputStream(in);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) > 0) out.write(buf, 0, n);
+        in.close();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void respond(HttpExchange exchange, JSONObject json) throws IOException {
+        byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+        String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        boolean gzip = accept != null && accept.contains("gzip");
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        if (gzip) exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        if (gzip) out = new GZIPOutputStream(out);
+        out.write(bytes);
+        out.close();
+    }
+
+    private static Map<String, String> parseQuery(URI uri) {
+        Map<String, String> params = new HashMap<>();
+        String raw = uri.getQuery();
+        if (raw == null) return params;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) params.put(pair.substring(0, eq), pair.substring(eq + 1));
+        }
+        return params;
+    }
+}
@@ -0,0 +1,79 @@
+package com.kelo.noteapp;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Manual note order: random drags agree with a plain list, a drag writes only the dragged
+ * row (and nothing to the change journal), and rebalancing keeps the order.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ManualOrderTest extends DatabaseTest {
+
+    @Test
+    public void dragsMatchListAndWriteOneRow() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 40; i++) {
+            Note n = note("Note " + i, "");
+            n.setCreatedAt(now + i);
+            helper.addNote(n);
+        }
+        List<Integer> expected = ids(helper.getActiveNotesByFolder(DatabaseHelper.FOLDER_MAIN));
+        // New notes go on top, as before manual ordering existed
+        assertEquals("Note 39", helper.getNote(expected.get(0)).getTitle());
+
+        Random random = new Random(5);
+        for (int step = 0; step < 300; step++) {
+            int from = random.nextInt(expected.size());
+            // Every third drag goes to the top, the end new notes also use
+            int to = step % 3 == 0 ? 0 : random.nextInt(expected.size());
+            if (from == to) continue; // a long press without a move writes nothing
+            int id = expected.remove(from);
+            expected.add(to, id);
+            int prevId = to > 0 ? expected.get(to - 1) : -1;
+            int nextId = to < expected.size() - 1 ? expected.get(to + 1) : -1;
+
+            long seq = lastChangeSeq();
+            List<Note> before = helper.getActiveNotesByFolder(DatabaseHelper.FOLDER_MAIN);
+            helper.moveNote(id, prevId, nextId);
+            List<Note> after = helper.getActiveNotesByFolder(DatabaseHelper.FOLDER_MAIN);
+
+            assertEquals(expected, ids(after));
+            assertEquals(1, changedKeys(before, after));
+            assertEquals("reordering is not journaled", seq, lastChangeSeq());
+        }
+
+        helper.rebalanceSortKeys(DatabaseHelper.FOLDER_MAIN);
+        List<Note> rebalanced = helper.getActiveNotesByFolder(DatabaseHelper.FOLDER_MAIN);
+        assertEquals(expected, ids(rebalanced));
+        for (Note n : rebalanced) assertFalse(SortKeys.needsRebalance(n.getSortKey()));
+    }
+
+    private long lastChangeSeq() {
+        List<NoteChange> changes = helper.getChangesSince(0, Integer.MAX_VALUE);
+        return changes.isEmpty() ? 0 : changes.get(changes.size() - 1).getSeq();
+    }
+
+    private static int changedKeys(List<Note> before, List<Note> after) {
+        int changed = 0;
+        for (Note a : after) {
+            for (Note b : before) {
+                if (a.getId() == b.getId() && !a.getSortKey().equals(b.getSortKey())) changed++;
+            }
+        }
+        return changed;
+    }
+
+    private static List<Integer> ids(List<Note> notes) {
+        List<Integer> list = new ArrayList<>();
+        for (Note n : notes) list.add(n.getId());
+        return list;
+    }
+}
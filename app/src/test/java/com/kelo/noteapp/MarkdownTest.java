@@ -0,0 +1,115 @@
+package com.kelo.noteapp;
+
+import android.graphics.Typeface;
+import android.os.Looper;
+import android.text.Spannable;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.StyleSpan;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Markdown: rendered previews without markers, and the editor's incremental restyling ending
+ * up exactly where a restyle of the whole text would.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MarkdownTest {
+
+    private final Markdown markdown = new Markdown(0xFF888888, 0xFF2196F3);
+
+    @Test
+    public void renderDropsMarkers() {
+        CharSequence rendered = markdown.render("# Заголовок\n- пункт **жирный**\n2. второй\n"
+                + "```\nкод *как есть*\n```\n[сайт](https://example.com) и [[Заметка]] snake_case_name");
+        assertEquals("Заголовок\n• пункт жирный\n2. второй\nкод *как есть*\nсайт и Заметка snake_case_name",
+                rendered.toString());
+
+        Spanned spanned = (Spanned) rendered;
+        int bold = rendered.toString().indexOf("жирный");
+        boolean found = false;
+        for (StyleSpan span : spanned.getSpans(bold, bold + 6, StyleSpan.class)) {
+            if (span.getStyle() == Typeface.BOLD && spanned.getSpanStart(span) == bold) found = true;
+        }
+        assertTrue(found);
+        // Nothing in a fenced block or a snake_case word is emphasis
+        int code = rendered.toString().indexOf("как есть");
+        assertEquals(0, spanned.getSpans(code, code + 1, StyleSpan.class).length);
+        int snake = rendered.toString().indexOf("case");
+        assertEquals(0, spanned.getSpans(snake, snake + 1, StyleSpan.class).length);
+    }
+
+    @Test
+    public void urlAtFindsTheLinkUnderTheCursor() {
+        String text = "см. [документацию](https://example.com/docs) выше";
+        assertEquals("https://example.com/docs", Markdown.urlAt(text, text.indexOf("документ")));
+        assertEquals("https://example.com/docs", Markdown.urlAt(text, text.indexOf("example")));
+        assertNull(Markdown.urlAt(text, 1));
+        assertNull(Markdown.urlAt("[[Заметка]]", 3));
+    }
+
+    @Test
+    public void openingAFenceRestylesEverythingBelowInSlices() {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; body.length() < 100 * 1024; i++) body.append("строка ").append(i).append(" с **жирным** и `кодом`\n");
+        SpannableStringBuilder text = editor(body.toString());
+
+        text.insert(0, "```\n");
+        // The lines just typed are styled at once, the rest follows message by message
+        assertTrue(Markdown.fenceOpenBefore(text, 4));
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(restyledWhole(text), spansOf(text));
+        assertTrue(Markdown.fenceOpenBefore(text, text.length()));
+
+        text.delete(0, 4);
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(restyledWhole(text), spansOf(text));
+        assertFalse(Markdown.fenceOpenBefore(text, text.length()));
+    }
+
+    @Test
+    public void editsMatchAWholeRestyle() {
+        SpannableStringBuilder text = editor("# Заметка\n\nтекст *курсив*\n```\nкод\n```\n- пункт\n");
+        text.replace(0, 1, "");
+        text.insert(text.toString().indexOf("код"), "```\n");
+        text.delete(text.toString().indexOf("\nтекст"), text.toString().indexOf("\nтекст") + 1);
+        text.append("```");
+        text.insert(text.toString().indexOf("пункт"), "**");
+        text.insert(text.toString().indexOf("пункт") + 5, "**");
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(restyledWhole(text), spansOf(text));
+    }
+
+    // An editable styled as a whole, then restyled by a highlighter on every change
+    private SpannableStringBuilder editor(String content) {
+        SpannableStringBuilder text = new SpannableStringBuilder(content);
+        MarkdownHighlighter highlighter = new MarkdownHighlighter(markdown);
+        highlighter.restyle(text, 0, text.length());
+        text.setSpan(highlighter, 0, text.length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+        return text;
+    }
+
+    private List<String> restyledWhole(CharSequence content) {
+        SpannableStringBuilder fresh = new SpannableStringBuilder(content.toString());
+        new MarkdownHighlighter(markdown).restyle(fresh, 0, fresh.length());
+        return spansOf(fresh);
+    }
+
+    private static List<String> spansOf(Spannable text) {
+        List<String> spans = new ArrayList<>();
+        for (Markdown.MarkdownSpan span : text.getSpans(0, text.length(), Markdown.MarkdownSpan.class)) {
+            spans.add(span.getClass().getSimpleName() + "@" + text.getSpanStart(span) + "-" + text.getSpanEnd(span));
+        }
+        Collections.sort(spans);
+        return spans;
+    }
+}
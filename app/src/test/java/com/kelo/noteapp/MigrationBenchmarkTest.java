@@ -0,0 +1,172 @@
+package com.kelo.noteapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Migration harness: builds databases as they looked at schema v1..v6, fills them
+ * with rows (2,000 by default, enough to cover every step in a normal test run) and
+ * upgrades each one to the current version. To benchmark, run with
+ * -Dmigration.rows=100000 -Dbenchmarks.report=true for the time spent per step.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MigrationBenchmarkTest {
+
+    private static final int ROWS = Integer.getInteger("migration.rows", 2_000);
+
+    // Columns each historical version added to notes, in order (v1 = initial schema)
+    private static final String[][] COLUMNS_BY_VERSION = {
+            {"id INTEGER PRIMARY KEY AUTOINCREMENT", "title TEXT NOT NULL", "content TEXT",
+                    "created_at INTEGER", "reminder_time INTEGER DEFAULT 0", "is_completed INTEGER DEFAULT 0"},
+            {"is_pinned INTEGER DEFAULT 0"},
+            {"repeat_days INTEGER DEFAULT 0"},
+            {"category TEXT DEFAULT 'personal'"},
+            {"is_deleted INTEGER DEFAULT 0", "deleted_at INTEGER DEFAULT 0"},
+            {"folder TEXT DEFAULT 'main'"},
+    };
+
+    @Test
+    public void upgradeFromEveryHistoricalVersion() {
+        Context context = RuntimeEnvironment.getApplication();
+        for (int from = 1; from <= COLUMNS_BY_VERSION.length; from++) {
+            String name = "migration_v" + from + ".db";
+            context.deleteDatabase(name);
+            createHistoricalDatabase(context.getDatabasePath(name), from);
+
+            final Map<Integer, Long> timings = new LinkedHashMap<>();
+            DatabaseHelper helper = new DatabaseHelper(context, name, DbProfile.DEFAULT);
+            helper.setMigrationListener(new DatabaseHelper.MigrationListener() {
+                @Override
+                public void onStepStarted(int toVersion, int stepIndex, int stepCount) {
+                }
+
+                @Override
+                public void onStepFinished(int toVersion, long elapsedMs) {
+                    timings.put(toVersion, elapsedMs);
+                }
+            });
+
+            long start = System.nanoTime();
+            SQLiteDatabase db = helper.getWritableDatabase();
+            long totalMs = (System.nanoTime() - start) / 1_000_000L;
+
+            assertEquals(DatabaseHelper.DATABASE_VERSION, db.getVersion());
+            assertEquals(DatabaseHelper.DATABASE_VERSION - from, timings.size());
+            // Every row survives as either a live or a trashed note, and keeps its body
+            assertEquals(ROWS, count(db, "notes") + count(db, "notes_trash"));
+            assertEquals(ROWS, count(db, "note_content"));
+            assertFalse(hasColumn(db, "notes", "content"));
+            assertFalse(hasColumn(db, "notes", "is_deleted"));
+            assertFalse(hasColumn(db, "notes_trash", "content"));
+            // Category keys became codes, in place and in the copy trashed rows went to
+            assertEquals(0, count(db, "notes WHERE typeof(category) != 'integer'"));
+            assertEquals(0, count(db, "notes_trash WHERE typeof(category) != 'integer'"));
+            if (from >= 4) assertTrue(count(db, "notes WHERE category = " + Category.SECONDARY) > 0);
+            db.close();
+            NoteStats stats = helper.getStats();
+            assertEquals(count(helper.getReadableDatabase(), "notes"), stats.getTotal());
+            assertEquals(ROWS, stats.getTotal() + stats.getTrashed());
+
+            // The highest generated id was deleted before the upgrade; it must not be reused
+            Note note = new Note();
+            note.setTitle("after upgrade");
+            note.setContent("body");
+            assertTrue(helper.addNote(note) > ROWS + 1);
+            helper.close();
+
+            StringBuilder sb = new StringBuilder("v" + from + " -> v" + DatabaseHelper.DATABASE_VERSION +
+                    " (" + ROWS + " rows): " + totalMs + " ms");
+            for (Map.Entry<Integer, Long> e : timings.entrySet()) {
+                sb.append("\n  step v").append(e.getKey()).append(": ").append(e.getValue()).append(" ms");
+            }
+            BenchmarkReport.print(sb);
+
+            context.deleteDatabase(name);
+        }
+    }
+
+    private static void createHistoricalDatabase(File file, int version) {
+        file.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        StringBuilder ddl = new StringBuilder("CREATE TABLE notes (");
+        StringBuilder columns = new StringBuilder();
+        StringBuilder params = new StringBuilder();
+        for (int v = 0; v < version; v++) {
+            for (String column : COLUMNS_BY_VERSION[v]) {
+                if (ddl.charAt(ddl.length() - 1) != '(') ddl.append(", ");
+                ddl.append(column);
+                String columnName = column.substring(0, column.indexOf(' '));
+                if (columnName.equals("id")) continue;
+                if (columns.length() > 0) {
+                    columns.append(", ");
+                    params.append(", ");
+                }
+                columns.append(columnName);
+                params.append('?');
+            }
+        }
+        db.execSQL(ddl.append(")").toString());
+
+        SQLiteStatement insert = db.compileStatement(
+                "INSERT INTO notes (" + columns + ") VALUES (" + params + ")");
+        long now = System.currentTimeMillis();
+        db.beginTransaction();
+        try {
+            for (int i = 1; i <= ROWS + 1; i++) {
+                insert.clearBindings();
+                int p = 1;
+                insert.bindString(p++, "Note " + i);
+                insert.bindString(p++, "Body of note " + i + " with some text to make it realistic.");
+                insert.bindLong(p++, now - i * 1000L);
+                insert.bindLong(p++, i % 10 == 0 ? now + i * 60_000L : 0);
+                insert.bindLong(p++, i % 4 == 0 ? 1 : 0);
+                if (version >= 2) insert.bindLong(p++, i % 50 == 0 ? 1 : 0);
+                if (version >= 3) insert.bindLong(p++, i % 20 == 0 ? 0x7F : 0);
+                if (version >= 4) insert.bindString(p++, i % 7 == 0 ? "secondary" : "personal");
+                if (version >= 5) {
+                    insert.bindLong(p++, i % 9 == 0 ? 1 : 0);
+                    insert.bindLong(p++, i % 9 == 0 ? now : 0);
+                }
+                if (version >= 6) insert.bindString(p++, "main");
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.execSQL("DELETE FROM notes WHERE id=" + (ROWS + 1));
+        db.setVersion(version);
+        db.close();
+    }
+
+    private static int count(SQLiteDatabase db, String table) {
+        Cursor c = db.rawQuery("SELECT COUNT(*) FROM " + table, null);
+        c.moveToFirst();
+        int n = c.getInt(0);
+        c.close();
+        return n;
+    }
+
+    private static boolean hasColumn(SQLiteDatabase db, String table, String column) {
+        Cursor c = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        boolean found = false;
+        while (c.moveToNext()) {
+            if (column.equals(c.getString(c.getColumnIndexOrThrow("name")))) found = true;
+        }
+        c.close();
+        return found;
+    }
+}
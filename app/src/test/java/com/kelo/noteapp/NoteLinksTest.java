@@ -0,0 +1,65 @@
+package com.kelo.noteapp;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * [[Title]] links: parsing, backlinks following body edits and the trash, and a rename
+ * rewriting the links that pointed at the old title.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NoteLinksTest extends DatabaseTest {
+
+    @Test
+    public void parsesTargets() {
+        assertEquals(Arrays.asList("План", "Отпуск"),
+                new ArrayList<>(NoteLinks.parse("см. [[План]], [[ Отпуск ]] и снова [[План]]; [[]] [[a\nb]]")));
+        assertEquals("План", NoteLinks.linkAt("x [[План]] y", 4));
+        assertNull(NoteLinks.linkAt("x [[План]] y", 0));
+        assertEquals("[[Новый план]] и [[Другое]]",
+                NoteLinks.rename("[[ план ]] и [[Другое]]", "План", "Новый план"));
+    }
+
+    @Test
+    public void backlinksFollowEditsAndRenames() {
+        int plan = add("План", "");
+        int trip = add("Поездка", "Сначала [[План]]");
+        int list = add("Список", "[[Поездка]]");
+
+        assertEquals(Arrays.asList(trip), ids(helper.getBacklinks(plan)));
+        assertEquals(plan, helper.findNoteByTitle("план"));
+        assertEquals(-1, helper.findNoteByTitle("Нет такой"));
+
+        // Editing the body moves the link from one target to another
+        Note edited = helper.getNote(list);
+        edited.setContent("[[План]] вместо поездки");
+        helper.updateNote(edited);
+        assertEquals(Arrays.asList(trip, list), ids(helper.getBacklinks(plan)));
+        assertTrue(helper.getBacklinks(trip).isEmpty());
+
+        // Trashed notes do not link anywhere
+        helper.moveToTrash(trip);
+        assertEquals(Arrays.asList(list), ids(helper.getBacklinks(plan)));
+        helper.restoreFromTrash(trip);
+
+        // A rename rewrites the linking bodies, so the backlinks stay
+        Note renamed = helper.getNote(plan);
+        renamed.setTitle("План на лето");
+        helper.updateNote(renamed);
+        assertEquals(Arrays.asList(trip, list), ids(helper.getBacklinks(plan)));
+        assertEquals("Сначала [[План на лето]]", helper.getNote(trip).getContent());
+    }
+
+    private static List<Integer> ids(List<Note> notes) {
+        List<Integer> list = new ArrayList<>();
+        for (Note n : notes) list.add(n.getId());
+        return list;
+    }
+}
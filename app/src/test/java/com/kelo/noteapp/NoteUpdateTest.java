@@ -0,0 +1,110 @@
+package com.kelo.noteapp;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.*;
+
+/**
+ * Conditional updates: a write made from a stale copy of a note is refused with
+ * UPDATE_CONFLICT and leaves the newer write in place, a write to a note that left the live
+ * list is UPDATE_MISSING, and a write sets only the columns the note changed.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NoteUpdateTest extends DatabaseTest {
+
+    @Test
+    public void staleCopyConflictsAndKeepsTheFirstWrite() {
+        int id = add("Покупки", "хлеб");
+        Note first = helper.getNote(id);
+        Note second = helper.getNote(id);
+        int version = first.getVersion();
+        assertEquals(version, second.getVersion());
+
+        first.setTitle("Покупки на неделю");
+        assertEquals(1, helper.updateNote(first));
+        assertEquals(version + 1, first.getVersion());
+
+        // The second copy was read before that write
+        second.setContent("молоко");
+        assertEquals(DatabaseHelper.UPDATE_CONFLICT, helper.updateNote(second));
+        assertEquals(version, second.getVersion());
+
+        Note stored = helper.getNote(id);
+        assertEquals("Покупки на неделю", stored.getTitle());
+        assertEquals("хлеб", stored.getContent());
+        assertEquals(version + 1, stored.getVersion());
+
+        // Re-read and retried, the change goes through on top of the first one
+        stored.setContent("молоко");
+        assertEquals(1, helper.updateNote(stored));
+        stored = helper.getNote(id);
+        assertEquals("Покупки на неделю", stored.getTitle());
+        assertEquals("молоко", stored.getContent());
+        assertEquals(version + 2, stored.getVersion());
+    }
+
+    @Test
+    public void writesToATrashedOrArchivedNoteAreMissing() {
+        int id = add("Список", "молоко");
+        Note open = helper.getNote(id);
+        helper.moveToTrash(id);
+
+        open.setContent("молоко, хлеб");
+        assertEquals(DatabaseHelper.UPDATE_MISSING, helper.updateNote(open));
+        assertEquals(DatabaseHelper.UPDATE_MISSING, helper.updateNoteFromDraft(open));
+
+        // Back from the trash, the merged retry goes through
+        assertTrue(helper.restoreNote(id));
+        Note latest = helper.getNote(id);
+        latest.setContent("молоко, хлеб");
+        assertEquals(1, helper.updateNote(latest));
+        assertEquals("молоко, хлеб", helper.getNoteContent(id));
+
+        Note done = helper.getNote(id);
+        done.setCompleted(true);
+        assertEquals(1, helper.updateNote(done));
+        helper.archiveCompletedNotes(Long.MAX_VALUE);
+        assertNull(helper.getNote(id));
+        assertTrue(helper.restoreNote(id));
+        assertNotNull(helper.getNote(id));
+
+        helper.moveToTrash(id);
+        helper.permanentlyDeleteNote(id);
+        assertFalse(helper.restoreNote(id));
+    }
+
+    @Test
+    public void onlyChangedColumnsAreWritten() throws InterruptedException {
+        int id = add("Звонки", "маме");
+        Note note = helper.getNote(id);
+        int version = note.getVersion();
+        long updatedAt = note.getUpdatedAt();
+
+        // Change columns behind the copy's back without moving the version: a full-row
+        // write from the copy would put the old values back
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.execSQL("UPDATE notes SET is_pinned = 1, reminder_time = 12345 WHERE id = ?", new Object[]{id});
+        db.close();
+
+        // Nothing changed on the copy: no write at all
+        assertEquals(0, helper.updateNote(note));
+        assertEquals(version, helper.getNote(id).getVersion());
+
+        Thread.sleep(2);
+        note.setTitle("Звонки вечером");
+        assertEquals(1, helper.updateNote(note));
+
+        Note stored = helper.getNote(id);
+        assertEquals("Звонки вечером", stored.getTitle());
+        assertEquals("маме", stored.getContent());
+        assertTrue(stored.isPinned());
+        assertEquals(12345L, stored.getReminderTime());
+        assertEquals(version + 1, stored.getVersion());
+        assertTrue(stored.getUpdatedAt() > updatedAt);
+        assertEquals(stored.getUpdatedAt(), note.getUpdatedAt());
+    }
+}
@@ -0,0 +1,225 @@
+package com.kelo.noteapp;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Query plan regression check: captures every SELECT DatabaseHelper issues against a
+ * seeded database, and the multi-row writes it reports to its StatementListener, and
+ * runs EXPLAIN QUERY PLAN on them. A statement over notes, note_content, note_tags,
+ * note_links or folders fails if it scans a table without an index or sorts through a
+ * temp B-tree, unless ALLOWLIST says why that is deliberate. Walking a recursive WITH
+ * table (subtree, trashed) is the recursion itself, not a table scan.
+ * New read and bulk write methods must be exercised in exerciseAllQueries().
+ */
+@RunWith(RobolectricTestRunner.class)
+public class QueryPlanTest extends DatabaseTest {
+
+    private static final Pattern CHECKED_TABLES =
+            Pattern.compile("\\b(notes|note_content|note_tags|note_links|folders)\\b");
+    // "SCAN notes", "SCAN n" (alias), or the older "SCAN TABLE notes AS n"
+    private static final Pattern PLAIN_SCAN = Pattern.compile("^SCAN (TABLE )?(\\w+)( AS (\\w+))?$");
+    private static final Pattern CTE_NAME = Pattern.compile("\\bWITH RECURSIVE (\\w+)\\(");
+
+    // Deliberate scans/sorts: SQL pattern -> reason. Keep this short.
+    private static final Map<Pattern, String> ALLOWLIST = new HashMap<>();
+    static {
+        ALLOWLIST.put(Pattern.compile("FROM folders\\b"),
+                "the folder tabs: a handful of rows, cheaper to read whole than to keep an index on");
+        ALLOWLIST.put(Pattern.compile("^INSERT INTO notes_trash \\(.*\\) SELECT .*, \\? FROM notes$"),
+                "moveAllToTrash: every live note goes, so reading all of notes is the job");
+        ALLOWLIST.put(Pattern.compile("^DELETE FROM notes$"),
+                "moveAllToTrash: whole-table delete, rows already copied to the trash");
+        ALLOWLIST.put(Pattern.compile("FROM trashed d JOIN notes_trash t ON t\\.id = d\\.id ORDER BY d\\.depth"),
+                "restoreTrees: parents must go back before their sub-notes; the sort is over the"
+                        + " restored trees only, and restore-all starts from every trash row");
+        ALLOWLIST.put(Pattern.compile("IN \\(SELECT id FROM notes_trash WHERE deleted_at < \\?\\)"),
+                "cleanupOldTrashNotes: daily maintenance over the trash, which has no deleted_at"
+                        + " index and is kept small by this very purge");
+    }
+
+    private final Set<String> captured = Collections.synchronizedSet(new LinkedHashSet<String>());
+
+    @Override
+    protected DatabaseHelper openHelper(String name) {
+        return new DatabaseHelper(context, name, DbProfile.DEFAULT,
+                (db, driver, editTable, query) -> {
+                    // SQLiteQuery.toString() is "SQLiteQuery: <sql>"
+                    String sql = query.toString();
+                    captured.add(sql.substring(sql.indexOf(':') + 1).trim());
+                    return new SQLiteCursor(driver, editTable, query);
+                });
+    }
+
+    @Before
+    public void setUp() {
+        DatabaseHelper.setStatementListener(captured::add);
+        seed();
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseHelper.setStatementListener(null);
+    }
+
+    @Test
+    public void noFullScansOrTempSortsOverNotes() throws IOException {
+        captured.clear();
+        exerciseAllQueries();
+        assertTrue("expected the helper's queries to be captured", captured.size() >= 10);
+
+        List<String> failures = new ArrayList<>();
+        SQLiteDatabase db = helper.getReadableDatabase();
+        for (String sql : new ArrayList<>(captured)) {
+            if (sql.startsWith("EXPLAIN") || !CHECKED_TABLES.matcher(sql).find() || isAllowed(sql)) continue;
+            Set<String> recursion = recursiveTables(sql);
+            Cursor c = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+            int detailIdx = c.getColumnIndexOrThrow("detail");
+            while (c.moveToNext()) {
+                String detail = c.getString(detailIdx);
+                Matcher scan = PLAIN_SCAN.matcher(detail);
+                boolean tableScan = scan.matches() && !recursion.contains(scan.group(2))
+                        && !recursion.contains(scan.group(4));
+                if (tableScan || detail.contains("TEMP B-TREE")) {
+                    failures.add(detail + "  <-  " + sql);
+                }
+            }
+            c.close();
+        }
+        db.close();
+        assertTrue("Query plan regressions:\n" + String.join("\n", failures), failures.isEmpty());
+    }
+
+    private boolean isAllowed(String sql) {
+        for (Pattern pattern : ALLOWLIST.keySet()) {
+            if (pattern.matcher(sql).find()) return true;
+        }
+        return false;
+    }
+
+    // Names of the statement's recursive WITH tables and the aliases it reads them under
+    private static Set<String> recursiveTables(String sql) {
+        Set<String> names = new HashSet<>();
+        Matcher cte = CTE_NAME.matcher(sql);
+        while (cte.find()) {
+            names.add(cte.group(1));
+            Matcher alias = Pattern.compile("\\b(?:FROM|JOIN) " + cte.group(1) + " (\\w+)").matcher(sql);
+            while (alias.find()) names.add(alias.group(1));
+        }
+        return names;
+    }
+
+    // Every read path of DatabaseHelper, with realistic arguments
+    private void exerciseAllQueries() throws IOException {
+        Calendar now = Calendar.getInstance();
+        List<Note> all = helper.getAllNotes();
+        helper.getNote(all.get(0).getId());
+        helper.getNoteContent(all.get(0).getId());
+        helper.writeNoteContent(all.get(0).getId(), new StringWriter());
+        helper.getRevisions(all.get(0).getId());
+        helper.getRevisionContent(all.get(0).getId(), 0);
+        helper.getCategories();
+        int tag = helper.addTag("план");
+        helper.setNoteTags(all.get(0).getId(), Collections.singleton(tag));
+        helper.getTags();
+        helper.getFolders();
+        helper.getChecklistItems(all.get(0).getId());
+        helper.getNoteTagIds(all.get(0).getId());
+        helper.readTagBitmaps();
+        helper.getAllNotesWithContent();
+        helper.getActiveNotes();
+        helper.getActiveNotesByFolder(DatabaseHelper.FOLDER_MAIN);
+        helper.getActiveNotesByFolder(DatabaseHelper.FOLDER_SECONDARY);
+        helper.getChildNotes(all.get(0).getId());
+        helper.getBacklinks(all.get(0).getId());
+        helper.findNoteByTitle(all.get(0).getTitle());
+        helper.getAttachments(all.get(0).getId());
+        helper.needsSortKeyRebalance(DatabaseHelper.FOLDER_MAIN);
+        helper.rebalanceSortKeys(DatabaseHelper.FOLDER_SECONDARY);
+        helper.getNotesByCategory(Category.WORK);
+        helper.getTrashNotes();
+        helper.getTrashCount();
+        List<Note> archived = helper.getArchivedNotes(null, 10);
+        if (!archived.isEmpty()) {
+            helper.getArchivedNotes(archived.get(archived.size() - 1), 10);
+            helper.getArchivedNoteContent(archived.get(0).getId());
+        }
+        helper.getArchiveCount();
+        helper.getStats();
+        helper.getChangesSince(0, 100);
+        helper.getNotesForSync(0, 50);
+        helper.getSyncState(all.get(0).getSyncId(), 0);
+        helper.archiveCompletedNotes(0);
+        helper.compressStoredBodies(0, 10);
+        helper.pruneRevisions(0, 50);
+        helper.getNotesCountForMonth(now.get(Calendar.YEAR), now.get(Calendar.MONTH));
+        helper.getNotesForDate(now.get(Calendar.YEAR), now.get(Calendar.MONTH), now.get(Calendar.DAY_OF_MONTH));
+        helper.getRecurringDatesForMonth(now.get(Calendar.YEAR), now.get(Calendar.MONTH));
+
+        // Bulk writes, last: trees moved by subtree, trash restores and purges
+        int parent = add("Parent", "Body of Parent");
+        int child = add("Child", "Body of Child");
+        helper.setNoteParent(child, parent);
+        helper.updateNoteFolder(parent, DatabaseHelper.FOLDER_SECONDARY);
+        helper.moveToTrash(parent);
+        helper.restoreFromTrash(parent);
+        helper.moveToTrash(parent);
+        helper.restoreAllFromTrash();
+        helper.cleanupOldTrashNotes(30);
+        helper.moveToTrash(child);
+        helper.emptyTrash();
+        helper.moveAllToTrash();
+    }
+
+    private void seed() {
+        int[] categories = {Category.WORK, Category.PERSONAL, Category.FAMILY, Category.ERRAND, Category.EVERYDAY};
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 300; i++) {
+            Note n = new Note();
+            n.setTitle("Note " + i);
+            n.setContent("Body " + i);
+            n.setCreatedAt(now - i * 60_000L);
+            n.setCategoryId(categories[i % categories.length]);
+            if (i % 3 == 0) n.setReminderTime(now + i * 3_600_000L);
+            if (i % 5 == 4) n.setRepeatDays(0x7F);
+            n.setPinned(i % 11 == 0);
+            n.setCompleted(i % 4 == 0);
+            long id = helper.addNote(n);
+            if (i % 2 == 1) helper.updateNoteFolder((int) id, DatabaseHelper.FOLDER_SECONDARY);
+            if (i % 13 == 0) helper.moveToTrash((int) id);
+        }
+        helper.archiveCompletedNotes(now + 1);
+        // Keep some completed notes in the live table as well
+        for (int i = 0; i < 20; i++) {
+            Note n = new Note();
+            n.setTitle("Done " + i);
+            n.setContent("Done body " + i);
+            n.setCreatedAt(now);
+            n.setCompleted(true);
+            helper.addNote(n);
+        }
+    }
+}
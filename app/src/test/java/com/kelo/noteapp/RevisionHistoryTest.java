@@ -0,0 +1,70 @@
+package com.kelo.noteapp;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Revision chain: every editor save is recoverable, deltas stay small next to the body,
+ * and pruning leaves the remaining revisions readable.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class RevisionHistoryTest extends DatabaseTest {
+
+    private static final int SAVES = 45;
+
+    @Test
+    public void everySaveIsRecoverableAndDeltasStaySmall() {
+        Random random = new Random(7);
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 400; i++) body.append("строка ").append(i).append(" — ").append(random.nextInt()).append('\n');
+
+        int id = (int) helper.addNoteFromDraft(note("v0", body.toString()));
+
+        List<String> versions = new ArrayList<>();
+        versions.add(body.toString());
+        for (int i = 1; i <= SAVES; i++) {
+            int at = random.nextInt(body.length());
+            body.insert(at, "правка " + i + " ");
+            if (i % 5 == 0) body.delete(0, 30);
+            Note current = helper.getNote(id);
+            current.setTitle("v" + i);
+            current.setContent(body.toString());
+            assertEquals(1, helper.updateNoteFromDraft(current));
+            versions.add(body.toString());
+        }
+
+        List<Revision> revisions = helper.getRevisions(id);
+        assertEquals(SAVES + 1, revisions.size());
+        for (Revision r : revisions) {
+            assertEquals(versions.get(r.getRev()), helper.getRevisionContent(id, r.getRev()));
+            assertEquals("v" + r.getRev(), r.getTitle());
+            if (!r.isSnapshot()) assertTrue(r.getStoredBytes() < body.length() / 10);
+        }
+        assertTrue(revisions.get(revisions.size() - 1).isSnapshot());
+
+        // Keep the newest 10 only: the oldest kept one becomes the chain's snapshot
+        assertEquals(SAVES + 1 - 10, helper.pruneRevisions(0, 10));
+        revisions = helper.getRevisions(id);
+        assertEquals(10, revisions.size());
+        assertTrue(revisions.get(revisions.size() - 1).isSnapshot());
+        for (Revision r : revisions) {
+            assertEquals(versions.get(r.getRev()), helper.getRevisionContent(id, r.getRev()));
+        }
+    }
+
+    @Test
+    public void deltaRoundTripsMovesAndSurrogates() {
+        String base = "первый абзац с текстом\n\nвторой абзац 😀 с эмодзи и ещё текст\n\nтретий абзац в конце";
+        String target = "третий абзац в конце\n\nпервый абзац с текстом\n\nвставка 😀\n\nвторой абзац 😀 с эмодзи";
+        assertEquals(target, RevisionDelta.apply(base, RevisionDelta.encode(base, target)));
+        assertEquals("", RevisionDelta.apply(base, RevisionDelta.encode(base, "")));
+        assertEquals(target, RevisionDelta.apply("", RevisionDelta.encode(null, target)));
+    }
+}
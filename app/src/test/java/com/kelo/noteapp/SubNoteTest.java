@@ -0,0 +1,98 @@
+package com.kelo.noteapp;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sub-notes: the cached subtree counters follow inserts, completions, re-parenting and the
+ * trash at every level, a note cannot be moved under its own descendant, and folder badges
+ * count only the notes on the tab itself.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SubNoteTest extends DatabaseTest {
+
+    @Test
+    public void countersFollowTheTree() {
+        int root = add("Ремонт", 0);
+        int kitchen = add("Кухня", root);
+        int paint = add("Покрасить", kitchen);
+        int tiles = add("Плитка", kitchen);
+        int bath = add("Ванная", root);
+        assertCounts(root, 4, 0);
+        assertCounts(kitchen, 2, 0);
+
+        // Only the root is on the tab; children come in their own order, newest on top
+        assertEquals(1, helper.getActiveNotesByFolder(DatabaseHelper.FOLDER_MAIN).size());
+        assertEquals(tiles, helper.getChildNotes(kitchen).get(0).getId());
+
+        Note n = helper.getNote(paint);
+        n.setCompleted(true);
+        helper.updateNoteCompleted(n);
+        assertCounts(kitchen, 2, 1);
+        assertCounts(root, 4, 1);
+
+        // Moving a branch updates both the old and the new ancestors
+        assertFalse(helper.setNoteParent(kitchen, paint));
+        assertTrue(helper.setNoteParent(kitchen, bath));
+        assertCounts(bath, 2, 1);
+        assertCounts(root, 4, 1);
+
+        // The trash takes the whole branch and gives it back
+        helper.moveToTrash(kitchen);
+        assertEquals(3, helper.getTrashNotes().size());
+        assertCounts(bath, 0, 0);
+        assertCounts(root, 1, 0);
+        helper.restoreFromTrash(kitchen);
+        assertCounts(kitchen, 2, 1);
+        assertCounts(root, 4, 1);
+
+        // A branch whose parent is gone for good comes back on the top level, with the
+        // branch that was trashed below it
+        helper.moveToTrash(kitchen);
+        helper.moveToTrash(root);
+        helper.permanentlyDeleteNote(root);
+        helper.restoreAllFromTrash();
+        assertEquals(0, helper.getNote(bath).getParentId());
+        assertEquals(bath, helper.getNote(kitchen).getParentId());
+        assertCounts(bath, 3, 1);
+    }
+
+    @Test
+    public void folderBadgesCountOnlyTopLevelNotes() {
+        int root = add("Поездка", 0);
+        int tickets = add("Билеты", root);
+        add("Отель", root);
+        assertEquals(1, activeOnTab());
+
+        // Taking a sub-note out to the top level puts it on the badge, hanging it back takes it off
+        assertTrue(helper.setNoteParent(tickets, 0));
+        assertEquals(2, activeOnTab());
+        assertTrue(helper.setNoteParent(tickets, root));
+        assertEquals(1, activeOnTab());
+
+        Note n = helper.getNote(root);
+        n.setCompleted(true);
+        helper.updateNoteCompleted(n);
+        assertEquals(0, activeOnTab());
+        assertEquals(3, helper.getStats().getFolderCount(DatabaseHelper.FOLDER_MAIN));
+    }
+
+    private int activeOnTab() {
+        return helper.getStats().getActiveInFolder(DatabaseHelper.FOLDER_MAIN);
+    }
+
+    private int add(String title, int parentId) {
+        Note note = note(title, "");
+        note.setParentId(parentId);
+        return (int) helper.addNote(note);
+    }
+
+    private void assertCounts(int id, int descendants, int done) {
+        Note n = helper.getNote(id);
+        assertEquals(descendants, n.getDescendants());
+        assertEquals(done, n.getDescendantsDone());
+    }
+}
@@ -0,0 +1,195 @@
+package com.kelo.noteapp;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Two devices (separate databases and preferences) syncing through LocalSyncServer.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SyncEngineTest {
+
+    private static final String TOKEN = "s3cret";
+
+    private Context context;
+    private LocalSyncServer server;
+    private DatabaseHelper dbA;
+    private DatabaseHelper dbB;
+    private SyncEngine syncA;
+    private SyncEngine syncB;
+
+    @Before
+    public void setUp() throws IOException {
+        context = RuntimeEnvironment.getApplication();
+        server = new LocalSyncServer(TOKEN);
+        dbA = openDevice("a");
+        dbB = openDevice("b");
+        syncA = new SyncEngine(dbA, server.url(), TOKEN, prefs("a"));
+        syncB = new SyncEngine(dbB, server.url(), TOKEN, prefs("b"));
+    }
+
+    @After
+    public void tearDown() {
+        dbA.close();
+        dbB.close();
+        context.deleteDatabase("sync_a.db");
+        context.deleteDatabase("sync_b.db");
+        server.stop();
+    }
+
+    @Test
+    public void devicesConvergeAndEchoesAreNotPushedBack() throws IOException {
+        addNote(dbA, "A1");
+        addNote(dbA, "A2");
+        addNote(dbB, "B1");
+
+        assertEquals(2, syncA.sync().pushed);
+        SyncEngine.Result b = syncB.sync();
+        assertEquals(1, b.pushed);
+        assertEquals(2, b.pulled);
+        assertEquals(1, syncA.sync().pulled);
+
+        assertEquals(titles(dbA), titles(dbB));
+        assertEquals(3, dbA.getStats().getTotal());
+
+        // Notes that arrived from the server are not sent back
+        SyncEngine.Result again = syncA.sync();
+        assertEquals(0, again.pushed);
+        assertEquals(0, syncB.sync().pushed);
+    }
+
+    @Test
+    public void deltaPushSendsOnlyChangedNotes() throws IOException {
+        for (int i = 0; i < 150; i++) addNote(dbA, "Note " + i);
+        syncA.sync();
+        assertEquals(150, server.size());
+
+        server.resetCounters();
+        Note note = dbA.getAllNotes().get(7);
+        dbA.updateNotePinned(note.getId(), true);
+        dbA.updateNoteFolder(note.getId(), DatabaseHelper.FOLDER_SECONDARY);
+        assertEquals(1, syncA.sync().pushed);
+        assertEquals(1, server.getNotesReceived());
+    }
+
+    @Test
+    public void laterEditWins() throws Exception {
+        addNote(dbA, "original");
+        syncA.sync();
+        syncB.sync();
+
+        Note onA = dbA.getAllNotes().get(0);
+        onA.setTitle("edited on A");
+        dbA.updateNote(onA);
+        Thread.sleep(5);
+        Note onB = dbB.getAllNotes().get(0);
+        onB.setTitle("edited on B");
+        dbB.updateNote(onB);
+
+        syncB.sync();
+        syncA.sync();
+        syncB.sync();
+        assertEquals("edited on B", dbA.getAllNotes().get(0).getTitle());
+        assertEquals("edited on B", dbB.getAllNotes().get(0).getTitle());
+        assertEquals("edited on B", server.get(onA.getSyncId()).getString("title"));
+    }
+
+    @Test
+    public void deletionTravelsAndLaterEditRestores() throws Exception {
+        addNote(dbA, "shared");
+        syncA.sync();
+        syncB.sync();
+
+        dbA.moveToTrash(dbA.getAllNotes().get(0).getId());
+        syncA.sync();
+        syncB.sync();
+        assertEquals(0, dbB.getAllNotes().size());
+        assertEquals(1, dbB.getTrashCount());
+
+        // Restoring is a newer edit than the deletion, so it comes back everywhere
+        Thread.sleep(5);
+        dbB.restoreFromTrash(dbB.getTrashNotes().get(0).getId());
+        syncB.sync();
+        syncA.sync();
+        assertEquals(1, dbA.getAllNotes().size());
+        assertEquals(0, dbA.getTrashCount());
+        assertEquals("shared", dbA.getNote(dbA.getAllNotes().get(0).getId()).getContent());
+    }
+
+    @Test
+    public void interruptedSyncResumesWithoutResending() throws IOException {
+        for (int i = 0; i < 250; i++) addNote(dbA, "Note " + i);
+
+        server.failPushRequest(2);
+        try {
+            syncA.sync();
+            fail("expected the injected server error");
+        } catch (IOException expected) {
+            // first batch of the full push went through
+        }
+        assertEquals(SyncEngine.BATCH_SIZE, server.size());
+
+        syncA.sync();
+        assertEquals(250, server.size());
+        // The rejected batch is resent; the accepted one before it is not
+        assertEquals(250, server.getNotesReceived());
+
+        // The other device pulls everything in pages
+        assertEquals(250, syncB.sync().pulled);
+        assertEquals(250, dbB.getStats().getTotal());
+    }
+
+    @Test
+    public void requestsWithoutTheTokenAreRefused() throws IOException {
+        addNote(dbA, "A1");
+        SyncEngine stranger = new SyncEngine(dbA, server.url(), "guess", prefs("a"));
+        try {
+            stranger.sync();
+            fail("expected the server to refuse the token");
+        } catch (IOException expected) {
+            // nothing stored, and the push cursor did not move
+        }
+        assertEquals(0, server.size());
+        assertEquals(1, syncA.sync().pushed);
+        assertEquals(1, server.size());
+    }
+
+    private DatabaseHelper openDevice(String name) {
+        context.deleteDatabase("sync_" + name + ".db");
+        prefs(name).edit().clear().commit();
+        return new DatabaseHelper(context, "sync_" + name + ".db", DbProfile.DEFAULT);
+    }
+
+    private SharedPreferences prefs(String name) {
+        return context.getSharedPreferences("sync_prefs_" + name, Context.MODE_PRIVATE);
+    }
+
+    private static void addNote(DatabaseHelper db, String title) {
+        Note n = new Note();
+        n.setTitle(title);
+        n.setContent(title);
+        n.setCreatedAt(System.currentTimeMillis());
+        db.addNote(n);
+    }
+
+    private static List<String> titles(DatabaseHelper db) {
+        List<String> titles = new ArrayList<>();
+        for (Note n : db.getAllNotes()) titles.add(n.getTitle());
+        Collections.sort(titles);
+        return titles;
+    }
+}
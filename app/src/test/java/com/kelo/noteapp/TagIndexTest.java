@@ -0,0 +1,122 @@
+package com.kelo.noteapp;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tag filters: bitmap set operations agree with plain sets, and the incrementally updated
+ * index answers the same as one rebuilt from note_tags.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class TagIndexTest extends DatabaseTest {
+
+    @Test
+    public void bitmapOperationsMatchSets() {
+        Random random = new Random(3);
+        // Sparse and dense groups, some spanning several 65536-id blocks
+        for (int round = 0; round < 40; round++) {
+            int range = round % 2 == 0 ? 9000 : 200000;
+            Set<Integer> a = randomSet(random, range), b = randomSet(random, range);
+            IdBitmap x = bitmapOf(a), y = bitmapOf(b);
+
+            Set<Integer> expected = new HashSet<>(a);
+            expected.retainAll(b);
+            assertBitmap(expected, IdBitmap.and(x, y));
+            expected = new HashSet<>(a);
+            expected.addAll(b);
+            assertBitmap(expected, IdBitmap.or(x, y));
+            expected = new HashSet<>(a);
+            expected.removeAll(b);
+            assertBitmap(expected, IdBitmap.andNot(x, y));
+
+            for (int id : b) {
+                x.remove(id);
+                a.remove(id);
+            }
+            assertBitmap(a, x);
+        }
+    }
+
+    @Test
+    public void incrementalIndexMatchesRebuild() {
+        int work = helper.addTag("работа");
+        int home = helper.addTag("дом");
+        int urgent = helper.addTag("срочно");
+        assertEquals(work, helper.addTag("  РАБОТА "));
+
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 30; i++) ids.add((int) helper.addNoteFromDraft(note("n" + i, "")));
+        // Build the index before tagging, so everything after goes through the incremental path
+        assertTrue(match(Collections.singleton(work), none(), none()).isEmpty());
+        for (int i = 0; i < ids.size(); i++) {
+            Set<Integer> tags = new HashSet<>();
+            if (i % 2 == 0) tags.add(work);
+            if (i % 3 == 0) tags.add(home);
+            if (i % 5 == 0) tags.add(urgent);
+            helper.setNoteTags(ids.get(i), tags);
+        }
+        helper.setNoteTags(ids.get(0), Collections.singleton(home));
+
+        List<List<Integer>> live = allFilters(work, home, urgent);
+        TagIndex.invalidate(helper.getDatabaseName());
+        assertEquals(live, allFilters(work, home, urgent));
+
+        // work AND NOT urgent: even ids except multiples of 5 (and 0, retagged)
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 1; i < ids.size(); i++) if (i % 2 == 0 && i % 5 != 0) expected.add(ids.get(i));
+        assertEquals(expected, match(Collections.singleton(work), none(), Collections.singleton(urgent)));
+    }
+
+    private List<List<Integer>> allFilters(int work, int home, int urgent) {
+        List<List<Integer>> results = new ArrayList<>();
+        results.add(match(Arrays.asList(work, home), none(), none()));
+        results.add(match(none(), Arrays.asList(home, urgent), none()));
+        results.add(match(Collections.singleton(work), Arrays.asList(home, urgent), Collections.singleton(home)));
+        results.add(match(none(), none(), Collections.singleton(work)));
+        return results;
+    }
+
+    private List<Integer> match(Collection<Integer> all, Collection<Integer> any, Collection<Integer> none) {
+        TagIndex.Match m = TagIndex.filter(helper, all, any, none);
+        List<Integer> out = new ArrayList<>();
+        for (Note note : helper.getActiveNotes()) if (m.matches(note.getId())) out.add(note.getId());
+        Collections.sort(out);
+        return out;
+    }
+
+    private static Collection<Integer> none() {
+        return Collections.emptySet();
+    }
+
+    private static Set<Integer> randomSet(Random random, int range) {
+        Set<Integer> set = new HashSet<>();
+        int n = random.nextInt(12000);
+        for (int i = 0; i < n; i++) set.add(random.nextInt(range));
+        return set;
+    }
+
+    private static IdBitmap bitmapOf(Set<Integer> set) {
+        IdBitmap b = new IdBitmap();
+        for (int id : set) b.add(id);
+        return b;
+    }
+
+    private static void assertBitmap(Set<Integer> expected, IdBitmap actual) {
+        assertEquals(expected.size(), actual.cardinality());
+        int[] ids = actual.toArray();
+        for (int i = 1; i < ids.length; i++) assertTrue(ids[i - 1] < ids[i]);
+        for (int id : ids) assertTrue(expected.contains(id));
+    }
+}